@@ -3,6 +3,8 @@ CREATE TABLE ofUser (
   username              VARCHAR2(64)     NOT NULL,
   storedKey             VARCHAR(32),
   serverKey             VARCHAR(32),
+  storedKeySha256       VARCHAR(64),
+  serverKeySha256       VARCHAR(64),
   salt                  VARCHAR(32),
   iterations            INTEGER,
   plainPassword         VARCHAR2(32),
@@ -370,7 +372,7 @@ INSERT INTO ofID (idType, id) VALUES (23, 1);
 INSERT INTO ofID (idType, id) VALUES (26, 2);
 INSERT INTO ofID (idType, id) VALUES (27, 1);
 
-INSERT INTO ofVersion (name, version) VALUES ('openfire', 30);
+INSERT INTO ofVersion (name, version) VALUES ('openfire', 31);
 
 -- Entry for admin user
 INSERT INTO ofUser (username, plainPassword, name, email, creationDate, modificationDate)
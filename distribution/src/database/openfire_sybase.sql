@@ -2,6 +2,8 @@ CREATE TABLE ofUser (
   username              NVARCHAR(64)    NOT NULL,
   storedKey             VARCHAR(32)     NULL,
   serverKey             VARCHAR(32)     NULL,
+  storedKeySha256       VARCHAR(64)     NULL,
+  serverKeySha256       VARCHAR(64)     NULL,
   salt                  VARCHAR(32)     NULL,
   iterations            INTEGER         NULL,
   plainPassword         NVARCHAR(32)    NULL,
@@ -375,7 +377,7 @@ INSERT INTO ofID (idType, id) VALUES (23, 1)
 INSERT INTO ofID (idType, id) VALUES (26, 2)
 INSERT INTO ofID (idType, id) VALUES (27, 1)
 
-INSERT INTO ofVersion (name, version) VALUES ('openfire', 30)
+INSERT INTO ofVersion (name, version) VALUES ('openfire', 31)
 
 /* Entry for admin user */
 INSERT INTO ofUser (username, plainPassword, name, email, creationDate, modificationDate)
@@ -0,0 +1,5 @@
+// add columns for SASL SCRAM-SHA-256
+ALTER TABLE ofUser ADD COLUMN storedKeySha256 VARCHAR(64);
+ALTER TABLE ofUser ADD COLUMN serverKeySha256 VARCHAR(64);
+
+UPDATE ofVersion SET version = 31 WHERE name = 'openfire';
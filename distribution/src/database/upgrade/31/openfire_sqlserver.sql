@@ -0,0 +1,5 @@
+// add columns for SASL SCRAM-SHA-256
+ALTER TABLE ofUser ADD storedKeySha256 VARCHAR(64);
+ALTER TABLE ofUser ADD serverKeySha256 VARCHAR(64);
+
+UPDATE ofVersion SET version = 31 WHERE name = 'openfire';
@@ -27,6 +27,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.MissingResourceException;
@@ -54,8 +55,8 @@ public class DbConnectionManager {
     private static ConnectionProvider connectionProvider;
     private static final Object providerLock = new Object();
 
-    // True if connection profiling is turned on. Always false by default.
-    private static boolean profilingEnabled = false;
+    // True if connection profiling is turned on. False by default.
+    private static volatile boolean profilingEnabled = false;
 
     // True if the database support transactions.
     private static boolean transactionsSupported;
@@ -76,8 +77,12 @@ public class DbConnectionManager {
     /** The char used to quote identifiers */
     private static String identifierQuoteString;
 
+    /** The maximum number of rows that {@link #executeBatch} sends to the database at once. */
+    public static final int MAX_BATCH_SIZE = 500;
+
     private static final String SETTING_DATABASE_MAX_RETRIES = "database.maxRetries";
     private static final String SETTING_DATABASE_RETRY_DELAY = "database.retryDelay";
+    private static final String SETTING_DATABASE_PROFILING = "database.profiling";
 
     private static DatabaseType databaseType = DatabaseType.unknown;
 
@@ -108,6 +113,12 @@ public class DbConnectionManager {
             } else {
                 setConnectionProvider(new DefaultConnectionProvider());
             }
+
+            // Profiling is cheap enough to remain enabled across restarts when an admin turned it on.
+            if (JiveGlobals.getXMLProperty(SETTING_DATABASE_PROFILING, false)) {
+                ProfiledConnection.start();
+                profilingEnabled = true;
+            }
         }
     }
 
@@ -168,6 +179,7 @@ public class DbConnectionManager {
         boolean loopIfNoConnection = false;
         do {
             try {
+                final long start = System.nanoTime();
                 Connection con = connectionProvider.getConnection();
                 if (con != null) {
                     // Got one, lets hand it off.
@@ -177,6 +189,7 @@ public class DbConnectionManager {
                     if (!profilingEnabled) {
                         return con;
                     } else {
+                        ProfiledConnection.addConnectionWait(System.nanoTime() - start);
                         return new ProfiledConnection(con); 
                     }
                 }
@@ -619,6 +632,74 @@ public class DbConnectionManager {
         }
     }
 
+    /**
+     * Sets the parameters of a prepared statement for one row of a batch.
+     *
+     * @param <T> the type of the rows.
+     * @see #executeBatch(Connection, String, Collection, BatchParameterSetter)
+     */
+    @FunctionalInterface
+    public interface BatchParameterSetter<T> {
+
+        /**
+         * Sets the parameters of the statement to the values of a row.
+         *
+         * @param pstmt the statement.
+         * @param row the row.
+         * @throws SQLException if a parameter could not be set.
+         */
+        void setParameters(PreparedStatement pstmt, T row) throws SQLException;
+    }
+
+    /**
+     * Executes an insert, update or delete statement once for every row of a collection, using
+     * a single prepared statement. The rows are sent to the database in batches of at most
+     * {@link #MAX_BATCH_SIZE} rows, or one by one if the JDBC driver doesn't support batch updates.
+     * The statement is executed on the given connection, so that the caller decides whether the
+     * rows are part of a transaction. Example:
+     *
+     * <pre>
+     * DbConnectionManager.executeBatch(con, "DELETE FROM blah WHERE id=?", ids,
+     *     (pstmt, id) -&gt; pstmt.setLong(1, id));</pre>
+     *
+     * @param con the connection.
+     * @param sql the statement to execute.
+     * @param rows the rows for which to execute the statement.
+     * @param setter sets the parameters of the statement for a row.
+     * @param <T> the type of the rows.
+     * @throws SQLException if the statement could not be executed.
+     */
+    public static <T> void executeBatch(Connection con, String sql, Collection<? extends T> rows,
+            BatchParameterSetter<? super T> setter) throws SQLException
+    {
+        if (rows.isEmpty()) {
+            return;
+        }
+        PreparedStatement pstmt = null;
+        try {
+            pstmt = con.prepareStatement(sql);
+            int batchSize = 0;
+            for (final T row : rows) {
+                setter.setParameters(pstmt, row);
+                if (!batchUpdatesSupported) {
+                    pstmt.executeUpdate();
+                    continue;
+                }
+                pstmt.addBatch();
+                if (++batchSize == MAX_BATCH_SIZE) {
+                    pstmt.executeBatch();
+                    batchSize = 0;
+                }
+            }
+            if (batchSize > 0) {
+                pstmt.executeBatch();
+            }
+        }
+        finally {
+            closeStatement(pstmt);
+        }
+    }
+
     /**
      * Returns the current connection provider. The only case in which this
      * method should be called is if more information about the current
@@ -822,7 +903,8 @@ public class DbConnectionManager {
      * @param con the connection.
      * @throws SQLException if an SQL exception occurs.
      */
-    private static void setMetaData(Connection con) throws SQLException {
+    /* Exposed for test use only */
+    static void setMetaData(Connection con) throws SQLException {
         DatabaseMetaData metaData = con.getMetaData();
         // Supports transactions?
         transactionsSupported = metaData.supportsTransactions();
@@ -928,6 +1010,8 @@ public class DbConnectionManager {
      * statistics by using the static methods of the ProfiledConnection
      * class.
      *
+     * The setting is stored, so that profiling remains enabled after a restart.
+     *
      * @param enable true to enable profiling; false to disable.
      */
     public static void setProfilingEnabled(boolean enable) {
@@ -940,6 +1024,7 @@ public class DbConnectionManager {
             ProfiledConnection.stop();
         }
         profilingEnabled = enable;
+        JiveGlobals.setXMLProperty(SETTING_DATABASE_PROFILING, Boolean.toString(enable));
     }
 
     public static boolean isTransactionsSupported() {
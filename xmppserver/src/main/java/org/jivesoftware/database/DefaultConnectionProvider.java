@@ -62,6 +62,12 @@ public class DefaultConnectionProvider implements ConnectionProvider {
      */
     private double connectionTimeout = 0.5;
 
+    /**
+     * Maximum number of prepared statements that are kept open for reuse, per pooled connection.
+     * Zero disables statement caching.
+     */
+    private int statementCacheSize = 50;
+
     /**
      * MySQL doesn't currently support Unicode. However, a workaround is
      * implemented in the mm.mysql JDBC driver. Setting the Jive property
@@ -104,7 +110,17 @@ public class DefaultConnectionProvider implements ConnectionProvider {
             throw new RuntimeException("Unable to find JDBC driver " + driver, e);
         }
 
-        final ConnectionFactory connectionFactory = new DriverManagerConnectionFactory(serverURL, username, password);
+        final ConnectionFactory driverConnectionFactory = new DriverManagerConnectionFactory(serverURL, username, password);
+        final ConnectionFactory connectionFactory;
+        if (statementCacheSize > 0) {
+            // Closing a statement returns it to a cache of its connection, so that preparing the same SQL again is cheap.
+            // DBCP's own statement pooling is not used, as it keeps the maximum number of rows of a returned statement.
+            final int maxOpenPreparedStatements = statementCacheSize;
+            connectionFactory = () -> ResettingPoolingConnection.create(driverConnectionFactory.createConnection(), maxOpenPreparedStatements);
+        }
+        else {
+            connectionFactory = driverConnectionFactory;
+        }
         final PoolableConnectionFactory poolableConnectionFactory = new PoolableConnectionFactory(connectionFactory, null);
         poolableConnectionFactory.setValidationQuery(testSQL);
         poolableConnectionFactory.setValidationQueryTimeout(testTimeout);
@@ -389,6 +405,26 @@ public class DefaultConnectionProvider implements ConnectionProvider {
         this.testAfterUse = testAfterUse;
     }
 
+    /**
+     * Returns the maximum number of prepared statements that are kept open for reuse, per pooled connection.
+     *
+     * @return the statement cache size, or zero if statements are not cached.
+     */
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of prepared statements that are kept open for reuse, per pooled connection.
+     * The new size is used when the pool is restarted.
+     *
+     * @param statementCacheSize the statement cache size, or zero to disable statement caching.
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = Math.max(0, statementCacheSize);
+        saveProperties();
+    }
+
     public boolean isMysqlUseUnicode() {
         return mysqlUseUnicode;
     }
@@ -412,6 +448,7 @@ public class DefaultConnectionProvider implements ConnectionProvider {
         timeBetweenEvictionRuns = JiveGlobals.getXMLProperty("database.defaultProvider.timeBetweenEvictionRuns", (int) (30 * JiveConstants.SECOND));
         minIdleTime = JiveGlobals.getXMLProperty("database.defaultProvider.minIdleTime", (int) (15 * JiveConstants.MINUTE));
         maxWaitTime = JiveGlobals.getXMLProperty("database.defaultProvider.maxWaitTime", (int) JiveConstants.SECOND / 2);
+        statementCacheSize = Math.max(0, JiveGlobals.getXMLProperty("database.defaultProvider.statementCacheSize", 50));
 
         // See if we should use Unicode under MySQL
         mysqlUseUnicode = Boolean.valueOf(JiveGlobals.getXMLProperty("database.mysql.useUnicode"));
@@ -448,6 +485,7 @@ public class DefaultConnectionProvider implements ConnectionProvider {
         JiveGlobals.setXMLProperty("database.defaultProvider.timeBetweenEvictionRuns", String.valueOf(timeBetweenEvictionRuns));
         JiveGlobals.setXMLProperty("database.defaultProvider.minIdleTime", String.valueOf(minIdleTime));
         JiveGlobals.setXMLProperty("database.defaultProvider.maxWaitTime", String.valueOf(maxWaitTime));
+        JiveGlobals.setXMLProperty("database.defaultProvider.statementCacheSize", String.valueOf(statementCacheSize));
 
         JiveGlobals.setXMLProperty("database.defaultProvider.minConnections", Integer.toString(minConnections));
         JiveGlobals.setXMLProperty("database.defaultProvider.maxConnections", Integer.toString(maxConnections));
@@ -12,8 +12,13 @@
 package org.jivesoftware.database;
 
 import java.sql.*;
-import java.util.Hashtable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Wraps a Connection object and collects statistics about the database queries
@@ -22,6 +27,13 @@ import java.util.Map;
  * Statistics of the profiled Connections can be obtained from the static
  * methods of this class. Instances of this class are the actual wrappers that
  * perform profiling.
+ * <p>
+ * Statistics are kept per SQL statement, keyed by the exact text of the statement,
+ * in counters and histograms that are updated without locking. That keeps the
+ * overhead of profiling low enough to leave it enabled in production. As statements
+ * that are not prepared can contain literal values, the number of distinct statements
+ * that are tracked per type of query is limited; additional statements only count
+ * towards the totals of their type.
  *
  * @author Jive Software
  */
@@ -51,48 +63,30 @@ public class ProfiledConnection extends AbstractConnection {
 
     }
 
-    private static long startInsertTime = 0;
-    private static long startUpdateTime = 0;
-    private static long startSelectTime = 0;
-    private static long startDeleteTime = 0;
-
-    private static long endInsertTime = 0;
-    private static long endUpdateTime = 0;
-    private static long endSelectTime = 0;
-    private static long endDeleteTime = 0;
-
-    private static long insertCount = 0;
-    private static long updateCount = 0;
-    private static long selectCount = 0;
-    private static long deleteCount = 0;
-
-    private static long totalInsertTime = 0;
-    private static long totalUpdateTime = 0;
-    private static long totalSelectTime = 0;
-    private static long totalDeleteTime = 0;
-
-    private static Map<String, ProfiledConnectionEntry> insertQueries =
-            new Hashtable<String, ProfiledConnectionEntry>();
-    private static Map<String, ProfiledConnectionEntry> updateQueries =
-            new Hashtable<String, ProfiledConnectionEntry>();
-    private static Map<String, ProfiledConnectionEntry> selectQueries =
-            new Hashtable<String, ProfiledConnectionEntry>();
-    private static Map<String, ProfiledConnectionEntry> deleteQueries =
-            new Hashtable<String, ProfiledConnectionEntry>();
+    /**
+     * The maximum number of distinct statements that are tracked per type of query.
+     */
+    private static final int MAX_STATEMENTS_PER_TYPE = 500;
+
+    private static volatile long startTime = 0;
+    private static volatile long endTime = 0;
+
+    private static volatile Map<Type, QueryStatistics> statistics = createStatistics();
+    private static volatile LatencyHistogram connectionWait = new LatencyHistogram();
 
     /**
      * Start profiling.
      */
     public static void start() {
-        long now = System.currentTimeMillis();
-        startInsertTime = startUpdateTime = startSelectTime = startDeleteTime = now;
+        startTime = System.currentTimeMillis();
+        endTime = 0;
     }
 
     /**
      * Stop profiling.
      */
     public static void stop() {
-        endInsertTime = endUpdateTime = endSelectTime = endDeleteTime = 0;
+        endTime = System.currentTimeMillis();
     }
 
     /**
@@ -104,18 +98,7 @@ public class ProfiledConnection extends AbstractConnection {
      * @return the number queries of type {@code type} performed.
      */
     public static long getQueryCount(Type type) {
-        switch (type) {
-            case select:
-                return selectCount;
-            case update:
-                return updateCount;
-            case insert:
-                return insertCount;
-            case delete:
-                return deleteCount;
-            default:
-                throw new IllegalArgumentException("Invalid type");
-        }
+        return statistics.get(type).total.getCount();
     }
 
     /**
@@ -126,61 +109,45 @@ public class ProfiledConnection extends AbstractConnection {
      * @param time the length of time the query took in milliseconds
      */
     public static void addQuery(Type type, String sql, long time) {
+        addQueryNanos(type, sql, TimeUnit.MILLISECONDS.toNanos(time));
+    }
+
+    /**
+     * Adds a query.
+     *
+     * @param type the type of the query.
+     * @param sql the sql string.
+     * @param nanos the length of time the query took in nanoseconds
+     */
+    private static void addQueryNanos(Type type, String sql, long nanos) {
         // Do nothing if we didn't receive a sql statement
-        if (sql == null || sql.equals("")) {
+        if (sql == null || sql.isEmpty()) {
             return;
         }
+        statistics.get(type).add(sql, nanos);
+    }
 
-        // clean up sql to insert spaces after every ','
-        sql = reformatQuery(sql);
-
-        // remove values from query
-        sql = removeQueryValues(sql);
-
-        ProfiledConnectionEntry entry;
-        switch (type) {
-            case select:
-                selectCount++;
-                totalSelectTime += time;
-                entry = selectQueries.get(sql);
-                if (entry == null) {
-                    entry = new ProfiledConnectionEntry(sql);
-                    selectQueries.put(sql, entry);
-                }
-                break;
-            case update:
-                updateCount++;
-                totalUpdateTime += time;
-                entry = updateQueries.get(sql);
-                if (entry == null) {
-                    entry = new ProfiledConnectionEntry(sql);
-                    updateQueries.put(sql, entry);
-                }
-                break;
-            case insert:
-                insertCount++;
-                totalInsertTime += time;
-                entry = insertQueries.get(sql);
-                if (entry == null) {
-                    entry = new ProfiledConnectionEntry(sql);
-                    insertQueries.put(sql, entry);
-                }
-                break;
-            case delete:
-                deleteCount++;
-                totalDeleteTime += time;
-                entry = deleteQueries.get(sql);
-                if (entry == null) {
-                    entry = new ProfiledConnectionEntry(sql);
-                    deleteQueries.put(sql, entry);
-                }
-                break;
-            default:
-                throw new IllegalArgumentException("Invalid type");
+    /**
+     * Adds a query that was not prepared, so that its literal values are part of the sql string. The values are
+     * replaced with '?' so that executions that only differ in their values are tracked as one statement.
+     *
+     * @param sql the sql string.
+     * @param nanos the length of time the query took in nanoseconds
+     */
+    private static void addStatementQueryNanos(String sql, long nanos) {
+        if (sql == null || sql.isEmpty()) {
+            return;
         }
+        addQueryNanos(getType(sql), removeQueryValues(sql), nanos);
+    }
 
-        entry.count++;
-        entry.totalTime += time;
+    /**
+     * Records the time that it took to obtain a connection from the connection provider.
+     *
+     * @param nanos the length of time it took to obtain a connection in nanoseconds
+     */
+    static void addConnectionWait(long nanos) {
+        connectionWait.record(nanos);
     }
 
     /**
@@ -194,45 +161,21 @@ public class ProfiledConnection extends AbstractConnection {
      *         second.
      */
     public static double getQueriesPerSecond(Type type) {
-        long count, start, end;
-
-        switch (type) {
-            case select:
-                count = selectCount;
-                start = startSelectTime;
-                end = endSelectTime;
-                break;
-            case update:
-                count = updateCount;
-                start = startUpdateTime;
-                end = endUpdateTime;
-                break;
-            case insert:
-                count = insertCount;
-                start = startInsertTime;
-                end = endInsertTime;
-                break;
-            case delete:
-                count = deleteCount;
-                start = startDeleteTime;
-                end = endDeleteTime;
-                break;
-            default:
-                throw new IllegalArgumentException("Invalid type");
-        }
+        final long count = getQueryCount(type);
         // if no queries yet, return 0;
         if (count == 0) {
             return 0;
         }
         // If the profiling hasn't been stopped yet, we want to give
         // profiling values up to the current time instead.
+        long end = endTime;
         if (end == 0) {
             end = System.currentTimeMillis();
         }
         // Compute the number of seconds
-        double time = (end - start) / 1000.0;
+        double time = (end - startTime) / 1000.0;
         // Finally, return the average.
-        return count / time;
+        return time <= 0 ? 0 : count / time;
     }
 
     /**
@@ -244,31 +187,10 @@ public class ProfiledConnection extends AbstractConnection {
      *         of query.
      */
     public static double getAverageQueryTime(Type type) {
-        long time, count;
-
-        switch (type) {
-            case select:
-                count = selectCount;
-                time = totalSelectTime;
-                break;
-            case update:
-                count = updateCount;
-                time = totalUpdateTime;
-                break;
-            case insert:
-                count = insertCount;
-                time = totalInsertTime;
-                break;
-            case delete:
-                count = deleteCount;
-                time = totalDeleteTime;
-                break;
-            default:
-                throw new IllegalArgumentException("Invalid type");
-        }
-
+        final LatencyHistogram total = statistics.get(type).total;
+        final long count = total.getCount();
         if (count != 0) {
-            return time / (double)count;
+            return total.getTotal() / 1000d / count;
         }
         else {
             return 0.0;
@@ -285,18 +207,7 @@ public class ProfiledConnection extends AbstractConnection {
      *         query.
      */
     public static long getTotalQueryTime(Type type) {
-        switch (type) {
-            case select:
-                return totalSelectTime;
-            case update:
-                return totalUpdateTime;
-            case insert:
-                return totalInsertTime;
-            case delete:
-                return totalDeleteTime;
-            default:
-                throw new IllegalArgumentException("Invalid type");
-        }
+        return statistics.get(type).total.getTotal() / 1000;
     }
 
     /**
@@ -308,89 +219,73 @@ public class ProfiledConnection extends AbstractConnection {
      * @return an array of ProfiledConnectionEntry objects
      */
     public static ProfiledConnectionEntry[] getSortedQueries(Type type, boolean sortByTime) {
-        Map<String, ProfiledConnectionEntry> queries;
-
-        switch (type) {
-            case select:
-                queries = selectQueries;
-                break;
-            case update:
-                queries = updateQueries;
-                break;
-            case insert:
-                queries = insertQueries;
-                break;
-            case delete:
-                queries = deleteQueries;
-                break;
-            default:
-                throw new IllegalArgumentException("Invalid type");
-        }
+        final List<ProfiledConnectionEntry> result = statistics.get(type).getEntries();
 
         // No queries, return null
-        if (queries.isEmpty()) {
+        if (result.isEmpty()) {
             return null;
         }
 
-        ProfiledConnectionEntry [] result = queries.values().toArray(
-                new ProfiledConnectionEntry[queries.size()]);
-
-        quickSort(result, sortByTime, 0, result.length - 1);
-        return result;
+        if (sortByTime) {
+            result.sort(Comparator.comparingDouble(ProfiledConnectionEntry::getAverageTime).reversed());
+        }
+        else {
+            result.sort(Comparator.comparingLong(ProfiledConnectionEntry::getCount).reversed());
+        }
+        return result.toArray(new ProfiledConnectionEntry[0]);
     }
 
-
     /**
-     * Reset all statistics.
+     * Returns the queries of all types on which the most time was spent.
+     *
+     * @param max the maximum number of queries to return.
+     * @return the queries, in descending order of total time spent executing them.
      */
-    public static void resetStatistics() {
-        startInsertTime = startUpdateTime = startSelectTime = startDeleteTime = 0;
-        endInsertTime = endUpdateTime = endSelectTime = endDeleteTime = 0;
-        insertCount = updateCount = selectCount = deleteCount = 0;
-        totalInsertTime = totalUpdateTime = totalSelectTime = totalDeleteTime = 0;
-
-        insertQueries.clear();
-        updateQueries.clear();
-        selectQueries.clear();
-        deleteQueries.clear();
+    public static List<ProfiledConnectionEntry> getTopQueries(int max) {
+        final List<ProfiledConnectionEntry> result = new ArrayList<>();
+        for (final QueryStatistics queryStatistics : statistics.values()) {
+            result.addAll(queryStatistics.getEntries());
+        }
+        result.sort(Comparator.comparingLong(ProfiledConnectionEntry::getTotalTime).reversed());
+        return result.size() > max ? new ArrayList<>(result.subList(0, max)) : result;
     }
 
     /**
-     * @param entries    entries
-     * @param sortByTime sort by time if true, otherwise sort by count
-     * @param first      first index to sort on. Normally 0
-     * @param last       last index to sort on. Normally length -1
+     * Returns statistics of the time it took to obtain connections from the connection
+     * provider, which includes waiting for a connection of a pool to become available.
+     *
+     * @return the connection wait statistics.
      */
-    private static void quickSort(ProfiledConnectionEntry[] entries, boolean sortByTime, int first, int last) {
-
-        // do nothing if array contains fewer than two elements
-        if (first >= last || entries.length < 2) {
-            return;
-        }
-
-        swap(entries, first, (first + last) / 2);
+    public static ProfiledConnectionEntry getConnectionWait() {
+        return new ProfiledConnectionEntry(null, connectionWait);
+    }
 
-        int index = first;
-        for (int i = first + 1; i <= last; i++) {
-            if (sortByTime && ((entries[first].totalTime / entries[first].count) < (entries[i].totalTime / entries[i].count))) {
-                swap(entries, ++index, i);
-            }
-            else if (!sortByTime && entries[first].count < entries[i].count) {
-                swap(entries, ++index, i);
-            }
-        }
-        swap(entries, first, index);
-        quickSort(entries, sortByTime, first, index - 1);
-        quickSort(entries, sortByTime, index + 1, last);
+    /**
+     * Reset all statistics.
+     */
+    public static void resetStatistics() {
+        startTime = System.currentTimeMillis();
+        endTime = 0;
+        statistics = createStatistics();
+        connectionWait = new LatencyHistogram();
     }
 
-    private static void swap(Object[] list, int i, int j) {
-        Object tmp = list[i];
-        list[i] = list[j];
-        list[j] = tmp;
+    private static Map<Type, QueryStatistics> createStatistics() {
+        final Map<Type, QueryStatistics> result = new EnumMap<>(Type.class);
+        for (final Type type : Type.values()) {
+            result.put(type, new QueryStatistics());
+        }
+        return result;
     }
 
-    private static String removeQueryValues(String _sql) {
+    /**
+     * Replaces the literal values that follow an '=' in a sql string with '?'.
+     *
+     * @param _sql the sql string.
+     * @return the sql string without its values.
+     */
+    /* Exposed for test use only */
+    static String removeQueryValues(String _sql) {
         int length = _sql.length();
 
         if (_sql.indexOf("=") == -1) {
@@ -562,21 +457,57 @@ public class ProfiledConnection extends AbstractConnection {
         return sql.toString();
     }
 
-    private static String reformatQuery(String _sql) {
-        int length = _sql.length();
-        int charAdded = 0;
-        StringBuilder sql = new StringBuilder(_sql);
-
-        for (int x = 0; x < length; x++) {
-            char c = _sql.charAt(x);
+    /**
+     * Determines the type of a query from its first keyword, without creating new strings.
+     *
+     * @param sql the sql string.
+     * @return the type of the query.
+     */
+    static Type getType(String sql) {
+        int offset = 0;
+        while (offset < sql.length() && Character.isWhitespace(sql.charAt(offset))) {
+            offset++;
+        }
+        if (sql.regionMatches(true, offset, "insert", 0, 6)) {
+            return Type.insert;
+        }
+        else if (sql.regionMatches(true, offset, "update", 0, 6)) {
+            return Type.update;
+        }
+        else if (sql.regionMatches(true, offset, "delete", 0, 6)) {
+            return Type.delete;
+        }
+        else {
+            return Type.select;
+        }
+    }
 
-            if (c == ',' && x < length - 1 && _sql.charAt(x + 1) != ' ') {
-                sql.replace(x + charAdded, x + 1 + charAdded, ", ");
-                charAdded++;
+    /**
+     * The statistics of one type of query.
+     */
+    private static class QueryStatistics {
+        private final LatencyHistogram total = new LatencyHistogram();
+        private final Map<String, LatencyHistogram> statements = new ConcurrentHashMap<>();
+
+        void add(String sql, long nanos) {
+            total.record(nanos);
+            LatencyHistogram histogram = statements.get(sql);
+            if (histogram == null) {
+                if (statements.size() >= MAX_STATEMENTS_PER_TYPE) {
+                    return;
+                }
+                histogram = statements.computeIfAbsent(sql, s -> new LatencyHistogram());
             }
+            histogram.record(nanos);
         }
 
-        return sql.toString();
+        List<ProfiledConnectionEntry> getEntries() {
+            final List<ProfiledConnectionEntry> result = new ArrayList<>(statements.size());
+            for (final Map.Entry<String, LatencyHistogram> entry : statements.entrySet()) {
+                result.add(new ProfiledConnectionEntry(entry.getKey(), entry.getValue()));
+            }
+            return result;
+        }
     }
 
     //--------------------- Connection Wrapping Code ---------------------//
@@ -647,72 +578,23 @@ public class ProfiledConnection extends AbstractConnection {
         }
 
         public boolean execute(String sql) throws SQLException {
-
-            long t1 = System.currentTimeMillis();
+            long t1 = System.nanoTime();
             boolean result = stmt.execute(sql);
-            long t2 = System.currentTimeMillis();
-
-            // determine the type of query
-            String sqlL = sql.toLowerCase().trim();
-
-            if (sqlL.startsWith("insert")) {
-                addQuery(Type.insert, sql, t2 - t1);
-            }
-            else if (sqlL.startsWith("update")) {
-                addQuery(Type.update, sql, t2 - t1);
-            }
-            else if (sqlL.startsWith("delete")) {
-                addQuery(Type.delete, sql, t2 - t1);
-            }
-            else {
-                addQuery(Type.select, sql, t2 - t1);
-            }
+            addStatementQueryNanos(sql, System.nanoTime() - t1);
             return result;
         }
 
         public ResultSet executeQuery(String sql) throws SQLException {
-            long t1 = System.currentTimeMillis();
+            long t1 = System.nanoTime();
             ResultSet result = stmt.executeQuery(sql);
-            long t2 = System.currentTimeMillis();
-
-            // determine the type of query
-            String sqlL = sql.toLowerCase().trim();
-
-            if (sqlL.startsWith("insert")) {
-                addQuery(Type.insert, sql, t2 - t1);
-            }
-            else if (sqlL.startsWith("update")) {
-                addQuery(Type.update, sql, t2 - t1);
-            }
-            else if (sqlL.startsWith("delete")) {
-                addQuery(Type.delete, sql, t2 - t1);
-            }
-            else {
-                addQuery(Type.select, sql, t2 - t1);
-            }
+            addStatementQueryNanos(sql, System.nanoTime() - t1);
             return result;
         }
 
         public int executeUpdate(String sql) throws SQLException {
-            long t1 = System.currentTimeMillis();
+            long t1 = System.nanoTime();
             int result = stmt.executeUpdate(sql);
-            long t2 = System.currentTimeMillis();
-
-            // determine the type of query
-            String sqlL = sql.toLowerCase().trim();
-
-            if (sqlL.startsWith("insert")) {
-                addQuery(Type.insert, sql, t2 - t1);
-            }
-            else if (sqlL.startsWith("update")) {
-                addQuery(Type.update, sql, t2 - t1);
-            }
-            else if (sqlL.startsWith("delete")) {
-                addQuery(Type.delete, sql, t2 - t1);
-            }
-            else {
-                addQuery(Type.select, sql, t2 - t1);
-            }
+            addStatementQueryNanos(sql, System.nanoTime() - t1);
             return result;
         }
     }
@@ -725,49 +607,19 @@ public class ProfiledConnection extends AbstractConnection {
     class TimedPreparedStatement extends PreparedStatementWrapper {
 
         private String sql;
-        private Type type = Type.select;
+        private Type type;
 
         public TimedPreparedStatement(PreparedStatement pstmt, String sql) {
             super(pstmt);
             this.sql = sql;
-
-            // determine the type of query
-            String sqlL = sql.toLowerCase().trim();
-
-            if (sqlL.startsWith("insert")) {
-                type = Type.insert;
-            }
-            else if (sqlL.startsWith("update")) {
-                type = Type.update;
-            }
-            else if (sqlL.startsWith("delete")) {
-                type = Type.delete;
-            }
-            else {
-                type = Type.select;
-            }
+            this.type = getType(sql);
         }
 
         public boolean execute() throws SQLException {
             // Perform timing of this method.
-            long t1 = System.currentTimeMillis();
+            long t1 = System.nanoTime();
             boolean result = pstmt.execute();
-            long t2 = System.currentTimeMillis();
-
-            switch (type) {
-                case select:
-                    addQuery(Type.select, sql, t2 - t1);
-                    break;
-                case update:
-                    addQuery(Type.update, sql, t2 - t1);
-                    break;
-                case insert:
-                    addQuery(Type.insert, sql, t2 - t1);
-                    break;
-                case delete:
-                    addQuery(Type.delete, sql, t2 - t1);
-                    break;
-            }
+            addQueryNanos(type, sql, System.nanoTime() - t1);
             return result;
         }
 
@@ -775,25 +627,9 @@ public class ProfiledConnection extends AbstractConnection {
          * This is one of the methods that we wish to time
          */
         public ResultSet executeQuery() throws SQLException {
-
-            long t1 = System.currentTimeMillis();
+            long t1 = System.nanoTime();
             ResultSet result = pstmt.executeQuery();
-            long t2 = System.currentTimeMillis();
-
-            switch (type) {
-                case select:
-                    addQuery(Type.select, sql, t2 - t1);
-                    break;
-                case update:
-                    addQuery(Type.update, sql, t2 - t1);
-                    break;
-                case insert:
-                    addQuery(Type.insert, sql, t2 - t1);
-                    break;
-                case delete:
-                    addQuery(Type.delete, sql, t2 - t1);
-                    break;
-            }
+            addQueryNanos(type, sql, System.nanoTime() - t1);
             return result;
         }
 
@@ -801,25 +637,9 @@ public class ProfiledConnection extends AbstractConnection {
          * This is one of the methods that we wish to time
          */
         public int executeUpdate() throws SQLException {
-
-            long t1 = System.currentTimeMillis();
+            long t1 = System.nanoTime();
             int result = pstmt.executeUpdate();
-            long t2 = System.currentTimeMillis();
-
-            switch (type) {
-                case select:
-                    addQuery(Type.select, sql, t2 - t1);
-                    break;
-                case update:
-                    addQuery(Type.update, sql, t2 - t1);
-                    break;
-                case insert:
-                    addQuery(Type.insert, sql, t2 - t1);
-                    break;
-                case delete:
-                    addQuery(Type.delete, sql, t2 - t1);
-                    break;
-            }
+            addQueryNanos(type, sql, System.nanoTime() - t1);
             return result;
         }
 
@@ -828,96 +648,30 @@ public class ProfiledConnection extends AbstractConnection {
         // without these this class won't compile
 
         public boolean execute(String _sql) throws SQLException {
-
-            long t1 = System.currentTimeMillis();
+            long t1 = System.nanoTime();
             boolean result = pstmt.execute(_sql);
-            long t2 = System.currentTimeMillis();
-
-            // determine the type of query
-            String sqlL = _sql.toLowerCase().trim();
-
-            if (sqlL.startsWith("insert")) {
-                addQuery(Type.insert, _sql, t2 - t1);
-            }
-            else if (sqlL.startsWith("update")) {
-                addQuery(Type.update, _sql, t2 - t1);
-            }
-            else if (sqlL.startsWith("delete")) {
-                addQuery(Type.delete, _sql, t2 - t1);
-            }
-            else {
-                addQuery(Type.select, _sql, t2 - t1);
-            }
+            addStatementQueryNanos(_sql, System.nanoTime() - t1);
             return result;
         }
 
         public int[] executeBatch() throws SQLException {
-
-            long t1 = System.currentTimeMillis();
+            long t1 = System.nanoTime();
             int[] result = pstmt.executeBatch();
-            long t2 = System.currentTimeMillis();
-
-            switch (type) {
-                case select:
-                    addQuery(Type.select, sql, t2 - t1);
-                    break;
-                case update:
-                    addQuery(Type.update, sql, t2 - t1);
-                    break;
-                case insert:
-                    addQuery(Type.insert, sql, t2 - t1);
-                    break;
-                case delete:
-                    addQuery(Type.delete, sql, t2 - t1);
-                    break;
-            }
+            addQueryNanos(type, sql, System.nanoTime() - t1);
             return result;
         }
 
         public ResultSet executeQuery(String _sql) throws SQLException {
-            long t1 = System.currentTimeMillis();
+            long t1 = System.nanoTime();
             ResultSet result = pstmt.executeQuery(_sql);
-            long t2 = System.currentTimeMillis();
-
-            // determine the type of query
-            String sqlL = _sql.toLowerCase().trim();
-
-            if (sqlL.startsWith("insert")) {
-                addQuery(Type.insert, _sql, t2 - t1);
-            }
-            else if (sqlL.startsWith("update")) {
-                addQuery(Type.update, _sql, t2 - t1);
-            }
-            else if (sqlL.startsWith("delete")) {
-                addQuery(Type.delete, _sql, t2 - t1);
-            }
-            else {
-                addQuery(Type.select, _sql, t2 - t1);
-            }
+            addStatementQueryNanos(_sql, System.nanoTime() - t1);
             return result;
         }
 
         public int executeUpdate(String _sql) throws SQLException {
-
-            long t1 = System.currentTimeMillis();
+            long t1 = System.nanoTime();
             int result = pstmt.executeUpdate(_sql);
-            long t2 = System.currentTimeMillis();
-
-            // determine the type of query
-            String sqlL = _sql.toLowerCase().trim();
-
-            if (sqlL.startsWith("insert")) {
-                addQuery(Type.insert, _sql, t2 - t1);
-            }
-            else if (sqlL.startsWith("update")) {
-                addQuery(Type.update, _sql, t2 - t1);
-            }
-            else if (sqlL.startsWith("delete")) {
-                addQuery(Type.delete, _sql, t2 - t1);
-            }
-            else {
-                addQuery(Type.select, _sql, t2 - t1);
-            }
+            addStatementQueryNanos(_sql, System.nanoTime() - t1);
             return result;
         }
     }
@@ -930,49 +684,19 @@ public class ProfiledConnection extends AbstractConnection {
     class TimedCallableStatement extends CallableStatementWrapper {
 
         private String sql;
-        private Type type = Type.select;
+        private Type type;
 
         public TimedCallableStatement(CallableStatement cstmt, String sql) {
             super(cstmt);
             this.sql = sql;
-
-            // determine the type of query
-            String sqlL = sql.toLowerCase().trim();
-
-            if (sqlL.startsWith("insert")) {
-                type = Type.insert;
-            }
-            else if (sqlL.startsWith("update")) {
-                type = Type.update;
-            }
-            else if (sqlL.startsWith("delete")) {
-                type = Type.delete;
-            }
-            else {
-                type = Type.select;
-            }
+            this.type = getType(sql);
         }
 
         public boolean execute() throws SQLException {
             // Perform timing of this method.
-            long t1 = System.currentTimeMillis();
+            long t1 = System.nanoTime();
             boolean result = cstmt.execute();
-            long t2 = System.currentTimeMillis();
-
-            switch (type) {
-                case select:
-                    addQuery(Type.select, sql, t2 - t1);
-                    break;
-                case update:
-                    addQuery(Type.update, sql, t2 - t1);
-                    break;
-                case insert:
-                    addQuery(Type.insert, sql, t2 - t1);
-                    break;
-                case delete:
-                    addQuery(Type.delete, sql, t2 - t1);
-                    break;
-            }
+            addQueryNanos(type, sql, System.nanoTime() - t1);
             return result;
         }
 
@@ -980,25 +704,9 @@ public class ProfiledConnection extends AbstractConnection {
          * This is one of the methods that we wish to time
          */
         public ResultSet executeQuery() throws SQLException {
-
-            long t1 = System.currentTimeMillis();
+            long t1 = System.nanoTime();
             ResultSet result = cstmt.executeQuery();
-            long t2 = System.currentTimeMillis();
-
-            switch (type) {
-                case select:
-                    addQuery(Type.select, sql, t2 - t1);
-                    break;
-                case update:
-                    addQuery(Type.update, sql, t2 - t1);
-                    break;
-                case insert:
-                    addQuery(Type.insert, sql, t2 - t1);
-                    break;
-                case delete:
-                    addQuery(Type.delete, sql, t2 - t1);
-                    break;
-            }
+            addQueryNanos(type, sql, System.nanoTime() - t1);
             return result;
         }
 
@@ -1006,25 +714,9 @@ public class ProfiledConnection extends AbstractConnection {
          * This is one of the methods that we wish to time
          */
         public int executeUpdate() throws SQLException {
-
-            long t1 = System.currentTimeMillis();
+            long t1 = System.nanoTime();
             int result = cstmt.executeUpdate();
-            long t2 = System.currentTimeMillis();
-
-            switch (type) {
-                case select:
-                    addQuery(Type.select, sql, t2 - t1);
-                    break;
-                case update:
-                    addQuery(Type.update, sql, t2 - t1);
-                    break;
-                case insert:
-                    addQuery(Type.insert, sql, t2 - t1);
-                    break;
-                case delete:
-                    addQuery(Type.delete, sql, t2 - t1);
-                    break;
-            }
+            addQueryNanos(type, sql, System.nanoTime() - t1);
             return result;
         }
 
@@ -1033,96 +725,30 @@ public class ProfiledConnection extends AbstractConnection {
         // without these this class won't compile
 
         public boolean execute(String _sql) throws SQLException {
-
-            long t1 = System.currentTimeMillis();
+            long t1 = System.nanoTime();
             boolean result = cstmt.execute(_sql);
-            long t2 = System.currentTimeMillis();
-
-            // determine the type of query
-            String sqlL = _sql.toLowerCase().trim();
-
-            if (sqlL.startsWith("insert")) {
-                addQuery(Type.insert, _sql, t2 - t1);
-            }
-            else if (sqlL.startsWith("update")) {
-                addQuery(Type.update, _sql, t2 - t1);
-            }
-            else if (sqlL.startsWith("delete")) {
-                addQuery(Type.delete, _sql, t2 - t1);
-            }
-            else {
-                addQuery(Type.select, _sql, t2 - t1);
-            }
+            addStatementQueryNanos(_sql, System.nanoTime() - t1);
             return result;
         }
 
         public int[] executeBatch() throws SQLException {
-
-            long t1 = System.currentTimeMillis();
+            long t1 = System.nanoTime();
             int[] result = cstmt.executeBatch();
-            long t2 = System.currentTimeMillis();
-
-            switch (type) {
-                case select:
-                    addQuery(Type.select, sql, t2 - t1);
-                    break;
-                case update:
-                    addQuery(Type.update, sql, t2 - t1);
-                    break;
-                case insert:
-                    addQuery(Type.insert, sql, t2 - t1);
-                    break;
-                case delete:
-                    addQuery(Type.delete, sql, t2 - t1);
-                    break;
-            }
+            addQueryNanos(type, sql, System.nanoTime() - t1);
             return result;
         }
 
         public ResultSet executeQuery(String _sql) throws SQLException {
-            long t1 = System.currentTimeMillis();
+            long t1 = System.nanoTime();
             ResultSet result = cstmt.executeQuery(_sql);
-            long t2 = System.currentTimeMillis();
-
-            // determine the type of query
-            String sqlL = _sql.toLowerCase().trim();
-
-            if (sqlL.startsWith("insert")) {
-                addQuery(Type.insert, _sql, t2 - t1);
-            }
-            else if (sqlL.startsWith("update")) {
-                addQuery(Type.update, _sql, t2 - t1);
-            }
-            else if (sqlL.startsWith("delete")) {
-                addQuery(Type.delete, _sql, t2 - t1);
-            }
-            else {
-                addQuery(Type.select, _sql, t2 - t1);
-            }
+            addStatementQueryNanos(_sql, System.nanoTime() - t1);
             return result;
         }
 
         public int executeUpdate(String _sql) throws SQLException {
-
-            long t1 = System.currentTimeMillis();
+            long t1 = System.nanoTime();
             int result = cstmt.executeUpdate(_sql);
-            long t2 = System.currentTimeMillis();
-
-            // determine the type of query
-            String sqlL = _sql.toLowerCase().trim();
-
-            if (sqlL.startsWith("insert")) {
-                addQuery(Type.insert, _sql, t2 - t1);
-            }
-            else if (sqlL.startsWith("update")) {
-                addQuery(Type.update, _sql, t2 - t1);
-            }
-            else if (sqlL.startsWith("delete")) {
-                addQuery(Type.delete, _sql, t2 - t1);
-            }
-            else {
-                addQuery(Type.select, _sql, t2 - t1);
-            }
+            addStatementQueryNanos(_sql, System.nanoTime() - t1);
             return result;
         }
     }
@@ -12,7 +12,8 @@
 package org.jivesoftware.database;
 
 /**
- * Simple class for tracking profiling stats for individual SQL queries.
+ * Simple class for tracking profiling stats for individual SQL queries. Instances are snapshots of
+ * the statistics at the moment that they were obtained from {@link ProfiledConnection}.
  *
  * @author Jive Software
  */
@@ -25,16 +26,73 @@ public class ProfiledConnectionEntry {
     /**
      * Number of times the query has been executed.
      */
-    public int count;
+    public long count;
 
     /**
      * The total time spent executing the query (in milliseconds).
      */
-    public int totalTime;
+    public long totalTime;
+
+    /**
+     * The median time spent executing the query (in milliseconds).
+     */
+    public double medianTime;
+
+    /**
+     * The 99th percentile of the time spent executing the query (in milliseconds).
+     */
+    public double percentile99Time;
+
+    /**
+     * The longest time spent executing the query (in milliseconds).
+     */
+    public double maxTime;
 
     public ProfiledConnectionEntry(String sql) {
         this.sql = sql;
         count = 0;
         totalTime = 0;
     }
+
+    ProfiledConnectionEntry(String sql, LatencyHistogram histogram) {
+        this.sql = sql;
+        count = histogram.getCount();
+        totalTime = histogram.getTotal() / 1000;
+        medianTime = histogram.getPercentile(50) / 1000d;
+        percentile99Time = histogram.getPercentile(99) / 1000d;
+        maxTime = histogram.getMax() / 1000d;
+    }
+
+    /**
+     * Returns the average time spent executing the query.
+     *
+     * @return the average time, in milliseconds.
+     */
+    public double getAverageTime() {
+        return count == 0 ? 0 : totalTime / (double) count;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    public double getMedianTime() {
+        return medianTime;
+    }
+
+    public double getPercentile99Time() {
+        return percentile99Time;
+    }
+
+    public double getMaxTime() {
+        return maxTime;
+    }
 }
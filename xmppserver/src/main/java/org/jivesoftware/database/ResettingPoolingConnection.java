@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.database;
+
+import org.apache.commons.dbcp2.DelegatingPreparedStatement;
+import org.apache.commons.dbcp2.PStmtKey;
+import org.apache.commons.dbcp2.PoolingConnection;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
+import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
+
+import java.sql.Connection;
+
+/**
+ * A connection that keeps its prepared statements open for reuse, like the connections that DBCP creates when
+ * statement pooling is enabled. Unlike those, a statement that is returned to the pool gets back the maximum number
+ * of rows and the fetch size that it had when it was created. Otherwise a statement that was used to load a page of
+ * results (see {@link DbConnectionManager#limitRowsAndFetchSize(java.sql.PreparedStatement, int, int)}) would
+ * silently truncate the results of the next query that prepares the same SQL on the same connection.
+ */
+class ResettingPoolingConnection extends PoolingConnection
+{
+    private volatile int defaultFetchSize = -1;
+
+    private ResettingPoolingConnection( final Connection connection )
+    {
+        super( connection );
+    }
+
+    /**
+     * Wraps a physical connection in a connection that pools its prepared statements.
+     *
+     * @param connection the physical connection.
+     * @param maxOpenPreparedStatements the maximum number of prepared statements that are kept open.
+     * @return the pooling connection.
+     */
+    static ResettingPoolingConnection create( final Connection connection, final int maxOpenPreparedStatements )
+    {
+        final ResettingPoolingConnection result = new ResettingPoolingConnection( connection );
+        // The same configuration that DBCP's PoolableConnectionFactory uses for its statement pools.
+        final GenericKeyedObjectPoolConfig<DelegatingPreparedStatement> config = new GenericKeyedObjectPoolConfig<>();
+        config.setMaxTotalPerKey( -1 );
+        config.setBlockWhenExhausted( false );
+        config.setMaxWaitMillis( 0 );
+        config.setMaxIdlePerKey( 1 );
+        config.setMaxTotal( maxOpenPreparedStatements );
+        config.setJmxEnabled( false );
+        result.setStatementPool( new GenericKeyedObjectPool<>( result, config ) );
+        return result;
+    }
+
+    @Override
+    public PooledObject<DelegatingPreparedStatement> makeObject( final PStmtKey key ) throws Exception
+    {
+        final PooledObject<DelegatingPreparedStatement> result = super.makeObject( key );
+        if ( defaultFetchSize < 0 )
+        {
+            defaultFetchSize = result.getObject().getFetchSize();
+        }
+        return result;
+    }
+
+    @Override
+    public void passivateObject( final PStmtKey key, final PooledObject<DelegatingPreparedStatement> pooledObject ) throws Exception
+    {
+        final DelegatingPreparedStatement statement = pooledObject.getObject();
+        if ( statement.getMaxRows() != 0 )
+        {
+            statement.setMaxRows( 0 );
+        }
+        if ( defaultFetchSize >= 0 && statement.getFetchSize() != defaultFetchSize )
+        {
+            statement.setFetchSize( defaultFetchSize );
+        }
+        super.passivateObject( key, pooledObject );
+    }
+}
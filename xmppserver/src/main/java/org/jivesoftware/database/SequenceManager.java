@@ -20,10 +20,19 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.jivesoftware.util.JiveConstants;
+import org.jivesoftware.util.SystemProperty;
+import org.jivesoftware.util.TaskEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,6 +53,13 @@ import org.slf4j.LoggerFactory;
  * Each sequence type that this class manages has a different block size value. Objects that aren't
  * created often have a block size of 1, while frequently created objects such as entries and
  * comments have larger block sizes.
+ * <p>
+ * ID's are handed out from the current block without locking. When only a few ID's of the current
+ * block remain, the next block is obtained from the database in the background, so that callers
+ * rarely have to wait for the database. The size of the blocks adapts to the rate at which ID's are
+ * requested: when a block is used up quicker than {@link #BLOCK_DURATION}, the next block is larger
+ * (up to {@link #MAX_BLOCK_SIZE}); when ID's are requested slowly, blocks shrink back to the size of
+ * the sequence.</p>
  *
  * @author Matt Tucker
  * @author Bruce Ritchie
@@ -61,6 +77,37 @@ public class SequenceManager {
     private static final String UPDATE_ID =
             "UPDATE ofID SET id=? WHERE idType=? AND id=?";
 
+    /**
+     * The percentage of a block of ID's that is left when the next block is obtained in the background.
+     */
+    public static final SystemProperty<Integer> PREFETCH_PERCENTAGE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("database.sequence.prefetch-percentage")
+        .setDefaultValue(25)
+        .setMinValue(0)
+        .setMaxValue(100)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The maximum number of ID's in a block, when block sizes grow because ID's are requested quickly.
+     */
+    public static final SystemProperty<Integer> MAX_BLOCK_SIZE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("database.sequence.max-block-size")
+        .setDefaultValue(1000)
+        .setMinValue(1)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The minimum time that a block of ID's should last. Block sizes grow when blocks are used up quicker.
+     */
+    public static final SystemProperty<Duration> BLOCK_DURATION = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("database.sequence.block-duration")
+        .setDefaultValue(Duration.ofSeconds(10))
+        .setChronoUnit(ChronoUnit.MILLIS)
+        .setDynamic(true)
+        .build();
+
     // Statically startup a sequence manager for each of the sequence counters.
     private static Map<Integer, SequenceManager> managers = new ConcurrentHashMap<>();
 
@@ -136,9 +183,11 @@ public class SequenceManager {
     }
 
     private int type;
-    private long currentID;
-    private long maxID;
-    private int blockSize;
+    private volatile int blockSize;
+    private volatile Block block = new Block(0, 0);
+
+    // The next block, when it's being obtained in the background. Guarded by this.
+    private CompletableFuture<Block> prefetched;
 
     /**
      * Creates a new DbSequenceManager.
@@ -150,8 +199,6 @@ public class SequenceManager {
         managers.put(seqType, this);
         this.type = seqType;
         this.blockSize = size;
-        currentID = 0l;
-        maxID = 0l;
     }
 
     /**
@@ -159,14 +206,112 @@ public class SequenceManager {
      * auto-increment database field.
      * @return the next sequence number
      */
-    public synchronized long nextUniqueID() {
-        if (!(currentID < maxID)) {
+    public long nextUniqueID() {
+        while (true) {
+            final Block current = block;
+            final long id = current.next.getAndIncrement();
+            if (id < current.maxID) {
+                if (current.maxID - id <= current.prefetchMark) {
+                    prefetch(current);
+                }
+                return id;
+            }
+            if (!replaceBlock(current)) {
+                // Like before, keep counting beyond the block when no new block could be obtained.
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Replaces a block that is used up by the next block, unless another thread already did so.
+     *
+     * @param current the block that is used up.
+     * @return false if no next block could be obtained.
+     */
+    private synchronized boolean replaceBlock(Block current) {
+        if (block != current) {
+            return true;
+        }
+        Block next = null;
+        if (prefetched != null) {
+            try {
+                next = prefetched.join();
+            }
+            catch (CompletionException e) {
+                Log.error("Failed to obtain the next ID block in the background.", e);
+            }
+            prefetched = null;
+        }
+        if (next == null) {
             // Get next block -- make 5 attempts at maximum.
-            getNextBlock(5);
+            next = getNextBlock(getNextBlockSize(current), 5);
         }
-        long id = currentID;
-        currentID++;
-        return id;
+        if (next == null) {
+            return false;
+        }
+        // A prefetched block may have been obtained a while ago; its lifetime starts now.
+        next.activated = System.nanoTime();
+        block = next;
+        return true;
+    }
+
+    /**
+     * Starts obtaining the next block in the background, if that's not done yet for the current block.
+     *
+     * @param current the current block.
+     */
+    private void prefetch(Block current) {
+        if (!current.prefetchRequested.compareAndSet(false, true)) {
+            return;
+        }
+        final int size = getNextBlockSize(current);
+        final CompletableFuture<Block> future = new CompletableFuture<>();
+        synchronized (this) {
+            if (block != current || prefetched != null) {
+                return;
+            }
+            prefetched = future;
+        }
+        try {
+            TaskEngine.getInstance().submit(() -> {
+                try {
+                    future.complete(getNextBlock(size, 5));
+                }
+                catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            // The block will be obtained when it's needed.
+            future.complete(null);
+        }
+    }
+
+    /**
+     * Determines the size of the block that follows a block, based on the rate at which ID's of the
+     * block were requested.
+     *
+     * @param current the current block.
+     * @return the size of the next block.
+     */
+    private int getNextBlockSize(Block current) {
+        final long size = current.maxID - current.start;
+        final long used = Math.min(size, current.next.get() - current.start);
+        if (size <= 0 || used <= 0) {
+            return blockSize;
+        }
+        final long elapsed = System.nanoTime() - current.activated;
+        final double expectedLifetime = (double) elapsed * size / used;
+        final long target = BLOCK_DURATION.getValue().toNanos();
+        if (expectedLifetime < target) {
+            return (int) Math.max(blockSize, Math.min(size * 2, MAX_BLOCK_SIZE.getValue()));
+        }
+        else if (expectedLifetime > target * 4) {
+            return (int) Math.max(blockSize, size / 2);
+        }
+        return (int) Math.max(blockSize, Math.min(size, MAX_BLOCK_SIZE.getValue()));
     }
 
     /**
@@ -178,18 +323,21 @@ public class SequenceManager {
      * <li> If update fails another process checked out the block first; go back to step 1.
      * Otherwise, done.
      * </ol>
+     *
+     * @return the block, or null if no block could be obtained.
      */
-    private void getNextBlock(int count) {
+    /* Exposed for test use only */
+    Block getNextBlock(int size, int count) {
         if (count == 0) {
             Log.error("Failed at last attempt to obtain an ID, aborting...");
-            return;
+            return null;
         }
 
         Connection con = null;
         PreparedStatement pstmt = null;
         ResultSet rs = null;
         boolean abortTransaction = false;
-        boolean success = false;
+        Block result = null;
 
         try {
             con = DbConnectionManager.getTransactionConnection();
@@ -208,7 +356,7 @@ public class SequenceManager {
             DbConnectionManager.fastcloseStmt(rs, pstmt);
 
             // Increment the id to define our block.
-            long newID = currentID + blockSize;
+            long newID = currentID + size;
             // The WHERE clause includes the last value of the id. This ensures
             // that an update will occur only if nobody else has performed an
             // update first.
@@ -219,10 +367,8 @@ public class SequenceManager {
             // Check to see if the row was affected. If not, some other process
             // already changed the original id that we read. Therefore, this
             // round failed and we'll have to try again.
-            success = pstmt.executeUpdate() == 1;
-            if (success) {
-                this.currentID = currentID;
-                this.maxID = newID;
+            if (pstmt.executeUpdate() == 1) {
+                result = new Block(currentID, newID);
             }
         }
         catch (SQLException e) {
@@ -234,7 +380,7 @@ public class SequenceManager {
             DbConnectionManager.closeTransactionConnection(con, abortTransaction);
         }
 
-        if (!success) {
+        if (result == null) {
             Log.warn("WARNING: failed to obtain next ID block due to " +
                     "thread contention. Trying again...");
             // Call this method again, but sleep briefly to try to avoid thread contention.
@@ -244,8 +390,9 @@ public class SequenceManager {
             catch (InterruptedException ie) {
                 // Ignore.
             }
-            getNextBlock(count - 1);
+            return getNextBlock(size, count - 1);
         }
+        return result;
     }
 
     private void createNewID(Connection con, int type) throws SQLException {
@@ -263,4 +410,25 @@ public class SequenceManager {
             DbConnectionManager.closeStatement(pstmt);
         }
     }
+
+    /**
+     * A block of ID's, from which ID's are handed out by incrementing a counter.
+     */
+    static class Block {
+        private final long start;
+        private final long maxID;
+        private final AtomicLong next;
+        private final long prefetchMark;
+        private final AtomicBoolean prefetchRequested = new AtomicBoolean();
+        // When the block became the current block. Written before the block is published.
+        private long activated = System.nanoTime();
+
+        Block(long start, long maxID) {
+            this.start = start;
+            this.maxID = maxID;
+            this.next = new AtomicLong(start);
+            final int percentage = PREFETCH_PERCENTAGE.getValue();
+            this.prefetchMark = percentage == 0 ? 0 : Math.max(1, (maxID - start) * percentage / 100);
+        }
+    }
 }
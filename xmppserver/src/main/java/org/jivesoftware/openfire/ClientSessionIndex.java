@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire;
+
+import org.jivesoftware.openfire.event.SessionEventListener;
+import org.jivesoftware.openfire.session.ClientSession;
+import org.jivesoftware.openfire.session.Session;
+import org.xmpp.packet.JID;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Keeps the client sessions of this cluster node in sorted order, based on session events, so that
+ * pages of sessions can be obtained without copying and sorting all sessions.
+ *
+ * Sessions are sorted on values that do not change during the lifetime of a session: the username
+ * and resource ({@link SessionResultFilter#SORT_USER}), and the creation date
+ * ({@link SessionResultFilter#SORT_CREATION_DATE}). Sessions with equal values are ordered by
+ * their stream ID.
+ */
+class ClientSessionIndex implements SessionEventListener
+{
+    private static final Comparator<Entry> BY_USER = Comparator.comparing( ( Entry entry ) -> entry.username )
+        .thenComparing( entry -> entry.resource )
+        .thenComparing( entry -> entry.streamID );
+
+    private static final Comparator<Entry> BY_CREATION_DATE = Comparator.comparingLong( ( Entry entry ) -> entry.creationDate )
+        .thenComparing( entry -> entry.streamID );
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final NavigableSet<Entry> byUser = new ConcurrentSkipListSet<>( BY_USER );
+    private final NavigableSet<Entry> byCreationDate = new ConcurrentSkipListSet<>( BY_CREATION_DATE );
+
+    /**
+     * Returns true if this index can sort sessions on the provided sort field.
+     *
+     * @param sortField a sort field, as defined by {@link SessionResultFilter}.
+     * @return true if the sort field is supported.
+     */
+    static boolean supports( final int sortField )
+    {
+        return sortField == SessionResultFilter.SORT_USER || sortField == SessionResultFilter.SORT_CREATION_DATE;
+    }
+
+    /**
+     * Returns the number of sessions in this index.
+     *
+     * @return a session count.
+     */
+    int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Returns a page of sessions, sorted as defined by the filter. The sort field of the filter must
+     * be {@link #supports(int) supported} by this index.
+     *
+     * @param filter defines the sort order and the page (cannot be null).
+     * @return the sessions on the requested page (never null).
+     */
+    List<ClientSession> getSessions( final SessionResultFilter filter )
+    {
+        NavigableSet<Entry> sorted = filter.getSortField() == SessionResultFilter.SORT_USER ? byUser : byCreationDate;
+        if ( filter.getSortOrder() == SessionResultFilter.DESCENDING )
+        {
+            sorted = sorted.descendingSet();
+        }
+
+        final int numResults = filter.getNumResults() == SessionResultFilter.NO_RESULT_LIMIT ? Integer.MAX_VALUE : filter.getNumResults();
+        final List<ClientSession> result = new ArrayList<>( Math.min( numResults, entries.size() ) );
+        final Iterator<Entry> iterator = sorted.iterator();
+        for ( int i = 0; i < filter.getStartIndex() && iterator.hasNext(); i++ )
+        {
+            iterator.next();
+        }
+        while ( result.size() < numResults && iterator.hasNext() )
+        {
+            result.add( iterator.next().session );
+        }
+        return result;
+    }
+
+    void add( final ClientSession session )
+    {
+        final Entry entry = new Entry( session );
+        final Entry previous = entries.put( entry.streamID, entry );
+        if ( previous != null )
+        {
+            byUser.remove( previous );
+            byCreationDate.remove( previous );
+        }
+        byUser.add( entry );
+        byCreationDate.add( entry );
+    }
+
+    void remove( final Session session )
+    {
+        final Entry entry = entries.remove( session.getStreamID().getID() );
+        if ( entry != null )
+        {
+            byUser.remove( entry );
+            byCreationDate.remove( entry );
+        }
+    }
+
+    @Override
+    public void sessionCreated( final Session session )
+    {
+        if ( session instanceof ClientSession )
+        {
+            add( (ClientSession) session );
+        }
+    }
+
+    @Override
+    public void sessionDestroyed( final Session session )
+    {
+        if ( session != null )
+        {
+            remove( session );
+        }
+    }
+
+    @Override
+    public void anonymousSessionCreated( final Session session )
+    {
+        sessionCreated( session );
+    }
+
+    @Override
+    public void anonymousSessionDestroyed( final Session session )
+    {
+        sessionDestroyed( session );
+    }
+
+    @Override
+    public void resourceBound( final Session session )
+    {
+        // Sessions are created after their resource has been bound.
+    }
+
+    /**
+     * A session with the values that it is sorted on. Anonymous sessions are sorted as if they have an
+     * empty username, like {@link SessionResultFilter#getSortComparator()} does.
+     */
+    private static class Entry
+    {
+        private final ClientSession session;
+        private final String streamID;
+        private final String username;
+        private final String resource;
+        private final long creationDate;
+
+        Entry( final ClientSession session )
+        {
+            final JID address = session.getAddress();
+            this.session = session;
+            this.streamID = session.getStreamID().getID();
+            this.username = session.isAnonymousUser() || address.getNode() == null ? "" : address.getNode();
+            this.resource = address.getResource() == null ? "" : address.getResource();
+            this.creationDate = session.getCreationDate().getTime();
+        }
+    }
+}
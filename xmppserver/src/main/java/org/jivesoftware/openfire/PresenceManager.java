@@ -80,6 +80,23 @@ public interface PresenceManager {
      */
     void probePresence( JID prober, JID probee );
 
+    /**
+     * Probes the presences of the given XMPPAddresses and attempts to send them to the given user,
+     * like {@link #probePresence(JID, JID)} does for each of them. Implementations can use this to
+     * process the probees more efficiently than one at a time, for example when a user that has
+     * many contacts becomes available.
+     *
+     * @param prober The user requesting the probe
+     * @param probees The XMPPAddresses whos presences we would like sent have have probed
+     */
+    default void probePresence( JID prober, Collection<JID> probees )
+    {
+        for ( final JID probee : probees )
+        {
+            probePresence( prober, probee );
+        }
+    }
+
     /**
      * Handle a presence probe sent by a remote server. The logic to apply is the following: If
      * the remote user is not in the local user's roster with a subscription state of "From", or
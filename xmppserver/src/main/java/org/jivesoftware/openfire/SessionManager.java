@@ -37,7 +37,12 @@ import org.jivesoftware.openfire.multiplex.ConnectionMultiplexerManager;
 import org.jivesoftware.openfire.server.OutgoingSessionPromise;
 import org.jivesoftware.openfire.session.*;
 import org.jivesoftware.openfire.spi.BasicStreamIDFactory;
+import org.jivesoftware.openfire.stats.Statistic;
+import org.jivesoftware.openfire.stats.StatisticsManager;
+import org.jivesoftware.openfire.stats.i18nStatistic;
+import org.jivesoftware.openfire.streammanagement.StreamManager;
 import org.jivesoftware.openfire.user.UserManager;
+import org.jivesoftware.util.InternedJID;
 import org.jivesoftware.util.JiveGlobals;
 import org.jivesoftware.util.LocaleUtils;
 import org.jivesoftware.util.SystemProperty;
@@ -69,6 +74,8 @@ public class SessionManager extends BasicModule implements ClusterEventListener
         .setMinValue(-1)
         .build();
 
+    private static final String RESEND_BUFFER_STAT_KEY = "sm_resend_buffer";
+
     public static final String COMPONENT_SESSION_CACHE_NAME = "Components Sessions";
     public static final String CM_CACHE_NAME = "Connection Managers Sessions";
     public static final String ISS_CACHE_NAME = "Incoming Server Sessions";
@@ -93,6 +100,11 @@ public class SessionManager extends BasicModule implements ClusterEventListener
      */
     private final AtomicInteger connectionsCounter = new AtomicInteger(0);
 
+    /**
+     * The client sessions of this node, in sorted order.
+     */
+    private final ClientSessionIndex clientSessionIndex = new ClientSessionIndex();
+
     /**
      * Cache (unlimited, never expire) that holds information about client sessions (as soon as
      * a resource has been bound). The cache is used by Remote sessions to avoid generating big
@@ -662,7 +674,7 @@ public class SessionManager extends BasicModule implements ClusterEventListener
         }
         Presence presence;
         // Get list of sessions of the same user
-        JID searchJID = new JID(session.getAddress().getNode(), session.getAddress().getDomain(), null);
+        JID searchJID = InternedJID.of(session.getAddress()).asBareJID();
         List<JID> addresses = routingTable.getRoutes(searchJID, null);
         for (JID address : addresses) {
             if (address.equals(session.getAddress())) {
@@ -704,7 +716,7 @@ public class SessionManager extends BasicModule implements ClusterEventListener
             return;
         }
         // Get list of sessions of the same user
-        JID searchJID = new JID(originatingResource.getNode(), originatingResource.getDomain(), null);
+        JID searchJID = InternedJID.of(originatingResource.getNode(), originatingResource.getDomain(), null);
         List<JID> addresses = routingTable.getRoutes(searchJID, null);
         for (JID address : addresses) {
             if (!originatingResource.equals(address)) {
@@ -832,43 +844,33 @@ public class SessionManager extends BasicModule implements ClusterEventListener
     }
 
 
+    /**
+     * Returns a sorted page of the client sessions connected to the server. When clustering is not
+     * enabled and the sessions are sorted by user or creation date, the page is obtained from an index
+     * that is kept in sorted order, instead of by sorting all sessions.
+     *
+     * @param filter defines the sort order and the page of sessions to return.
+     * @return the requested page of client sessions (empty if the filter is null).
+     */
     public Collection<ClientSession> getSessions(SessionResultFilter filter) {
-        List<ClientSession> results = new ArrayList<>();
-        if (filter != null) {
-            // Grab all the matching sessions
-            results.addAll(getSessions());
-
-            // Now we have a copy of the references so we can spend some time
-            // doing the rest of the filtering without locking out session access
-            // so let's iterate and filter each session one by one
-            List<ClientSession> filteredResults = new ArrayList<>();
-            for (ClientSession session : results) {
-                // Now filter on creation date if needed
-                filteredResults.add(session);
-            }
-
-            // Sort list.
-            Collections.sort(filteredResults, filter.getSortComparator());
+        if (filter == null) {
+            return new ArrayList<>();
+        }
+        if (!ClusterManager.isClusteringStarted() && ClientSessionIndex.supports(filter.getSortField())) {
+            return clientSessionIndex.getSessions(filter);
+        }
 
-            int maxResults = filter.getNumResults();
-            if (maxResults == SessionResultFilter.NO_RESULT_LIMIT) {
-                maxResults = filteredResults.size();
-            }
+        // Copy the references, so that the sessions can be sorted without locking out session access.
+        List<ClientSession> results = new ArrayList<>(getSessions());
+        results.sort(filter.getSortComparator());
 
-            // Now generate the final list. I believe it's faster to to build up a new
-            // list than it is to remove items from head and tail of the sorted tree
-            List<ClientSession> finalResults = new ArrayList<>();
-            int startIndex = filter.getStartIndex();
-            Iterator<ClientSession> sortedIter = filteredResults.iterator();
-            for (int i = 0; sortedIter.hasNext() && finalResults.size() < maxResults; i++) {
-                ClientSession result = sortedIter.next();
-                if (i >= startIndex) {
-                    finalResults.add(result);
-                }
-            }
-            return finalResults;
+        int maxResults = filter.getNumResults();
+        if (maxResults == SessionResultFilter.NO_RESULT_LIMIT) {
+            maxResults = results.size();
         }
-        return results;
+        int startIndex = Math.min(filter.getStartIndex(), results.size());
+        int endIndex = (int) Math.min(results.size(), (long) startIndex + maxResults);
+        return new ArrayList<>(results.subList(startIndex, endIndex));
     }
 
     /**
@@ -950,7 +952,7 @@ public class SessionManager extends BasicModule implements ClusterEventListener
     public Collection<ClientSession> getSessions(String username) {
         List<ClientSession> sessionList = new ArrayList<>();
         if (username != null && serverName != null) {
-            List<JID> addresses = routingTable.getRoutes(new JID(username, serverName, null, true), null);
+            List<JID> addresses = routingTable.getRoutes(InternedJID.of(username, serverName, null), null);
             for (JID address : addresses) {
                 sessionList.add(routingTable.getClientRoute(address));
             }
@@ -988,7 +990,7 @@ public class SessionManager extends BasicModule implements ClusterEventListener
      * @return number of client sessions that are authenticated with the server.
      */
     public int getUserSessionsCount(boolean onlyLocal) {
-        int total = routingTable.getClientsRoutes(true).size();
+        int total = clientSessionIndex.size();
         if (!onlyLocal) {
             Collection<Integer> results =
                     CacheFactory.doSynchronousClusterTask(new GetSessionsCountTask(true), false);
@@ -1027,12 +1029,12 @@ public class SessionManager extends BasicModule implements ClusterEventListener
      * @return number of available sessions for a user.
      */
     public int getActiveSessionCount(String username) {
-        return routingTable.getRoutes(new JID(username, serverName, null, true), null).size();
+        return routingTable.getRoutes(InternedJID.of(username, serverName, null), null).size();
     }
 
     public int getSessionCount(String username) {
         // TODO Count ALL sessions not only available
-        return routingTable.getRoutes(new JID(username, serverName, null, true), null).size();
+        return routingTable.getRoutes(InternedJID.of(username, serverName, null), null).size();
     }
 
     /**
@@ -1131,7 +1133,7 @@ public class SessionManager extends BasicModule implements ClusterEventListener
      */
     public void userBroadcast(String username, Packet packet) throws PacketException {
         // TODO broadcast to ALL sessions of the user and not only available
-        for (JID address : routingTable.getRoutes(new JID(username, serverName, null), null)) {
+        for (JID address : routingTable.getRoutes(InternedJID.of(username, serverName, null), null)) {
             packet.setTo(address);
             routingTable.routePacket(address, packet, true);
         }
@@ -1407,6 +1409,8 @@ public class SessionManager extends BasicModule implements ClusterEventListener
 
         // Listen to cluster events
         ClusterManager.addListener(this);
+        // Keep the client sessions of this node sorted
+        SessionEventDispatcher.addListener(clientSessionIndex);
     }
 
 
@@ -1462,6 +1466,7 @@ public class SessionManager extends BasicModule implements ClusterEventListener
         // Run through the server sessions every 3 minutes after a 3 minutes server startup delay (default values)
         int period = 3 * 60 * 1000;
         TaskEngine.getInstance().scheduleAtFixedRate(new DetachedCleanupTask(), period, period);
+        StatisticsManager.getInstance().addStatistic(RESEND_BUFFER_STAT_KEY, new ResendBufferStatistic());
     }
 
     @Override
@@ -1728,4 +1733,24 @@ public class SessionManager extends BasicModule implements ClusterEventListener
         }
     }
 
+
+    /**
+     * Tracks the amount of memory used to keep stanzas that were sent to clients of this cluster node
+     * until they acknowledge them (XEP-0198).
+     */
+    private static class ResendBufferStatistic extends i18nStatistic {
+        public ResendBufferStatistic() {
+            super("sm.resend_buffer", Statistic.Type.count);
+        }
+
+        @Override
+        public double sample() {
+            return StreamManager.getTotalUnacknowledgedBytes() / 1024d;
+        }
+
+        @Override
+        public boolean isPartialSample() {
+            return true;
+        }
+    }
 }
@@ -221,13 +221,13 @@ public class SessionResultFilter {
                     comparison = lhs.getCreationDate().compareTo(rhs.getCreationDate());
                     break;
                 case SessionResultFilter.SORT_LAST_ACTIVITY_DATE:
-                    comparison = lhs.getLastActiveDate().compareTo(rhs.getCreationDate());
+                    comparison = lhs.getLastActiveDate().compareTo(rhs.getLastActiveDate());
                     break;
                 case SessionResultFilter.SORT_NUM_CLIENT_PACKETS:
-                    comparison = (int)(lhs.getNumClientPackets() - rhs.getNumClientPackets());
+                    comparison = Long.compare(lhs.getNumClientPackets(), rhs.getNumClientPackets());
                     break;
                 case SessionResultFilter.SORT_NUM_SERVER_PACKETS:
-                    comparison = (int)(lhs.getNumServerPackets() - rhs.getNumServerPackets());
+                    comparison = Long.compare(lhs.getNumServerPackets(), rhs.getNumServerPackets());
                     break;
                 case SessionResultFilter.SORT_USER:
                     // sort first by name, then by resource
@@ -41,7 +41,10 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TimerTask;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import org.dom4j.Document;
@@ -60,6 +63,7 @@ import org.jivesoftware.openfire.component.InternalComponentManager;
 import org.jivesoftware.openfire.container.AdminConsolePlugin;
 import org.jivesoftware.openfire.container.Module;
 import org.jivesoftware.openfire.container.PluginManager;
+import org.jivesoftware.openfire.container.StartupTimeline;
 import org.jivesoftware.openfire.disco.IQDiscoInfoHandler;
 import org.jivesoftware.openfire.disco.IQDiscoItemsHandler;
 import org.jivesoftware.openfire.disco.ServerFeaturesProvider;
@@ -125,6 +129,7 @@ import org.jivesoftware.util.InitializationException;
 import org.jivesoftware.util.JiveGlobals;
 import org.jivesoftware.util.LocaleUtils;
 import org.jivesoftware.util.Log;
+import org.jivesoftware.util.NamedThreadFactory;
 import org.jivesoftware.util.SystemProperty;
 import org.jivesoftware.util.TaskEngine;
 import org.jivesoftware.openfire.archive.ArchiveManager;
@@ -203,6 +208,11 @@ public class XMPPServer {
      */
     private Map<Class, Module> modules = new LinkedHashMap<>();
 
+    /**
+     * The time it took to initialize and start each module.
+     */
+    private volatile StartupTimeline startupTimeline;
+
     /**
      * Listeners that will be notified when the server has started or is about to be stopped.
      */
@@ -753,6 +763,7 @@ public class XMPPServer {
     }
 
     private void loadModules() {
+        startupTimeline = new StartupTimeline();
         // Load boot modules
         loadModule(RoutingTableImpl.class.getName());
         loadModule(AuditManagerImpl.class.getName());
@@ -836,7 +847,8 @@ public class XMPPServer {
     }
 
     private void initModules() {
-        for (Module module : modules.values()) {
+        for (Module module : new ArrayList<>(modules.values())) {
+            final long begin = System.nanoTime();
             try {
                 module.initialize(this);
             }
@@ -848,6 +860,7 @@ public class XMPPServer {
                 module.destroy();
                 logger.error(LocaleUtils.getLocalizedString("admin.error"), e);
             }
+            startupTimeline.recordInitialization(module.getName(), begin, System.nanoTime());
         }
 
         // Register modules with service discovery provides where applicable.
@@ -888,15 +901,68 @@ public class XMPPServer {
      * start them.</p>
      */
     private void startModules() {
-        for (Module module : modules.values()) {
-            try {
-                logger.debug( "Starting module: " + module.getName() );
-                module.start();
-            }
-            catch (Exception e) {
-                logger.error( "An exception occurred while starting module '{}'.", module.getName(), e );
+        // Modules that declare their dependencies are started concurrently on a bounded pool.
+        final ExecutorService executor = Executors.newFixedThreadPool(StartupTimeline.MODULE_THREADS.getValue(), new NamedThreadFactory("module-start-", null, true, null));
+        final Map<Class<?>, CompletableFuture<Void>> started = new LinkedHashMap<>();
+        try {
+            for (Module module : modules.values()) {
+                final Collection<Class<? extends Module>> dependencies = module.getStartDependencies();
+                if (module instanceof ConnectionManagerImpl) {
+                    // Don't start listening for clients before the rest of the modules have been started.
+                    awaitStart(started.values());
+                }
+                if (dependencies == null || !started.keySet().containsAll(dependencies)) {
+                    startModule(module);
+                    started.put(module.getClass(), CompletableFuture.completedFuture(null));
+                }
+                else {
+                    final List<CompletableFuture<Void>> prerequisites = new ArrayList<>();
+                    for (Class<? extends Module> dependency : dependencies) {
+                        prerequisites.add(started.get(dependency));
+                    }
+                    started.put(module.getClass(), allOf(prerequisites).thenRunAsync(() -> {
+                        Thread.currentThread().setContextClassLoader(loader);
+                        startModule(module);
+                    }, executor));
+                }
             }
+            awaitStart(started.values());
+        }
+        finally {
+            executor.shutdown();
         }
+        startupTimeline.log(logger);
+    }
+
+    private void startModule(Module module) {
+        final long begin = System.nanoTime();
+        try {
+            logger.debug( "Starting module: " + module.getName() );
+            module.start();
+        }
+        catch (Exception e) {
+            logger.error( "An exception occurred while starting module '{}'.", module.getName(), e );
+        }
+        startupTimeline.recordStart(module.getName(), begin, System.nanoTime());
+    }
+
+    private static void awaitStart(Collection<CompletableFuture<Void>> futures) {
+        // Exceptions of modules are logged by startModule.
+        allOf(futures).join();
+    }
+
+    private static CompletableFuture<Void> allOf(Collection<CompletableFuture<Void>> futures) {
+        final CompletableFuture<?>[] array = new CompletableFuture<?>[futures.size()];
+        return CompletableFuture.allOf(futures.toArray(array));
+    }
+
+    /**
+     * Returns the time it took to initialize and start each module, during the last startup of the server.
+     *
+     * @return the startup timeline, or null if the modules have not been loaded.
+     */
+    public StartupTimeline getStartupTimeline() {
+        return startupTimeline;
     }
 
     /**
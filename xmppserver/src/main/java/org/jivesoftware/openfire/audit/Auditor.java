@@ -63,4 +63,15 @@ public interface Auditor {
      * @return the number of queued packets that are still in memory.
      */
     int getQueuedPacketsNumber();
+
+    /**
+     * Returns the number of packets that were not saved to a permanent store, because too many
+     * packets were queued already or because they could not be written. The default implementation
+     * returns zero, for auditors that never drop packets.
+     *
+     * @return the number of dropped packets.
+     */
+    default long getDroppedPacketsNumber() {
+        return 0;
+    }
 }
@@ -16,14 +16,13 @@
 
 package org.jivesoftware.openfire.audit.spi;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
@@ -32,20 +31,23 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.TimeZone;
-import java.util.TimerTask;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.dom4j.DocumentFactory;
-import org.dom4j.Element;
 import org.jivesoftware.openfire.audit.AuditManager;
 import org.jivesoftware.openfire.audit.Auditor;
 import org.jivesoftware.openfire.session.Session;
 import org.jivesoftware.util.FastDateFormat;
 import org.jivesoftware.util.JiveGlobals;
 import org.jivesoftware.util.LocaleUtils;
+import org.jivesoftware.util.NamedThreadFactory;
 import org.jivesoftware.util.StringUtils;
-import org.jivesoftware.util.TaskEngine;
+import org.jivesoftware.util.SystemProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmpp.packet.IQ;
@@ -57,10 +59,66 @@ public class AuditorImpl implements Auditor {
 
     private static final Logger Log = LoggerFactory.getLogger(AuditorImpl.class);
 
+    /**
+     * What to do with an audited packet when the queue of packets waiting to be written is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * The packet that is being audited is discarded.
+         */
+        DROP_NEWEST,
+        /**
+         * The packet that has been waiting the longest is discarded to make room for the packet that is being audited.
+         */
+        DROP_OLDEST
+    }
+
+    /**
+     * The maximum number of audited packets that can wait to be written to disk.
+     */
+    public static final SystemProperty<Integer> QUEUE_CAPACITY = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("xmpp.audit.queue-capacity")
+        .setDefaultValue(100000)
+        .setMinValue(1)
+        .setDynamic(false)
+        .build();
+
+    /**
+     * What to do with audited packets when the queue is full.
+     */
+    public static final SystemProperty<OverflowPolicy> OVERFLOW_POLICY = SystemProperty.Builder.ofType(OverflowPolicy.class)
+        .setKey("xmpp.audit.overflow-policy")
+        .setDefaultValue(OverflowPolicy.DROP_NEWEST)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * Size of the buffer in which audited packets are collected before they are appended to the audit file.
+     */
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] FILE_HEADER = "<jive xmlns=\"http://www.jivesoftware.org\">".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FILE_FOOTER = "</jive>".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Marker that is queued to wake up the writer thread when the auditor is stopped.
+     */
+    private static final AuditPacket WAKE_UP = new AuditPacket(new byte[0], new Date());
+
     private AuditManager auditManager;
     private File currentAuditFile;
-    private Writer writer;
-    private org.jivesoftware.util.XMLWriter xmlWriter;
+    /**
+     * Channel to the current audit file. Only used by the writer thread.
+     */
+    private FileChannel channel;
+    /**
+     * Audited packets that have not yet been appended to the current audit file. Only used by the writer thread.
+     */
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+    /**
+     * Size in bytes of the current audit file, including the bytes in the write buffer.
+     */
+    private long currentFileSize;
     /**
      * Limit date used to detect when we need to rollover files. This date will be
      * configured as the last second of the day.
@@ -70,34 +128,42 @@ public class AuditorImpl implements Auditor {
      * Max size in bytes that all audit log files may have. When the limit is reached
      * oldest audit log files will be removed until total size is under the limit.
      */
-    private long maxTotalSize;
+    private volatile long maxTotalSize;
     /**
      * Max size in bytes that each audit log file may have. Once the limit has been
      * reached a new audit file will be created.
      */
-    private long maxFileSize;
+    private volatile long maxFileSize;
     /**
      * Max number of days to keep audit information. Once the limit has been reached
      * audit files that contain information that exceed the limit will be deleted.
      */
-    private int maxDays;
+    private volatile int maxDays;
+    /**
+     * Max number of milliseconds that audited packets are buffered before they are written to the audit file.
+     */
+    private volatile int logTimeout;
     /**
      * Flag that indicates if packets can still be accepted to be saved to the audit log.
      */
-    private boolean closed = false;
+    private volatile boolean closed = false;
     /**
      * Directoty (absolute path) where the audit files will be saved.
      */
-    private String logDir;
+    private volatile String logDir;
     /**
      * File (or better say directory) of the folder that contains the audit logs.
      */
-    private File baseFolder;
+    private volatile File baseFolder;
 
     /**
      * Queue that holds the audited packets that will be later saved to an XML file.
      */
-    private BlockingQueue<AuditPacket> logQueue = new LinkedBlockingQueue<>();
+    private final BlockingQueue<AuditPacket> logQueue = new LinkedBlockingQueue<>(QUEUE_CAPACITY.getValue());
+    /**
+     * Number of audited packets that were discarded because the queue was full, or because they could not be written.
+     */
+    private final AtomicLong droppedPackets = new AtomicLong();
 
     /**
      * Allow only a limited number of files for each day, max. three digits (000-999)
@@ -108,9 +174,10 @@ public class AuditorImpl implements Auditor {
      */
     private int filesIndex = 0;
     /**
-     * Timer to save queued logs to the XML file.
+     * Thread that writes queued packets to the audit files.
      */
-    private SaveQueuedPacketsTask saveQueuedPacketsTask;
+    private final ExecutorService writerExecutor;
+    private Future<?> writerTask;
     private FastDateFormat dateFormat;
     private static FastDateFormat auditFormat;
 
@@ -118,6 +185,7 @@ public class AuditorImpl implements Auditor {
         auditManager = manager;
         dateFormat = FastDateFormat.getInstance("yyyyMMdd", TimeZone.getTimeZone("UTC"));
         auditFormat = FastDateFormat.getInstance("MMM dd, yyyy hh:mm:ss:SSS a", JiveGlobals.getLocale());
+        writerExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("audit-writer-", null, true, null));
     }
 
     protected void setMaxValues(int totalSize, int fileSize, int days) {
@@ -126,15 +194,12 @@ public class AuditorImpl implements Auditor {
         maxDays = days;
     }
 
-    public void setLogTimeout(int logTimeout) {
-        // Cancel any existing task because the timeout has changed
-        if (saveQueuedPacketsTask != null) {
-            saveQueuedPacketsTask.cancel();
+    public synchronized void setLogTimeout(int logTimeout) {
+        // A running writer thread picks up the new timeout the next time that it flushes
+        this.logTimeout = logTimeout;
+        if (writerTask == null) {
+            writerTask = writerExecutor.submit(this::writeQueuedPackets);
         }
-        // Create a new task and schedule it with the new timeout
-        saveQueuedPacketsTask = new SaveQueuedPacketsTask();
-        TaskEngine.getInstance().schedule(saveQueuedPacketsTask, logTimeout, logTimeout);
-
     }
 
     public void setLogDir(String logDir) {
@@ -154,6 +219,11 @@ public class AuditorImpl implements Auditor {
         return logQueue.size();
     }
 
+    @Override
+    public long getDroppedPacketsNumber() {
+        return droppedPackets.get();
+    }
+
     @Override
     public void audit(Packet packet, Session session) {
         if (auditManager.isEnabled()) {
@@ -177,8 +247,16 @@ public class AuditorImpl implements Auditor {
 
     private void writePacket(Packet packet, Session session) {
         if (!closed) {
-            // Add to the logging queue this new entry that will be saved later
-            logQueue.add(new AuditPacket(packet.createCopy(), session));
+            // Add to the logging queue this new entry that will be saved later. The queue is bounded, so that
+            // a slow disk cannot exhaust the memory: when it is full, one packet is dropped.
+            final AuditPacket auditPacket = AuditPacket.create(packet, session);
+            if (!logQueue.offer(auditPacket)) {
+                droppedPackets.incrementAndGet();
+                if (OVERFLOW_POLICY.getValue() == OverflowPolicy.DROP_OLDEST) {
+                    logQueue.poll();
+                    logQueue.offer(auditPacket);
+                }
+            }
         }
     }
 
@@ -186,33 +264,180 @@ public class AuditorImpl implements Auditor {
     public void stop() {
         // Stop queuing packets since we are being stopped
         closed = true;
+        // Let the writer thread save all remaining queued packets to the XML file
+        logQueue.offer(WAKE_UP);
+        writerExecutor.shutdown();
+        try {
+            if (!writerExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                Log.warn("Audit packets are still being written to disk after 30 seconds. {} queued packets will be lost.", logQueue.size());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Takes audited packets from the queue and appends them to the audit files, until the auditor is stopped.
+     * Packets are collected in a buffer that is written when it is full, or when the log timeout has passed
+     * since the first packet was added to it. This method is executed by the writer thread, which is the only
+     * thread that accesses the audit files.
+     */
+    private void writeQueuedPackets() {
+        long lastMaintenance = 0;
+        long flushDeadline = Long.MAX_VALUE;
+        long lastReportedDrops = 0;
+        while (!closed) {
+            try {
+                final long now = System.currentTimeMillis();
+                if (now - lastMaintenance >= logTimeout) {
+                    lastMaintenance = now;
+                    // Ensure that saved audit logs are not too old or too big
+                    ensureMaxDays();
+                    ensureMaxTotalSize();
+                    final long drops = droppedPackets.get();
+                    if (drops > lastReportedDrops) {
+                        Log.warn("{} audited packets were dropped because they could not be written to disk fast enough. Total dropped: {}", drops - lastReportedDrops, drops);
+                        lastReportedDrops = drops;
+                    }
+                }
+
+                final long wait = Math.min(flushDeadline, lastMaintenance + logTimeout) - now;
+                final AuditPacket first = logQueue.poll(Math.max(1, wait), TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    if (writeBuffer.position() == 0) {
+                        flushDeadline = System.currentTimeMillis() + logTimeout;
+                    }
+                    savePacket(first);
+                    AuditPacket next;
+                    while ((next = logQueue.poll()) != null) {
+                        savePacket(next);
+                    }
+                }
+                if (writeBuffer.position() > 0 && System.currentTimeMillis() >= flushDeadline) {
+                    flush();
+                }
+                if (writeBuffer.position() == 0) {
+                    flushDeadline = Long.MAX_VALUE;
+                }
+            }
+            catch (InterruptedException e) {
+                break;
+            }
+            catch (IOException e) {
+                Log.error(LocaleUtils.getLocalizedString("admin.error"), e);
+                // Start with a new file for the next packet
+                close();
+            }
+            catch (Throwable e) {
+                Log.error(LocaleUtils.getLocalizedString("admin.error"), e);
+            }
+        }
+
         // Save all remaining queued packets to the XML file
-        saveQueuedPackets();
+        AuditPacket remaining;
+        while ((remaining = logQueue.poll()) != null) {
+            savePacket(remaining);
+        }
         close();
     }
 
+    /**
+     * Adds an audited packet to the write buffer, after rotating the audit file if required.
+     *
+     * @param auditPacket the packet to write.
+     */
+    private void savePacket(AuditPacket auditPacket) {
+        if (auditPacket == WAKE_UP) {
+            return;
+        }
+        try {
+            prepareAuditFile(auditPacket.getCreationDate());
+            write(auditPacket.getData());
+        }
+        catch (IOException e) {
+            Log.error(LocaleUtils.getLocalizedString("admin.error"), e);
+            droppedPackets.incrementAndGet();
+            // Start with a new file for the next packet
+            close();
+        }
+    }
+
+    /**
+     * Adds bytes to the write buffer, appending the buffer to the current audit file first if it is too full.
+     *
+     * @param data the bytes to write.
+     * @throws IOException if the buffer could not be appended to the audit file.
+     */
+    private void write(byte[] data) throws IOException {
+        if (data.length > writeBuffer.remaining()) {
+            flush();
+        }
+        if (data.length > writeBuffer.capacity()) {
+            final ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        else {
+            writeBuffer.put(data);
+        }
+        currentFileSize += data.length;
+    }
+
+    /**
+     * Appends the content of the write buffer to the current audit file.
+     *
+     * @throws IOException if the buffer could not be appended to the audit file.
+     */
+    private void flush() throws IOException {
+        if (writeBuffer.position() == 0) {
+            return;
+        }
+        writeBuffer.flip();
+        try {
+            if (channel == null) {
+                Log.warn("Discarding {} bytes of audit data, as no audit file is open.", writeBuffer.remaining());
+                return;
+            }
+            while (writeBuffer.hasRemaining()) {
+                channel.write(writeBuffer);
+            }
+        }
+        finally {
+            writeBuffer.clear();
+        }
+    }
+
     private void close() {
-        if (xmlWriter != null) {
+        if (channel != null) {
             try {
-                xmlWriter.flush();
-                writer.write("</jive>");
-                xmlWriter.close();
-                writer = null;
-                xmlWriter = null;
+                flush();
+                writeBuffer.put(FILE_FOOTER);
+                flush();
             }
             catch (Exception e) {
                 Log.error(LocaleUtils.getLocalizedString("admin.error"), e);
             }
+            finally {
+                try {
+                    channel.close();
+                }
+                catch (IOException e) {
+                    Log.error(LocaleUtils.getLocalizedString("admin.error"), e);
+                }
+                channel = null;
+            }
         }
+        writeBuffer.clear();
     }
 
     private void prepareAuditFile(Date auditDate) throws IOException {
-        ensureMaxTotalSize();
-
         // Rotate file if: we just started, current file size exceeded limit or date has changed
-        if (currentAuditFile == null || currentAuditFile.length() > maxFileSize ||
-                xmlWriter == null || currentDateLimit == null || auditDate.after(currentDateLimit))
+        if (currentAuditFile == null || currentFileSize > maxFileSize ||
+                channel == null || currentDateLimit == null || auditDate.after(currentDateLimit))
         {
+            ensureMaxTotalSize();
             createAuditFile(auditDate);
         }
     }
@@ -291,6 +516,9 @@ public class AuditorImpl implements Auditor {
             }
         };
         File[] files = baseFolder.listFiles(filter);
+        if (files == null) {
+            return;
+        }
         // Delete old audit files
         for (File fileToDelete : files) {
             if (fileToDelete.equals(currentAuditFile)) {
@@ -304,16 +532,16 @@ public class AuditorImpl implements Auditor {
         }
     }
 
-    /* if this new logic still causes problems one may want to 
+    /* if this new logic still causes problems one may want to
     * use log4j or change the file format from YYYYmmdd-nnn to YYYYmmdd-HHMM */
     /**
-    * Sets <b>xmlWriter</b> so this class can use it to write audit logs<br>
+    * Opens <b>channel</b> so this class can use it to write audit logs<br>
     * The audit filename <b>currentAuditFile</b> will be `jive.audit-YYYYmmdd-nnn.log´<br>
     * `nnn´ will be reset to `000´ when a new log file is created the next day <br>
     * `nnn´ will be increased for log files which belong to the same day<br>
     * <b>WARNING:</b> If log files of the current day are deleted and the server is restarted then
     * the value of `nnn´ may be random (it's calculated by `Math.max(files.length, filesIndex);´
-    * with `filesIndex=0´ and  `files.length=nr(existing jive.audit-YYYYmmdd-???.log files)´ - 
+    * with `filesIndex=0´ and  `files.length=nr(existing jive.audit-YYYYmmdd-???.log files)´ -
     * if there are 10 audit files (033-043) then nnn will be 10 instead of 44).<br>
     * If  `nnn=999´ then all audit data will be written to this file till the next day.<br>
     * @param auditDate
@@ -322,34 +550,34 @@ public class AuditorImpl implements Auditor {
     private void createAuditFile(Date auditDate) throws IOException {
         final String filePrefix = "jive.audit-" + dateFormat.format(auditDate) + "-";
         if (currentDateLimit == null || auditDate.after(currentDateLimit)) {
-        // Set limit date after which we need to rollover the audit file (based on the date)
-        Calendar calendar = Calendar.getInstance();
-        calendar.setTime(auditDate);
-        calendar.set(Calendar.HOUR_OF_DAY, 23);
-        calendar.set(Calendar.MINUTE, 59);
-        calendar.set(Calendar.SECOND, 59);
-        calendar.set(Calendar.MILLISECOND, 999);
-        currentDateLimit = calendar.getTime();
-        filesIndex = 0;
-    }
-    // Get list of existing audit files
-    FilenameFilter filter = new FilenameFilter() {
-        @Override
-        public boolean accept(File dir, String name) {
-            return name.startsWith(filePrefix) && name.endsWith(".log");
-        }
-    };
-    File[] files = baseFolder.listFiles(filter);
-    // if some daily files were already deleted then files.length will be smaller than filesIndex
-    // see also WARNING above
-    filesIndex = Math.max(files.length, filesIndex);
-        if (filesIndex >= maxTotalFilesDay)
+            // Set limit date after which we need to rollover the audit file (based on the date)
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTime(auditDate);
+            calendar.set(Calendar.HOUR_OF_DAY, 23);
+            calendar.set(Calendar.MINUTE, 59);
+            calendar.set(Calendar.SECOND, 59);
+            calendar.set(Calendar.MILLISECOND, 999);
+            currentDateLimit = calendar.getTime();
+            filesIndex = 0;
+        }
+        // Get list of existing audit files
+        FilenameFilter filter = new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(filePrefix) && name.endsWith(".log");
+            }
+        };
+        File[] files = baseFolder.listFiles(filter);
+        // if some daily files were already deleted then files.length will be smaller than filesIndex
+        // see also WARNING above
+        filesIndex = Math.max(files == null ? 0 : files.length, filesIndex);
+        if (filesIndex >= maxTotalFilesDay && channel != null)
         {
             // don't close this file, continue auditing to it
             return;
         }
         File tmpAuditFile = new File(logDir, filePrefix + StringUtils.zeroPadString(Integer.toString(filesIndex), 3) + ".log");
-        if ( (filesIndex == maxTotalFilesDay-1) && !tmpAuditFile.exists() ) 
+        if ( (filesIndex == maxTotalFilesDay-1) && !tmpAuditFile.exists() )
         {
             Log.warn("Creating last audit file for this date: " + dateFormat.format(auditDate));
         }
@@ -359,112 +587,79 @@ public class AuditorImpl implements Auditor {
             filesIndex++;
             tmpAuditFile = new File(logDir, filePrefix + StringUtils.zeroPadString(Integer.toString(filesIndex), 3) + ".log");
         }
-        currentAuditFile = tmpAuditFile;
         close();
+        currentAuditFile = tmpAuditFile;
         // always append to an existing file (after restart)
-        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(currentAuditFile, true), StandardCharsets.UTF_8));
-        writer.write("<jive xmlns=\"http://www.jivesoftware.org\">");
-        xmlWriter = new org.jivesoftware.util.XMLWriter(writer);
+        channel = FileChannel.open(currentAuditFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        currentFileSize = channel.size();
+        write(FILE_HEADER);
     }
 
     /**
-     * Saves the queued entries to an XML file and checks that very old files are deleted.
-     */
-    private class SaveQueuedPacketsTask extends TimerTask {
-        @Override
-        public void run() {
-            try {
-                // Ensure that saved audit logs are not too old
-                ensureMaxDays();
-                // Save queued packets to the audit logs
-                saveQueuedPackets();
-            }
-            catch (Throwable e) {
-                Log.error(LocaleUtils.getLocalizedString("admin.error"), e);
-            }
-        }
-    }
-
-    private void saveQueuedPackets() {
-        List<AuditPacket> packets = new ArrayList<>(logQueue.size());
-        logQueue.drainTo(packets);
-        for (AuditPacket auditPacket : packets) {
-            try {
-                prepareAuditFile(auditPacket.getCreationDate());
-                Element element = auditPacket.getElement();
-                // Protect against null elements.
-                if (element != null) {
-                    xmlWriter.write(element);
-                }
-            }
-            catch (IOException e) {
-                Log.error(LocaleUtils.getLocalizedString("admin.error"), e);
-                // Add again the entry to the queue to save it later
-                if (xmlWriter != null) {
-                    logQueue.add(auditPacket);
-                }
-            }
-        }
-        try {
-            if (xmlWriter != null) {
-                xmlWriter.flush();
-            }
-        }
-        catch (IOException ioe) {
-            Log.error(ioe.getMessage(), ioe);
-        }
-    }
-
-    /**
-     * Wrapper on a Packet with information about the packet's status at the moment
-     * when the message was queued.<p>
+     * A packet that was serialized, together with information about the packet's status
+     * at the moment when the message was queued.<p>
      *
-     * The idea is to wrap every packet that is needed to be audited and then add the
-     * wrapper to a queue that will be later processed (i.e. saved to the XML file).
+     * The idea is to serialize every packet that is needed to be audited in the thread that
+     * processes it, and then add the result to a queue that will be later processed (i.e.
+     * appended to the XML file) by the writer thread.
      */
-    private static class AuditPacket {
+    static class AuditPacket {
 
-        private static DocumentFactory docFactory = DocumentFactory.getInstance();
+        private final byte[] data;
+        private final Date creationDate;
 
-        private Element element;
-        private Date creationDate;
+        private AuditPacket(byte[] data, Date creationDate) {
+            this.data = data;
+            this.creationDate = creationDate;
+        }
 
-        public AuditPacket(Packet packet, Session session) {
-            element = docFactory.createElement("packet", "http://www.jivesoftware.org");
-            creationDate = new Date();
+        /**
+         * Serializes a packet in a 'packet' element that records the session status and the current time.
+         *
+         * @param packet the audited packet.
+         * @param session the session used for sending or receiving the packet (can be null).
+         * @return the serialized packet.
+         */
+        static AuditPacket create(Packet packet, Session session) {
+            final Date creationDate = new Date();
+            final StringBuilder sb = new StringBuilder(512);
+            sb.append("<packet xmlns=\"http://www.jivesoftware.org\"");
             if (session != null && session.getStreamID() != null) {
-                element.addAttribute("streamID", session.getStreamID().toString());
+                sb.append(" streamID=\"").append(StringUtils.escapeForXML(session.getStreamID().toString())).append('"');
             }
             switch (session == null ? 0 : session.getStatus()) {
                 case Session.STATUS_AUTHENTICATED:
-                    element.addAttribute("status", "auth");
+                    sb.append(" status=\"auth\"");
                     break;
                 case Session.STATUS_CLOSED:
-                    element.addAttribute("status", "closed");
+                    sb.append(" status=\"closed\"");
                     break;
                 case Session.STATUS_CONNECTED:
-                    element.addAttribute("status", "connected");
+                    sb.append(" status=\"connected\"");
                     // This is a workaround. Since we don't want to have an incorrect FROM attribute
                     // value we need to clean up the FROM attribute. The FROM attribute will contain
                     // an incorrect value since we are setting a fake JID until the user actually
                     // authenticates with the server.
+                    packet = packet.createCopy();
                     packet.setFrom((String) null);
                     break;
                 default:
-                    element.addAttribute("status", "unknown");
+                    sb.append(" status=\"unknown\"");
                     break;
             }
-            element.addAttribute("timestamp", auditFormat.format(creationDate));
-            element.add(packet.getElement());
+            sb.append(" timestamp=\"").append(StringUtils.escapeForXML(auditFormat.format(creationDate))).append("\">");
+            sb.append(packet.toXML());
+            sb.append("</packet>");
+            return new AuditPacket(sb.toString().getBytes(StandardCharsets.UTF_8), creationDate);
         }
 
         /**
-         * Returns the Element associated with this audit packet.
+         * Returns the UTF-8 encoded XML of the audited packet.
          *
-         * @return the Element.
+         * @return the serialized packet.
          */
-        public Element getElement() {
-            return element;
+        byte[] getData() {
+            return data;
         }
 
         /**
@@ -473,7 +668,7 @@ public class AuditorImpl implements Auditor {
          *
          * @return the date when the packet was audited.
          */
-        public Date getCreationDate() {
+        Date getCreationDate() {
             return creationDate;
         }
     }
@@ -18,14 +18,20 @@ package org.jivesoftware.openfire.auth;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Map;
 
+import org.jivesoftware.openfire.event.UserEventAdapter;
+import org.jivesoftware.openfire.event.UserEventDispatcher;
 import org.jivesoftware.openfire.lockout.LockOutManager;
+import org.jivesoftware.openfire.user.User;
 import org.jivesoftware.openfire.user.UserNotFoundException;
 import org.jivesoftware.util.Blowfish;
 import org.jivesoftware.util.JiveGlobals;
 import org.jivesoftware.util.LocaleUtils;
 import org.jivesoftware.util.StringUtils;
 import org.jivesoftware.util.SystemProperty;
+import org.jivesoftware.util.cache.Cache;
+import org.jivesoftware.util.cache.CacheFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,6 +65,12 @@ public class AuthFactory {
     private static final Object DIGEST_LOCK = new Object();
     private static Blowfish cipher = null;
 
+    /**
+     * Short-lived cache of the SCRAM credentials of users, which prevents the credentials from being
+     * looked up repeatedly when many clients authenticate in a short period of time.
+     */
+    private static final Cache<String, ScramCredentials> scramCredentialsCache = CacheFactory.createCache("SCRAM Credentials");
+
     static {
         // Create a message digest instance.
         try {
@@ -69,6 +81,13 @@ public class AuthFactory {
         }
         // Load an auth provider.
         initProvider(AUTH_PROVIDER.getValue());
+        // Don't keep the credentials of deleted users.
+        UserEventDispatcher.addListener(new UserEventAdapter() {
+            @Override
+            public void userDeleting(User user, Map params) {
+                removeScramCredentials(user.getUsername());
+            }
+        });
     }
 
     private static void initProvider(final Class clazz) {
@@ -77,6 +96,7 @@ public class AuthFactory {
         if (authProvider == null || !clazz.equals(authProvider.getClass())) {
             try {
                 authProvider = (AuthProvider)clazz.newInstance();
+                scramCredentialsCache.clear();
             }
             catch (Exception e) {
                 Log.error("Error loading auth provider: " + clazz.getName(), e);
@@ -160,6 +180,7 @@ public class AuthFactory {
     public static void setPassword(String username, String password) throws UserNotFoundException, 
             UnsupportedOperationException, ConnectionException, InternalUnauthenticatedException {
             authProvider.setPassword(username, password);
+            removeScramCredentials(username);
         }
 
     /**
@@ -281,6 +302,10 @@ public class AuthFactory {
         return authProvider.isScramSupported();
     }
 
+    public static boolean supportsScram(ScramHash hash) {
+        return authProvider.isScramSupported(hash);
+    }
+
     public static String getSalt(String username) throws UnsupportedOperationException, UserNotFoundException {
         return authProvider.getSalt(username);
     }
@@ -294,6 +319,48 @@ public class AuthFactory {
         return authProvider.getStoredKey(username);
     }
 
+    /**
+     * Returns all values that are needed to authenticate a user using SCRAM-SHA-1.
+     *
+     * @param username the username of the user.
+     * @return the SCRAM credentials of the user.
+     * @throws UserNotFoundException if the given user could not be loaded.
+     * @throws UnsupportedOperationException if the provider does not support SCRAM.
+     * @see #getScramCredentials(String, ScramHash)
+     */
+    public static ScramCredentials getScramCredentials(String username) throws UnsupportedOperationException, UserNotFoundException {
+        return getScramCredentials(username, ScramHash.SHA_1);
+    }
+
+    /**
+     * Returns all values that are needed to authenticate a user using a SCRAM mechanism that uses
+     * the provided hash function. Complete credentials are cached for a short period of time, until
+     * the password of the user is changed.
+     *
+     * @param username the username of the user.
+     * @param hash the hash function of a SCRAM mechanism.
+     * @return the SCRAM credentials of the user.
+     * @throws UserNotFoundException if the given user could not be loaded.
+     * @throws UnsupportedOperationException if the provider does not support SCRAM with the hash function.
+     */
+    public static ScramCredentials getScramCredentials(String username, ScramHash hash) throws UnsupportedOperationException, UserNotFoundException {
+        final String key = hash.name() + ':' + username;
+        ScramCredentials credentials = scramCredentialsCache.get(key);
+        if (credentials == null) {
+            credentials = authProvider.getScramCredentials(username, hash);
+            if (credentials.isComplete()) {
+                scramCredentialsCache.put(key, credentials);
+            }
+        }
+        return credentials;
+    }
+
+    private static void removeScramCredentials(String username) {
+        for (final ScramHash hash : ScramHash.values()) {
+            scramCredentialsCache.remove(hash.name() + ':' + username);
+        }
+    }
+
     public static final String ONE_TIME_PROPERTY = "oneTimeAccessToken";
 
     public static boolean isOneTimeAccessTokenEnabled() {
@@ -90,4 +90,47 @@ public interface AuthProvider {
     int getIterations(String username) throws UnsupportedOperationException, UserNotFoundException;
     String getServerKey(String username) throws UnsupportedOperationException, UserNotFoundException;
     String getStoredKey(String username) throws UnsupportedOperationException, UserNotFoundException;
+
+    /**
+     * Returns all values that are needed to authenticate a user using SCRAM. Implementations that
+     * can obtain these values in one lookup should override this method, which by default invokes
+     * {@link #getSalt(String)}, {@link #getIterations(String)}, {@link #getStoredKey(String)} and
+     * {@link #getServerKey(String)}.
+     *
+     * @param username the username of the user.
+     * @return the SCRAM credentials of the user.
+     * @throws UserNotFoundException if the given user could not be loaded.
+     * @throws UnsupportedOperationException if the provider does not support SCRAM.
+     */
+    default ScramCredentials getScramCredentials(String username) throws UnsupportedOperationException, UserNotFoundException {
+        return new ScramCredentials(getSalt(username), getIterations(username), getStoredKey(username), getServerKey(username));
+    }
+
+    /**
+     * Returns true if this provider can provide SCRAM credentials for the provided hash function.
+     * By default, only SHA-1 is supported (when {@link #isScramSupported()} returns true).
+     *
+     * @param hash the hash function of a SCRAM mechanism.
+     * @return true if SCRAM credentials for the hash function can be obtained.
+     */
+    default boolean isScramSupported(ScramHash hash) {
+        return hash == ScramHash.SHA_1 && isScramSupported();
+    }
+
+    /**
+     * Returns all values that are needed to authenticate a user using a SCRAM mechanism that uses
+     * the provided hash function.
+     *
+     * @param username the username of the user.
+     * @param hash the hash function of a SCRAM mechanism.
+     * @return the SCRAM credentials of the user.
+     * @throws UserNotFoundException if the given user could not be loaded.
+     * @throws UnsupportedOperationException if the provider does not support SCRAM with the hash function.
+     */
+    default ScramCredentials getScramCredentials(String username, ScramHash hash) throws UnsupportedOperationException, UserNotFoundException {
+        if (hash != ScramHash.SHA_1) {
+            throw new UnsupportedOperationException();
+        }
+        return getScramCredentials(username);
+    }
 }
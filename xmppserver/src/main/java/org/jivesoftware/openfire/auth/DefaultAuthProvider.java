@@ -32,6 +32,7 @@ import org.jivesoftware.database.DbConnectionManager;
 import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.openfire.sasl.ScramSha1SaslServer;
 import org.jivesoftware.openfire.user.UserNotFoundException;
+import org.jivesoftware.util.JiveConstants;
 import org.jivesoftware.util.JiveGlobals;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,12 +53,26 @@ public class DefaultAuthProvider implements AuthProvider {
         private static final String LOAD_PASSWORD =
                 "SELECT plainPassword,encryptedPassword FROM ofUser WHERE username=?";
         private static final String TEST_PASSWORD =
-                "SELECT plainPassword,encryptedPassword,iterations,salt,storedKey,serverKey FROM ofUser WHERE username=?";
+                "SELECT plainPassword,encryptedPassword,iterations,salt,storedKey,serverKey,storedKeySha256,serverKeySha256 FROM ofUser WHERE username=?";
+    private static final String COUNT_WITHOUT_SHA256 =
+            "SELECT COUNT(*) FROM ofUser WHERE storedKeySha256 IS NULL AND plainPassword IS NULL AND encryptedPassword IS NULL";
     private static final String UPDATE_PASSWORD =
-            "UPDATE ofUser SET plainPassword=?, encryptedPassword=?, storedKey=?, serverKey=?, salt=?, iterations=? WHERE username=?";
+            "UPDATE ofUser SET plainPassword=?, encryptedPassword=?, storedKey=?, serverKey=?, storedKeySha256=?, serverKeySha256=?, salt=?, iterations=? WHERE username=?";
     
     private static final SecureRandom random = new SecureRandom();
 
+    /**
+     * The minimum time between two checks for users that cannot get SHA-256 SCRAM credentials.
+     */
+    private static final long SHA256_CHECK_INTERVAL = JiveConstants.MINUTE;
+
+    /**
+     * True when every user has SHA-256 SCRAM credentials, or has a password from which they can be derived. As
+     * passwords are always stored with SHA-256 credentials, this never changes back to false.
+     */
+    private volatile boolean sha256Available = false;
+    private volatile long sha256CheckedAt = 0;
+
     /**
      * Constructs a new DefaultAuthProvider.
      */
@@ -72,11 +87,14 @@ public class DefaultAuthProvider implements AuthProvider {
         String salt;
         String storedKey;
         String serverKey;
+        String storedKeySha256;
+        String serverKeySha256;
     }
 
     private UserInfo getUserInfo(String username) throws UnsupportedOperationException, UserNotFoundException {
         return getUserInfo(username, false);
     }
+
     private UserInfo getUserInfo(String username, boolean recurse) throws UnsupportedOperationException, UserNotFoundException {
         if (!isScramSupported()) {
             // Reject the operation since the provider  does not support SCRAM
@@ -100,6 +118,8 @@ public class DefaultAuthProvider implements AuthProvider {
             userInfo.salt = rs.getString(4);
             userInfo.storedKey = rs.getString(5);
             userInfo.serverKey = rs.getString(6);
+            userInfo.storedKeySha256 = rs.getString(7);
+            userInfo.serverKeySha256 = rs.getString(8);
             if (userInfo.encrypted != null) {
                 try {
                     userInfo.plainText = AuthFactory.decryptPassword(userInfo.encrypted);
@@ -108,15 +128,18 @@ public class DefaultAuthProvider implements AuthProvider {
                     // Ignore and return plain password instead.
                 }
             }
-            if (!recurse) {
-                if (userInfo.plainText != null) {
-                    boolean scramOnly = JiveGlobals.getBooleanProperty("user.scramHashedPasswordOnly");
-                    if (scramOnly || userInfo.salt == null) {
-                        // If we have a password here, but we're meant to be scramOnly, we should reset it.
-                        setPassword(username, userInfo.plainText);
+            if (!recurse && userInfo.plainText != null) {
+                boolean scramOnly = JiveGlobals.getBooleanProperty("user.scramHashedPasswordOnly");
+                if (scramOnly || userInfo.salt == null) {
+                    // If we have a password here, but we're meant to be scramOnly or lack SCRAM credentials, we should
+                    // reset it. That's expensive, so it's done in the background when many users are being migrated.
+                    // Credentials that are missing for only some of the hash functions are derived when a client asks
+                    // for them (see ScramSaslServer).
+                    if (ScramCredentialDeriver.deriveNow(username, userInfo.plainText)) {
                         // RECURSE
                         return getUserInfo(username, true);
                     }
+                    ScramCredentialDeriver.derive(username, userInfo.plainText);
                 }
             }
             // Good to go.
@@ -151,6 +174,24 @@ public class DefaultAuthProvider implements AuthProvider {
         return getUserInfo(username).serverKey;
     }
 
+    @Override
+    public ScramCredentials getScramCredentials(String username) throws UserNotFoundException {
+        return getScramCredentials(username, ScramHash.SHA_1);
+    }
+
+    @Override
+    public ScramCredentials getScramCredentials(String username, ScramHash hash) throws UserNotFoundException {
+        final UserInfo userInfo = getUserInfo(username);
+        switch (hash) {
+            case SHA_1:
+                return new ScramCredentials(userInfo.salt, userInfo.iterations, userInfo.storedKey, userInfo.serverKey);
+            case SHA_256:
+                return new ScramCredentials(userInfo.salt, userInfo.iterations, userInfo.storedKeySha256, userInfo.serverKeySha256);
+            default:
+                throw new UnsupportedOperationException();
+        }
+    }
+
     @Override
     public void authenticate(String username, String password) throws UnauthorizedException {
         if (username == null || password == null) {
@@ -270,7 +311,7 @@ public class DefaultAuthProvider implements AuthProvider {
                 boolean scramOnly = JiveGlobals.getBooleanProperty("user.scramHashedPasswordOnly");
                 if (scramOnly) {
                     // If we have a password here, but we're meant to be scramOnly, we should reset it.
-                    setPassword(username, plainText);
+                    ScramCredentialDeriver.derive(username, plainText);
                 }
                 return testPassword.equals(plainText);
             }
@@ -318,7 +359,7 @@ public class DefaultAuthProvider implements AuthProvider {
             }
         }
         
-        // Store the salt and salted password so SCRAM-SHA-1 SASL auth can be used later.
+        // Store the salt and salted password so SCRAM-SHA-1 and SCRAM-SHA-256 SASL auth can be used later.
         byte[] saltShaker = new byte[24];
         random.nextBytes(saltShaker);
         String salt = DatatypeConverter.printBase64Binary(saltShaker);
@@ -334,6 +375,15 @@ public class DefaultAuthProvider implements AuthProvider {
        } catch (SaslException | NoSuchAlgorithmException e) {
            Log.warn("Unable to persist values for SCRAM authentication.");
        }
+        byte[] storedKeySha256 = null, serverKeySha256 = null;
+        try {
+            saltedPassword = ScramUtils.createSaltedPassword(saltShaker, password, iterations, ScramHash.SHA_256);
+            clientKey = ScramUtils.computeHmac(saltedPassword, "Client Key", ScramHash.SHA_256);
+            storedKeySha256 = ScramUtils.computeHash(clientKey, ScramHash.SHA_256);
+            serverKeySha256 = ScramUtils.computeHmac(saltedPassword, "Server Key", ScramHash.SHA_256);
+        } catch (SaslException e) {
+            Log.warn("Unable to persist values for SCRAM-SHA-256 authentication.");
+        }
    
         if (!scramOnly && !usePlainPassword) {
             try {
@@ -380,9 +430,21 @@ public class DefaultAuthProvider implements AuthProvider {
             else {
                 pstmt.setString(4, DatatypeConverter.printBase64Binary(serverKey));
             }
-            pstmt.setString(5, salt);
-            pstmt.setInt(6, iterations);
-            pstmt.setString(7, username);
+            if (storedKeySha256 == null) {
+                pstmt.setNull(5, Types.VARCHAR);
+            }
+            else {
+                pstmt.setString(5, DatatypeConverter.printBase64Binary(storedKeySha256));
+            }
+            if (serverKeySha256 == null) {
+                pstmt.setNull(6, Types.VARCHAR);
+            }
+            else {
+                pstmt.setString(6, DatatypeConverter.printBase64Binary(serverKeySha256));
+            }
+            pstmt.setString(7, salt);
+            pstmt.setInt(8, iterations);
+            pstmt.setString(9, username);
             pstmt.executeUpdate();
         }
         catch (SQLException sqle) {
@@ -403,4 +465,37 @@ public class DefaultAuthProvider implements AuthProvider {
     public boolean isScramSupported() {
         return true;
     }
+
+    /**
+     * SHA-256 credentials can be derived from the password of a user on demand. When only SCRAM credentials are
+     * stored (see {@code user.scramHashedPasswordOnly}), users that have no SHA-256 credentials will not get them
+     * until their password is set again, so SHA-256 is not supported until no such users are left.
+     */
+    @Override
+    public boolean isScramSupported(ScramHash hash) {
+        if (hash != ScramHash.SHA_256 || sha256Available) {
+            return true;
+        }
+        final long now = System.currentTimeMillis();
+        if (now - sha256CheckedAt < SHA256_CHECK_INTERVAL) {
+            return false;
+        }
+        sha256CheckedAt = now;
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            con = DbConnectionManager.getConnection();
+            pstmt = con.prepareStatement(COUNT_WITHOUT_SHA256);
+            rs = pstmt.executeQuery();
+            sha256Available = rs.next() && rs.getInt(1) == 0;
+        }
+        catch (SQLException sqle) {
+            Log.error("Unable to check if all users can use SCRAM with SHA-256.", sqle);
+        }
+        finally {
+            DbConnectionManager.closeConnection(rs, pstmt, con);
+        }
+        return sha256Available;
+    }
 }
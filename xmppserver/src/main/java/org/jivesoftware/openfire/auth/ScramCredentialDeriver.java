@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.auth;
+
+import org.jivesoftware.util.NamedThreadFactory;
+import org.jivesoftware.util.SystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Derives the SCRAM credentials of users from their password.
+ *
+ * Deriving credentials involves thousands of iterations of a hash function for each supported hash
+ * function. A login that needs credentials derives them on its own thread with {@link #deriveNow(String, String)},
+ * so that it can succeed at once. When many users that have no (complete) SCRAM credentials yet log in at the
+ * same time, for example after an upgrade, doing all of that on the threads that process network traffic would
+ * delay the processing of all other data. The number of such derivations that run at the same time is therefore
+ * limited. Beyond that limit, credentials are derived on a bounded pool of background threads with
+ * {@link #derive(String, String)}. The pool limits the number of derivations that run concurrently and the number
+ * of derivations that can be queued; when the queue is full, derivations are rejected.
+ *
+ * Concurrent requests to derive the credentials of the same user share one derivation.
+ */
+public class ScramCredentialDeriver {
+
+    private static final Logger Log = LoggerFactory.getLogger(ScramCredentialDeriver.class);
+
+    public static final SystemProperty<Integer> MAX_CONCURRENT = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("sasl.scram.derivation.max-concurrent")
+        .setDefaultValue(2)
+        .setMinValue(1)
+        .setDynamic(false)
+        .build();
+
+    public static final SystemProperty<Integer> MAX_QUEUED = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("sasl.scram.derivation.max-queued")
+        .setDefaultValue(1000)
+        .setMinValue(1)
+        .setDynamic(false)
+        .build();
+
+    public static final SystemProperty<Integer> MAX_INLINE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("sasl.scram.derivation.max-inline")
+        .setDefaultValue(4)
+        .setMinValue(0)
+        .setDynamic(false)
+        .build();
+
+    private static final ConcurrentMap<String, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+
+    private static final Semaphore inlinePermits = new Semaphore(MAX_INLINE.getValue());
+
+    private static ThreadPoolExecutor executor;
+
+    private ScramCredentialDeriver() {
+    }
+
+    /**
+     * Returns the derivation of the credentials of a user that has been scheduled or is in progress.
+     *
+     * @param username the username of the user.
+     * @return the pending derivation, or null if no derivation is pending.
+     */
+    public static CompletableFuture<Void> getPending(String username) {
+        return pending.get(username);
+    }
+
+    /**
+     * Schedules the derivation of the credentials of a user from a password, by setting the password
+     * of the user through {@link AuthFactory#setPassword(String, String)}. When a derivation is already
+     * pending for the user, that derivation is returned instead.
+     *
+     * @param username the username of the user.
+     * @param password the (current) password of the user.
+     * @return the derivation, which completes exceptionally when the password could not be set, or
+     *         when the derivation was rejected because too many derivations are queued.
+     */
+    public static CompletableFuture<Void> derive(String username, String password) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final CompletableFuture<Void> existing = pending.putIfAbsent(username, future);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            getExecutor().execute(() -> {
+                try {
+                    AuthFactory.setPassword(username, password);
+                    future.complete(null);
+                } catch (Exception e) {
+                    Log.warn("Unable to derive SCRAM credentials of user '{}'.", username, e);
+                    future.completeExceptionally(e);
+                } finally {
+                    pending.remove(username, future);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.debug("Not deriving SCRAM credentials of user '{}', as too many derivations are queued.", username);
+            pending.remove(username, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Derives the credentials of a user from a password on the calling thread, by setting the password of the user
+     * through {@link AuthFactory#setPassword(String, String)}. This does nothing when too many derivations are
+     * running on other threads already, or when a derivation is pending for the user.
+     *
+     * @param username the username of the user.
+     * @param password the (current) password of the user.
+     * @return true if the credentials were derived, false otherwise.
+     */
+    public static boolean deriveNow(String username, String password) {
+        if (pending.containsKey(username) || !inlinePermits.tryAcquire()) {
+            return false;
+        }
+        try {
+            AuthFactory.setPassword(username, password);
+            return true;
+        } catch (Exception e) {
+            Log.warn("Unable to derive SCRAM credentials of user '{}'.", username, e);
+            return false;
+        } finally {
+            inlinePermits.release();
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            final int threads = MAX_CONCURRENT.getValue();
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(MAX_QUEUED.getValue()),
+                new NamedThreadFactory("scram-derivation-", null, true, null));
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+}
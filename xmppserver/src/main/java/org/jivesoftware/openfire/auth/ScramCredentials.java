@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.auth;
+
+import org.jivesoftware.util.cache.CacheSizes;
+import org.jivesoftware.util.cache.Cacheable;
+import org.jivesoftware.util.cache.ExternalizableUtil;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * The values that are stored for a user to authenticate that user using SCRAM: the salt, the
+ * iteration count, the stored key and the server key. The salt and keys are Base64 encoded, like
+ * they are returned by {@link AuthProvider#getSalt(String)} and related methods.
+ *
+ * Instances are immutable.
+ */
+public class ScramCredentials implements Cacheable, Externalizable {
+
+    private String salt;
+    private int iterations;
+    private String storedKey;
+    private String serverKey;
+
+    /**
+     * Constructor added for Externalizable. Do not use this constructor.
+     */
+    public ScramCredentials() {
+    }
+
+    /**
+     * Creates the SCRAM credentials of a user.
+     *
+     * @param salt the Base64 encoded salt (can be null).
+     * @param iterations the iteration count.
+     * @param storedKey the Base64 encoded stored key (can be null).
+     * @param serverKey the Base64 encoded server key (can be null).
+     */
+    public ScramCredentials(String salt, int iterations, String storedKey, String serverKey) {
+        this.salt = salt;
+        this.iterations = iterations;
+        this.storedKey = storedKey;
+        this.serverKey = serverKey;
+    }
+
+    /**
+     * Returns the Base64 encoded salt.
+     *
+     * @return the salt, or null if no salt is stored for the user.
+     */
+    public String getSalt() {
+        return salt;
+    }
+
+    /**
+     * Returns the number of iterations that were used to salt the password.
+     *
+     * @return the iteration count.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Returns the Base64 encoded stored key.
+     *
+     * @return the stored key, or null if no stored key is stored for the user.
+     */
+    public String getStoredKey() {
+        return storedKey;
+    }
+
+    /**
+     * Returns the Base64 encoded server key.
+     *
+     * @return the server key, or null if no server key is stored for the user.
+     */
+    public String getServerKey() {
+        return serverKey;
+    }
+
+    /**
+     * Returns true if all values that are needed to authenticate a user using SCRAM are available.
+     *
+     * @return true if these credentials can be used for SCRAM authentication.
+     */
+    public boolean isComplete() {
+        return salt != null && iterations > 0 && storedKey != null && serverKey != null;
+    }
+
+    @Override
+    public int getCachedSize() {
+        // Approximate the size of the object in bytes by calculating the size
+        // of each field.
+        int size = 0;
+        size += CacheSizes.sizeOfObject();              // overhead of object
+        size += CacheSizes.sizeOfString(salt);
+        size += CacheSizes.sizeOfInt();
+        size += CacheSizes.sizeOfString(storedKey);
+        size += CacheSizes.sizeOfString(serverKey);
+        return size;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        writeNullableString(out, salt);
+        ExternalizableUtil.getInstance().writeInt(out, iterations);
+        writeNullableString(out, storedKey);
+        writeNullableString(out, serverKey);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        salt = readNullableString(in);
+        iterations = ExternalizableUtil.getInstance().readInt(in);
+        storedKey = readNullableString(in);
+        serverKey = readNullableString(in);
+    }
+
+    private static void writeNullableString(ObjectOutput out, String value) throws IOException {
+        ExternalizableUtil.getInstance().writeBoolean(out, value != null);
+        if (value != null) {
+            ExternalizableUtil.getInstance().writeSafeUTF(out, value);
+        }
+    }
+
+    private static String readNullableString(ObjectInput in) throws IOException {
+        if (ExternalizableUtil.getInstance().readBoolean(in)) {
+            return ExternalizableUtil.getInstance().readSafeUTF(in);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.auth;
+
+/**
+ * The hash functions that are supported for Salted Challenge Response Authentication Mechanism
+ * (SCRAM). SCRAM credentials (the stored key and the server key) are specific to a hash function.
+ */
+public enum ScramHash {
+
+    /**
+     * SHA-1, as used by the SCRAM-SHA-1 mechanism (RFC 5802).
+     */
+    SHA_1("SCRAM-SHA-1", "SHA-1", "HmacSHA1"),
+
+    /**
+     * SHA-256, as used by the SCRAM-SHA-256 mechanism (RFC 7677).
+     */
+    SHA_256("SCRAM-SHA-256", "SHA-256", "HmacSHA256");
+
+    private final String mechanismName;
+    private final String digestAlgorithm;
+    private final String hmacAlgorithm;
+
+    ScramHash(String mechanismName, String digestAlgorithm, String hmacAlgorithm) {
+        this.mechanismName = mechanismName;
+        this.digestAlgorithm = digestAlgorithm;
+        this.hmacAlgorithm = hmacAlgorithm;
+    }
+
+    /**
+     * Returns the name of the SASL mechanism that uses this hash function (without channel binding).
+     *
+     * @return a SASL mechanism name, such as "SCRAM-SHA-1".
+     */
+    public String getMechanismName() {
+        return mechanismName;
+    }
+
+    /**
+     * Returns the name of the message digest algorithm of this hash function.
+     *
+     * @return a {@link java.security.MessageDigest} algorithm name.
+     */
+    public String getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    /**
+     * Returns the name of the HMAC algorithm of this hash function.
+     *
+     * @return a {@link javax.crypto.Mac} algorithm name.
+     */
+    public String getHmacAlgorithm() {
+        return hmacAlgorithm;
+    }
+}
@@ -18,6 +18,7 @@ package org.jivesoftware.openfire.auth;
 
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 import javax.crypto.Mac;
@@ -37,7 +38,11 @@ public class ScramUtils {
     private ScramUtils() {}
 
     public static byte[] createSaltedPassword(byte[] salt, String password, int iters) throws SaslException {
-        Mac mac = createSha1Hmac(password.getBytes(StandardCharsets.UTF_8));
+        return createSaltedPassword(salt, password, iters, ScramHash.SHA_1);
+    }
+
+    public static byte[] createSaltedPassword(byte[] salt, String password, int iters, ScramHash hash) throws SaslException {
+        Mac mac = createHmac(password.getBytes(StandardCharsets.UTF_8), hash);
         mac.update(salt);
         mac.update(new byte[]{0, 0, 0, 1});
         byte[] result = mac.doFinal();
@@ -56,20 +61,47 @@ public class ScramUtils {
     
     public static byte[] computeHmac(final byte[] key, final String string)
             throws SaslException {
-        Mac mac = createSha1Hmac(key);
+        return computeHmac(key, string, ScramHash.SHA_1);
+    }
+
+    public static byte[] computeHmac(final byte[] key, final String string, final ScramHash hash)
+            throws SaslException {
+        Mac mac = createHmac(key, hash);
         mac.update(string.getBytes(StandardCharsets.UTF_8));
         return mac.doFinal();
     }
 
     public static Mac createSha1Hmac(final byte[] keyBytes)
             throws SaslException {
+        return createHmac(keyBytes, ScramHash.SHA_1);
+    }
+
+    public static Mac createHmac(final byte[] keyBytes, final ScramHash hash)
+            throws SaslException {
         try {
-            SecretKeySpec key = new SecretKeySpec(keyBytes, "HmacSHA1");
-            Mac mac = Mac.getInstance("HmacSHA1");
+            SecretKeySpec key = new SecretKeySpec(keyBytes, hash.getHmacAlgorithm());
+            Mac mac = Mac.getInstance(hash.getHmacAlgorithm());
             mac.init(key);
             return mac;
         } catch (NoSuchAlgorithmException | InvalidKeyException e) {
             throw new SaslException(e.getMessage(), e);
         }
     }
+
+    /**
+     * Computes the hash of a value, using the hash function of a SCRAM mechanism (this is the H() function of RFC 5802).
+     *
+     * @param value the value to hash.
+     * @param hash the hash function to use.
+     * @return the hash of the value.
+     * @throws SaslException if the hash function is not available.
+     */
+    public static byte[] computeHash(final byte[] value, final ScramHash hash)
+            throws SaslException {
+        try {
+            return MessageDigest.getInstance(hash.getDigestAlgorithm()).digest(value);
+        } catch (NoSuchAlgorithmException e) {
+            throw new SaslException(e.getMessage(), e);
+        }
+    }
 }
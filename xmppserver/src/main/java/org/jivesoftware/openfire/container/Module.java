@@ -18,6 +18,8 @@ package org.jivesoftware.openfire.container;
 
 import org.jivesoftware.openfire.XMPPServer;
 
+import java.util.Collection;
+
 /**
  * Logical, server-managed entities must implement this interface. A module
  * represents an operational unit and may contain zero or more services
@@ -68,6 +70,22 @@ public interface Module {
      */
     void start();
 
+    /**
+     * Returns the modules that must have been started before this module can be started.<p>
+     *
+     * By default, this method returns null, which causes the module to be started on the thread
+     * that starts the server, in the order in which the modules were loaded. Modules that return a
+     * (possibly empty) collection are started on a background thread, concurrently with other
+     * modules, as soon as the modules in the collection have been started. Only modules that do not
+     * depend on other modules than those in the collection should do so. Either way, all modules
+     * are started before the server starts accepting connections.
+     *
+     * @return the classes of the modules that this module depends on, or null.
+     */
+    default Collection<Class<? extends Module>> getStartDependencies() {
+        return null;
+    }
+
     /**
      * Stop the module. The module should attempt to free up threads
      * and prepare for either another call to initialize (reconfigure the module)
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.container;
+
+import org.jivesoftware.util.SystemProperty;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long it took to initialize and start each module, so that the modules that slow down
+ * server startup can be identified.
+ */
+public class StartupTimeline
+{
+    /**
+     * The maximum number of modules that are started concurrently, when they declare the modules that they depend on.
+     */
+    public static final SystemProperty<Integer> MODULE_THREADS = SystemProperty.Builder.ofType( Integer.class )
+        .setKey( "xmpp.startup.moduleThreads" )
+        .setDefaultValue( 4 )
+        .setMinValue( 1 )
+        .setDynamic( false )
+        .build();
+
+    private final long origin = System.nanoTime();
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * Records the initialization of a module.
+     *
+     * @param moduleName the name of the module.
+     * @param begin the value of {@link System#nanoTime()} before the module was initialized.
+     * @param end the value of {@link System#nanoTime()} after the module was initialized.
+     */
+    public synchronized void recordInitialization( final String moduleName, final long begin, final long end )
+    {
+        getEntry( moduleName ).initializationMillis = TimeUnit.NANOSECONDS.toMillis( end - begin );
+    }
+
+    /**
+     * Records the start of a module.
+     *
+     * @param moduleName the name of the module.
+     * @param begin the value of {@link System#nanoTime()} before the module was started.
+     * @param end the value of {@link System#nanoTime()} after the module was started.
+     */
+    public synchronized void recordStart( final String moduleName, final long begin, final long end )
+    {
+        final Entry entry = getEntry( moduleName );
+        entry.startOffsetMillis = TimeUnit.NANOSECONDS.toMillis( begin - origin );
+        entry.startMillis = TimeUnit.NANOSECONDS.toMillis( end - begin );
+        entry.startThread = Thread.currentThread().getName();
+    }
+
+    private Entry getEntry( final String moduleName )
+    {
+        return entries.computeIfAbsent( moduleName, Entry::new );
+    }
+
+    /**
+     * Returns the recorded modules, in the order in which they were first recorded.
+     *
+     * @return the entries of this timeline (never null).
+     */
+    public synchronized List<Entry> getEntries()
+    {
+        final List<Entry> result = new ArrayList<>();
+        for ( final Entry entry : entries.values() )
+        {
+            result.add( entry.copy() );
+        }
+        return result;
+    }
+
+    /**
+     * Logs the recorded durations, one line per module.
+     *
+     * @param logger the logger to log to.
+     */
+    public void log( final Logger logger )
+    {
+        logger.info( "Module startup timeline (initialization, start offset, start duration, thread):" );
+        for ( final Entry entry : getEntries() )
+        {
+            logger.info( "  {}: {} ms, +{} ms, {} ms, {}", entry.getModuleName(), entry.getInitializationMillis(), entry.getStartOffsetMillis(), entry.getStartMillis(), entry.getStartThread() );
+        }
+    }
+
+    /**
+     * The recorded durations of one module. Durations that were not recorded are -1.
+     */
+    public static class Entry
+    {
+        private final String moduleName;
+        private long initializationMillis = -1;
+        private long startOffsetMillis = -1;
+        private long startMillis = -1;
+        private String startThread;
+
+        private Entry( final String moduleName )
+        {
+            this.moduleName = moduleName;
+        }
+
+        private Entry copy()
+        {
+            final Entry copy = new Entry( moduleName );
+            copy.initializationMillis = initializationMillis;
+            copy.startOffsetMillis = startOffsetMillis;
+            copy.startMillis = startMillis;
+            copy.startThread = startThread;
+            return copy;
+        }
+
+        public String getModuleName()
+        {
+            return moduleName;
+        }
+
+        /**
+         * @return the time it took to initialize the module, in milliseconds.
+         */
+        public long getInitializationMillis()
+        {
+            return initializationMillis;
+        }
+
+        /**
+         * @return the time between the creation of this timeline (before modules were loaded) and the start of the module, in milliseconds.
+         */
+        public long getStartOffsetMillis()
+        {
+            return startOffsetMillis;
+        }
+
+        /**
+         * @return the time it took to start the module, in milliseconds.
+         */
+        public long getStartMillis()
+        {
+            return startMillis;
+        }
+
+        /**
+         * @return the name of the thread that started the module.
+         */
+        public String getStartThread()
+        {
+            return startThread;
+        }
+    }
+}
@@ -35,6 +35,8 @@ import org.slf4j.LoggerFactory;
  * <tr><td>{@link EventType#group_deleting group_deleting}</td><td><i>None</i></td></tr>
  * <tr><td>{@link EventType#member_added member_added}</td><td>A param named {@code member} with a String username as a
  *      payload</td></tr>
+ * <tr><td>{@link EventType#members_added members_added}</td><td>A param named {@code members} with a Collection of
+ *      String usernames as a payload</td></tr>
  * <tr><td>{@link EventType#member_removed member_removed}</td><td>A param named {@code member} with a String username as a
  *      payload</td></tr>
  * <tr><td>{@link EventType#admin_added admin_added}</td><td>A param named {@code admin} with a String username
@@ -129,6 +131,12 @@ public class GroupEventDispatcher {
                         listener.memberAdded(group, params);
                         break;
                     }
+                    case members_added: {
+                        @SuppressWarnings("unchecked")
+                        final Map<String, Object> membersParams = params;
+                        listener.membersAdded(group, membersParams);
+                        break;
+                    }
                     case member_removed: {
                         listener.memberRemoved(group, params);
                         break;
@@ -182,6 +190,11 @@ public class GroupEventDispatcher {
          */
         member_added,
 
+        /**
+         * Several members were added to a group at once.
+         */
+        members_added,
+
         /**
          * A member was removed from a group.
          */
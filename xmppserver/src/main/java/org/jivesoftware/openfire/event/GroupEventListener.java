@@ -18,6 +18,8 @@ package org.jivesoftware.openfire.event;
 
 import org.jivesoftware.openfire.group.Group;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -61,6 +63,28 @@ public interface GroupEventListener {
      */
     void memberAdded( Group group, Map params );
 
+    /**
+     * Several members were added to a group at once. The {@code members} parameter holds a
+     * collection of the addresses of the added members.
+     *
+     * The default implementation invokes {@link #memberAdded(Group, Map)} for each added member.
+     * Listeners that can process all members in one go should override this method.
+     *
+     * @param group the group.
+     * @param params event parameters.
+     */
+    default void membersAdded( Group group, Map<String, Object> params ) {
+        final Collection<?> members = (Collection<?>) params.get( "members" );
+        if ( members == null ) {
+            return;
+        }
+        for ( final Object member : members ) {
+            final Map<String, String> memberParams = new HashMap<>();
+            memberParams.put( "member", member.toString() );
+            memberAdded( group, memberParams );
+        }
+    }
+
     /**
      * A member was removed from a group.
      *
@@ -60,6 +60,15 @@ public abstract class AbstractGroupProvider implements GroupProvider {
         throw new UnsupportedOperationException("Cannot add members to read-only groups");
     }
 
+    /**
+     * @throws UnsupportedOperationException if the provider is read only
+     */
+    @Override
+    public void addMembers(String groupName, Collection<JID> users, boolean administrator)
+    {
+        throw new UnsupportedOperationException("Cannot add members to read-only groups");
+    }
+
     /**
      * @throws UnsupportedOperationException if the provider is read only
      */
@@ -331,6 +331,44 @@ public class DefaultGroupProvider extends AbstractGroupProvider {
         }
     }
 
+    @Override
+    public void addMembers(String groupName, Collection<JID> users, boolean administrator) {
+        if (users.isEmpty()) {
+            return;
+        }
+        Connection con = null;
+        boolean abortTransaction = false;
+        try {
+            con = DbConnectionManager.getTransactionConnection();
+            insertMembers(con, groupName, users, administrator);
+        }
+        catch (SQLException e) {
+            Log.error(e.getMessage(), e);
+            abortTransaction = true;
+        }
+        finally {
+            DbConnectionManager.closeTransactionConnection(con, abortTransaction);
+        }
+    }
+
+    /**
+     * Inserts several entities of a group as one batch, using the given connection.
+     *
+     * @param con the database connection to use for the operation.
+     * @param groupName the group to add the members to
+     * @param users the JIDs of the entities to add
+     * @param administrator True if the members are administrators of the group
+     * @throws SQLException if the entities could not be inserted.
+     */
+    /* Exposed for test use only */
+    void insertMembers(Connection con, String groupName, Collection<JID> users, boolean administrator) throws SQLException {
+        DbConnectionManager.executeBatch(con, ADD_USER, users, (pstmt, user) -> {
+            pstmt.setString(1, groupName);
+            pstmt.setString(2, server.isLocal(user) ? user.getNode() : user.toString());
+            pstmt.setInt(3, administrator ? 1 : 0);
+        });
+    }
+
     @Override
     public void updateMember(String groupName, JID user, boolean administrator) {
         Connection con = null;
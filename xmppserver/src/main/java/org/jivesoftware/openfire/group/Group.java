@@ -21,11 +21,13 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.util.AbstractCollection;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListSet;
@@ -282,6 +284,44 @@ public class Group implements Cacheable, Externalizable {
         return new MemberCollection(members, false);
     }
 
+    /**
+     * Adds several users to the group as members. Users that already are a member or
+     * administrator of the group are ignored. Compared to adding users one by one via
+     * {@link #getMembers()}, the users are stored by the group provider in one operation
+     * and a single {@link GroupEventDispatcher.EventType#members_added members_added} event
+     * is fired.
+     *
+     * @param users the users to add as members.
+     * @return the users that were added (never null).
+     */
+    public Collection<JID> addMembers(Collection<JID> users) {
+        // Do nothing if the provider is read-only.
+        if (provider.isReadOnly()) {
+            return Collections.emptyList();
+        }
+        final List<JID> added = new ArrayList<>();
+        for (JID user : users) {
+            if (!administrators.contains(user) && members.add(user)) {
+                added.add(user);
+            }
+        }
+        if (added.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // Add the group users to the backend store.
+        provider.addMembers(name, added, false);
+
+        // Fire event.
+        final List<String> addedMembers = new ArrayList<>(added.size());
+        for (JID user : added) {
+            addedMembers.add(user.toString());
+        }
+        Map<String, Object> params = new HashMap<>();
+        params.put("members", addedMembers);
+        GroupEventDispatcher.dispatchEvent(this, GroupEventDispatcher.EventType.members_added, params);
+        return Collections.unmodifiableList(added);
+    }
+
     /**
      * Returns true if the provided JID belongs to a user that is part of the group.
      *
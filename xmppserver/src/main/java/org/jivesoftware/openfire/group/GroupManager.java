@@ -209,6 +209,18 @@ public class GroupManager {
                 evictCachedUserForGroup(member);
             }
 
+            @Override
+            public void membersAdded(Group group, Map<String, Object> params) {
+                // Set object again in cache. This is done so that other cluster nodes
+                // get refreshed with latest version of the object
+                groupCache.put(group.getName(), CacheableOptional.of(group));
+
+                // Remove only the collections of groups the members belong to.
+                for (Object member : (Collection<?>) params.get("members")) {
+                    evictCachedUserForGroup(member.toString());
+                }
+            }
+
             @Override
             public void memberRemoved(Group group, Map params) {
                 // Set object again in cache. This is done so that other cluster nodes
@@ -179,6 +179,25 @@ public interface GroupProvider {
      */
     void addMember(String groupName, JID user, boolean administrator);
 
+    /**
+     * Adds several entities to a group (optional operation). None of the entities is expected
+     * to be a member or administrator of the group already.
+     *
+     * The default implementation invokes {@link #addMember(String, JID, boolean)} for each
+     * entity. Implementations are encouraged to store all entities in one operation.
+     *
+     * @param groupName the group to add the members to
+     * @param users the JIDs of the entities to add
+     * @param administrator True if the members are administrators of the group
+     * @throws UnsupportedOperationException if the provider does not
+     *      support the operation.
+     */
+    default void addMembers(String groupName, Collection<JID> users, boolean administrator) {
+        for (final JID user : users) {
+            addMember(groupName, user, administrator);
+        }
+    }
+
     /**
      * Updates the privileges of an entity in a group.
      *
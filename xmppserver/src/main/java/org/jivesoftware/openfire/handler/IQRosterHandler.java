@@ -81,6 +81,7 @@ public class IQRosterHandler extends IQHandler implements ServerFeaturesProvider
     private IQHandlerInfo info;
 
     private UserManager userManager;
+    private RosterManager rosterManager;
     private XMPPServer localServer;
     private PacketRouter router;
 
@@ -180,24 +181,24 @@ public class IQRosterHandler extends IQHandler implements ServerFeaturesProvider
                 return null;
             }
 
-            Roster cachedRoster = userManager.getUser(sender.getNode()).getRoster();
             if (IQ.Type.get == type) {
 
                 if (RosterManager.isRosterVersioningEnabled()) {
                     String clientVersion = packet.getChildElement().attributeValue("ver");
-                    String latestVersion = String.valueOf( cachedRoster.hashCode() );
+                    // The latest version is known without loading the roster, unless it changed recently
+                    String latestVersion = rosterManager.getRosterVersion(sender.getNode());
                     // Whether or not the roster has been modified since the version ID enumerated by the client, ...
                     if (!latestVersion.equals(clientVersion)) {
                         // ... the server MUST either return the complete roster
                         // (including a 'ver' attribute that signals the latest version)
-                        returnPacket = cachedRoster.getReset();
+                        returnPacket = userManager.getUser(sender.getNode()).getRoster().getReset();
                         returnPacket.getChildElement().addAttribute("ver", latestVersion );
                     } else {
                         // ... or return an empty IQ-result
                         returnPacket = new org.xmpp.packet.IQ();
                     }
                 } else {
-                    returnPacket = cachedRoster.getReset();
+                    returnPacket = userManager.getUser(sender.getNode()).getRoster().getReset();
                 }
                 returnPacket.setType(IQ.Type.result);
                 returnPacket.setTo(sender);
@@ -208,6 +209,7 @@ public class IQRosterHandler extends IQHandler implements ServerFeaturesProvider
                 returnPacket = null;
             }
             else if (IQ.Type.set == type) {
+                Roster cachedRoster = userManager.getUser(sender.getNode()).getRoster();
                 returnPacket = IQ.createResultIQ(packet);
 
                 // RFC 6121 2.3.3.  Error Cases:
@@ -347,6 +349,7 @@ public class IQRosterHandler extends IQHandler implements ServerFeaturesProvider
         super.initialize(server);
         localServer = server;
         userManager = server.getUserManager();
+        rosterManager = server.getRosterManager();
         router = server.getPacketRouter();
     }
 
@@ -16,8 +16,10 @@
 
 package org.jivesoftware.openfire.handler;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -243,6 +245,7 @@ public class PresenceUpdateHandler extends BasicModule implements ChannelHandler
             // Send pending subscription requests to user if roster service is enabled
             if (RosterManager.isRosterServiceEnabled()) {
                 Roster roster = rosterManager.getRoster(username);
+                List<JID> probees = new ArrayList<>();
                 for (RosterItem item : roster.getRosterItems()) {
                     if (item.getRecvStatus() == RosterItem.RECV_SUBSCRIBE) {
                         session.process(createSubscribePresence(item.getJid(),
@@ -253,9 +256,11 @@ public class PresenceUpdateHandler extends BasicModule implements ChannelHandler
                     }
                     if (item.getSubStatus() == RosterItem.SUB_TO
                             || item.getSubStatus() == RosterItem.SUB_BOTH) {
-                        presenceManager.probePresence(session.getAddress(), item.getJid());
+                        probees.add(item.getJid());
                     }
                 }
+                // Probe all contacts at once, which avoids loading their presences one by one.
+                presenceManager.probePresence(session.getAddress(), probees);
             }
             if (session.canFloodOfflineMessages()) {
                 // deliver offline messages if any
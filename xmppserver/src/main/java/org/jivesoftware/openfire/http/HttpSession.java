@@ -56,7 +56,9 @@ import java.net.UnknownHostException;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A session represents a series of interactions with an XMPP client sending packets using the HTTP
@@ -64,6 +66,12 @@ import java.util.concurrent.CopyOnWriteArraySet;
  * A session can have several client connections open simultaneously while awaiting packets bound
  * for the client from the server.
  *
+ * The state that relates to delivery of data to the client (the queued connections, the elements
+ * that are pending delivery and the elements that have been delivered) is guarded by one lock.
+ * Threads that deliver stanzas to this session do not wait for that lock: stanzas are added to a
+ * lock-free queue, which is drained by whichever thread holds the lock. Stanzas that accumulate
+ * while the lock is held are delivered to the client in a single response body.
+ *
  * @author Alexander Wenckus
  */
 public class HttpSession extends LocalClientSession {
@@ -95,9 +103,14 @@ public class HttpSession extends LocalClientSession {
     private int wait;
     private int hold = 0;
     private String language;
-    private final List<HttpConnection> connectionQueue = Collections.synchronizedList(new LinkedList<HttpConnection>());
-    private final List<Deliverable> pendingElements = Collections.synchronizedList(new ArrayList<Deliverable>());
-    private final List<Delivered> sentElements = Collections.synchronizedList(new ArrayList<Delivered>());
+    // Guards connectionQueue, pendingElements and sentElements.
+    private final ReentrantLock deliveryLock = new ReentrantLock();
+    private final List<HttpConnection> connectionQueue = new LinkedList<>();
+    private final List<Deliverable> pendingElements = new ArrayList<>();
+    // Elements delivered per request ID, in order of delivery, for retransmission.
+    private final LinkedHashMap<Long, Delivered> sentElements = new LinkedHashMap<>();
+    // Elements to be delivered, not yet processed by the thread that holds the delivery lock.
+    private final Queue<Deliverable> outboundQueue = new ConcurrentLinkedQueue<>();
     private boolean isSecure;
     private int maxPollingInterval;
     private long lastPoll = -1;
@@ -420,13 +433,16 @@ public class HttpSession extends LocalClientSession {
      */
     public void pause(int duration) {
         // Respond immediately to all pending requests
-        synchronized (connectionQueue) {
+        deliveryLock.lock();
+        try {
             for (HttpConnection toClose : connectionQueue) {
                 if (!toClose.isClosed()) {
                     toClose.close();
                     lastRequestID = toClose.getRequestId();
                 }
             }
+        } finally {
+            unlockDelivery();
         }
         setInactivityTimeout(duration);
     }
@@ -439,16 +455,17 @@ public class HttpSession extends LocalClientSession {
      * @return the time in milliseconds since the epoch that this session was last active.
      */
     public long getLastActivity() {
-        if (!connectionQueue.isEmpty()) {
-            synchronized (connectionQueue) {
-                for (HttpConnection connection : connectionQueue) {
-                    // The session is currently active, set the last activity to the current time.
-                    if (!(connection.isClosed())) {
-                        lastActivity = System.currentTimeMillis();
-                        break;
-                    }
+        deliveryLock.lock();
+        try {
+            for (HttpConnection connection : connectionQueue) {
+                // The session is currently active, set the last activity to the current time.
+                if (!(connection.isClosed())) {
+                    lastActivity = System.currentTimeMillis();
+                    break;
                 }
             }
+        } finally {
+            unlockDelivery();
         }
         return lastActivity;
     }
@@ -464,16 +481,19 @@ public class HttpSession extends LocalClientSession {
      * all requests with lower 'rid' values.
      */
     public long getLastAcknowledged() {
-        long ack = lastRequestID;
-        Collections.sort(connectionQueue, connectionComparator);
-        synchronized (connectionQueue) {
+        deliveryLock.lock();
+        try {
+            long ack = lastRequestID;
+            Collections.sort(connectionQueue, connectionComparator);
             for (HttpConnection connection : connectionQueue) {
                 if (connection.getRequestId() == ack + 1) {
                     ack++;
                 }
             }
+            return ack;
+        } finally {
+            unlockDelivery();
         }
-        return ack;
     }
 
     /**
@@ -682,7 +702,7 @@ public class HttpSession extends LocalClientSession {
                 if (Log.isDebugEnabled()) {
                     Log.debug("complete event " + asyncEvent + " for " + rid + " in session " + streamID);
                 }
-                connectionQueue.remove(connection);
+                removeConnection(connection);
                 lastActivity = System.currentTimeMillis();
                 SessionEventDispatcher.dispatchEvent( HttpSession.this, SessionEventDispatcher.EventType.connection_closed, connection, context );
             }
@@ -692,6 +712,7 @@ public class HttpSession extends LocalClientSession {
                 if( Log.isDebugEnabled()) {
                     Log.debug("timeout event " + asyncEvent + " for " + rid + " in session " + streamID);
                 }
+                deliveryLock.lock();
                 try {
                     // If onTimeout does not result in a complete(), the container falls back to default behavior.
                     // This is why this body is to be delivered in a non-async fashion.
@@ -708,6 +729,8 @@ public class HttpSession extends LocalClientSession {
                     lastRequestID = connection.getRequestId();
                 } catch (HttpConnectionClosedException e) {
                     Log.warn("Unexpected exception while processing connection timeout.", e);
+                } finally {
+                    unlockDelivery();
                 }
 
                 // Note that 'onComplete' will be invoked.
@@ -719,7 +742,7 @@ public class HttpSession extends LocalClientSession {
                     Log.debug("error event " + asyncEvent + " for " + rid + " in session " + streamID);
                 }
                 Log.warn("For session " + streamID + " unhandled AsyncListener error: " + asyncEvent.getThrowable());
-                connectionQueue.remove(connection);
+                removeConnection(connection);
                 SessionEventDispatcher.dispatchEvent( HttpSession.this, SessionEventDispatcher.EventType.connection_closed, connection, context );
             }
 
@@ -727,6 +750,22 @@ public class HttpSession extends LocalClientSession {
             public void onStartAsync(AsyncEvent asyncEvent) throws IOException {}
         });
 
+        deliveryLock.lock();
+        try {
+            addConnection(connection, context, rid, isPoll);
+        } finally {
+            unlockDelivery();
+        }
+        return connection;
+    }
+
+    /*
+     * NOTE: must be invoked while holding the delivery lock.
+     */
+    private void addConnection(HttpConnection connection, AsyncContext context, long rid, boolean isPoll)
+            throws HttpConnectionClosedException, HttpBindException, IOException
+    {
+        final StreamID streamID = getStreamID();
         if (rid <= lastRequestID) {
             Delivered deliverable = retrieveDeliverable(rid);
             if (deliverable == null) {
@@ -736,7 +775,7 @@ public class HttpSession extends LocalClientSession {
             }
             connection.deliverBody(createDeliverable(deliverable.deliverables), true);
             addConnection(connection, context, isPoll);
-            return connection;
+            return;
         }
         else if (rid > (lastRequestID + maxRequests)) {
             Log.warn("Request " + rid + " > " + (lastRequestID + maxRequests) + ", ending session " + streamID);
@@ -745,20 +784,22 @@ public class HttpSession extends LocalClientSession {
         }
 
         addConnection(connection, context, isPoll);
-        return connection;
     }
 
-    private Delivered retrieveDeliverable(long rid) {
-        Delivered result = null;
-        synchronized (sentElements) {
-            for (Delivered delivered : sentElements) {
-                if (delivered.getRequestID() == rid) {
-                    result = delivered;
-                    break;
-                }
-            }
+    private void removeConnection(HttpConnection connection) {
+        deliveryLock.lock();
+        try {
+            connectionQueue.remove(connection);
+        } finally {
+            unlockDelivery();
         }
-        return result;
+    }
+
+    /*
+     * NOTE: must be invoked while holding the delivery lock.
+     */
+    private Delivered retrieveDeliverable(long rid) {
+        return sentElements.get(rid);
     }
 
     private void addConnection(HttpConnection connection, AsyncContext context, boolean isPoll) throws HttpBindException,
@@ -779,48 +820,49 @@ public class HttpSession extends LocalClientSession {
             Log.info( "Adding connection to stream " + streamid + " with rid " + rid );
         }
 
+        // Stanzas that were delivered before this connection was added are processed first.
+        drainOutbound();
+
         /*
          * Search through the connection queue to see if this rid already exists on it. If it does then we
          * will close and deliver the existing connection (if appropriate), and close and deliver the same
          * deliverable on the new connection. This is under the assumption that a connection has been dropped,
          * and re-requested before jetty has realised.
          */
-        synchronized (connectionQueue) {
-            for (HttpConnection queuedConnection : connectionQueue) {
-                if (queuedConnection.getRequestId() == rid) {
+        for (HttpConnection queuedConnection : connectionQueue) {
+            if (queuedConnection.getRequestId() == rid) {
+                if(logHttpbindEnabled && Log.isDebugEnabled()) {
+                    Log.debug("Found previous connection in queue with rid " + rid);
+                }
+                if(queuedConnection.isClosed()) {
                     if(logHttpbindEnabled && Log.isDebugEnabled()) {
-                        Log.debug("Found previous connection in queue with rid " + rid);
+                        Log.debug("It's closed - copying deliverables");
                     }
-                    if(queuedConnection.isClosed()) {
-                        if(logHttpbindEnabled && Log.isDebugEnabled()) {
-                            Log.debug("It's closed - copying deliverables");
-                        }
 
-                        Delivered deliverable = retrieveDeliverable(rid);
-                        if (deliverable == null) {
-                            if(logHttpbindEnabled) {
-                                Log.warn("In session " + streamid + " deliverable unavailable for " + rid);
-                            }
-                            throw new HttpBindException("Unexpected RID error.",
-                                    BoshBindingError.itemNotFound);
-                        }
-                        connection.deliverBody(createDeliverable(deliverable.deliverables), true);
-                    } else {
-                        if(logHttpbindEnabled && Log.isDebugEnabled()) {
-                            Log.debug("For session " + streamid + " queued connection is still open - calling close()");
+                    Delivered deliverable = retrieveDeliverable(rid);
+                    if (deliverable == null) {
+                        if(logHttpbindEnabled) {
+                            Log.warn("In session " + streamid + " deliverable unavailable for " + rid);
                         }
-                        deliver(queuedConnection, Collections.singleton(new Deliverable("")));
-                        connection.close();
+                        throw new HttpBindException("Unexpected RID error.",
+                                BoshBindingError.itemNotFound);
+                    }
+                    connection.deliverBody(createDeliverable(deliverable.deliverables), true);
+                } else {
+                    if(logHttpbindEnabled && Log.isDebugEnabled()) {
+                        Log.debug("For session " + streamid + " queued connection is still open - calling close()");
+                    }
+                    deliver(queuedConnection, Collections.singleton(new Deliverable("")));
+                    connection.close();
 
-                        if(rid == (lastRequestID + 1)) {
-                            lastRequestID = rid;
-                            if( logHttpbindEnabled ) {
-                                Log.info( "Updated session " + streamid + " to rid = " + rid );
-                            }
+                    if(rid == (lastRequestID + 1)) {
+                        lastRequestID = rid;
+                        if( logHttpbindEnabled ) {
+                            Log.info( "Updated session " + streamid + " to rid = " + rid );
                         }
                     }
-                    break;
                 }
+                break;
             }
         }
 
@@ -833,11 +875,9 @@ public class HttpSession extends LocalClientSession {
         if (isPollingSession() || (pendingElements.size() > 0 && connection.getRequestId() == lastRequestID + 1)) {
             lastActivity = System.currentTimeMillis();
             SessionEventDispatcher.dispatchEvent( this, SessionEventDispatcher.EventType.connection_opened, connection, context );
-            synchronized(pendingElements) {
-                deliver(connection, pendingElements);
-                lastRequestID = connection.getRequestId();
-                pendingElements.clear();
-            }
+            deliver(connection, new ArrayList<>(pendingElements));
+            lastRequestID = connection.getRequestId();
+            pendingElements.clear();
         }
         else {
             // With this connection we need to check if we will have too many connections open,
@@ -846,59 +886,79 @@ public class HttpSession extends LocalClientSession {
             connectionQueue.add(connection);
             Collections.sort(connectionQueue, connectionComparator);
 
-            synchronized (connectionQueue) {
-                int connectionsToClose;
-                if(connectionQueue.get(connectionQueue.size() - 1) != connection) {
-                    // Current connection does not have the greatest rid. That means
-                    // requests were received out of order, respond to all.
-                    connectionsToClose = connectionQueue.size();
-                }
-                else {
-                    // Everything's fine, number of current connections open tells us
-                    // how many that we need to close.
-                    connectionsToClose = getOpenConnectionCount() - hold;
-                }
-                int closed = 0;
-                for (int i = 0; i < connectionQueue.size() && closed < connectionsToClose; i++) {
-                    HttpConnection toClose = connectionQueue.get(i);
-                    if (!toClose.isClosed() && toClose.getRequestId() == lastRequestID + 1) {
-                        if(toClose == connection) {
-                            // Current connection has no continuation yet, just deliver.
-                            deliver("");
-                        }
-                        else {
-                            toClose.close();
-                        }
-                        lastRequestID = toClose.getRequestId();
-                        closed++;
+            int connectionsToClose;
+            if(connectionQueue.get(connectionQueue.size() - 1) != connection) {
+                // Current connection does not have the greatest rid. That means
+                // requests were received out of order, respond to all.
+                connectionsToClose = connectionQueue.size();
+            }
+            else {
+                // Everything's fine, number of current connections open tells us
+                // how many that we need to close.
+                connectionsToClose = getOpenConnectionCount() - hold;
+            }
+            int closed = 0;
+            for (int i = 0; i < connectionQueue.size() && closed < connectionsToClose; i++) {
+                HttpConnection toClose = connectionQueue.get(i);
+                if (!toClose.isClosed() && toClose.getRequestId() == lastRequestID + 1) {
+                    if(toClose == connection) {
+                        // Current connection has no continuation yet, just deliver.
+                        outboundQueue.add(new Deliverable(""));
+                        drainOutbound();
+                    }
+                    else {
+                        toClose.close();
                     }
+                    lastRequestID = toClose.getRequestId();
+                    closed++;
                 }
             }
         }
     }
 
     private int getOpenConnectionCount() {
-        int count = 0;
-        // NOTE: synchronized by caller
-        for (HttpConnection connection : connectionQueue) {
-            if (!connection.isClosed()) {
-                count++;
+        deliveryLock.lock();
+        try {
+            int count = 0;
+            for (HttpConnection connection : connectionQueue) {
+                if (!connection.isClosed()) {
+                    count++;
+                }
             }
+            return count;
+        } finally {
+            unlockDelivery();
         }
-        return count;
     }
 
+    /*
+     * NOTE: must be invoked while holding the delivery lock.
+     */
     private void deliver(HttpConnection connection, Collection<Deliverable> deliverable)
             throws HttpConnectionClosedException, IOException {
         connection.deliverBody(createDeliverable(deliverable), true);
+        addDelivered(connection.getRequestId(), deliverable);
+    }
 
-        Delivered delivered = new Delivered(deliverable);
-        delivered.setRequestID(connection.getRequestId());
-        while (sentElements.size() > maxRequests) {
-            sentElements.remove(0);
-        }
+    /*
+     * Records the elements that were delivered for a request, so that they can be retransmitted
+     * when the client repeats that request. Only the most recent requests are retained.
+     *
+     * NOTE: must be invoked while holding the delivery lock.
+     */
+    private void addDelivered(long requestID, Collection<Deliverable> deliverable) {
+        final Delivered delivered = new Delivered(deliverable);
+        delivered.setRequestID(requestID);
+
+        // Re-insert to move a retransmitted request to the end.
+        sentElements.remove(requestID);
+        sentElements.put(requestID, delivered);
 
-        sentElements.add(delivered);
+        final Iterator<Long> iterator = sentElements.keySet().iterator();
+        while (sentElements.size() > maxRequests + 1 && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
     }
 
     private enum OveractivityType {
@@ -924,14 +984,12 @@ public class HttpSession extends LocalClientSession {
         int pendingConnections = 0;
         OveractivityType overactivity = OveractivityType.NONE;
 
-        synchronized (connectionQueue) {
-            for (HttpConnection conn : connectionQueue) {
-                if (!conn.isClosed()) {
-                    pendingConnections++;
-                    if (logHttpbindEnabled) {
-                        Log.info("For session " + streamID + " and origin rid " + originRid +
-                                " an open connection is pending with rid " + conn.getRequestId());
-                    }
+        for (HttpConnection conn : connectionQueue) {
+            if (!conn.isClosed()) {
+                pendingConnections++;
+                if (logHttpbindEnabled) {
+                    Log.info("For session " + streamID + " and origin rid " + originRid +
+                            " an open connection is pending with rid " + conn.getRequestId());
                 }
             }
         }
@@ -1008,13 +1066,7 @@ public class HttpSession extends LocalClientSession {
 
         // Not async - we're closing it afterwards
         connection.deliverBody(createDeliverable(deliverable), false);
-
-        final Delivered delivered = new Delivered(deliverable);
-        delivered.setRequestID(connection.getRequestId());
-        while (sentElements.size() > maxRequests) {
-            final Delivered d = sentElements.remove(0);
-        }
-        sentElements.add(delivered);
+        addDelivered(connection.getRequestId(), deliverable);
     }
 
     @Override
@@ -1023,34 +1075,81 @@ public class HttpSession extends LocalClientSession {
     }
 
     private void deliver(Deliverable stanza) {
-        Collection<Deliverable> deliverable = Arrays.asList(stanza);
+        outboundQueue.add(stanza);
+        if (deliveryLock.isHeldByCurrentThread()) {
+            // Re-entrant invocation: deliver immediately, to retain the order of delivery.
+            drainOutbound();
+        } else {
+            flushOutbound();
+        }
+    }
+
+    /*
+     * Releases the delivery lock. Elements that were queued by other threads while the lock was
+     * held are delivered before this method returns.
+     */
+    private void unlockDelivery() {
+        deliveryLock.unlock();
+        if (!deliveryLock.isHeldByCurrentThread() && !outboundQueue.isEmpty()) {
+            flushOutbound();
+        }
+    }
+
+    /*
+     * Delivers the queued elements, unless another thread holds the delivery lock. In that case,
+     * that thread will deliver the queued elements when it releases the lock.
+     */
+    private void flushOutbound() {
+        while (!outboundQueue.isEmpty() && deliveryLock.tryLock()) {
+            try {
+                drainOutbound();
+            } finally {
+                deliveryLock.unlock();
+            }
+        }
+    }
+
+    /*
+     * Delivers all queued elements in one body on the connection that is next in line. When no
+     * such connection is available, the elements are added to the pending elements.
+     *
+     * NOTE: must be invoked while holding the delivery lock.
+     */
+    private void drainOutbound() {
+        if (outboundQueue.isEmpty()) {
+            return;
+        }
+        final List<Deliverable> deliverable = new ArrayList<>();
+        Deliverable element;
+        while ((element = outboundQueue.poll()) != null) {
+            deliverable.add(element);
+        }
+
         boolean delivered = false;
         int pendingConnections = 0;
-        synchronized (connectionQueue) {
-            for (HttpConnection connection : connectionQueue) {
-                if (connection.isClosed()) {
-                    continue;
-                }
-                pendingConnections++;
-                try {
-                    if (connection.getRequestId() == lastRequestID + 1) {
-                        lastRequestID = connection.getRequestId();
-                        deliver(connection, deliverable);
-                        delivered = true;
-                        break;
-                    }
-                }
-                catch (HttpConnectionClosedException e) {
-                    /* Connection was closed, try the next one. Indicates a (concurrency?) bug. */
-                    StreamID streamID = getStreamID();
-                    Log.warn("Iterating over a connection that was closed for session " + streamID +
-                            ". Openfire will recover from this problem, but it should not occur in the first place.");
-                } catch (IOException e) {
-                    StreamID streamID = getStreamID();
-                    Log.warn("An unexpected exception occurred while iterating over connections for session " + streamID +
-                            ". Openfire will attempt to recover by ignoring this connection.", e);
+        for (HttpConnection connection : connectionQueue) {
+            if (connection.isClosed()) {
+                continue;
+            }
+            pendingConnections++;
+            try {
+                if (connection.getRequestId() == lastRequestID + 1) {
+                    lastRequestID = connection.getRequestId();
+                    deliver(connection, deliverable);
+                    delivered = true;
+                    break;
                 }
             }
+            catch (HttpConnectionClosedException e) {
+                /* Connection was closed, try the next one. Indicates a (concurrency?) bug. */
+                StreamID streamID = getStreamID();
+                Log.warn("Iterating over a connection that was closed for session " + streamID +
+                        ". Openfire will recover from this problem, but it should not occur in the first place.");
+            } catch (IOException e) {
+                StreamID streamID = getStreamID();
+                Log.warn("An unexpected exception occurred while iterating over connections for session " + streamID +
+                        ". Openfire will attempt to recover by ignoring this connection.", e);
+            }
         }
 
         if (!delivered) {
@@ -1059,9 +1158,7 @@ public class HttpSession extends LocalClientSession {
                 Log.warn("Unable to deliver a stanza on session " + streamID +
                         "(it is being queued instead), although there are available connections! RID / Connection processing is out of sync!");
             }
-            synchronized(pendingElements) {
-                pendingElements.add( stanza );
-            }
+            pendingElements.addAll(deliverable);
         }
     }
 
@@ -1071,10 +1168,8 @@ public class HttpSession extends LocalClientSession {
                 .append(getLastAcknowledged()).append("'>");
 
         setLastResponseEmpty(elements.size() == 0);
-        synchronized (elements) {
-            for (Deliverable child : elements) {
-                builder.append(child.getDeliverable());
-            }
+        for (Deliverable child : elements) {
+            builder.append(child.getDeliverable());
         }
         builder.append("</body>");
         return builder.toString();
@@ -1086,16 +1181,16 @@ public class HttpSession extends LocalClientSession {
 
         try {
             // close connection(s) and deliver pending elements (if any)
-            synchronized (connectionQueue) {
+            deliveryLock.lock();
+            try {
+                drainOutbound();
                 for (HttpConnection toClose : connectionQueue) {
                     try {
                         if (!toClose.isClosed()) {
                             if (!pendingElements.isEmpty() && toClose.getRequestId() == lastRequestID + 1) {
-                                synchronized(pendingElements) {
-                                    deliver(toClose, pendingElements);
-                                    lastRequestID = toClose.getRequestId();
-                                    pendingElements.clear();
-                                }
+                                deliver(toClose, new ArrayList<>(pendingElements));
+                                lastRequestID = toClose.getRequestId();
+                                pendingElements.clear();
                             } else {
                                 toClose.deliverBody(null, true);
                             }
@@ -1107,13 +1202,13 @@ public class HttpSession extends LocalClientSession {
                         Log.debug("An unexpected exception occurred while closing a session.", e);
                     }
                 }
-            }
 
-            synchronized (pendingElements) {
                 for (Deliverable deliverable : pendingElements) {
                     failDelivery(deliverable.getPackets());
                 }
                 pendingElements.clear();
+            } finally {
+                unlockDelivery();
             }
         } finally { // ensure the session is removed from the session map
             SessionEventDispatcher.dispatchEvent( this, SessionEventDispatcher.EventType.session_closed, null, null );
@@ -1324,11 +1419,9 @@ public class HttpSession extends LocalClientSession {
 
         public Collection<Packet> getPackets() {
             List<Packet> packets = new ArrayList<>();
-            synchronized (deliverables) {
-                for (Deliverable deliverable : deliverables) {
-                    if (deliverable.packets != null) {
-                        packets.addAll(deliverable.getPackets());
-                    }
+            for (Deliverable deliverable : deliverables) {
+                if (deliverable.packets != null) {
+                    packets.addAll(deliverable.getPackets());
                 }
             }
             return packets;
@@ -0,0 +1,459 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.ldap;
+
+import org.jivesoftware.util.SystemProperty;
+import org.jivesoftware.util.TaskEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of connections to an LDAP server. Connections are kept per base DN, as the base DN is
+ * part of the provider URL of a connection. Unlike the connection pool of the JNDI LDAP provider,
+ * this pool can be used for connections that are secured with StartTLS.
+ *
+ * Connections are obtained with {@link #borrow(String)}, and are returned to the pool by closing
+ * them. Idle connections are reused most recently used first. Connections that have been idle for
+ * longer than {@link #VALIDATION_INTERVAL} are validated before they are reused, and connections
+ * that have been idle for longer than {@link #IDLE_TIMEOUT} are closed.
+ */
+public class LdapConnectionPool
+{
+    private static final Logger Log = LoggerFactory.getLogger( LdapConnectionPool.class );
+
+    /**
+     * The maximum number of idle connections that are kept by each pool.
+     */
+    public static final SystemProperty<Integer> MAX_IDLE = SystemProperty.Builder.ofType( Integer.class )
+        .setKey( "ldap.connectionPool.maxIdle" )
+        .setDefaultValue( 10 )
+        .setMinValue( 0 )
+        .setDynamic( true )
+        .build();
+
+    /**
+     * The duration after which idle connections are closed.
+     */
+    public static final SystemProperty<Duration> IDLE_TIMEOUT = SystemProperty.Builder.ofType( Duration.class )
+        .setKey( "ldap.connectionPool.idleTimeout" )
+        .setDefaultValue( Duration.ofMinutes( 5 ) )
+        .setChronoUnit( ChronoUnit.SECONDS )
+        .setDynamic( true )
+        .build();
+
+    /**
+     * The duration that a connection can be idle before it is validated when it is reused.
+     */
+    public static final SystemProperty<Duration> VALIDATION_INTERVAL = SystemProperty.Builder.ofType( Duration.class )
+        .setKey( "ldap.connectionPool.validationInterval" )
+        .setDefaultValue( Duration.ofSeconds( 30 ) )
+        .setChronoUnit( ChronoUnit.SECONDS )
+        .setDynamic( true )
+        .build();
+
+    /**
+     * Creates new connections for a pool.
+     */
+    interface ConnectionFactory
+    {
+        /**
+         * Creates a new connection.
+         *
+         * @param baseDN the base DN of the connection.
+         * @param pool the pool that will own the connection.
+         * @return a new connection (never null).
+         * @throws NamingException if the connection could not be established.
+         */
+        PooledLdapContext create( String baseDN, LdapConnectionPool pool ) throws NamingException;
+    }
+
+    private final String name;
+    private final ConnectionFactory factory;
+    private final boolean validate;
+
+    /**
+     * Idle connections per base DN, most recently used first. Guarded by 'this'.
+     */
+    private final Map<String, Deque<IdleConnection>> idleConnections = new HashMap<>();
+    private int idleCount = 0;
+
+    private volatile int generation = 0;
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong reusedCount = new AtomicLong();
+    private final AtomicLong discardedCount = new AtomicLong();
+    private final TimerTask evictionTask;
+
+    /**
+     * Creates a new pool.
+     *
+     * @param name a name that identifies the pool in logs.
+     * @param factory the factory that creates connections.
+     * @param validate true if idle connections are to be validated before they are reused.
+     */
+    LdapConnectionPool( final String name, final ConnectionFactory factory, final boolean validate )
+    {
+        this.name = name;
+        this.factory = factory;
+        this.validate = validate;
+        this.evictionTask = new EvictionTask( this );
+        final long period = Math.max( 1000, IDLE_TIMEOUT.getValue().toMillis() / 2 );
+        TaskEngine.getInstance().schedule( evictionTask, period, period );
+    }
+
+    /**
+     * Obtains a connection for the provided base DN, reusing an idle connection when possible.
+     * The connection is returned to the pool when it is closed.
+     *
+     * @param baseDN the base DN of the connection.
+     * @return a connection (never null).
+     * @throws NamingException if a new connection could not be established.
+     */
+    PooledLdapContext borrow( final String baseDN ) throws NamingException
+    {
+        final PooledLdapContext context = pollIdle( baseDN );
+        if ( context != null )
+        {
+            context.markBorrowed();
+            activeCount.incrementAndGet();
+            reusedCount.incrementAndGet();
+            return context;
+        }
+        return create( baseDN );
+    }
+
+    /**
+     * Creates a new connection for the provided base DN, bypassing the idle connections. The
+     * connection is returned to the pool when it is closed.
+     *
+     * @param baseDN the base DN of the connection.
+     * @return a connection (never null).
+     * @throws NamingException if the connection could not be established.
+     */
+    PooledLdapContext create( final String baseDN ) throws NamingException
+    {
+        final PooledLdapContext context = factory.create( baseDN, this );
+        context.listenForDisconnect();
+        context.markBorrowed();
+        createdCount.incrementAndGet();
+        activeCount.incrementAndGet();
+        return context;
+    }
+
+    /**
+     * Returns a connection to the pool. Connections that cannot be reused are closed.
+     *
+     * @param context the connection.
+     */
+    void release( final PooledLdapContext context )
+    {
+        if ( !context.markReturned() )
+        {
+            return;
+        }
+        activeCount.decrementAndGet();
+        if ( context.isConnectionClosed() || context.getGeneration() != generation )
+        {
+            discard( context );
+            return;
+        }
+        try
+        {
+            context.setRequestControls( null );
+        }
+        catch ( NamingException e )
+        {
+            Log.debug( "Unable to reset pooled LDAP connection in pool '{}'.", name, e );
+            discard( context );
+            return;
+        }
+        synchronized ( this )
+        {
+            if ( idleCount < MAX_IDLE.getValue() )
+            {
+                idleConnections.computeIfAbsent( key( context.getBaseDN() ), k -> new ArrayDeque<>() ).addFirst( new IdleConnection( context ) );
+                idleCount++;
+                return;
+            }
+        }
+        discard( context );
+    }
+
+    /**
+     * Closes a connection that was obtained from this pool, without returning it to the pool.
+     *
+     * @param context the connection.
+     */
+    void invalidate( final PooledLdapContext context )
+    {
+        if ( context.markReturned() )
+        {
+            activeCount.decrementAndGet();
+        }
+        discard( context );
+    }
+
+    /**
+     * Closes all idle connections. Connections that are in use are closed when they are returned.
+     */
+    void clear()
+    {
+        final List<IdleConnection> connections = new ArrayList<>();
+        synchronized ( this )
+        {
+            generation++;
+            for ( final Deque<IdleConnection> deque : idleConnections.values() )
+            {
+                connections.addAll( deque );
+            }
+            idleConnections.clear();
+            idleCount = 0;
+        }
+        for ( final IdleConnection connection : connections )
+        {
+            discard( connection.context );
+        }
+    }
+
+    /**
+     * Stops the periodic eviction of idle connections and closes all idle connections.
+     */
+    void shutdown()
+    {
+        TaskEngine.getInstance().cancelScheduledTask( evictionTask );
+        clear();
+    }
+
+    int getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * Returns the name that identifies this pool.
+     *
+     * @return the name of the pool.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Returns the number of connections that are currently in use.
+     *
+     * @return the number of active connections.
+     */
+    public int getActiveCount()
+    {
+        return activeCount.get();
+    }
+
+    /**
+     * Returns the number of connections that are currently idle.
+     *
+     * @return the number of idle connections.
+     */
+    public synchronized int getIdleCount()
+    {
+        return idleCount;
+    }
+
+    /**
+     * Returns the number of connections that were established by this pool.
+     *
+     * @return the number of created connections.
+     */
+    public long getCreatedCount()
+    {
+        return createdCount.get();
+    }
+
+    /**
+     * Returns the number of times that an idle connection was reused.
+     *
+     * @return the number of reused connections.
+     */
+    public long getReusedCount()
+    {
+        return reusedCount.get();
+    }
+
+    /**
+     * Returns the number of connections that were closed by this pool, because they were no longer
+     * usable, failed validation, timed out or did not fit in the pool.
+     *
+     * @return the number of discarded connections.
+     */
+    public long getDiscardedCount()
+    {
+        return discardedCount.get();
+    }
+
+    /**
+     * Takes a usable idle connection for the provided base DN from the pool. Connections that turn
+     * out to be unusable are closed.
+     */
+    private PooledLdapContext pollIdle( final String baseDN )
+    {
+        final long idleTimeout = IDLE_TIMEOUT.getValue().toMillis();
+        final long validationInterval = VALIDATION_INTERVAL.getValue().toMillis();
+        while ( true )
+        {
+            final IdleConnection connection;
+            synchronized ( this )
+            {
+                final Deque<IdleConnection> deque = idleConnections.get( key( baseDN ) );
+                connection = deque == null ? null : deque.pollFirst();
+                if ( connection == null )
+                {
+                    return null;
+                }
+                idleCount--;
+            }
+
+            final long idle = System.currentTimeMillis() - connection.since;
+            if ( connection.context.isConnectionClosed() || idle > idleTimeout )
+            {
+                discard( connection.context );
+            }
+            else if ( validate && idle > validationInterval && !isValid( connection.context ) )
+            {
+                Log.debug( "Idle LDAP connection in pool '{}' failed validation.", name );
+                discard( connection.context );
+            }
+            else
+            {
+                return connection.context;
+            }
+        }
+    }
+
+    /**
+     * Closes the connections that have been idle for longer than the idle timeout.
+     */
+    private void evictIdleConnections()
+    {
+        final long cutoff = System.currentTimeMillis() - IDLE_TIMEOUT.getValue().toMillis();
+        final List<IdleConnection> evicted = new ArrayList<>();
+        synchronized ( this )
+        {
+            final Iterator<Deque<IdleConnection>> iterator = idleConnections.values().iterator();
+            while ( iterator.hasNext() )
+            {
+                final Deque<IdleConnection> deque = iterator.next();
+                while ( !deque.isEmpty() && ( deque.peekLast().since < cutoff || deque.peekLast().context.isConnectionClosed() ) )
+                {
+                    evicted.add( deque.pollLast() );
+                    idleCount--;
+                }
+                if ( deque.isEmpty() )
+                {
+                    iterator.remove();
+                }
+            }
+        }
+        for ( final IdleConnection connection : evicted )
+        {
+            discard( connection.context );
+        }
+    }
+
+    /**
+     * Verifies that the connection is still usable, by reading the base entry without attributes.
+     */
+    private static boolean isValid( final PooledLdapContext context )
+    {
+        try
+        {
+            context.getAttributes( "", new String[] { "1.1" } );
+            return true;
+        }
+        catch ( CommunicationException | ServiceUnavailableException e )
+        {
+            return false;
+        }
+        catch ( NamingException e )
+        {
+            // The server responded, so the connection is usable.
+            return true;
+        }
+    }
+
+    private void discard( final PooledLdapContext context )
+    {
+        discardedCount.incrementAndGet();
+        context.destroy();
+    }
+
+    private static String key( final String baseDN )
+    {
+        return baseDN == null ? "" : baseDN;
+    }
+
+    private static class IdleConnection
+    {
+        private final PooledLdapContext context;
+        private final long since = System.currentTimeMillis();
+
+        IdleConnection( final PooledLdapContext context )
+        {
+            this.context = context;
+        }
+    }
+
+    /**
+     * Periodically evicts idle connections. Does not prevent the pool from being garbage collected.
+     */
+    private static class EvictionTask extends TimerTask
+    {
+        private final WeakReference<LdapConnectionPool> pool;
+
+        EvictionTask( final LdapConnectionPool pool )
+        {
+            this.pool = new WeakReference<>( pool );
+        }
+
+        @Override
+        public void run()
+        {
+            final LdapConnectionPool connectionPool = pool.get();
+            if ( connectionPool == null )
+            {
+                TaskEngine.getInstance().cancelScheduledTask( this );
+                return;
+            }
+            connectionPool.evictIdleConnections();
+        }
+    }
+}
@@ -16,22 +16,33 @@
 
 package org.jivesoftware.openfire.ldap;
 
+import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.naming.InvalidNameException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
 import javax.naming.ldap.LdapContext;
 import javax.naming.ldap.LdapName;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import javax.naming.ldap.Rdn;
 
 import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.openfire.group.AbstractGroupProvider;
@@ -40,6 +51,7 @@ import org.jivesoftware.openfire.group.GroupNotFoundException;
 import org.jivesoftware.openfire.user.UserManager;
 import org.jivesoftware.openfire.user.UserNotFoundException;
 import org.jivesoftware.util.JiveConstants;
+import org.jivesoftware.util.SystemProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmpp.packet.JID;
@@ -54,6 +66,17 @@ public class LdapGroupProvider extends AbstractGroupProvider {
 
     private static final Logger Log = LoggerFactory.getLogger(LdapGroupProvider.class);
 
+    /**
+     * The maximum number of group members that are looked up in one search, when the members of
+     * a group are stored as DNs that do not contain the username.
+     */
+    public static final SystemProperty<Integer> MEMBER_BATCH_SIZE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("ldap.groupMemberBatchSize")
+        .setDefaultValue(100)
+        .setMinValue(1)
+        .setDynamic(true)
+        .build();
+
     private LdapManager manager;
     private UserManager userManager;
     private String[] standardAttributes;
@@ -253,66 +276,52 @@ public class LdapGroupProvider extends AbstractGroupProvider {
         Set<JID> members = new TreeSet<>();
         Attribute memberField = a.get(manager.getGroupMemberField());
         if (memberField != null) {
+            List<String> usernames = new ArrayList<>();
+            List<String> unresolvedDNs = new ArrayList<>();
             NamingEnumeration ne = memberField.getAll();
             while (ne.hasMore()) {
                 String username = (String) ne.next();
                 // If not posix mode, each group member is stored as a full DN.
                 if (!manager.isPosixMode()) {
-                    try {
-                        // Try to find the username with a regex pattern match.
-                        Matcher matcher = pattern.matcher(username);
-                        if (matcher.matches() && matcher.groupCount() == 3) {
-                            // The username is in the DN, no additional search needed
-                            username = matcher.group(2);
-                        }
-                        // The regex pattern match failed. This will happen if the
-                        // the member DN's don't use the standard username field. For
-                        // example, Active Directory has a username field of
-                        // sAMAccountName, but stores group members as "CN=...".
-                        else {
-                            // Create an LDAP name with the full DN.
-                            LdapName ldapName = new LdapName(username);
-                            // Turn the LDAP name into something we can use in a
-                            // search by stripping off the comma.
-                            StringBuilder userFilter = new StringBuilder();
-                            userFilter.append("(&(");
-                            userFilter.append(ldapName.get(ldapName.size() - 1));
-                            userFilter.append(')');
-                            userFilter.append(MessageFormat.format(manager.getSearchFilter(), "*"));
-                            userFilter.append(')');
-                            NamingEnumeration usrAnswer = ctx.search("",
-                                    userFilter.toString(), searchControls);
-                            if (usrAnswer != null && usrAnswer.hasMoreElements()) {
-                                SearchResult searchResult = null;
-                                // We may get multiple search results for the same user CN.
-                                // Iterate through the entire set to find a matching distinguished name.
-                                while(usrAnswer.hasMoreElements()) {
-                                    searchResult = (SearchResult) usrAnswer.nextElement();
-                                    Attributes attrs = searchResult.getAttributes();
-                                    if (isAD) {
-                                        Attribute userdnAttr = attrs.get("distinguishedName");
-                                        if (username.equals((String)userdnAttr.get())) {
-                                            // Exact match found, use it.
-                                            username = (String)attrs.get(manager.getUsernameField()).get();
-                                            break;
-                                        }
-                                    }
-                                    else {
-                                        // No iteration occurs here, which is probably a bug.
-                                        username = (String)attrs.get(manager.getUsernameField()).get();
-                                        break;
-                                    }
-                                }
-                            }
-                            // Close the enumeration.
-                            usrAnswer.close();
+                    // Try to find the username with a regex pattern match.
+                    Matcher matcher = pattern.matcher(username);
+                    if (matcher.matches() && matcher.groupCount() == 3) {
+                        // The username is in the DN, no additional search needed
+                        username = matcher.group(2);
+                    }
+                    // The regex pattern match failed. This will happen if the
+                    // the member DN's don't use the standard username field. For
+                    // example, Active Directory has a username field of
+                    // sAMAccountName, but stores group members as "CN=...".
+                    // Unless the DN was looked up before, it is searched for below.
+                    else {
+                        String cachedUsername = manager.getCachedUsername(username);
+                        if (cachedUsername == null) {
+                            unresolvedDNs.add(username);
+                            continue;
                         }
+                        username = cachedUsername;
                     }
-                    catch (Exception e) {
-                        // TODO: A NPE is occuring here
-                        Log.error(e.getMessage(), e);
+                }
+                usernames.add(username);
+            }
+            // Close the enumeration.
+            ne.close();
+
+            if (!unresolvedDNs.isEmpty()) {
+                Map<String, String> resolved = findUsernames(ctx, unresolvedDNs, searchControls, isAD);
+                for (String userDN : unresolvedDNs) {
+                    String username = resolved.get(userDN);
+                    if (username != null) {
+                        usernames.add(username);
+                    }
+                    else if (manager.isDebugEnabled()) {
+                        Log.debug("LdapGroupProvider: No user found for member DN: " + userDN);
                     }
                 }
+            }
+
+            for (String username : usernames) {
                 // A search filter may have been defined in the LdapUserProvider.
                 // Therefore, we have to try to load each user we found to see if
                 // it passes the filter.
@@ -349,8 +358,6 @@ public class LdapGroupProvider extends AbstractGroupProvider {
                     }
                 }
             }
-            // Close the enumeration.
-            ne.close();
         }
         if (manager.isDebugEnabled()) {
             Log.debug("LdapGroupProvider: Adding group \"" + name + "\" with " + members.size() +
@@ -359,4 +366,134 @@ public class LdapGroupProvider extends AbstractGroupProvider {
         Collection<JID> admins = Collections.emptyList();
         return new Group(name, description, members, admins);
     }
+
+    /**
+     * Finds the usernames of the users that are identified by the provided DNs. Instead of one
+     * search per DN, the users are searched for in batches of {@link #MEMBER_BATCH_SIZE} DNs,
+     * using one search filter per batch that matches any of the DNs. Search results are paged
+     * when {@link LdapManager#LDAP_PAGE_SIZE} is configured. Found usernames are cached by the
+     * LDAP manager.
+     *
+     * @param ctx the context to search in.
+     * @param userDNs full DNs of users.
+     * @param searchControls the controls to use in the search.
+     * @param isAD true if the directory is Active Directory.
+     * @return usernames by DN, for all DNs for which a user was found.
+     */
+    private Map<String, String> findUsernames(LdapContext ctx, List<String> userDNs, SearchControls searchControls, boolean isAD) {
+        Map<String, String> result = new HashMap<>();
+        int batchSize = MEMBER_BATCH_SIZE.getValue();
+        for (int i = 0; i < userDNs.size(); i += batchSize) {
+            List<String> batch = userDNs.subList(i, Math.min(i + batchSize, userDNs.size()));
+            try {
+                findUsernames(ctx, batch, searchControls, isAD, result);
+            }
+            catch (Exception e) {
+                Log.error("Unable to find the users for a batch of " + batch.size() + " group members.", e);
+            }
+        }
+        return result;
+    }
+
+    private void findUsernames(LdapContext ctx, List<String> userDNs, SearchControls searchControls, boolean isAD, Map<String, String> result) throws NamingException, IOException {
+        // Index the requested DNs, so that search results can be matched regardless of formatting.
+        Map<LdapName, String> requested = new HashMap<>();
+        List<Rdn> rdns = new ArrayList<>();
+        for (String userDN : userDNs) {
+            try {
+                LdapName ldapName = new LdapName(userDN);
+                if (ldapName.isEmpty()) {
+                    continue;
+                }
+                requested.put(ldapName, userDN);
+                rdns.add(ldapName.getRdn(ldapName.size() - 1));
+            }
+            catch (InvalidNameException e) {
+                Log.warn("Unable to parse group member DN: " + userDN, e);
+            }
+        }
+        if (rdns.isEmpty()) {
+            return;
+        }
+
+        String userFilter = getMemberSearchFilter(manager.getSearchFilter(), rdns);
+        int pageSize = LdapManager.LDAP_PAGE_SIZE.getValue();
+        try {
+            if (pageSize > 0) {
+                ctx.setRequestControls(new Control[] { new PagedResultsControl(pageSize, Control.NONCRITICAL) });
+            }
+            byte[] cookie;
+            do {
+                cookie = null;
+                NamingEnumeration<SearchResult> answer = ctx.search("", userFilter, searchControls);
+                while (answer.hasMoreElements()) {
+                    SearchResult searchResult = answer.nextElement();
+                    Attributes attrs = searchResult.getAttributes();
+                    Attribute usernameAttr = attrs.get(manager.getUsernameField());
+                    if (usernameAttr == null) {
+                        continue;
+                    }
+                    Attribute userDNAttr = isAD ? attrs.get("distinguishedName") : null;
+                    String foundDN = userDNAttr != null ? (String) userDNAttr.get() : searchResult.getNameInNamespace();
+                    // We may get multiple search results for the same user CN.
+                    // Only use the results that match one of the distinguished names.
+                    String userDN = requested.get(new LdapName(foundDN));
+                    if (userDN != null) {
+                        String username = (String) usernameAttr.get();
+                        result.put(userDN, username);
+                        manager.cacheUsername(userDN, username);
+                    }
+                }
+                // Examine the paged results control response
+                Control[] controls = ctx.getResponseControls();
+                if (controls != null) {
+                    for (Control control : controls) {
+                        if (control instanceof PagedResultsResponseControl) {
+                            cookie = ((PagedResultsResponseControl) control).getCookie();
+                        }
+                    }
+                }
+                // Close the enumeration.
+                answer.close();
+                if (pageSize > 0 && cookie != null) {
+                    ctx.setRequestControls(new Control[] { new PagedResultsControl(pageSize, cookie, Control.CRITICAL) });
+                }
+            } while (cookie != null);
+        }
+        finally {
+            if (pageSize > 0) {
+                ctx.setRequestControls(null);
+            }
+        }
+    }
+
+    /**
+     * Creates a search filter that matches users that pass the user search filter and have any
+     * of the provided relative distinguished names.
+     *
+     * @param searchFilter the user search filter (see {@link LdapManager#getSearchFilter()}).
+     * @param rdns the relative distinguished names of the users.
+     * @return a search filter.
+     */
+    static String getMemberSearchFilter(String searchFilter, Collection<Rdn> rdns) {
+        Set<String> assertions = new LinkedHashSet<>();
+        for (Rdn rdn : rdns) {
+            assertions.add("(" + rdn.getType() + "=" + LdapManager.sanitizeSearchFilter(String.valueOf(rdn.getValue())) + ")");
+        }
+        StringBuilder filter = new StringBuilder();
+        filter.append("(&");
+        filter.append(MessageFormat.format(searchFilter, "*"));
+        if (assertions.size() == 1) {
+            filter.append(assertions.iterator().next());
+        }
+        else {
+            filter.append("(|");
+            for (String assertion : assertions) {
+                filter.append(assertion);
+            }
+            filter.append(')');
+        }
+        filter.append(')');
+        return filter.toString();
+    }
 }
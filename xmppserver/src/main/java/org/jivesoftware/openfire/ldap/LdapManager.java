@@ -31,17 +31,22 @@ import java.util.StringTokenizer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.naming.CommunicationException;
 import javax.naming.Context;
+import javax.naming.InvalidNameException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
 import javax.naming.directory.DirContext;
 import javax.naming.directory.InitialDirContext;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
 import javax.naming.ldap.Control;
 import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
 import javax.naming.ldap.PagedResultsControl;
 import javax.naming.ldap.PagedResultsResponseControl;
+import javax.naming.ldap.Rdn;
 import javax.naming.ldap.SortControl;
 import javax.naming.ldap.StartTlsRequest;
 import javax.naming.ldap.StartTlsResponse;
@@ -214,6 +219,15 @@ public class LdapManager {
 
     private Cache<String, DNCacheEntry> userDNCache = null;
 
+    private LdapConnectionPool searchConnectionPool = null;
+    private LdapConnectionPool bindConnectionPool = null;
+
+    /**
+     * Maps full user DNs (normalized by {@link #getUsernameCacheKey(String)}) to the value of the
+     * username field of the user. Populated by the same lookups that populate {@link #userDNCache}.
+     */
+    private Cache<String, String> usernameCache = null;
+
     /**
      * Provides singleton access to an instance of the LdapManager class.
      *
@@ -270,6 +284,7 @@ public class LdapManager {
         if (JiveGlobals.getBooleanProperty("ldap.userDNCache.enabled", true)) {
             String cacheName = "LDAP UserDN";
             userDNCache = CacheFactory.createCache( cacheName );
+            usernameCache = CacheFactory.createCache( "LDAP Username" );
         }
 
         String host = properties.get("ldap.host");
@@ -505,9 +520,26 @@ public class LdapManager {
      * @throws NamingException if there is an error making the LDAP connection.
      */
     public LdapContext getContext(String baseDN) throws NamingException {
+        if (connectionPoolEnabled) {
+            return getSearchConnectionPool().borrow(baseDN);
+        }
+        return createContext(baseDN, adminDN, adminPassword, null);
+    }
+
+    /**
+     * Creates a new context for the LDAP server, using the specified base DN.
+     *
+     * @param baseDN the base DN to use for the context.
+     * @param principal the DN to authenticate as, or {@code null} to use an anonymous connection.
+     * @param credentials the password of the principal.
+     * @param pool the pool that owns the context, or {@code null} if the context is not pooled.
+     * @return a connection to the LDAP server.
+     * @throws NamingException if there is an error making the LDAP connection.
+     */
+    private JiveInitialLdapContext createContext(String baseDN, String principal, String credentials, LdapConnectionPool pool) throws NamingException {
         boolean debug = Log.isDebugEnabled();
         if (debug) {
-            Log.debug("LdapManager: Creating a DirContext in LdapManager.getContext()...");
+            Log.debug("LdapManager: Creating a DirContext in LdapManager.createContext()...");
             if (!sslEnabled && !startTlsEnabled) {
                 Log.debug("LdapManager: Warning: Using unencrypted connection to LDAP service!");
             }
@@ -524,15 +556,15 @@ public class LdapManager {
             env.put(Context.SECURITY_PROTOCOL, "ssl");
         }
 
-        // Use simple authentication to connect as the admin.
-        if (adminDN != null) {
+        // Use simple authentication to connect as the principal.
+        if (principal != null) {
             /* If startTLS is requested we MUST NOT bind() before
              * the secure connection has been established. */
             if (!(startTlsEnabled && !sslEnabled)) {
                 env.put(Context.SECURITY_AUTHENTICATION, "simple");
-                env.put(Context.SECURITY_PRINCIPAL, adminDN);
-                if (adminPassword != null) {
-                    env.put(Context.SECURITY_CREDENTIALS, adminPassword);
+                env.put(Context.SECURITY_PRINCIPAL, principal);
+                if (credentials != null) {
+                    env.put(Context.SECURITY_CREDENTIALS, credentials);
                 }
             }
         }
@@ -544,21 +576,8 @@ public class LdapManager {
         if (ldapDebugEnabled) {
             env.put("com.sun.jndi.ldap.trace.ber", System.err);
         }
-        if (connectionPoolEnabled) {
-            if (!startTlsEnabled) {
-                env.put("com.sun.jndi.ldap.connect.pool", "true");
-                System.setProperty("com.sun.jndi.ldap.connect.pool.protocol", "plain ssl");
-            } else {
-                if (debug) {
-                    // See http://java.sun.com/products/jndi/tutorial/ldap/connect/pool.html
-                    // "When Not to Use Pooling"
-                    Log.debug("LdapManager: connection pooling was requested but has been disabled because of StartTLS.");
-                }
-                env.put("com.sun.jndi.ldap.connect.pool", "false");
-            }
-        } else {
-            env.put("com.sun.jndi.ldap.connect.pool", "false");
-        }
+        // Connections are pooled by LdapConnectionPool, which (unlike the JNDI pool) supports StartTLS.
+        env.put("com.sun.jndi.ldap.connect.pool", "false");
         if (connTimeout > 0) {
             env.put("com.sun.jndi.ldap.connect.timeout", String.valueOf(connTimeout));
         } else {
@@ -579,7 +598,7 @@ public class LdapManager {
             Log.debug("LdapManager: Created hashtable with context values, attempting to create context...");
         }
         // Create new initial context
-        JiveInitialLdapContext context = new JiveInitialLdapContext(env, null);
+        JiveInitialLdapContext context = pool == null ? new JiveInitialLdapContext(env, null) : new PooledLdapContext(env, pool, baseDN);
 
         // TLS http://www.ietf.org/rfc/rfc2830.txt ("1.3.6.1.4.1.1466.20037")
         if (startTlsEnabled && !sslEnabled) {
@@ -613,17 +632,17 @@ public class LdapManager {
                 /* Set login credentials only if SSL session has been
                  * negotiated successfully - otherwise user/password
                  * could be transmitted in clear text. */
-                if (adminDN != null) {
+                if (principal != null) {
                     context.addToEnvironment(
                             Context.SECURITY_AUTHENTICATION,
                             "simple");
                     context.addToEnvironment(
                             Context.SECURITY_PRINCIPAL,
-                            adminDN);
-                    if (adminPassword != null) {
+                            principal);
+                    if (credentials != null) {
                         context.addToEnvironment(
                                 Context.SECURITY_CREDENTIALS,
-                                adminPassword);
+                                credentials);
                     }
                 }
             } catch (java.io.IOException ex) {
@@ -656,6 +675,10 @@ public class LdapManager {
             }
         }
 
+        if (connectionPoolEnabled) {
+            return checkPooledAuthentication(userDN, password);
+        }
+
         JiveInitialLdapContext ctx = null;
         try {
             // See if the user authenticates.
@@ -866,6 +889,113 @@ public class LdapManager {
         return true;
     }
 
+    /**
+     * Checks the credentials of a user by binding with them on a pooled connection. The connection
+     * is bound anew (over the existing connection, which may be secured by StartTLS) for every check.
+     *
+     * @param userDN the user's dn to authenticate (relative to {@code baseDN}).
+     * @param password the user's password.
+     * @return true if the user successfully authenticates.
+     */
+    private boolean checkPooledAuthentication(String userDN, String password) {
+        final List<String> baseDNs = new ArrayList<>();
+        baseDNs.add(baseDN);
+        if (alternateBaseDN != null) {
+            baseDNs.add(alternateBaseDN);
+        }
+        for (final String base : baseDNs) {
+            try {
+                bind(getBindConnectionPool(), base, userDN + "," + base, password);
+                return true;
+            }
+            catch (NamingException ne) {
+                if (Log.isDebugEnabled()) {
+                    Log.debug("LdapManager: Caught a naming exception when authenticating " + userDN + " in base DN " + base, ne);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Binds as a principal on a connection from the pool. The connection is returned to the pool
+     * only when the bind succeeds.
+     */
+    private static void bind(LdapConnectionPool pool, String baseDN, String principal, String password) throws NamingException {
+        PooledLdapContext ctx = pool.borrow(baseDN);
+        try {
+            reauthenticate(ctx, principal, password);
+        }
+        catch (CommunicationException | ServiceUnavailableException e) {
+            // The connection may have been closed while it was idle. Retry once, on a new connection.
+            pool.invalidate(ctx);
+            ctx = pool.create(baseDN);
+            try {
+                reauthenticate(ctx, principal, password);
+            }
+            catch (NamingException ex) {
+                pool.invalidate(ctx);
+                throw ex;
+            }
+        }
+        catch (NamingException e) {
+            pool.invalidate(ctx);
+            throw e;
+        }
+        ctx.close();
+    }
+
+    private static void reauthenticate(PooledLdapContext ctx, String principal, String password) throws NamingException {
+        ctx.addToEnvironment(Context.SECURITY_AUTHENTICATION, "simple");
+        ctx.addToEnvironment(Context.SECURITY_PRINCIPAL, principal);
+        ctx.addToEnvironment(Context.SECURITY_CREDENTIALS, password);
+        try {
+            // Sends a new bind request, over the existing connection.
+            ctx.reconnect(null);
+        }
+        finally {
+            ctx.removeFromEnvironment(Context.SECURITY_CREDENTIALS);
+        }
+    }
+
+    /**
+     * Returns the pool of connections that are used for searches and lookups, creating it if needed.
+     * These connections are authenticated as the admin user.
+     *
+     * @return the pool of connections used for searches.
+     */
+    public synchronized LdapConnectionPool getSearchConnectionPool() {
+        if (searchConnectionPool == null) {
+            searchConnectionPool = new LdapConnectionPool("search", (base, pool) -> (PooledLdapContext) createContext(base, adminDN, adminPassword, pool), true);
+        }
+        return searchConnectionPool;
+    }
+
+    /**
+     * Returns the pool of connections that are used to verify the credentials of users, creating it
+     * if needed. These connections are authenticated anew for every user.
+     *
+     * @return the pool of connections used for authentication.
+     */
+    public synchronized LdapConnectionPool getBindConnectionPool() {
+        if (bindConnectionPool == null) {
+            bindConnectionPool = new LdapConnectionPool("bind", (base, pool) -> (PooledLdapContext) createContext(base, null, null, pool), false);
+        }
+        return bindConnectionPool;
+    }
+
+    /**
+     * Closes all pooled connections, for example because the connection settings have changed.
+     */
+    private synchronized void clearConnectionPools() {
+        if (searchConnectionPool != null) {
+            searchConnectionPool.clear();
+        }
+        if (bindConnectionPool != null) {
+            bindConnectionPool.clear();
+        }
+    }
+
     /**
      * Looks up an LDAP object by its DN and returns {@code true} if
      * the search was successful.
@@ -955,10 +1085,7 @@ public class LdapManager {
         try
         {
             final String userDN = findUserDN( username, baseDN );
-            if ( userDNCache != null )
-            {
-                userDNCache.put( username, new DNCacheEntry( userDN, baseDN ) );
-            }
+            cacheUserDN( username, userDN, baseDN );
             return userDN;
         }
         catch ( Exception e )
@@ -966,10 +1093,7 @@ public class LdapManager {
             if ( alternateBaseDN != null )
             {
                 final String userDN = findUserDN( username, alternateBaseDN );
-                if ( userDNCache != null )
-                {
-                    userDNCache.put( username, new DNCacheEntry( userDN, alternateBaseDN ) );
-                }
+                cacheUserDN( username, userDN, alternateBaseDN );
                 return userDN;
             }
             else
@@ -979,6 +1103,129 @@ public class LdapManager {
         }
     }
 
+    /**
+     * Returns the value of the username field of the user that is identified by the provided DN,
+     * if that value is known from an earlier lookup. Lookups by {@link #findUserDN(String)} and
+     * lookups of group members share the same cached data.
+     *
+     * @param userDN the full DN of a user.
+     * @return the value of the username field, or {@code null} if the DN has not been looked up recently.
+     */
+    public String getCachedUsername( String userDN )
+    {
+        if ( usernameCache == null )
+        {
+            return null;
+        }
+        final String key = getUsernameCacheKey( userDN );
+        return key == null ? null : usernameCache.get( key );
+    }
+
+    /**
+     * Records the value of the username field of the user that is identified by the provided DN.
+     * When the DN is in the base DN or alternate base DN, subsequent invocations of
+     * {@link #findUserDN(String)} for the user no longer query the directory.
+     *
+     * @param userDN the full DN of a user.
+     * @param username the value of the username field of the user.
+     */
+    public void cacheUsername( String userDN, String username )
+    {
+        if ( usernameCache == null )
+        {
+            return;
+        }
+        final String key = getUsernameCacheKey( userDN );
+        if ( key == null )
+        {
+            return;
+        }
+        usernameCache.put( key, username );
+
+        // Register the (relative) DN of the user, like findUserDN would.
+        if ( !username.endsWith( usernameSuffix ) )
+        {
+            return;
+        }
+        final String name = username.substring( 0, username.length() - usernameSuffix.length() );
+        try
+        {
+            final LdapName fullName = new LdapName( userDN );
+            for ( final String base : new String[] { baseDN, alternateBaseDN } )
+            {
+                if ( base == null )
+                {
+                    continue;
+                }
+                final LdapName baseName = new LdapName( base );
+                if ( fullName.size() > baseName.size() && fullName.startsWith( baseName ) )
+                {
+                    String relativeDN = fullName.getSuffix( baseName.size() ).toString();
+                    if ( encloseUserDN )
+                    {
+                        relativeDN = getEnclosedDN( relativeDN );
+                    }
+                    userDNCache.put( name, new DNCacheEntry( relativeDN, base ) );
+                    return;
+                }
+            }
+        }
+        catch ( InvalidNameException e )
+        {
+            Log.debug( "Unable to parse DN '{}'.", userDN, e );
+        }
+    }
+
+    /**
+     * Adds the DN of a user, as found by {@link #findUserDN(String, String)}, to the caches.
+     *
+     * @param username the username that was looked up.
+     * @param userDN the DN of the user, relative to the base DN.
+     * @param baseDN the base DN in which the user was found.
+     */
+    private void cacheUserDN( String username, String userDN, String baseDN )
+    {
+        if ( userDNCache == null )
+        {
+            return;
+        }
+        userDNCache.put( username, new DNCacheEntry( userDN, baseDN ) );
+        final String key = getUsernameCacheKey( userDN + "," + baseDN );
+        if ( key != null )
+        {
+            usernameCache.put( key, username + usernameSuffix );
+        }
+    }
+
+    /**
+     * Normalizes a DN for use as a key in the username cache. Attribute types and values are
+     * compared case-insensitively, and the DN is reformatted so that differences in whitespace,
+     * quoting and escaping do not matter.
+     *
+     * @param userDN a DN.
+     * @return a normalized representation of the DN, or {@code null} if the DN cannot be parsed.
+     */
+    static String getUsernameCacheKey( String userDN )
+    {
+        try
+        {
+            final StringBuilder key = new StringBuilder();
+            for ( final Rdn rdn : new LdapName( userDN ).getRdns() )
+            {
+                if ( key.length() > 0 )
+                {
+                    key.append( ',' );
+                }
+                key.append( rdn.toString() );
+            }
+            return key.toString().toLowerCase();
+        }
+        catch ( InvalidNameException e )
+        {
+            return null;
+        }
+    }
+
     /**
      * Finds a user's dn using their username in the specified baseDN. Normally, this search
      * will be performed using the field "uid", but this can be changed by setting
@@ -1293,6 +1540,7 @@ public class LdapManager {
             hostProperty.setLength(hostProperty.length()-1);
         }
         properties.put("ldap.host", hostProperty.toString());
+        clearConnectionPools();
     }
 
     /**
@@ -1314,6 +1562,7 @@ public class LdapManager {
     public void setPort(int port) {
         this.port = port;
         properties.put("ldap.port", Integer.toString(port));
+        clearConnectionPools();
     }
 
     /**
@@ -1356,6 +1605,7 @@ public class LdapManager {
     public void setSslEnabled(boolean sslEnabled) {
         this.sslEnabled = sslEnabled;
         properties.put("ldap.sslEnabled", Boolean.toString(sslEnabled));
+        clearConnectionPools();
     }
 
     /**
@@ -1375,6 +1625,7 @@ public class LdapManager {
     public void setStartTlsEnabled(boolean startTlsEnabled) {
         this.startTlsEnabled = startTlsEnabled;
         properties.put("ldap.startTlsEnabled", Boolean.toString(startTlsEnabled));
+        clearConnectionPools();
     }
 
 
@@ -1509,6 +1760,7 @@ public class LdapManager {
     public void setBaseDN(String baseDN) {
         this.baseDN = baseDN;
         properties.put("ldap.baseDN", baseDN);
+        clearConnectionPools();
     }
 
     /**
@@ -1563,10 +1815,7 @@ public class LdapManager {
         try
         {
             final String userDN = findUserDN( username, baseDN );
-            if ( userDNCache != null )
-            {
-                userDNCache.put( username, new DNCacheEntry( userDN, baseDN ) );
-            }
+            cacheUserDN( username, userDN, baseDN );
             return baseDN;
         }
         catch ( Exception e )
@@ -1576,10 +1825,7 @@ public class LdapManager {
                 if ( alternateBaseDN != null )
                 {
                     final String userDN = findUserDN( username, alternateBaseDN );
-                    if ( userDNCache != null )
-                    {
-                        userDNCache.put( username, new DNCacheEntry( userDN, alternateBaseDN ) );
-                    }
+                    cacheUserDN( username, userDN, alternateBaseDN );
                     return alternateBaseDN;
                 }
             }
@@ -1641,6 +1887,7 @@ public class LdapManager {
     public void setAdminDN(String adminDN) {
         this.adminDN = adminDN;
         properties.put("ldap.adminDN", adminDN);
+        clearConnectionPools();
     }
 
     /**
@@ -1662,6 +1909,7 @@ public class LdapManager {
     public void setAdminPassword(String adminPassword) {
         this.adminPassword = adminPassword;
         properties.put("ldap.adminPassword", adminPassword);
+        clearConnectionPools();
     }
 
     /**
@@ -1672,6 +1920,7 @@ public class LdapManager {
     public void setConnectionPoolEnabled(boolean connectionPoolEnabled) {
         this.connectionPoolEnabled = connectionPoolEnabled;
         properties.put("ldap.connectionPoolEnabled", Boolean.toString(connectionPoolEnabled));
+        clearConnectionPools();
     }
 
     /**
@@ -1756,6 +2005,7 @@ public class LdapManager {
     public void setFollowReferralsEnabled(boolean followReferrals) {
         this.followReferrals = followReferrals;
         properties.put("ldap.autoFollowReferrals", String.valueOf(followReferrals));
+        clearConnectionPools();
     }
 
     /**
@@ -1775,6 +2025,7 @@ public class LdapManager {
     public void setFollowAliasReferralsEnabled(boolean followAliasReferrals) {
         this.followAliasReferrals = followAliasReferrals;
         properties.put("ldap.autoFollowAliasReferrals", String.valueOf(followAliasReferrals));
+        clearConnectionPools();
     }
 
     /**
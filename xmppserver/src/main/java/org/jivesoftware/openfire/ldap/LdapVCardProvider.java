@@ -238,6 +238,7 @@ public class LdapVCardProvider implements VCardProvider, PropertyEventListener {
      */
     @Override
     public Element loadVCard(String username) {
+        final String cacheKey = username;
         // Un-escape username.
         username = JID.unescapeNode(username);
         Map<String, String> map = getLdapAttributes(username);
@@ -259,7 +260,7 @@ public class LdapVCardProvider implements VCardProvider, PropertyEventListener {
 
         if ( JiveGlobals.getBooleanProperty( PhotoResizer.PROPERTY_RESIZE_ON_LOAD, PhotoResizer.PROPERTY_RESIZE_ON_LOAD_DEFAULT ) )
         {
-            PhotoResizer.resizeAvatar( vcard );
+            PhotoResizer.resizeAvatarOnLoad( cacheKey, vcard );
         }
 
         Log.debug("LdapVCardProvider: Returning vcard");
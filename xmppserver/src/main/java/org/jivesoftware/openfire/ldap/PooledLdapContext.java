@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.ldap;
+
+import org.jivesoftware.util.JiveInitialLdapContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.event.EventContext;
+import javax.naming.event.NamingExceptionEvent;
+import javax.naming.ldap.UnsolicitedNotificationEvent;
+import javax.naming.ldap.UnsolicitedNotificationListener;
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An LDAP context that is owned by a {@link LdapConnectionPool}. Closing the context returns it
+ * to the pool, instead of closing the underlying connection.
+ *
+ * The context registers for unsolicited notifications, so that it is informed when the
+ * connection is closed by the LDAP server. Such contexts are discarded by the pool.
+ */
+class PooledLdapContext extends JiveInitialLdapContext
+{
+    private static final Logger Log = LoggerFactory.getLogger( PooledLdapContext.class );
+
+    private final LdapConnectionPool pool;
+    private final String baseDN;
+    private final int generation;
+    private final AtomicBoolean borrowed = new AtomicBoolean( false );
+    private volatile boolean connectionClosed = false;
+
+    PooledLdapContext( final Hashtable<?, ?> environment, final LdapConnectionPool pool, final String baseDN ) throws NamingException
+    {
+        super( environment, null );
+        this.pool = pool;
+        this.baseDN = baseDN;
+        this.generation = pool.getGeneration();
+    }
+
+    /**
+     * Registers for notifications of the underlying LDAP connection being closed. This requires the
+     * default (JNDI) LDAP context implementation; for other implementations, this is a no-op.
+     */
+    void listenForDisconnect()
+    {
+        try
+        {
+            final Context context = getDefaultInitCtx();
+            if ( context instanceof EventContext )
+            {
+                ( (EventContext) context ).addNamingListener( "", EventContext.OBJECT_SCOPE, new UnsolicitedNotificationListener()
+                {
+                    @Override
+                    public void notificationReceived( final UnsolicitedNotificationEvent evt )
+                    {
+                        // Notice of disconnection is followed by a naming exception event.
+                    }
+
+                    @Override
+                    public void namingExceptionThrown( final NamingExceptionEvent evt )
+                    {
+                        Log.debug( "LDAP connection closed for pooled context with base DN '{}'.", baseDN, evt.getException() );
+                        connectionClosed = true;
+                    }
+                } );
+            }
+        }
+        catch ( NamingException e )
+        {
+            Log.debug( "Unable to listen for disconnects of pooled context with base DN '{}'.", baseDN, e );
+        }
+    }
+
+    String getBaseDN()
+    {
+        return baseDN;
+    }
+
+    int getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * Marks this context as being in use.
+     */
+    void markBorrowed()
+    {
+        borrowed.set( true );
+    }
+
+    /**
+     * Marks this context as no longer being in use.
+     *
+     * @return false if the context was not in use (for example, because it was closed before).
+     */
+    boolean markReturned()
+    {
+        return borrowed.compareAndSet( true, false );
+    }
+
+    /**
+     * Returns true if the LDAP server has closed the connection of this context.
+     *
+     * @return true if the connection is known to be closed.
+     */
+    boolean isConnectionClosed()
+    {
+        return connectionClosed;
+    }
+
+    /**
+     * Returns this context to the pool that owns it.
+     */
+    @Override
+    public void close() throws NamingException
+    {
+        pool.release( this );
+    }
+
+    /**
+     * Closes the underlying connection of this context.
+     */
+    void destroy()
+    {
+        try
+        {
+            super.close();
+        }
+        catch ( NamingException e )
+        {
+            Log.debug( "Unable to close pooled context with base DN '{}'.", baseDN, e );
+        }
+    }
+}
@@ -22,6 +22,8 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -33,7 +35,9 @@ import org.jivesoftware.database.SequenceManager;
 import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.openfire.cluster.ClusterEventListener;
 import org.jivesoftware.openfire.cluster.ClusterManager;
+import org.jivesoftware.openfire.component.InternalComponentManager;
 import org.jivesoftware.openfire.container.BasicModule;
+import org.jivesoftware.openfire.container.Module;
 import org.jivesoftware.openfire.event.UserEventDispatcher;
 import org.jivesoftware.openfire.event.UserEventListener;
 import org.jivesoftware.openfire.muc.cluster.GetNewMemberRoomsRequest;
@@ -46,6 +50,7 @@ import org.jivesoftware.openfire.muc.spi.LocalMUCRoom;
 import org.jivesoftware.openfire.muc.spi.MUCPersistenceManager;
 import org.jivesoftware.openfire.muc.spi.MUCServicePropertyEventListener;
 import org.jivesoftware.openfire.muc.spi.MultiUserChatServiceImpl;
+import org.jivesoftware.openfire.spi.RoutingTableImpl;
 import org.jivesoftware.openfire.stats.Statistic;
 import org.jivesoftware.openfire.stats.StatisticsManager;
 import org.jivesoftware.openfire.user.User;
@@ -120,6 +125,16 @@ public class MultiUserChatManager extends BasicModule implements ClusterEventLis
         UserEventDispatcher.addListener(this);
     }
 
+    /**
+     * The services of this manager are registered as internal components, which requires the component
+     * manager to have been started. Loading the services can take a while, so this module is started
+     * concurrently with other modules.
+     */
+    @Override
+    public Collection<Class<? extends Module>> getStartDependencies() {
+        return Arrays.asList(RoutingTableImpl.class, InternalComponentManager.class);
+    }
+
     /**
      * Called when manager is stopped, to clean things up.
      */
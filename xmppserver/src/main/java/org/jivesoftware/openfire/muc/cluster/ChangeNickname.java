@@ -17,7 +17,6 @@
 package org.jivesoftware.openfire.muc.cluster;
 
 import org.dom4j.Element;
-import org.dom4j.tree.DefaultElement;
 import org.jivesoftware.openfire.muc.spi.LocalMUCRoom;
 import org.jivesoftware.util.cache.ExternalizableUtil;
 import org.xmpp.packet.Presence;
@@ -80,7 +79,7 @@ public class ChangeNickname extends MUCRoomTask<Void> {
     @Override
     public void writeExternal(ObjectOutput out) throws IOException {
         super.writeExternal(out);
-        ExternalizableUtil.getInstance().writeSerializable(out, (DefaultElement) presence.getElement());
+        ExternalizableUtil.getInstance().writeElement(out, presence.getElement());
         ExternalizableUtil.getInstance().writeSafeUTF(out, oldNick);
         ExternalizableUtil.getInstance().writeSafeUTF(out, newNick);
     }
@@ -88,7 +87,7 @@ public class ChangeNickname extends MUCRoomTask<Void> {
     @Override
     public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
         super.readExternal(in);
-        Element packetElement = (Element) ExternalizableUtil.getInstance().readSerializable(in);
+        Element packetElement = ExternalizableUtil.getInstance().readElement(in);
         presence = new Presence(packetElement, true);
         oldNick = ExternalizableUtil.getInstance().readSafeUTF(in);
         newNick = ExternalizableUtil.getInstance().readSafeUTF(in);
@@ -17,7 +17,6 @@
 package org.jivesoftware.openfire.muc.cluster;
 
 import org.dom4j.Element;
-import org.dom4j.tree.DefaultElement;
 import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.openfire.cluster.NodeID;
 import org.jivesoftware.openfire.muc.MUCRole;
@@ -133,7 +132,7 @@ public class OccupantAddedEvent extends MUCRoomTask<Void> {
     @Override
     public void writeExternal(ObjectOutput out) throws IOException {
         super.writeExternal(out);
-        ExternalizableUtil.getInstance().writeSerializable(out, (DefaultElement) presence.getElement());
+        ExternalizableUtil.getInstance().writeElement(out, presence.getElement());
         ExternalizableUtil.getInstance().writeInt(out, role);
         ExternalizableUtil.getInstance().writeInt(out, affiliation);
         ExternalizableUtil.getInstance().writeBoolean(out, voiceOnly);
@@ -146,7 +145,7 @@ public class OccupantAddedEvent extends MUCRoomTask<Void> {
     @Override
     public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
         super.readExternal(in);
-        Element packetElement = (Element) ExternalizableUtil.getInstance().readSerializable(in);
+        Element packetElement = ExternalizableUtil.getInstance().readElement(in);
         presence = new Presence(packetElement, true);
         role = ExternalizableUtil.getInstance().readInt(in);
         affiliation = ExternalizableUtil.getInstance().readInt(in);
@@ -1054,14 +1054,10 @@ public class MUCPersistenceManager {
      */
     public static boolean saveConversationLogBatch(List<ConversationLogEntry> batch) {
         Connection con = null;
-        PreparedStatement pstmt = null;
-
+        boolean abortTransaction = false;
         try {
-            con = DbConnectionManager.getConnection();
-            pstmt = con.prepareStatement(ADD_CONVERSATION_LOG);
-            con.setAutoCommit(false);
-
-            for(ConversationLogEntry entry : batch) {
+            con = DbConnectionManager.getTransactionConnection();
+            DbConnectionManager.executeBatch(con, ADD_CONVERSATION_LOG, batch, (pstmt, entry) -> {
                 pstmt.setLong(1, entry.getRoomID());
                 pstmt.setLong(2, SequenceManager.nextID(JiveConstants.MUC_MESSAGE_ID));
                 pstmt.setString(3, entry.getSender().toString());
@@ -1070,24 +1066,16 @@ public class MUCPersistenceManager {
                 pstmt.setString(6, entry.getSubject());
                 pstmt.setString(7, entry.getBody());
                 pstmt.setString(8, entry.getStanza());
-                pstmt.addBatch();
-            }
-
-            pstmt.executeBatch();
-            con.commit();
+            });
             return true;
         }
         catch (SQLException sqle) {
             Log.error("Error saving conversation log batch", sqle);
-            if (con != null) {
-            	try {
-					con.rollback();
-				} catch (SQLException ignore) {}
-            }
+            abortTransaction = true;
             return false;
         }
         finally {
-            DbConnectionManager.closeConnection(pstmt, con);
+            DbConnectionManager.closeTransactionConnection(con, abortTransaction);
         }
     }
 
@@ -16,8 +16,6 @@
 
 package org.jivesoftware.openfire.muc.spi;
 
-import org.dom4j.Element;
-import org.dom4j.tree.DefaultElement;
 import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.openfire.cluster.NodeID;
 import org.jivesoftware.openfire.muc.MUCRole;
@@ -163,7 +161,7 @@ public class RemoteMUCRole implements MUCRole, Externalizable {
     @Override
     public void writeExternal(ObjectOutput out) throws IOException {
         ExternalizableUtil.getInstance().writeSafeUTF(out, serviceDomain);
-        ExternalizableUtil.getInstance().writeSerializable(out, (DefaultElement) presence.getElement());
+        ExternalizableUtil.getInstance().writeElement(out, presence.getElement());
         ExternalizableUtil.getInstance().writeInt(out, role.ordinal());
         ExternalizableUtil.getInstance().writeInt(out, affiliation.ordinal());
         ExternalizableUtil.getInstance().writeSafeUTF(out, nickname);
@@ -176,7 +174,7 @@ public class RemoteMUCRole implements MUCRole, Externalizable {
     @Override
     public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
         serviceDomain = ExternalizableUtil.getInstance().readSafeUTF(in);
-        presence = new Presence((Element)ExternalizableUtil.getInstance().readSerializable(in), true);
+        presence = new Presence(ExternalizableUtil.getInstance().readElement(in), true);
         role = Role.values()[ExternalizableUtil.getInstance().readInt(in)];
         affiliation = Affiliation.values()[ExternalizableUtil.getInstance().readInt(in)];
         nickname = ExternalizableUtil.getInstance().readSafeUTF(in);
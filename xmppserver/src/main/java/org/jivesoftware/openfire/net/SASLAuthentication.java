@@ -44,6 +44,7 @@ import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.openfire.XMPPServerInfo;
 import org.jivesoftware.openfire.auth.AuthFactory;
 import org.jivesoftware.openfire.auth.AuthToken;
+import org.jivesoftware.openfire.auth.ScramHash;
 import org.jivesoftware.openfire.keystore.CertificateStoreManager;
 import org.jivesoftware.openfire.keystore.TrustStore;
 import org.jivesoftware.openfire.lockout.LockOutManager;
@@ -51,6 +52,7 @@ import org.jivesoftware.openfire.sasl.AnonymousSaslServer;
 import org.jivesoftware.openfire.sasl.Failure;
 import org.jivesoftware.openfire.sasl.JiveSharedSecretSaslServer;
 import org.jivesoftware.openfire.sasl.SaslFailureException;
+import org.jivesoftware.openfire.sasl.ScramSaslServer;
 import org.jivesoftware.openfire.session.ClientSession;
 import org.jivesoftware.openfire.session.ConnectionSettings;
 import org.jivesoftware.openfire.session.IncomingServerSession;
@@ -230,6 +232,9 @@ public class SASLAuthentication {
                     continue; // Do not offer EXTERNAL.
                 }
             }
+            if (mech.endsWith("-PLUS") && (!(session instanceof LocalSession) || ScramSaslServer.getChannelBindingData((LocalSession) session) == null)) {
+                continue; // Do not offer channel binding when there's no channel to bind to.
+            }
             final Element mechanism = result.addElement("mechanism");
             mechanism.setText(mech);
         }
@@ -589,7 +594,8 @@ public class SASLAuthentication {
                     }
                     break;
 
-                case "SCRAM-SHA-1":
+                case "SCRAM-SHA-1": // intended fall-through
+                case "SCRAM-SHA-1-PLUS":
                     if ( !AuthFactory.supportsScram() )
                     {
                         Log.trace( "Cannot support '{}' as the AuthFactory that's in use does not support SCRAM.", mechanism );
@@ -597,6 +603,15 @@ public class SASLAuthentication {
                     }
                     break;
 
+                case "SCRAM-SHA-256": // intended fall-through
+                case "SCRAM-SHA-256-PLUS":
+                    if ( !AuthFactory.supportsScram( ScramHash.SHA_256 ) )
+                    {
+                        Log.trace( "Cannot support '{}' as the AuthFactory that's in use does not support SCRAM with SHA-256.", mechanism );
+                        it.remove();
+                    }
+                    break;
+
                 case "ANONYMOUS":
                     if (!AnonymousSaslServer.ENABLED.getValue()) {
                         Log.trace( "Cannot support '{}' as it has been disabled by configuration.", mechanism );
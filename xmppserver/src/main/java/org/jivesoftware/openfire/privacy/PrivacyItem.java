@@ -134,6 +134,15 @@ class PrivacyItem implements Cacheable, Comparable {
                 matchesPacketTypeCondition(packet, userJID);
     }
 
+    /**
+     * Returns true if this privacy item applies to outgoing presence notifications.
+     *
+     * @return true if outgoing presence notifications may be blocked or allowed by this item.
+     */
+    boolean isFilteringPresenceOut() {
+        return filterEverything || filterPresence_out;
+    }
+
     boolean isAllow() {
         return allow;
     }
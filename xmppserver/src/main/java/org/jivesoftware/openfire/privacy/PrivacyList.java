@@ -142,6 +142,23 @@ public class PrivacyList implements Cacheable, Externalizable {
         PrivacyListManager.getInstance().dispatchModifiedEvent(this);
     }
 
+    /**
+     * Returns true if this list has one or more items that apply to outgoing presence
+     * notifications. When this method returns false, {@link #shouldBlockPacket(Packet)} will
+     * not block any outgoing presence notification, which allows callers that broadcast presence
+     * to many contacts to skip the evaluation per contact.
+     *
+     * @return true if outgoing presence notifications may be blocked by this list.
+     */
+    public boolean isFilteringPresenceOut() {
+        for (PrivacyItem item : items) {
+            if (item.isFilteringPresenceOut()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Returns true if the specified packet must be blocked based on this privacy list rules.
      * Rules are going to be analyzed based on their order (in ascending order). When a rule
@@ -113,7 +113,7 @@ public class CollectionNode extends Node {
                 childrenNodes.add(childNode);
             }
             // Remove any children not in the new list.
-            ArrayList<Node> toRemove = new ArrayList<>(nodes.values());
+            ArrayList<Node> toRemove = new ArrayList<>(getNodes());
             toRemove.removeAll(childrenNodes);
             
             for (Node node : toRemove)
@@ -207,8 +207,8 @@ public class CollectionNode extends Node {
             formField.setType(FormField.Type.text_multi);
             formField.setLabel(LocaleUtils.getLocalizedString("pubsub.form.conf.children"));
         }
-        for (String nodeId : nodes.keySet()) {
-            formField.addValue(nodeId);
+        for (Node node : getNodes()) {
+            formField.addValue(node.getNodeID());
         }
     }
 
@@ -327,7 +327,7 @@ public class CollectionNode extends Node {
      */
     @Override
     public boolean isChildNode(Node child) {
-        return nodes.containsKey(child.getNodeID());
+        return child.getParent() == this || nodes.containsKey(child.getNodeID());
     }
 
     /**
@@ -343,16 +343,32 @@ public class CollectionNode extends Node {
         if (isChildNode(child)) {
             return true;
         }
-        for (Node node : getNodes()) {
-            if (node.isDescendantNode(child)) {
+        // Walk up from the child, which does not require the children of this node to be in memory.
+        for (CollectionNode ancestor = child.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+            if (ancestor == this) {
                 return true;
             }
         }
         return false;
     }
 
+    /**
+     * Returns the child nodes of this node. When the service does not keep all of its nodes in
+     * memory, this loads the child nodes that are not in memory.
+     *
+     * @return the child nodes of this node.
+     */
     @Override
     public Collection<Node> getNodes() {
+        return service.getChildNodes(this);
+    }
+
+    /**
+     * Returns the child nodes of this node that are in memory.
+     *
+     * @return the child nodes of this node that are in memory.
+     */
+    Collection<Node> getResidentNodes() {
         return nodes.values();
     }
 
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.pubsub;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps track of the nodes of a pubsub service that are resident in memory, ordered by the
+ * time they were last accessed. When more nodes are resident than allowed, the least recently
+ * used nodes are selected for eviction.
+ *
+ * This class does not hold references to the nodes themselves: the service that uses it is
+ * responsible for loading nodes on demand, and for removing evicted nodes from memory.
+ *
+ * Accesses of nodes that already are resident do not block: they are buffered, and applied to
+ * the access order by whichever thread next obtains the lock. When the buffer is full, accesses
+ * are dropped, which makes the eviction order approximate under heavy load.
+ */
+class NodeResidencyManager
+{
+    /**
+     * Maximum number of nodes that are allowed to be resident.
+     */
+    private final int maxResidentNodes;
+
+    /**
+     * Identifiers of the resident nodes, in access order (least recently used first).
+     */
+    private final LinkedHashMap<String, Boolean> residentNodes = new LinkedHashMap<>( 16, 0.75f, true );
+
+    /**
+     * Maximum number of accesses that are buffered before they are applied to the access order.
+     */
+    private static final int MAX_BUFFERED_ACCESSES = 1024;
+
+    /**
+     * Accesses of resident nodes that are yet to be applied to the access order.
+     */
+    private final Queue<String> bufferedAccesses = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The (approximate) number of buffered accesses.
+     */
+    private final AtomicInteger bufferedAccessCount = new AtomicInteger();
+
+    /**
+     * Guards {@link #residentNodes}.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxResidentNodes the maximum number of nodes that are allowed to be resident (must be positive).
+     */
+    NodeResidencyManager( final int maxResidentNodes )
+    {
+        if ( maxResidentNodes < 1 )
+        {
+            throw new IllegalArgumentException( "Argument 'maxResidentNodes' must be a positive integer." );
+        }
+        this.maxResidentNodes = maxResidentNodes;
+    }
+
+    /**
+     * Registers an access of a node, making it the most recently used one. Nodes that were
+     * not yet resident become resident.
+     *
+     * @param nodeID the identifier of the node that is accessed (cannot be null).
+     * @return The identifiers of the nodes that are to be evicted (never null, possibly empty).
+     */
+    List<String> touch( final String nodeID )
+    {
+        lock.lock();
+        try
+        {
+            drainBufferedAccesses();
+            residentNodes.put( nodeID, Boolean.TRUE );
+            if ( residentNodes.size() <= maxResidentNodes )
+            {
+                return Collections.emptyList();
+            }
+
+            final List<String> evicted = new ArrayList<>( residentNodes.size() - maxResidentNodes );
+            final Iterator<String> iterator = residentNodes.keySet().iterator();
+            while ( residentNodes.size() > maxResidentNodes && iterator.hasNext() )
+            {
+                evicted.add( iterator.next() );
+                iterator.remove();
+            }
+            return evicted;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers an access of a node that is already resident, without blocking. As this never
+     * makes a node resident, it never causes other nodes to be evicted.
+     *
+     * @param nodeID the identifier of the resident node that is accessed (cannot be null).
+     */
+    void recordAccess( final String nodeID )
+    {
+        if ( bufferedAccessCount.get() < MAX_BUFFERED_ACCESSES )
+        {
+            bufferedAccessCount.incrementAndGet();
+            bufferedAccesses.offer( nodeID );
+        }
+        if ( lock.tryLock() )
+        {
+            try
+            {
+                drainBufferedAccesses();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Applies the buffered accesses to the access order. Must be called while holding the lock.
+     */
+    private void drainBufferedAccesses()
+    {
+        String nodeID;
+        while ( ( nodeID = bufferedAccesses.poll() ) != null )
+        {
+            bufferedAccessCount.decrementAndGet();
+            // A lookup in an access-ordered map moves the entry to the end. Nodes that were
+            // removed or evicted in the meantime are not made resident again.
+            residentNodes.get( nodeID );
+        }
+    }
+
+    /**
+     * Removes a node from the collection of resident nodes (for example, because it was deleted).
+     *
+     * @param nodeID the identifier of the node (cannot be null).
+     */
+    void remove( final String nodeID )
+    {
+        lock.lock();
+        try
+        {
+            residentNodes.remove( nodeID );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of resident nodes.
+     *
+     * @return a non-negative number.
+     */
+    int size()
+    {
+        lock.lock();
+        try
+        {
+            return residentNodes.size();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+}
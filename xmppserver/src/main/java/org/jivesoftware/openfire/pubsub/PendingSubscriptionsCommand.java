@@ -52,7 +52,7 @@ public class PendingSubscriptionsCommand extends AdHocCommand {
         formField.setType(FormField.Type.list_single);
         formField.setLabel(
                 LocaleUtils.getLocalizedString("pubsub.command.pending-subscriptions.node"));
-        for (Node node : service.getNodes()) {
+        for (Node node : service.getAffiliatedNodes(data.getOwner())) {
             if (!node.isCollectionNode() && node.isAdmin(data.getOwner())) {
                 formField.addOption(null, node.getNodeID());
             }
@@ -133,7 +133,7 @@ public class PendingSubscriptionsCommand extends AdHocCommand {
     @Override
     public boolean hasPermission(JID requester) {
         // User has permission if he is an owner of at least one node or is a sysadmin
-        for (Node node : service.getNodes()) {
+        for (Node node : service.getAffiliatedNodes(requester)) {
             if (!node.isCollectionNode() && node.isAdmin(requester)) {
                 return true;
             }
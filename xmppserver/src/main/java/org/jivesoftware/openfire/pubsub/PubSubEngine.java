@@ -1033,7 +1033,7 @@ public class PubSubEngine {
         if (nodeID == null)
         {
             // Collect subscriptions of owner for all nodes at the service
-            for (Node node : service.getNodes()) {
+            for (Node node : service.getAffiliatedNodes(owner)) {
                 subscriptions.addAll(node.getSubscriptions(owner));
             }
         }
@@ -1071,7 +1071,7 @@ public class PubSubEngine {
         JID owner = iq.getFrom().asBareJID();
         // Collect affiliations of owner for all nodes at the service
         Collection<NodeAffiliate> affiliations = new ArrayList<>();
-        for (Node node : service.getNodes()) {
+        for (Node node : service.getAffiliatedNodes(owner)) {
             NodeAffiliate nodeAffiliate = node.getAffiliate(owner);
             if (nodeAffiliate != null) {
                 affiliations.add(nodeAffiliate);
@@ -1797,7 +1797,7 @@ public class PubSubEngine {
      * @param user the entity that no longer exists.
      */
     private void cancelAllSubscriptions(PubSubService service, JID user) {
-        for (Node node : service.getNodes()) {
+        for (Node node : service.getAffiliatedNodes(user)) {
             NodeAffiliate affiliate = node.getAffiliate(user);
             if (affiliate == null) {
                 continue;
@@ -1932,11 +1932,7 @@ public class PubSubEngine {
     }
 
     private void probePresences(final PubSubService service) {
-        Set<JID> affiliates = new HashSet<>();
-        for (Node node : service.getNodes()) {
-            affiliates.addAll(node.getPresenceBasedSubscribers());
-        }
-        for (JID jid : affiliates) {
+        for (JID jid : service.getPresenceBasedSubscribers()) {
             // Send probe presence
             Presence subscription = new Presence(Presence.Type.probe);
             subscription.setTo(jid);
@@ -2007,7 +2003,7 @@ public class PubSubEngine {
      */
     public static void presenceSubscriptionNotRequired(PubSubService service, Node node, JID user) {
         // Check that no node is requiring to be subscribed to this user
-        for (Node hostedNode : service.getNodes()) {
+        for (Node hostedNode : service.getAffiliatedNodes(user)) {
             if (hostedNode.isPresenceBasedDelivery(user)) {
                 // Do not unsubscribe since presence subscription is still required
                 return;
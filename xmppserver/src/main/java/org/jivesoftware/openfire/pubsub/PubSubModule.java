@@ -16,16 +16,24 @@
 
 package org.jivesoftware.openfire.pubsub;
 
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
 import org.jivesoftware.openfire.PacketRouter;
@@ -35,6 +43,7 @@ import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.openfire.commands.AdHocCommandManager;
 import org.jivesoftware.openfire.component.InternalComponentManager;
 import org.jivesoftware.openfire.container.BasicModule;
+import org.jivesoftware.openfire.container.Module;
 import org.jivesoftware.openfire.disco.DiscoInfoProvider;
 import org.jivesoftware.openfire.disco.DiscoItem;
 import org.jivesoftware.openfire.disco.DiscoItemsProvider;
@@ -44,6 +53,7 @@ import org.jivesoftware.openfire.disco.IQDiscoItemsHandler;
 import org.jivesoftware.openfire.disco.ServerItemsProvider;
 import org.jivesoftware.openfire.pubsub.models.AccessModel;
 import org.jivesoftware.openfire.pubsub.models.PublisherModel;
+import org.jivesoftware.openfire.spi.RoutingTableImpl;
 import org.jivesoftware.util.JiveGlobals;
 import org.jivesoftware.util.LocaleUtils;
 import org.jivesoftware.util.PropertyEventDispatcher;
@@ -84,6 +94,32 @@ public class PubSubModule extends BasicModule implements ServerItemsProvider, Di
      * Nodes managed by this manager, table: key nodeID (String); value Node
      */
     private Map<String, Node> nodes = new ConcurrentHashMap<>();
+
+    /**
+     * Tracks which leaf nodes are resident in memory, when leaf nodes are loaded on demand (as
+     * opposed to all nodes being loaded when the service is initialized). Null when all nodes are
+     * kept in memory. Configured through the "xmpp.pubsub.node.resident.max" property.
+     */
+    private NodeResidencyManager residencyManager = null;
+
+    /**
+     * Leaf nodes that were evicted from memory, but that might still be referenced elsewhere. When such
+     * a node is accessed again, the same instance is made resident again, instead of a duplicate being
+     * loaded from the database. Values are weakly referenced.
+     */
+    private final Map<String, Node> evictedNodes = CacheBuilder.newBuilder().weakValues().<String, Node>build().asMap();
+
+    /**
+     * Identifiers of nodes that were recently found not to exist in the database, so that repeated
+     * requests for unknown nodes do not each query the database. Null when all nodes are kept in memory.
+     */
+    private Cache<String, Boolean> unknownNodeIDs = null;
+
+    /**
+     * Guards against concurrent loading of the same node from the database. Key: node identifier;
+     * value: the lock object held while that node is being loaded.
+     */
+    private final ConcurrentMap<String, Object> nodeLoadLocks = new ConcurrentHashMap<>();
     
     /**
      * Keep a registry of the presence's show value of users that subscribed to a node of
@@ -475,11 +511,21 @@ public class PubSubModule extends BasicModule implements ServerItemsProvider, Di
                     .createDefaultConfiguration(this, collectionDefaultConfiguration);
         }
 
-        // Load nodes to memory
-        PubSubPersistenceManager.loadNodes(this);
+        // Load nodes to memory, unless leaf nodes are to be loaded on demand
+        final int maxResidentNodes = JiveGlobals.getIntProperty("xmpp.pubsub.node.resident.max", -1);
+        if (maxResidentNodes > 0) {
+            residencyManager = new NodeResidencyManager(maxResidentNodes);
+            unknownNodeIDs = CacheBuilder.newBuilder()
+                .maximumSize(maxResidentNodes)
+                .expireAfterWrite(1, TimeUnit.MINUTES)
+                .build();
+        } else {
+            PubSubPersistenceManager.loadNodes(this);
+        }
         // Ensure that we have a root collection node
         String rootNodeID = JiveGlobals.getProperty("xmpp.pubsub.root.nodeID", "");
-        if (nodes.isEmpty()) {
+        rootCollectionNode = (CollectionNode) getNode(rootNodeID);
+        if (rootCollectionNode == null) {
             // Create root collection node
             String creator = JiveGlobals.getProperty("xmpp.pubsub.root.creator");
 //            JID creatorJID = creator != null ? new JID(creator) : server.getAdmins().iterator().next();
@@ -490,9 +536,16 @@ public class PubSubModule extends BasicModule implements ServerItemsProvider, Di
             // Save new root node
             rootCollectionNode.saveToDB();
         }
-        else {
-            rootCollectionNode = (CollectionNode) getNode(rootNodeID);
-        }
+    }
+
+    /**
+     * Starting the pubsub engine loads the nodes of this service from the database, which can take
+     * a while. Apart from the route to this service, nothing depends on other modules having been
+     * started, so this module is started concurrently with other modules.
+     */
+    @Override
+    public Collection<Class<? extends Module>> getStartDependencies() {
+        return Collections.singletonList(RoutingTableImpl.class);
     }
 
     @Override
@@ -740,7 +793,11 @@ public class PubSubModule extends BasicModule implements ServerItemsProvider, Di
         }
         List<DiscoItem> answer = new ArrayList<>();
         String serviceDomain = getServiceDomain();
-        if (name == null && node == null) {
+        if (name == null && node == null && residencyManager != null) {
+            // Not all nodes are in memory: answer all first level nodes from the database
+            answer.addAll(getChildItems(rootCollectionNode));
+        }
+        else if (name == null && node == null) {
             // Answer all first level nodes
             for (Node pubNode : rootCollectionNode.getNodes()) {
                 if (canDiscoverNode(pubNode)) {
@@ -754,7 +811,11 @@ public class PubSubModule extends BasicModule implements ServerItemsProvider, Di
         else if (name == null) {
             Node pubNode = getNode(node);
             if (pubNode != null && canDiscoverNode(pubNode)) {
-                if (pubNode.isCollectionNode()) {
+                if (pubNode.isCollectionNode() && residencyManager != null) {
+                    // Not all nodes are in memory: answer all nested nodes from the database
+                    answer.addAll(getChildItems(pubNode));
+                }
+                else if (pubNode.isCollectionNode()) {
                     // Answer all nested nodes as items
                     for (Node nestedNode : pubNode.getNodes()) {
                         if (canDiscoverNode(nestedNode)) {
@@ -779,6 +840,22 @@ public class PubSubModule extends BasicModule implements ServerItemsProvider, Di
         return answer.iterator();
     }
 
+    /**
+     * Returns disco items for the child nodes of a collection node, as stored in the database.
+     * This does not require the child nodes to be loaded in memory.
+     *
+     * @param parent the collection node for which to return child items.
+     * @return disco items for all child nodes (never null).
+     */
+    private List<DiscoItem> getChildItems(Node parent) {
+        final List<DiscoItem> result = new ArrayList<>();
+        final JID serviceAddress = new JID(getServiceDomain());
+        for (Map.Entry<String, String> child : PubSubPersistenceManager.loadChildNodeNames(this, parent.getNodeID()).entrySet()) {
+            result.add(new DiscoItem(serviceAddress, child.getValue(), child.getKey(), null));
+        }
+        return result;
+    }
+
     @Override
     public void broadcast(Node node, Message message, Collection<JID> jids) {
         // TODO Possibly use a thread pool for sending packets (based on the jids size)
@@ -805,12 +882,159 @@ public class PubSubModule extends BasicModule implements ServerItemsProvider, Di
 
     @Override
     public Node getNode(String nodeID) {
-        return nodes.get(nodeID);
+        Node node = nodes.get(nodeID);
+        if (residencyManager == null) {
+            return node;
+        }
+
+        if (node == null) {
+            if (unknownNodeIDs.getIfPresent(nodeID) != null) {
+                return null;
+            }
+            // Load the node (and, if needed, its parents) on demand. Only loads of the same node
+            // are serialized: parents have different identifiers, so nested loads cannot deadlock.
+            final Object lock = nodeLoadLocks.computeIfAbsent(nodeID, id -> new Object());
+            try {
+                synchronized (lock) {
+                    node = loadNode(nodeID);
+                }
+            }
+            finally {
+                nodeLoadLocks.remove(nodeID, lock);
+            }
+        }
+        else if (!node.isCollectionNode()) {
+            residencyManager.recordAccess(nodeID);
+        }
+        return node;
     }
 
+    /**
+     * Makes a node that is not resident in memory resident, by either restoring the evicted
+     * instance or loading the node from the database. Must be called while holding the load
+     * lock of the node.
+     *
+     * @param nodeID the identifier of the node.
+     * @return the node, or null if the node does not exist.
+     */
+    private Node loadNode(String nodeID) {
+        Node node = nodes.get(nodeID);
+        if (node != null) {
+            // Loaded by another thread in the meantime.
+            return node;
+        }
+        node = evictedNodes.remove(nodeID);
+        if (node != null) {
+            // The evicted instance is still in use: make it resident again.
+            if (node.getParent() != null) {
+                node.getParent().addChildNode(node);
+            }
+            addNode(node);
+            return node;
+        }
+        PubSubPersistenceManager.loadNode(this, nodeID);
+        node = nodes.get(nodeID);
+        if (node == null) {
+            unknownNodeIDs.put(nodeID, Boolean.TRUE);
+        }
+        return node;
+    }
+
+    /**
+     * Returns the nodes hosted by the pubsub service. When leaf nodes are loaded on demand (see
+     * "xmpp.pubsub.node.resident.max"), the node identifiers are read from the database, and each
+     * node is loaded as the returned collection is iterated over. Such a walk is expensive, and
+     * should not be used for operations that are specific to a user.
+     *
+     * @return the collection of nodes hosted by the pubsub service.
+     */
     @Override
     public Collection<Node> getNodes() {
-        return nodes.values();
+        if (residencyManager == null) {
+            return nodes.values();
+        }
+        final Set<String> nodeIDs = new LinkedHashSet<>(PubSubPersistenceManager.loadNodeIDs(this));
+        nodeIDs.addAll(nodes.keySet());
+        return new LazyNodeCollection(nodeIDs);
+    }
+
+    @Override
+    public Collection<Node> getChildNodes(CollectionNode parent) {
+        if (residencyManager == null) {
+            return parent.getResidentNodes();
+        }
+        final List<Node> result = new ArrayList<>();
+        final Set<String> nodeIDs = new LinkedHashSet<>(PubSubPersistenceManager.loadChildNodeNames(this, parent.getNodeID()).keySet());
+        for (Node node : parent.getResidentNodes()) {
+            nodeIDs.add(node.getNodeID());
+        }
+        for (String nodeID : nodeIDs) {
+            final Node node = getNode(nodeID);
+            if (node != null && node.getParent() == parent) {
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Collection<Node> getAffiliatedNodes(JID jid) {
+        if (residencyManager == null) {
+            return getNodes();
+        }
+        final List<Node> result = new ArrayList<>();
+        for (String nodeID : PubSubPersistenceManager.loadAffiliatedNodeIDs(this, jid)) {
+            final Node node = getNode(nodeID);
+            if (node != null) {
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Collection<String> getLeafNodeIDs() {
+        if (residencyManager == null) {
+            return PubSubService.super.getLeafNodeIDs();
+        }
+        final Set<String> nodeIDs = new LinkedHashSet<>(PubSubPersistenceManager.loadLeafNodeIDs(this));
+        for (Node node : nodes.values()) {
+            if (!node.isCollectionNode()) {
+                nodeIDs.add(node.getNodeID());
+            }
+        }
+        return nodeIDs;
+    }
+
+    @Override
+    public Collection<JID> getPresenceBasedSubscribers() {
+        if (residencyManager == null) {
+            return PubSubService.super.getPresenceBasedSubscribers();
+        }
+        return PubSubPersistenceManager.loadPresenceBasedSubscribers(this);
+    }
+
+    /**
+     * Removes leaf nodes from memory. The nodes remain in the database, and are loaded
+     * again when they are accessed.
+     *
+     * @param nodeIDs identifiers of the nodes to remove from memory.
+     */
+    private void evictNodes(Collection<String> nodeIDs) {
+        for (String nodeID : nodeIDs) {
+            final Node node = nodes.remove(nodeID);
+            if (node != null) {
+                evictedNodes.put(nodeID, node);
+                // The node exists, even if it was concurrently registered as unknown.
+                unknownNodeIDs.invalidate(nodeID);
+                if (node.getParent() != null) {
+                    node.getParent().removeChildNode(node);
+                }
+            }
+        }
+        if (!nodeIDs.isEmpty()) {
+            Log.debug("Evicted {} leaf nodes from memory. Resident leaf nodes: {}", nodeIDs.size(), residencyManager.size());
+        }
     }
 
     private boolean hasNode(String nodeID) {
@@ -820,11 +1044,80 @@ public class PubSubModule extends BasicModule implements ServerItemsProvider, Di
     @Override
     public void addNode(Node node) {
         nodes.put(node.getNodeID(), node);
+        if (residencyManager != null) {
+            unknownNodeIDs.invalidate(node.getNodeID());
+            if (!node.isCollectionNode()) {
+                evictNodes(residencyManager.touch(node.getNodeID()));
+            }
+        }
     }
 
     @Override
     public void removeNode(String nodeID) {
         nodes.remove(nodeID);
+        if (residencyManager != null) {
+            residencyManager.remove(nodeID);
+            evictedNodes.remove(nodeID);
+        }
+    }
+
+    /**
+     * A collection of all nodes of the service, that loads each node when it is iterated over.
+     * Clearing the collection removes all nodes from memory.
+     */
+    private class LazyNodeCollection extends AbstractCollection<Node> {
+
+        private final Collection<String> nodeIDs;
+
+        LazyNodeCollection(Collection<String> nodeIDs) {
+            this.nodeIDs = nodeIDs;
+        }
+
+        @Override
+        public Iterator<Node> iterator() {
+            final Iterator<String> ids = nodeIDs.iterator();
+            return new Iterator<Node>() {
+                private Node next = advance();
+
+                private Node advance() {
+                    while (ids.hasNext()) {
+                        // Nodes that were deleted in the meantime are skipped.
+                        final Node node = getNode(ids.next());
+                        if (node != null) {
+                            return node;
+                        }
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Node next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    final Node result = next;
+                    next = advance();
+                    return result;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return nodeIDs.size();
+        }
+
+        @Override
+        public void clear() {
+            nodes.clear();
+            evictedNodes.clear();
+            unknownNodeIDs.invalidateAll();
+        }
     }
 
     private boolean canDiscoverNode(Node pubNode) {
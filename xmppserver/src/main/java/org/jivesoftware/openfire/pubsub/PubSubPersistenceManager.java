@@ -20,27 +20,38 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.jivesoftware.database.DbConnectionManager;
 import org.jivesoftware.database.DbConnectionManager.DatabaseType;
+import org.jivesoftware.openfire.XMPPServer;
+import org.jivesoftware.openfire.archive.ArchiveManager;
+import org.jivesoftware.openfire.archive.Archiver;
 import org.jivesoftware.openfire.cluster.ClusterManager;
 import org.jivesoftware.openfire.pubsub.cluster.FlushTask;
 import org.jivesoftware.openfire.pubsub.models.AccessModel;
 import org.jivesoftware.openfire.pubsub.models.PublisherModel;
+import org.jivesoftware.openfire.stats.Statistic;
+import org.jivesoftware.openfire.stats.StatisticsManager;
+import org.jivesoftware.openfire.stats.i18nStatistic;
 import org.jivesoftware.util.JiveGlobals;
-import org.jivesoftware.util.LinkedList;
-import org.jivesoftware.util.LinkedListNode;
 import org.jivesoftware.util.StringUtils;
 import org.jivesoftware.util.TaskEngine;
 import org.jivesoftware.util.cache.Cache;
@@ -58,6 +69,9 @@ public class PubSubPersistenceManager {
 
     private static final Logger log = LoggerFactory.getLogger(PubSubPersistenceManager.class);
 
+    private static final String pendingItemsStatKey = "pubsub_pending_items";
+    private static final String flushLatencyStatKey = "pubsub_flush_latency";
+
     private static final String PERSISTENT_NODES = "SELECT serviceID, nodeID, maxItems " +
             "FROM ofPubsubNode WHERE leaf=1 AND persistItems=1 AND maxItems > 0";
     
@@ -113,6 +127,25 @@ public class PubSubPersistenceManager {
 
     private static final String LOAD_NODE = LOAD_NODES + " AND nodeID=?";
 
+    private static final String LOAD_NODE_IDS =
+            "SELECT nodeID FROM ofPubsubNode WHERE serviceID=?";
+
+    private static final String LOAD_LEAF_NODE_IDS =
+            "SELECT nodeID FROM ofPubsubNode WHERE serviceID=? AND leaf=1";
+
+    private static final String LOAD_CHILD_NODE_NAMES =
+            "SELECT nodeID, name FROM ofPubsubNode WHERE serviceID=? AND parent=?";
+
+    private static final String LOAD_AFFILIATED_NODE_IDS =
+            "SELECT nodeID FROM ofPubsubAffiliation WHERE serviceID=? AND jid=? " +
+            "UNION SELECT nodeID FROM ofPubsubSubscription WHERE serviceID=? AND (owner=? OR jid=?)";
+
+    // Subscriptions without presence states are stored with a blank showValues (see encodeWithComma).
+    private static final String LOAD_PRESENCE_BASED_SUBSCRIBERS =
+            "SELECT DISTINCT s.owner FROM ofPubsubSubscription s, ofPubsubNode n " +
+            "WHERE s.serviceID=? AND n.serviceID=s.serviceID AND n.nodeID=s.nodeID " +
+            "AND (n.presenceBased=1 OR s.showValues<>' ')";
+
     private static final String UPDATE_NODE =
             "UPDATE ofPubsubNode SET modificationDate=?, parent=?, deliverPayloads=?, " +
             "maxPayloadSize=?, persistItems=?, maxItems=?, " +
@@ -226,11 +259,19 @@ public class PubSubPersistenceManager {
     private static Random prng = new Random();
     
     /**
-     * Flush timer delay is configurable, but not less than 20 seconds (default: 2 mins)
+     * Flush timer delay is configurable, but not less than 20 seconds (default: 2 mins). This is the
+     * maximum amount of time that a published item is kept in the write cache.
      */
     private static long flushTimerDelay = Math.max(20000, 
             JiveGlobals.getIntProperty("xmpp.pubsub.flush.timer", 120)*1000);
 
+    /**
+     * Maximum amount of milliseconds to wait for more items to arrive, before a batch of
+     * items is written to the database (default: 1 second).
+     */
+    private static long flushGracePeriod = Math.min(flushTimerDelay,
+            JiveGlobals.getLongProperty("xmpp.pubsub.flush.grace", 1000));
+
     /**
      * Purge timer delay is configurable, but not less than 60 seconds (default: 5 mins)
      */
@@ -238,11 +279,16 @@ public class PubSubPersistenceManager {
             JiveGlobals.getIntProperty("xmpp.pubsub.purge.timer", 300)*1000);
 
     /**
-     * Maximum number of published items allowed in the write cache
-     * before being flushed to the database.
+     * Maximum number of published items allowed in the write cache. When the
+     * cache is full, publishing threads flush it before queuing new items.
      */
     private static final int MAX_ITEMS_FLUSH = JiveGlobals.getIntProperty("xmpp.pubsub.flush.max", 1000);
 
+    /**
+     * Maximum number of published items that are written to the database in one batch.
+     */
+    private static final int MAX_ITEMS_BATCH = JiveGlobals.getIntProperty("xmpp.pubsub.flush.batch", 100);
+
     /**
      * Maximum number of rows that will be fetched from the published items table.
      */
@@ -254,22 +300,31 @@ public class PubSubPersistenceManager {
     private static final int MAX_ITEM_RETRY = JiveGlobals.getIntProperty("xmpp.pubsub.item.retry", 1);
     
     /**
-     * Queue that holds the (wrapped) items that need to be added to the database.
+     * Published items (and retractions) that haven't been persisted yet, by item key. Each
+     * key holds at most one pending operation: a later publication or retraction of the
+     * same item replaces the operation that is pending for it.
      */
-    private static LinkedList<RetryWrapper> itemsToAdd = new LinkedList<>();
+    private static final ConcurrentMap<String, PendingItem> itemsPending = new ConcurrentHashMap<>();
 
     /**
-     * Queue that holds the items that need to be deleted from the database.
+     * Serializes writes of pending items to the database. A flush acquires this lock, which
+     * guarantees that writes that were in progress when it was invoked have completed when
+     * it returns.
      */
-    private static LinkedList<PublishedItem> itemsToDelete = new LinkedList<>();
+    private static final Lock flushLock = new ReentrantLock();
 
     /**
-     * Keeps reference to published items that haven't been persisted yet so they 
-     * can be removed before being deleted. Note these items are wrapped via the 
-     * RetryWrapper to allow multiple persistence attempts when needed.
+     * Writes pending items to the database in the background. Created on first use.
      */
-    private static final HashMap<String, LinkedListNode<RetryWrapper>> itemsPending = new HashMap<>();
-    
+    private static volatile PublishedItemArchiver archiver;
+
+    /**
+     * Number of flushes, and their accumulated duration in nanoseconds, since the last time
+     * that the flush latency statistic was sampled.
+     */
+    private static final AtomicLong flushCount = new AtomicLong();
+    private static final AtomicLong flushDuration = new AtomicLong();
+
     /**
      * Cache name for recently accessed published items.
      */
@@ -282,13 +337,6 @@ public class PubSubPersistenceManager {
     
     static {
         try {
-            if (MAX_ITEMS_FLUSH > 0) {
-                TaskEngine.getInstance().schedule(new TimerTask() {
-                    @Override
-                    public void run() { flushPendingItems(false); } // this member only
-                }, Math.abs(prng.nextLong())%flushTimerDelay, flushTimerDelay);
-            }
-
             // increase the timer delay when running in cluster mode
             // because other members are also running the purge task
             if (ClusterManager.isClusteringEnabled()) {
@@ -298,7 +346,9 @@ public class PubSubPersistenceManager {
                 @Override
                 public void run() { purgeItems(); }
             }, Math.abs(prng.nextLong())%purgeTimerDelay, purgeTimerDelay);
-            
+
+            StatisticsManager.getInstance().addStatistic(pendingItemsStatKey, new PendingItemsStatistic());
+            StatisticsManager.getInstance().addStatistic(flushLatencyStatKey, new FlushLatencyStatistic());
         } catch (Exception ex) {
             log.error("Failed to initialize pubsub maintentence tasks", ex);
         }
@@ -687,6 +737,7 @@ public class PubSubPersistenceManager {
         PreparedStatement pstmt = null;
         ResultSet rs = null;
         Map<String, Node> nodes = new HashMap<>();
+        String parentId = null;
         try
         {
             con = DbConnectionManager.getConnection();
@@ -704,19 +755,13 @@ public class PubSubPersistenceManager {
                 loadNode(service, nodes, parentMapping, rs);
             }
             DbConnectionManager.fastcloseStmt(rs, pstmt);
-            String parentId = parentMapping.get(nodeId);
-            
-            if (parentId != null) {
-                CollectionNode parent = (CollectionNode) service.getNode(parentId);
-                
-                if (parent == null) {
-                    log.error("Could not find parent node " + parentId + " for node " + nodeId);
-                }
-                else {
-                    nodes.get(nodeId).changeParent(parent);
-                }
+
+            if (nodes.isEmpty()) {
+                log.debug("Node {} not found in pubsub service {}", nodeId, service.getServiceID());
+                return;
             }
-                
+            parentId = parentMapping.get(nodeId);
+
             // Get JIDs associated with all nodes
             pstmt = con.prepareStatement(LOAD_NODE_JIDS);
             pstmt.setString(1, service.getServiceID());
@@ -774,6 +819,18 @@ public class PubSubPersistenceManager {
             DbConnectionManager.closeConnection(rs, pstmt, con);
         }
 
+        // Resolve the parent only after the connection has been released, as this can load the parent node.
+        if (parentId != null && !nodes.isEmpty()) {
+            CollectionNode parent = (CollectionNode) service.getNode(parentId);
+
+            if (parent == null) {
+                log.error("Could not find parent node " + parentId + " for node " + nodeId);
+            }
+            else {
+                nodes.get(nodeId).changeParent(parent);
+            }
+        }
+
         for (Node node : nodes.values())
         {
             // Set now that the node is persistent in the database. Note: We
@@ -787,6 +844,165 @@ public class PubSubPersistenceManager {
         }
     }
 
+    /**
+     * Loads the identifiers of all nodes of a service from the database, without loading the
+     * nodes themselves.
+     *
+     * @param service the pubsub service that is hosting the nodes.
+     * @return node identifiers (never null).
+     */
+    public static List<String> loadNodeIDs(PubSubService service) {
+        final List<String> result = new ArrayList<>();
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            con = DbConnectionManager.getConnection();
+            pstmt = con.prepareStatement(LOAD_NODE_IDS);
+            pstmt.setString(1, service.getServiceID());
+            rs = pstmt.executeQuery();
+            while (rs.next()) {
+                result.add(decodeNodeID(rs.getString(1)));
+            }
+        }
+        catch (SQLException sqle) {
+            log.error(sqle.getMessage(), sqle);
+        }
+        finally {
+            DbConnectionManager.closeConnection(rs, pstmt, con);
+        }
+        return result;
+    }
+
+    /**
+     * Loads the identifiers of the leaf nodes of a service from the database, without loading the
+     * nodes themselves.
+     *
+     * @param service the pubsub service that is hosting the nodes.
+     * @return node identifiers (never null).
+     */
+    public static List<String> loadLeafNodeIDs(PubSubService service) {
+        final List<String> result = new ArrayList<>();
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            con = DbConnectionManager.getConnection();
+            pstmt = con.prepareStatement(LOAD_LEAF_NODE_IDS);
+            pstmt.setString(1, service.getServiceID());
+            rs = pstmt.executeQuery();
+            while (rs.next()) {
+                result.add(decodeNodeID(rs.getString(1)));
+            }
+        }
+        catch (SQLException sqle) {
+            log.error(sqle.getMessage(), sqle);
+        }
+        finally {
+            DbConnectionManager.closeConnection(rs, pstmt, con);
+        }
+        return result;
+    }
+
+    /**
+     * Loads the identifiers and names of the child nodes of a collection node from the database,
+     * without loading the child nodes themselves.
+     *
+     * @param service the pubsub service that is hosting the nodes.
+     * @param parentNodeID the identifier of the collection node.
+     * @return node names by node identifier (never null).
+     */
+    public static Map<String, String> loadChildNodeNames(PubSubService service, String parentNodeID) {
+        final Map<String, String> result = new LinkedHashMap<>();
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            con = DbConnectionManager.getConnection();
+            pstmt = con.prepareStatement(LOAD_CHILD_NODE_NAMES);
+            pstmt.setString(1, service.getServiceID());
+            pstmt.setString(2, encodeNodeID(parentNodeID));
+            rs = pstmt.executeQuery();
+            while (rs.next()) {
+                result.put(decodeNodeID(rs.getString(1)), rs.getString(2));
+            }
+        }
+        catch (SQLException sqle) {
+            log.error(sqle.getMessage(), sqle);
+        }
+        finally {
+            DbConnectionManager.closeConnection(rs, pstmt, con);
+        }
+        return result;
+    }
+
+    /**
+     * Loads the identifiers of the nodes of a service with which an entity is affiliated, or to
+     * which it is subscribed, from the database.
+     *
+     * @param service the pubsub service that is hosting the nodes.
+     * @param jid the address of the entity (the bare JID is used to match affiliations).
+     * @return node identifiers (never null).
+     */
+    public static Collection<String> loadAffiliatedNodeIDs(PubSubService service, JID jid) {
+        final Set<String> result = new HashSet<>();
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            con = DbConnectionManager.getConnection();
+            pstmt = con.prepareStatement(LOAD_AFFILIATED_NODE_IDS);
+            pstmt.setString(1, service.getServiceID());
+            pstmt.setString(2, jid.toBareJID());
+            pstmt.setString(3, service.getServiceID());
+            pstmt.setString(4, jid.toBareJID());
+            pstmt.setString(5, jid.toString());
+            rs = pstmt.executeQuery();
+            while (rs.next()) {
+                result.add(decodeNodeID(rs.getString(1)));
+            }
+        }
+        catch (SQLException sqle) {
+            log.error(sqle.getMessage(), sqle);
+        }
+        finally {
+            DbConnectionManager.closeConnection(rs, pstmt, con);
+        }
+        return result;
+    }
+
+    /**
+     * Loads the addresses of the entities that receive notifications of nodes of a service based
+     * on their presence, without loading the nodes themselves. These are the owners of the
+     * subscriptions to nodes that deliver notifications based on presence, and of the
+     * subscriptions that only want to be notified for specific presence states.
+     *
+     * @param service the pubsub service that is hosting the nodes.
+     * @return the addresses of the subscription owners (never null).
+     */
+    public static Set<JID> loadPresenceBasedSubscribers(PubSubService service) {
+        final Set<JID> result = new HashSet<>();
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            con = DbConnectionManager.getConnection();
+            pstmt = con.prepareStatement(LOAD_PRESENCE_BASED_SUBSCRIBERS);
+            pstmt.setString(1, service.getServiceID());
+            rs = pstmt.executeQuery();
+            while (rs.next()) {
+                result.add(new JID(rs.getString(1)));
+            }
+        }
+        catch (SQLException sqle) {
+            log.error(sqle.getMessage(), sqle);
+        }
+        finally {
+            DbConnectionManager.closeConnection(rs, pstmt, con);
+        }
+        return result;
+    }
+
     private static void loadNode(PubSubService service, Map<String, Node> loadedNodes, Map<String, String> parentMappings, ResultSet rs) {
         Node node;
         try {
@@ -1158,61 +1374,126 @@ public class PubSubPersistenceManager {
      * Creates and stores the published item in the database. Note that the
      * item will be cached temporarily before being flushed asynchronously 
      * to the database. The write cache can be tuned using the following
-     * two properties:
+     * properties:
      * <pre>
      *   "xmpp.pubsub.flush.max" - maximum items in the cache (-1 to disable cache)
-     *   "xmpp.pubsub.flush.timer" - number of seconds between cache flushes
+     *   "xmpp.pubsub.flush.timer" - maximum number of seconds that an item is cached
+     *   "xmpp.pubsub.flush.grace" - milliseconds to wait for more items before writing a batch
+     *   "xmpp.pubsub.flush.batch" - maximum number of items written in one batch
      * </pre>
+     * When the write cache is full, the invoking thread will flush the cache before
+     * the item is added to it.
+     *
      * @param item The published item to save.
      */
     public static void savePublishedItem(PublishedItem item) {
-        savePublishedItem(new RetryWrapper(item));
+        itemCache.put(item.getItemKey(), item);
+        log.debug("Added new (inbound) item to cache");
+        queuePendingItem(new PendingItem(item, false));
     }
 
     /**
-     * Creates and stores the published item in the database. 
-     * @param wrapper The published item, wrapped for retry
+     * Adds an operation to the write cache, replacing any operation that was pending for the same item.
+     *
+     * @param pending The operation to queue.
      */
-    private static void savePublishedItem(RetryWrapper wrapper) {
-        boolean firstPass = (wrapper.getRetryCount() == 0);
-        PublishedItem item = wrapper.get();
-        String itemKey = item.getItemKey();
-        itemCache.put(itemKey, item);
-        log.debug("Added new (inbound) item to cache");
-        synchronized (itemsPending) {
-            LinkedListNode<RetryWrapper> itemToReplace = itemsPending.remove(itemKey);
-            if (itemToReplace != null) {
-                itemToReplace.remove(); // remove duplicate from itemsToAdd linked list
-            }
-            LinkedListNode<RetryWrapper> listNode = firstPass ? 
-                                itemsToAdd.addLast(wrapper) : 
-                                itemsToAdd.addFirst(wrapper);
-            itemsPending.put(itemKey, listNode);
-        }
-        // skip the flush step if this is a retry attempt
-        if (firstPass && itemsPending.size() > MAX_ITEMS_FLUSH) {
-            TaskEngine.getInstance().submit(new Runnable() {
-                @Override
-                public void run() { flushPendingItems(false); }
-            });
+    private static void queuePendingItem(PendingItem pending) {
+        if (MAX_ITEMS_FLUSH > 0 && itemsPending.size() >= MAX_ITEMS_FLUSH) {
+            // The write cache is full: apply backpressure by having the producer flush it.
+            flushPendingItems(false);
+        }
+        final String itemKey = pending.get().getItemKey();
+        final PublishedItemArchiver writer = getArchiver();
+        if (itemsPending.put(itemKey, pending) == null && writer != null) {
+            writer.archive(itemKey);
+        }
+        if (writer == null) {
+            // The write cache is disabled (or unavailable): write-through.
+            flushPendingItems(false);
         }
     }
-    
+
     /**
-     * This class is used internally to wrap PublishedItems. It adds
-     * a retry counter for the persistence exception handling logic.
+     * Returns an operation to the write cache after it could not be written to the database,
+     * unless a newer operation for the same item was queued in the meantime.
+     *
+     * @param pending The operation to queue.
      */
-    private static class RetryWrapper {
-        private PublishedItem item;
-        private volatile transient int retryCount = 0;
-        public RetryWrapper(PublishedItem item) { this.item = item; }
+    private static void requeuePendingItem(PendingItem pending) {
+        final String itemKey = pending.get().getItemKey();
+        final PublishedItemArchiver writer = archiver;
+        if (itemsPending.putIfAbsent(itemKey, pending) == null && writer != null) {
+            writer.archive(itemKey);
+        }
+    }
+
+    /**
+     * Returns the archiver that writes pending items to the database, creating and
+     * registering it with the {@link ArchiveManager} on first use.
+     *
+     * @return The archiver, or null when the write cache is disabled or cannot be used.
+     */
+    private static PublishedItemArchiver getArchiver() {
+        PublishedItemArchiver result = archiver;
+        if (result == null && MAX_ITEMS_FLUSH > 0) {
+            synchronized (PubSubPersistenceManager.class) {
+                result = archiver;
+                if (result == null) {
+                    final XMPPServer server = XMPPServer.getInstance();
+                    final ArchiveManager archiveManager = server == null ? null : server.getArchiveManager();
+                    if (archiveManager != null) {
+                        result = new PublishedItemArchiver("PubSub Published Items", MAX_ITEMS_BATCH,
+                            Duration.ofMillis(flushTimerDelay), Duration.ofMillis(flushGracePeriod));
+                        archiveManager.add(result);
+                        archiver = result;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * This class is used internally to wrap PublishedItems that are pending
+     * to be written to (or deleted from) the database. It adds a retry
+     * counter for the persistence exception handling logic.
+     */
+    private static class PendingItem {
+        private final PublishedItem item;
+        private final boolean removal;
+        private int retryCount = 0;
+        public PendingItem(PublishedItem item, boolean removal) { this.item = item; this.removal = removal; }
         public PublishedItem get() { return item; }
-        public int getRetryCount() { return retryCount; }
+        public boolean isRemoval() { return removal; }
         public int nextRetry() { return ++retryCount; }
     }
 
     /**
-     * Flush the cache(s) of items to be persisted (itemsToAdd) and deleted (itemsToDelete).
+     * Writes published items to the database. The batch consists of the keys of the items
+     * that were queued: items that have already been written by an explicit flush (or that
+     * have been queued more than once) are skipped.
+     */
+    private static class PublishedItemArchiver extends Archiver<String>
+    {
+        PublishedItemArchiver( String id, int maxWorkQueueSize, Duration maxPurgeInterval, Duration gracePeriod )
+        {
+            super( id, maxWorkQueueSize, maxPurgeInterval, gracePeriod );
+        }
+
+        @Override
+        protected void store( List<String> batch )
+        {
+            if ( batch.isEmpty() )
+            {
+                return;
+            }
+
+            writePendingItems( batch );
+        }
+    }
+
+    /**
+     * Flush the cache of items to be persisted and deleted.
      */
     public static void flushPendingItems()
     {
@@ -1220,7 +1501,7 @@ public class PubSubPersistenceManager {
     }
 
     /**
-     * Flush the cache(s) of items to be persisted (itemsToAdd) and deleted (itemsToDelete).
+     * Flush the cache of items to be persisted and deleted.
      * @param sendToCluster If true, delegate to cluster members, otherwise local only
      */
     public static void flushPendingItems(boolean sendToCluster)
@@ -1230,154 +1511,132 @@ public class PubSubPersistenceManager {
             CacheFactory.doSynchronousClusterTask(new FlushTask(), false);
         }
 
-        if (itemsToAdd.getFirst() == null && itemsToDelete.getFirst() == null) {
-            return;	 // nothing to do for this cluster member
-        }
-        
-        Connection con = null;
-        boolean rollback = false;
-        LinkedList<RetryWrapper> addList = null;
-        LinkedList<PublishedItem> delList = null;
+        // Always acquire the lock (even if nothing is pending), to wait for writes that are in progress.
+        writePendingItems(new ArrayList<>(itemsPending.keySet()));
+    }
 
-        // Swap pending items so we can parse and save the contents from this point in time
-        // while not blocking new entries from being cached.
-        synchronized(itemsPending) 
+    /**
+     * Removes the pending operations for the provided item keys from the write cache,
+     * and writes them to the database.
+     *
+     * Note that we make multiple attempts to write cached items to the DB:
+     * <ol>
+     *   <li>insert all pending items in a single batch</li>
+     *   <li>if the batch insert fails, retry by inserting each item separately</li>
+     *   <li>if a given item cannot be written, return it to the pending write cache</li>
+     * </ol>
+     * By default step 3 will be tried once per item, but this can be configured
+     * (or disabled) using the "xmpp.pubsub.item.retry" property. In the event of
+     * a transaction rollback, items that could not be written to the database
+     * will be returned to the pending item write cache.
+     *
+     * @param itemKeys keys of the items to write.
+     */
+    private static void writePendingItems(Collection<String> itemKeys)
+    {
+        final long start = System.nanoTime();
+        flushLock.lock();
+        try
         {
-            addList = itemsToAdd;
-            delList = itemsToDelete;
+            final List<PendingItem> pendingItems = new ArrayList<>(itemKeys.size());
+            for (final String itemKey : itemKeys) {
+                final PendingItem pending = itemsPending.remove(itemKey);
+                if (pending == null) {
+                    continue; // already written, or not queued.
+                }
+                pendingItems.add(pending);
 
-            itemsToAdd = new LinkedList<>();
-            itemsToDelete = new LinkedList<>();
-            
-            // Ensure pending items are available via the item read cache;
-            // this allows the item(s) to be fetched by other request threads
-            // while being written to the DB from this thread
-            int copied = 0;
-            for (String key : itemsPending.keySet()) {
-                if (!itemCache.containsKey(key)) {
-                    itemCache.put(key, (((RetryWrapper)itemsPending.get(key).object)).get());
-                    copied++;
+                // Ensure pending items are available via the item read cache;
+                // this allows the item(s) to be fetched by other request threads
+                // while being written to the DB from this thread
+                if (!pending.isRemoval() && !itemCache.containsKey(itemKey)) {
+                    itemCache.put(itemKey, pending.get());
                 }
             }
-            if (log.isDebugEnabled() && copied > 0) {
-                log.debug("Added " + copied + " pending items to published item cache");
+
+            if (pendingItems.isEmpty()) {
+                return; // nothing to do for this cluster member
             }
-            itemsPending.clear();
-        }
 
-        // Note that we now make multiple attempts to write cached items to the DB:
-        //   1) insert all pending items in a single batch
-        //   2) if the batch insert fails, retry by inserting each item separately
-        //   3) if a given item cannot be written, return it to the pending write cache
-        // By default step 3 will be tried once per item, but this can be configured
-        // (or disabled) using the "xmpp.pubsub.item.retry" property. In the event of
-        // a transaction rollback, items that could not be written to the database
-        // will be returned to the pending item write cache.
-        try {
-            con = DbConnectionManager.getTransactionConnection();
-            writePendingItems(con, addList, delList);
-        } catch (SQLException se) {
-            log.error("Failed to flush pending items; initiating rollback", se);
-            // return new items to the write cache
-            LinkedListNode<RetryWrapper> node = addList.getLast();
-            while (node != null) {
-                savePublishedItem(node.object);
-                node.remove();
-                node = addList.getLast();
+            log.debug("Flush {} pending items to database", pendingItems.size());
+            Connection con = null;
+            boolean rollback = false;
+            try {
+                con = DbConnectionManager.getTransactionConnection();
+                writePendingItems(con, pendingItems);
+            } catch (SQLException se) {
+                log.error("Failed to flush pending items; initiating rollback", se);
+                // return items to the write cache
+                for (final PendingItem pending : pendingItems) {
+                    requeuePendingItem(pending);
+                }
+                rollback = true;
+            } finally {
+                DbConnectionManager.closeTransactionConnection(con, rollback);
             }
-            rollback = true;
-        } finally {
-            DbConnectionManager.closeTransactionConnection(con, rollback);
+
+            flushCount.incrementAndGet();
+            flushDuration.addAndGet(System.nanoTime() - start);
+        }
+        finally
+        {
+            flushLock.unlock();
         }
     }
 
     /**
-     * Loop through the lists of added and deleted items and write to the database
+     * Loop through the list of pending items and write to the database
      * @param con
-     * @param addList
-     * @param delList
+     * @param pendingItems
      * @throws SQLException
      */
-    private static void writePendingItems(Connection con, LinkedList<RetryWrapper> addList, LinkedList<PublishedItem> delList) throws SQLException
+    private static void writePendingItems(Connection con, List<PendingItem> pendingItems) throws SQLException
     {
-        LinkedListNode<RetryWrapper> addItem = addList.getFirst();
-        LinkedListNode<PublishedItem> delItem = delList.getFirst();
-        
-        // is there anything to do?
-        if ((addItem == null) && (delItem == null)) { return; }
-        
-        if (log.isDebugEnabled()) {
-            log.debug("Flush " + itemsPending.size() + " pending items to database");
+        // delete first (to remove possible duplicates), then add new items
+        try {
+            DbConnectionManager.executeBatch(con, DELETE_ITEM, pendingItems, (pstmt, pending) -> {
+                PublishedItem item = pending.get();
+                pstmt.setString(1, item.getNode().getService().getServiceID());
+                pstmt.setString(2, encodeNodeID(item.getNode().getNodeID()));
+                pstmt.setString(3, item.getID());
+            });
+        } catch (SQLException ex) {
+            log.error("Failed to delete published item(s) from DB", ex);
+            // do not re-throw here; continue with insert operation if possible
         }
 
-        // ensure there are no duplicates by deleting before adding
-        if (addItem != null) {
-            LinkedListNode<RetryWrapper> addHead = addItem.previous;
-            while (addItem != addHead) {
-                delList.addLast(addItem.object.get());
-                addItem = addItem.next;
+        final List<PendingItem> addList = new ArrayList<>(pendingItems.size());
+        for (final PendingItem pending : pendingItems) {
+            if (!pending.isRemoval()) {
+                addList.add(pending);
             }
         }
 
-        // delete first (to remove possible duplicates), then add new items
-        delItem = delList.getFirst();
-        if (delItem != null) {
-            PreparedStatement pstmt = null;
-            try {
-                LinkedListNode<PublishedItem> delHead = delItem.previous;
-                pstmt = con.prepareStatement(DELETE_ITEM);
-                Boolean hasBatchItems = false;
-                while (delItem != delHead)
-                {
-                    hasBatchItems = true;
-                    PublishedItem item = delItem.object;
-                    pstmt.setString(1, item.getNode().getService().getServiceID());
-                    pstmt.setString(2, encodeNodeID(item.getNode().getNodeID()));
-                    pstmt.setString(3, item.getID());
-                    pstmt.addBatch();
-
-                    delItem = delItem.next;
-                }
-                if (hasBatchItems) pstmt.executeBatch();
-            } catch (SQLException ex) {
-                log.error("Failed to delete published item(s) from DB", ex);
-                // do not re-throw here; continue with insert operation if possible
-            } finally {
-                DbConnectionManager.closeStatement(pstmt);
-            }
-        }
-        
         try { 
             // first try to add the pending items as a batch
-            writePendingItems(con, addList.getFirst(), true);
+            writePendingItems(con, addList, true);
         } catch (SQLException ex) {
             // retry each item individually rather than rolling back
-            writePendingItems(con, addList.getFirst(), false);       	
+            writePendingItems(con, addList, false);
         }
     }
     
     /**
      * Execute JDBC calls (optionally via batch) to persist the given published items
      * @param con
-     * @param addItem
+     * @param addList
      * @param batch
      * @throws SQLException
      */
-    private static void writePendingItems(Connection con, LinkedListNode<RetryWrapper> addItem, boolean batch)  throws SQLException 
+    private static void writePendingItems(Connection con, List<PendingItem> addList, boolean batch)  throws SQLException 
     {	
-        if (addItem == null) { return; }
-        LinkedListNode<RetryWrapper> addHead = addItem.previous;
+        if (addList.isEmpty()) { return; }
         PreparedStatement pstmt = null;
-        RetryWrapper wrappedItem = null;
-        PublishedItem item = null;       
         try {
             pstmt = con.prepareStatement(ADD_ITEM);
-            Boolean hasBatchItems = false;
-            while (addItem != addHead)
+            for (final PendingItem pending : addList)
             {
-                hasBatchItems = true;
-                wrappedItem = addItem.object;
-                item = wrappedItem.get();
+                PublishedItem item = pending.get();
                 pstmt.setString(1, item.getNode().getService().getServiceID());
                 pstmt.setString(2, encodeNodeID(item.getNodeID()));
                 pstmt.setString(3, item.getID());
@@ -1390,18 +1649,17 @@ public class PubSubPersistenceManager {
                     catch (SQLException se) {
                         // individual item could not be persisted; retry (up to MAX_ITEM_RETRY attempts)
                         String itemKey = item.getItemKey();
-                        if (wrappedItem.nextRetry() < MAX_ITEM_RETRY) {
+                        if (pending.nextRetry() < MAX_ITEM_RETRY) {
                             log.warn("Failed to persist published item (will retry): " + itemKey);
-                            savePublishedItem(wrappedItem);
+                            requeuePendingItem(pending);
                         } else {
                             // all hope is lost ... item will be dropped
                             log.error("Published item could not be written to database: " + itemKey + "\n" + item.getPayloadXML(), se);
                         }
                     }
                 }
-                addItem = addItem.next;
             }
-            if (batch && hasBatchItems) { pstmt.executeBatch(); }			
+            if (batch) { pstmt.executeBatch(); }
         } catch (SQLException se) {
             log.error("Failed to persist published items as batch; will retry individually", se);
             // caught by caller; should not cause a transaction rollback
@@ -1417,15 +1675,9 @@ public class PubSubPersistenceManager {
      * @param item The published item to delete.
      */
     public static void removePublishedItem(PublishedItem item) {
-        String itemKey = item.getItemKey();
-        itemCache.remove(itemKey);
-        synchronized (itemsPending)
-        {
-            itemsToDelete.addLast(item);
-            LinkedListNode<RetryWrapper> itemToAdd = itemsPending.remove(itemKey);
-            if (itemToAdd != null)
-                itemToAdd.remove();  // drop from itemsToAdd linked list
-        }
+        itemCache.remove(item.getItemKey());
+        // replaces (drops) a pending write of the same item
+        queuePendingItem(new PendingItem(item, true));
     }
 
     /**
@@ -1777,23 +2029,8 @@ public class PubSubPersistenceManager {
 
             purgeNode(leafNode, con);
 
-            // Delete all the entries from the itemsToAdd list and pending map
-            // that match this node.
-            synchronized (itemsPending)
-            {
-                Iterator<Map.Entry<String, LinkedListNode<RetryWrapper>>> pendingIt = itemsPending.entrySet().iterator();
-
-                while (pendingIt.hasNext())
-                {
-                    LinkedListNode<RetryWrapper> itemNode = pendingIt.next().getValue();
-
-                    if (itemNode.object.get().getNodeID().equals(leafNode.getNodeID()))
-                    {
-                        itemNode.remove();
-                        pendingIt.remove();
-                    }
-                }
-            }
+            // Delete all the entries from the pending map that match this node.
+            itemsPending.values().removeIf(pending -> pending.get().getNodeID().equals(leafNode.getNodeID()));
         }
         catch (SQLException exc)
         {
@@ -1976,8 +2213,59 @@ public class PubSubPersistenceManager {
         }
     }
 
+    /**
+     * Tracks the number of published items in the write cache of this cluster node.
+     */
+    private static class PendingItemsStatistic extends i18nStatistic {
+        public PendingItemsStatistic() {
+            super("pubsub.pending_items", Statistic.Type.count);
+        }
+
+        @Override
+        public double sample() {
+            return itemsPending.size();
+        }
+
+        @Override
+        public boolean isPartialSample() {
+            return true;
+        }
+    }
+
+    /**
+     * Tracks the average duration (in milliseconds) of writing a batch of pending items to the
+     * database, since the last time that this statistic was sampled.
+     */
+    private static class FlushLatencyStatistic extends i18nStatistic {
+        public FlushLatencyStatistic() {
+            super("pubsub.flush_latency", Statistic.Type.rate);
+        }
+
+        @Override
+        public double sample() {
+            final long count = flushCount.getAndSet(0);
+            final long duration = flushDuration.getAndSet(0);
+            return count == 0 ? 0 : (duration / count) / 1000000d;
+        }
+
+        @Override
+        public boolean isPartialSample() {
+            return true;
+        }
+    }
+
     public static void shutdown()
     {
+        synchronized (PubSubPersistenceManager.class) {
+            if (archiver != null) {
+                final XMPPServer server = XMPPServer.getInstance();
+                if (server != null && server.getArchiveManager() != null) {
+                    server.getArchiveManager().remove(archiver);
+                }
+                archiver = null;
+            }
+        }
+
         log.info("Flushing write cache to database");
         flushPendingItems(false); // local member only
         
@@ -21,8 +21,12 @@ import org.xmpp.packet.JID;
 import org.xmpp.packet.Message;
 import org.xmpp.packet.Packet;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * A PubSubService is responsible for keeping the hosted nodes by the service, the default
@@ -133,6 +137,61 @@ public interface PubSubService {
      */
     Collection<Node> getNodes();
 
+    /**
+     * Returns nodes hosted by the pubsub service that include those with which the specified
+     * entity is affiliated, or to which it is subscribed. Services that do not keep all of their
+     * nodes in memory use this to load the relevant nodes. The returned collection may contain
+     * other nodes too: callers are expected to check the affiliation of each node.
+     *
+     * @param jid the address of the entity.
+     * @return a collection of nodes hosted by the pubsub service.
+     */
+    default Collection<Node> getAffiliatedNodes(JID jid) {
+        return getNodes();
+    }
+
+    /**
+     * Returns the child nodes of a collection node hosted by the pubsub service. Services that
+     * do not keep all of their nodes in memory load the child nodes that are not in memory.
+     *
+     * @param parent the collection node.
+     * @return the child nodes of the collection node.
+     */
+    default Collection<Node> getChildNodes(CollectionNode parent) {
+        return parent.getResidentNodes();
+    }
+
+    /**
+     * Returns the identifiers of the leaf nodes hosted by the pubsub service. Services that do
+     * not keep all of their nodes in memory return these without loading the nodes.
+     *
+     * @return the identifiers of the leaf nodes hosted by the pubsub service.
+     */
+    default Collection<String> getLeafNodeIDs() {
+        final List<String> result = new ArrayList<>();
+        for (Node node : getNodes()) {
+            if (!node.isCollectionNode()) {
+                result.add(node.getNodeID());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the addresses of the entities that receive notifications of nodes hosted by the
+     * pubsub service based on their presence. Services that do not keep all of their nodes in
+     * memory return these without loading the nodes.
+     *
+     * @return the addresses of the entities that receive notifications based on their presence.
+     */
+    default Collection<JID> getPresenceBasedSubscribers() {
+        final Set<JID> result = new HashSet<>();
+        for (Node node : getNodes()) {
+            result.addAll(node.getPresenceBasedSubscribers());
+        }
+        return result;
+    }
+
     /**
      * Adds an already persistent node to the service.
      *
@@ -14,6 +14,7 @@ import org.xmpp.packet.JID;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 
@@ -60,6 +61,18 @@ public class PubSubServiceInfo {
         return leafNodes;
     }
 
+    /**
+     * Returns the identifiers of the leaf nodes of the service, sorted case-insensitively. Unlike
+     * {@link #getLeafNodes()}, this does not require all nodes to be loaded in memory.
+     *
+     * @return the sorted identifiers of the leaf nodes.
+     */
+    public List<String> getLeafNodeIDs() {
+        final List<String> nodeIDs = new ArrayList<>(pubSubService.getLeafNodeIDs());
+        nodeIDs.sort(Comparator.comparing(String::toLowerCase));
+        return nodeIDs;
+    }
+
     public CollectionNode getRootCollectionNode() {
         return pubSubService.getRootCollectionNode();
     }
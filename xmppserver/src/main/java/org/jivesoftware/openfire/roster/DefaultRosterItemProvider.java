@@ -21,15 +21,15 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jivesoftware.database.DbConnectionManager;
 import org.jivesoftware.database.SequenceManager;
 import org.jivesoftware.openfire.user.UserAlreadyExistsException;
+import org.jivesoftware.util.InternedJID;
 import org.jivesoftware.util.JiveConstants;
 import org.jivesoftware.util.LocaleUtils;
 import org.jivesoftware.util.cache.Cache;
@@ -69,12 +69,10 @@ public class DefaultRosterItemProvider implements RosterItemProvider {
             "SELECT DISTINCT username from ofRoster WHERE jid=?";
     private static final String COUNT_ROSTER_ITEMS =
             "SELECT COUNT(rosterID) FROM ofRoster WHERE username=?";
-     private static final String LOAD_ROSTER =
-             "SELECT jid, rosterID, sub, ask, recv, nick FROM ofRoster WHERE username=?";
-    private static final String LOAD_ROSTER_ITEM_GROUPS =
-             "SELECT ofRosterGroups.rosterID,groupName FROM ofRosterGroups " +
-             "INNER JOIN ofRoster ON ofRosterGroups.rosterID = ofRoster.rosterID " +
-             "WHERE username=? ORDER BY ofRosterGroups.rosterID, %s";
+    private static final String LOAD_ROSTER =
+             "SELECT jid, ofRoster.rosterID, sub, ask, recv, nick, groupName FROM ofRoster " +
+             "LEFT OUTER JOIN ofRosterGroups ON ofRoster.rosterID = ofRosterGroups.rosterID " +
+             "WHERE username=? ORDER BY ofRoster.rosterID, ofRosterGroups.%s";
 
     private final Cache<String, LinkedList<RosterItem>> rosterItemCache = CacheFactory.createCache( "RosterItems" );
 
@@ -103,7 +101,7 @@ public class DefaultRosterItemProvider implements RosterItemProvider {
             pstmt.executeUpdate();
 
             item.setID(rosterID);
-            insertGroups(rosterID, item.getGroups().iterator(), con);
+            insertGroups(rosterID, item.getGroups(), con);
         }
         catch (SQLException e) {
             Log.warn("Error trying to insert a new row in ofRoster", e);
@@ -143,7 +141,7 @@ public class DefaultRosterItemProvider implements RosterItemProvider {
             pstmt.setLong(1, rosterID);
             pstmt.executeUpdate();
 
-            insertGroups(rosterID, item.getGroups().iterator(), con);
+            insertGroups(rosterID, item.getGroups(), con);
         }
         catch (SQLException e) {
             Log.error(LocaleUtils.getLocalizedString("admin.error"), e);
@@ -251,44 +249,34 @@ public class DefaultRosterItemProvider implements RosterItemProvider {
             return cachedValue.iterator();
         }
         LinkedList<RosterItem> itemList = new LinkedList<>();
-        Map<Long, RosterItem> itemsByID = new HashMap<>();
         Connection con = null;
         PreparedStatement pstmt = null;
         ResultSet rs = null;
         try {
-            // Load all the contacts in the roster
+            // Load all the contacts in the roster, together with their groups. The rows of a
+            // contact are consecutive: one per group, or a single one without a group.
             con = DbConnectionManager.getConnection();
-            pstmt = con.prepareStatement(LOAD_ROSTER);
+            pstmt = con.prepareStatement(String.format(LOAD_ROSTER, DbConnectionManager.getDatabaseType().escapeIdentifier("rank")));
             pstmt.setString(1, username);
             rs = pstmt.executeQuery();
+            RosterItem item = null;
             while (rs.next()) {
-                // Create a new RosterItem (ie. user contact) from the stored information
-                RosterItem item = new RosterItem(rs.getLong(2),
-                        new JID(rs.getString(1)),
-                        RosterItem.SubType.getTypeFromInt(rs.getInt(3)),
-                        RosterItem.AskType.getTypeFromInt(rs.getInt(4)),
-                        RosterItem.RecvType.getTypeFromInt(rs.getInt(5)),
-                        rs.getString(6),
-                        null);
-                // Add the loaded RosterItem (ie. user contact) to the result
-                itemList.add(item);
-                itemsByID.put(item.getID(), item);
-            }
-            // Close the statement and result set
-            DbConnectionManager.fastcloseStmt(rs, pstmt);
-            // Set null to pstmt to be sure that it's not closed twice. It seems that
-            // Sybase driver is raising an error when trying to close an already closed statement.
-            // it2000 comment: TODO interesting, that's the only place with the sybase fix
-            // it2000 comment: one should move this in closeStatement()
-            pstmt = null;
-
-            // Load the groups for the loaded contact
-            if (!itemList.isEmpty()) {
-                pstmt = con.prepareStatement(String.format(LOAD_ROSTER_ITEM_GROUPS, DbConnectionManager.getDatabaseType().escapeIdentifier("rank")));
-                pstmt.setString(1, username);
-                rs = pstmt.executeQuery();
-                while (rs.next()) {
-                    itemsByID.get(rs.getLong(1)).getGroups().add(rs.getString(2));
+                final long rosterID = rs.getLong(2);
+                if (item == null || item.getID() != rosterID) {
+                    // Create a new RosterItem (ie. user contact) from the stored information
+                    item = new RosterItem(rosterID,
+                            InternedJID.of(rs.getString(1)),
+                            RosterItem.SubType.getTypeFromInt(rs.getInt(3)),
+                            RosterItem.AskType.getTypeFromInt(rs.getInt(4)),
+                            RosterItem.RecvType.getTypeFromInt(rs.getInt(5)),
+                            rs.getString(6),
+                            null);
+                    // Add the loaded RosterItem (ie. user contact) to the result
+                    itemList.add(item);
+                }
+                final String groupName = rs.getString(7);
+                if (groupName != null) {
+                    item.getGroups().add(groupName);
                 }
             }
 
@@ -304,23 +292,44 @@ public class DefaultRosterItemProvider implements RosterItemProvider {
     }
 
     /**
-     * Insert the groups into the given roster item.
+     * Insert the groups into the given roster item. The groups are inserted as a single batch. When
+     * the batch fails, the groups are inserted one by one instead, so that a group that cannot be
+     * stored (e.g. because its name is too long) does not prevent the other groups from being stored.
      *
      * @param rosterID the roster ID of the item the groups belong to
-     * @param iter an iterator over the group names to insert
+     * @param groups the group names to insert
      * @param con the database connection to use for the operation.
-     * @throws SQLException if an SQL exception occurs.
      */
-    private void insertGroups(long rosterID, Iterator<String> iter, Connection con) throws SQLException
+    private void insertGroups(long rosterID, List<String> groups, Connection con)
     {
+        final String sql = String.format(CREATE_ROSTER_ITEM_GROUPS, DbConnectionManager.getDatabaseType().escapeIdentifier("rank"));
+        final AtomicInteger rank = new AtomicInteger();
+        try {
+            DbConnectionManager.executeBatch(con, sql, groups,
+                (pstmt, groupName) -> {
+                    pstmt.setLong(1, rosterID);
+                    pstmt.setInt(2, rank.getAndIncrement());
+                    pstmt.setString(3, groupName);
+                });
+            return;
+        }
+        catch (SQLException e) {
+            Log.debug("Unable to insert the groups of roster item {} as a batch. Inserting them one by one.", rosterID, e);
+        }
+
         PreparedStatement pstmt = null;
         try {
-            pstmt = con.prepareStatement(String.format(CREATE_ROSTER_ITEM_GROUPS, DbConnectionManager.getDatabaseType().escapeIdentifier("rank")));
+            // Remove the rows that the batch may have inserted before it failed
+            pstmt = con.prepareStatement(DELETE_ROSTER_ITEM_GROUPS);
             pstmt.setLong(1, rosterID);
-            for (int i = 0; iter.hasNext(); i++) {
+            pstmt.executeUpdate();
+            DbConnectionManager.fastcloseStmt(pstmt);
+
+            pstmt = con.prepareStatement(sql);
+            pstmt.setLong(1, rosterID);
+            for (int i = 0; i < groups.size(); i++) {
                 pstmt.setInt(2, i);
-                String groupName = iter.next();
-                pstmt.setString(3, groupName);
+                pstmt.setString(3, groups.get(i));
                 try {
                     pstmt.executeUpdate();
                 }
@@ -329,6 +338,9 @@ public class DefaultRosterItemProvider implements RosterItemProvider {
                 }
             }
         }
+        catch (SQLException e) {
+            Log.error(e.getMessage(), e);
+        }
         finally {
             DbConnectionManager.closeStatement(pstmt);
         }
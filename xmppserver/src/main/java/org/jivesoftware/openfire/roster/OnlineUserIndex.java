@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.roster;
+
+import org.jivesoftware.openfire.event.SessionEventListener;
+import org.jivesoftware.openfire.session.Session;
+import org.xmpp.packet.JID;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps track of the (non-anonymous) users that have one or more sessions on this cluster node,
+ * based on session events. Users are identified by their bare JID.
+ *
+ * Presence broadcasts use this index to skip contacts that are not online, without having to
+ * query the routing table for each contact. A user that is in this index is not necessarily
+ * available: the routing table remains responsible for selecting the available sessions.
+ *
+ * Note that sessions on other cluster nodes are not tracked.
+ */
+class OnlineUserIndex implements SessionEventListener
+{
+    /**
+     * The number of sessions per bare JID.
+     */
+    private final ConcurrentMap<String, Integer> sessionCounts = new ConcurrentHashMap<>();
+
+    /**
+     * Returns true if the user has one or more sessions on this cluster node.
+     *
+     * @param bareJID the bare JID of the user.
+     * @return true if the user has a local session.
+     */
+    boolean isOnline( final String bareJID )
+    {
+        return sessionCounts.containsKey( bareJID );
+    }
+
+    /**
+     * Returns the bare JIDs of the users that have one or more sessions on this cluster node. The
+     * returned set is a live view that is safe to iterate while it is being modified.
+     *
+     * @return bare JIDs of the online users (never null).
+     */
+    Set<String> getOnlineUsers()
+    {
+        return sessionCounts.keySet();
+    }
+
+    @Override
+    public void sessionCreated( final Session session )
+    {
+        final JID address = session.getAddress();
+        if ( address != null )
+        {
+            sessionCounts.merge( address.toBareJID(), 1, Integer::sum );
+        }
+    }
+
+    @Override
+    public void sessionDestroyed( final Session session )
+    {
+        final JID address = session.getAddress();
+        if ( address != null )
+        {
+            sessionCounts.computeIfPresent( address.toBareJID(), ( bareJID, count ) -> count > 1 ? count - 1 : null );
+        }
+    }
+
+    @Override
+    public void anonymousSessionCreated( final Session session )
+    {
+        // Anonymous users are not part of rosters.
+    }
+
+    @Override
+    public void anonymousSessionDestroyed( final Session session )
+    {
+        // Anonymous users are not part of rosters.
+    }
+
+    @Override
+    public void resourceBound( final Session session )
+    {
+        // Sessions are registered when they are created.
+    }
+}
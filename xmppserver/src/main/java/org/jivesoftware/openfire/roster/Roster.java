@@ -18,6 +18,7 @@ package org.jivesoftware.openfire.roster;
 
 import org.jivesoftware.database.JiveID;
 import org.jivesoftware.openfire.*;
+import org.jivesoftware.openfire.cluster.ClusterManager;
 import org.jivesoftware.openfire.group.Group;
 import org.jivesoftware.openfire.group.GroupManager;
 import org.jivesoftware.openfire.privacy.PrivacyList;
@@ -26,6 +27,7 @@ import org.jivesoftware.openfire.session.ClientSession;
 import org.jivesoftware.openfire.user.UserAlreadyExistsException;
 import org.jivesoftware.openfire.user.UserNameManager;
 import org.jivesoftware.openfire.user.UserNotFoundException;
+import org.jivesoftware.util.InternedJID;
 import org.jivesoftware.util.JiveConstants;
 import org.jivesoftware.util.cache.CacheSizes;
 import org.jivesoftware.util.cache.Cacheable;
@@ -73,6 +75,20 @@ public class Roster implements Cacheable, Externalizable {
 
     private String username;
 
+    /**
+     * The contribution of each item to the version of this roster, by bare JID of the item, or null
+     * when the version has not been computed yet. Guarded by {@link #versionLock}.
+     */
+    private transient Map<String, Integer> itemVersions = null;
+
+    /**
+     * The version of this roster: the sum of the values of {@link #itemVersions}. Guarded by
+     * {@link #versionLock}.
+     */
+    private transient int version;
+
+    private final transient Object versionLock = new Object();
+
     /**
      * Constructor added for Externalizable. Do not use this constructor.
      */
@@ -122,55 +138,40 @@ public class Roster implements Cacheable, Externalizable {
         for (Map.Entry<JID, List<Group>> entry : sharedUsers.entrySet()) {
             JID jid = entry.getKey();
             List<Group> groups = entry.getValue();
-            try {
-                Collection<Group> itemGroups = new ArrayList<>();
-                String nickname = "";
-                RosterItem item = new RosterItem(jid, RosterItem.SUB_TO, RosterItem.ASK_NONE,
-                        RosterItem.RECV_NONE, nickname, null);
-                // Add the shared groups to the new roster item
-                for (Group group : groups) {
-                    if (group.isUser(jid)) {
-                        item.addSharedGroup(group);
-                        itemGroups.add(group);
-                    } else {
-                        item.addInvisibleSharedGroup(group);
-                    }
-                }
-                // Set subscription type to BOTH if the roster user belongs to a shared group
-                // that is mutually visible with a shared group of the new roster item
-                if (rosterManager.hasMutualVisibility(username, sharedGroups, jid, itemGroups)) {
-                    item.setSubStatus(RosterItem.SUB_BOTH);
-                } else {
-                    // Set subscription type to FROM if the contact does not belong to any of
-                    // the associated shared groups
-                    boolean belongsToGroup = false;
-                    for (Group group : groups) {
-                        if (group.isUser(jid)) {
-                            belongsToGroup = true;
-                        }
-                    }
-                    if (!belongsToGroup) {
-                        item.setSubStatus(RosterItem.SUB_FROM);
-                    }
-                }
-                // Set nickname and store in memory only if subscription type is not FROM.
-                // Roster items with subscription type FROM that exist only because of shared
-                // groups will be recreated on demand in #getRosterItem(JID) and #isRosterItem()
-                // but will never be stored in memory nor in the database. This is an important
-                // optimization to reduce objects in memory and avoid loading users in memory
-                // to get their nicknames that will never be shown
-                if (item.getSubStatus() != RosterItem.SUB_FROM) {
-                    item.setNickname(UserNameManager.getUserName(jid));
-                    rosterItems.put(item.getJid().toBareJID(), item);
+            Collection<Group> itemGroups = new ArrayList<>();
+            RosterItem item = new RosterItem(jid, RosterItem.SUB_TO, RosterItem.ASK_NONE,
+                    RosterItem.RECV_NONE, null, null);
+            // Add the shared groups to the new roster item
+            for (Group group : groups) {
+                if (group.isUser(jid)) {
+                    item.addSharedGroup(group);
+                    itemGroups.add(group);
                 } else {
-                    // Cache information about shared contacts with subscription status FROM
-                    implicitFrom
-                            .put(item.getJid().toBareJID(), item.getInvisibleSharedGroupsNames());
+                    item.addInvisibleSharedGroup(group);
                 }
-            } catch (UserNotFoundException e) {
-                Log.error("Groups (" + groups + ") include non-existent username (" +
-                        jid.getNode() +
-                        ")");
+            }
+            // Set subscription type to BOTH if the roster user belongs to a shared group
+            // that is mutually visible with a shared group of the new roster item
+            if (rosterManager.hasMutualVisibility(username, sharedGroups, jid, itemGroups)) {
+                item.setSubStatus(RosterItem.SUB_BOTH);
+            } else if (itemGroups.isEmpty()) {
+                // Set subscription type to FROM if the contact does not belong to any of
+                // the associated shared groups
+                item.setSubStatus(RosterItem.SUB_FROM);
+            }
+            // Store in memory only if subscription type is not FROM.
+            // Roster items with subscription type FROM that exist only because of shared
+            // groups will be recreated on demand in #getRosterItem(JID) and #isRosterItem()
+            // but will never be stored in memory nor in the database. This is an important
+            // optimization to reduce objects in memory. The nickname of the other items is
+            // looked up when the item is first sent to the user (see #resolveNickname), as
+            // that requires the contact to be loaded.
+            if (item.getSubStatus() != RosterItem.SUB_FROM) {
+                rosterItems.put(item.getJid().toBareJID(), item);
+            } else {
+                // Cache information about shared contacts with subscription status FROM
+                implicitFrom
+                        .put(item.getJid().toBareJID(), item.getInvisibleSharedGroupsNames());
             }
         }
         // Fire event indicating that a roster has just been loaded
@@ -337,13 +338,14 @@ public class Roster implements Cacheable, Externalizable {
             rosterItem = RosterManager.getRosterItemProvider().createItem(username, rosterItem);
         }
 
+        rosterItems.put(user.toBareJID(), rosterItem);
+        updateVersion(user.toBareJID());
+
         if (push) {
             // Broadcast the roster push to the user
             broadcast(roster);
         }
 
-        rosterItems.put(user.toBareJID(), rosterItem);
-
         // Fire event indicating that a roster item has been added
         RosterEventDispatcher.contactAdded(this, rosterItem);
 
@@ -361,11 +363,13 @@ public class Roster implements Cacheable, Externalizable {
         if (implicitFrom.remove(item.getJid().toBareJID()) != null) {
             // Ensure that the item is an explicit roster item
             rosterItems.put(item.getJid().toBareJID(), item);
+            updateVersion(item.getJid().toBareJID());
             // Fire event indicating that a roster item has been updated
             RosterEventDispatcher.contactUpdated(this, item);
         }
         if (rosterItems.putIfAbsent(item.getJid().toBareJID(), item) == null) {
             rosterItems.remove(item.getJid().toBareJID());
+            updateVersion(item.getJid().toBareJID());
             if (item.getSubStatus() != RosterItem.SUB_NONE) {
                 throw new UserNotFoundException(item.getJid().toBareJID());
             }
@@ -407,6 +411,7 @@ public class Roster implements Cacheable, Externalizable {
                 item.getRecvStatus() != RosterItem.RECV_SUBSCRIBE && !isSubscriptionRejected(item)) {
             broadcast(item, true);
         }
+        updateVersion(item.getJid().toBareJID());
         /*if (item.getSubStatus() == RosterItem.SUB_BOTH || item.getSubStatus() == RosterItem.SUB_TO) {
             probePresence(item.getJid());
         }*/
@@ -464,6 +469,7 @@ public class Roster implements Cacheable, Externalizable {
 
             // If removing the user was successful, remove the user from the subscriber list:
             RosterItem item = rosterItems.remove(user.toBareJID());
+            updateVersion(user.toBareJID());
 
             if (item != null) {
                 // Delete the item from the provider if the item is persistent. RosteItems that only
@@ -524,36 +530,133 @@ public class Roster implements Cacheable, Externalizable {
 
         // Add the roster items (includes the personal roster and shared groups) to the answer
         for (RosterItem item : rosterItems.values()) {
-            // Do not include items with status FROM that exist only because of shared groups
-            if (item.isOnlyShared() && item.getSubStatus() == RosterItem.SUB_FROM) {
+            if (!isInReset(item) || !resolveNickname(item)) {
                 continue;
             }
             org.xmpp.packet.Roster.Ask ask = getAskStatus(item.getAskStatus());
             org.xmpp.packet.Roster.Subscription sub = org.xmpp.packet.Roster.Subscription.valueOf(item.getSubStatus()
                     .getName());
             // Set the groups to broadcast (include personal and shared groups)
-            List<String> groups = new ArrayList<>(item.getGroups());
+            List<String> groups = getGroupNames(item);
             if (groups.contains(null)) {
                 Log.warn("A group is null in roster item: " + item.getJid() + " of user: " +
                         getUsername());
             }
-            for (Group sharedGroup : item.getSharedGroups()) {
-                String displayName = sharedGroup.getProperties().get("sharedRoster.displayName");
-                if (displayName != null) {
-                    groups.add(displayName);
-                } else {
-                    // Do not add the shared group if it does not have a displayName. 
-                    Log.warn("Found shared group: " + sharedGroup.getName() +
-                            " with no displayName");
+            roster.addItem(item.getJid(), item.getNickname(), ask, sub, groups);
+        }
+        return roster;
+    }
+
+    /**
+     * Returns the version of this roster, as used by roster versioning (XEP-0237). The version
+     * is derived from the content of the items that are sent to the user in a roster reset, so
+     * a roster that is loaded again has the same version as long as it was not modified.
+     *
+     * The version is computed from all items once. After that, it is updated whenever an item is
+     * added, modified or removed.
+     *
+     * @return The version of the roster.
+     */
+    public String getVersion() {
+        synchronized (versionLock) {
+            if (itemVersions == null) {
+                itemVersions = new HashMap<>();
+                version = 0;
+                for (String bareJID : new ArrayList<>(rosterItems.keySet())) {
+                    updateVersion(bareJID);
                 }
             }
-            // Do not push items with a state of "None + Pending In"
-            if (item.getSubStatus() != RosterItem.SUB_NONE ||
-                    item.getRecvStatus() != RosterItem.RECV_SUBSCRIBE && !isSubscriptionRejected(item)) {
-                roster.addItem(item.getJid(), item.getNickname(), ask, sub, groups);
+            return String.valueOf(version);
+        }
+    }
+
+    /**
+     * Updates the version of this roster after the item of a contact has been added, modified or
+     * removed. The items' hashes are added up, so that the result does not depend on the order in
+     * which items are added. This does nothing when the version has not been computed yet.
+     *
+     * @param bareJID The bare JID of the contact.
+     */
+    void updateVersion(String bareJID) {
+        synchronized (versionLock) {
+            if (itemVersions == null) {
+                return;
+            }
+            final RosterItem item = rosterItems.get(bareJID);
+            Integer hash = null;
+            if (item != null && isInReset(item) && resolveNickname(item)) {
+                hash = Objects.hash(item.getJid().toBareJID(), item.getSubStatus().getValue(),
+                        item.getAskStatus() == null ? -1 : item.getAskStatus().getValue(),
+                        item.getRecvStatus() == null ? -1 : item.getRecvStatus().getValue(),
+                        item.getNickname(), getGroupNames(item));
             }
+            final Integer previous = hash == null ? itemVersions.remove(bareJID) : itemVersions.put(bareJID, hash);
+            version += (hash == null ? 0 : hash) - (previous == null ? 0 : previous);
+        }
+    }
+
+    /**
+     * Returns true if the item is included in a roster reset.
+     *
+     * @param item The roster item.
+     * @return True, if the item is sent to the user in a roster reset.
+     */
+    private static boolean isInReset(RosterItem item) {
+        // Do not include items with status FROM that exist only because of shared groups
+        if (item.isOnlyShared() && item.getSubStatus() == RosterItem.SUB_FROM) {
+            return false;
+        }
+        // Do not push items with a state of "None + Pending In"
+        return item.getSubStatus() != RosterItem.SUB_NONE ||
+                item.getRecvStatus() != RosterItem.RECV_SUBSCRIBE && !isSubscriptionRejected(item);
+    }
+
+    /**
+     * Returns the names of the personal groups of an item, followed by the display names of its
+     * shared groups.
+     *
+     * @param item The roster item.
+     * @return The group names to send to the user.
+     */
+    private static List<String> getGroupNames(RosterItem item) {
+        List<String> groups = new ArrayList<>(item.getGroups());
+        for (Group sharedGroup : item.getSharedGroups()) {
+            String displayName = sharedGroup.getProperties().get("sharedRoster.displayName");
+            if (displayName != null) {
+                groups.add(displayName);
+            } else {
+                // Do not add the shared group if it does not have a displayName.
+                Log.warn("Found shared group: " + sharedGroup.getName() +
+                        " with no displayName");
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Sets the nickname of an item that is not persisted and exists only because of shared
+     * groups to the name of the contact, if that was not done yet. Such items are created
+     * without a nickname when the roster is loaded, to avoid loading all members of the shared
+     * groups of the user. An item of a contact that does not exist is removed from the roster.
+     *
+     * @param item The roster item.
+     * @return False, if the item was removed as its contact does not exist.
+     */
+    private boolean resolveNickname(RosterItem item) {
+        if (item.getNickname() != null || item.getID() != 0 || !item.isOnlyShared()) {
+            return true;
+        }
+        try {
+            item.setNickname(UserNameManager.getUserName(item.getJid()));
+            return true;
+        } catch (UserNotFoundException e) {
+            Log.error("Groups (" + item.getSharedGroups() + ") include non-existent username (" +
+                    item.getJid().getNode() +
+                    ")");
+            rosterItems.remove(item.getJid().toBareJID(), item);
+            updateVersion(item.getJid().toBareJID());
+            return false;
         }
-        return roster;
     }
 
     private org.xmpp.packet.Roster.Ask getAskStatus(RosterItem.AskType askType) {
@@ -591,15 +694,29 @@ public class Roster implements Cacheable, Externalizable {
             // No privacy list was found (based on the session) so check if there is a default list
             list = PrivacyListManager.getInstance().getDefaultPrivacyList(username);
         }
+        if (list != null && !list.isFilteringPresenceOut()) {
+            // The list will not block any outgoing presence, so do not evaluate it per contact
+            list = null;
+        }
+        // When all sessions are hosted by this JVM, contacts of this server that are not online
+        // cannot receive presence, and can be skipped without consulting the routing table.
+        final OnlineUserIndex onlineUsers = ClusterManager.isClusteringStarted() ? null :
+                XMPPServer.getInstance().getRosterManager().getOnlineUserIndex();
+        final String serverName = XMPPServer.getInstance().getServerInfo().getXMPPDomain();
+
         // Broadcast presence to subscribed entities
         for (RosterItem item : rosterItems.values()) {
             if (item.getSubStatus() == RosterItem.SUB_BOTH || item.getSubStatus() == RosterItem.SUB_FROM) {
+                if (onlineUsers != null && serverName.equals(item.getJid().getDomain())
+                        && !onlineUsers.isOnline(item.getJid().toBareJID())) {
+                    continue;
+                }
                 packet.setTo(item.getJid());
                 if (list != null && list.shouldBlockPacket(packet)) {
                     // Outgoing presence notifications are blocked for this contact
                     continue;
                 }
-                JID searchNode = new JID(item.getJid().getNode(), item.getJid().getDomain(), null, true);
+                JID searchNode = InternedJID.of(item.getJid()).asBareJID();
                 for (JID jid : routingTable.getRoutes(searchNode, null)) {
                     try {
                         routingTable.routePacket(jid, packet, false);
@@ -610,8 +727,24 @@ public class Roster implements Cacheable, Externalizable {
                 }
             }
         }
-        // Broadcast presence to shared contacts whose subscription status is FROM
-        for (String contact : implicitFrom.keySet()) {
+        // Broadcast presence to shared contacts whose subscription status is FROM. Shared contacts
+        // are always users of this server, so only the ones that are online need to be considered.
+        // In large shared groups, there are typically far fewer online users than contacts.
+        final Collection<String> sharedContacts;
+        if (onlineUsers != null && onlineUsers.getOnlineUsers().size() < implicitFrom.size()) {
+            sharedContacts = new ArrayList<>();
+            for (String contact : onlineUsers.getOnlineUsers()) {
+                if (implicitFrom.containsKey(contact)) {
+                    sharedContacts.add(contact);
+                }
+            }
+        } else {
+            sharedContacts = implicitFrom.keySet();
+        }
+        for (String contact : sharedContacts) {
+            if (onlineUsers != null && !onlineUsers.isOnline(contact)) {
+                continue;
+            }
             if (contact.contains("@")) {
                 String node = contact.substring(0, contact.lastIndexOf("@"));
                 String domain = contact.substring(contact.lastIndexOf("@") + 1);
@@ -624,7 +757,7 @@ public class Roster implements Cacheable, Externalizable {
                 // Outgoing presence notifications are blocked for this contact
                 continue;
             }
-            for (JID jid : routingTable.getRoutes(new JID(contact), null)) {
+            for (JID jid : routingTable.getRoutes(InternedJID.of(contact), null)) {
                 try {
                     routingTable.routePacket(jid, packet, false);
                 } catch (Exception e) {
@@ -680,7 +813,7 @@ public class Roster implements Cacheable, Externalizable {
         // When roster versioning is enabled, the server MUST include 
         // the updated roster version with each roster push.
         if (RosterManager.isRosterVersioningEnabled()) {
-            roster.getChildElement().addAttribute("ver", String.valueOf( roster.hashCode() ) );
+            roster.getChildElement().addAttribute("ver", getVersion() );
         }
         SessionManager.getInstance().userBroadcast(username, roster);
     }
@@ -696,18 +829,17 @@ public class Roster implements Cacheable, Externalizable {
      *                 group with subscription status FROM will not be sent
      */
     public void broadcast(RosterItem item, boolean optimize) {
+        // The item may have been modified in place, so its contribution to the version is updated first
+        updateVersion(item.getJid().toBareJID());
         // Do not broadcast items with status FROM that exist only because of shared groups
         if (optimize && item.isOnlyShared() && item.getSubStatus() == RosterItem.SUB_FROM) {
             return;
         }
-        // Set the groups to broadcast (include personal and shared groups)
-        List<String> groups = new ArrayList<>(item.getGroups());
-        for (Group sharedGroup : item.getSharedGroups()) {
-            String displayName = sharedGroup.getProperties().get("sharedRoster.displayName");
-            if (displayName != null) {
-                groups.add(displayName);
-            }
+        if (!resolveNickname(item)) {
+            return;
         }
+        // Set the groups to broadcast (include personal and shared groups)
+        List<String> groups = getGroupNames(item);
 
         org.xmpp.packet.Roster roster = new org.xmpp.packet.Roster();
         roster.setType(IQ.Type.set);
@@ -778,6 +910,7 @@ public class Roster implements Cacheable, Externalizable {
                                 RosterItem.RECV_NONE, nickname, null);
                 // Add the new item to the list of items
                 rosterItems.put(item.getJid().toBareJID(), item);
+                updateVersion(item.getJid().toBareJID());
                 newItem = true;
             } catch (UserNotFoundException ex) {
                 Log.error("Group (" + group.getName() + ") includes non-existent username (" +
@@ -836,6 +969,7 @@ public class Roster implements Cacheable, Externalizable {
         if (item.isOnlyShared() && item.getSubStatus() == RosterItem.SUB_FROM) {
             // Remove from memory and do nothing else
             rosterItems.remove(item.getJid().toBareJID());
+            updateVersion(item.getJid().toBareJID());
             // Cache information about shared contacts with subscription status FROM
             implicitFrom.put(item.getJid().toBareJID(), item.getInvisibleSharedGroupsNames());
         } else {
@@ -843,6 +977,7 @@ public class Roster implements Cacheable, Externalizable {
             implicitFrom.remove(item.getJid().toBareJID());
             // Ensure that the item is an explicit roster item
             rosterItems.put(item.getJid().toBareJID(), item);
+            updateVersion(item.getJid().toBareJID());
             // Brodcast to all the user resources of the updated roster item
             broadcast(item, true);
             // Probe the presence of the new group user
@@ -884,6 +1019,7 @@ public class Roster implements Cacheable, Externalizable {
                                 RosterItem.RECV_NONE, nickname, null);
                 // Add the new item to the list of items
                 rosterItems.put(item.getJid().toBareJID(), item);
+                updateVersion(item.getJid().toBareJID());
                 newItem = true;
             } catch (UserNotFoundException ex) {
                 Log.error("Couldn't find a user with username (" + addedUser + ")");
@@ -951,6 +1087,7 @@ public class Roster implements Cacheable, Externalizable {
         if (item.isOnlyShared() && item.getSubStatus() == RosterItem.SUB_FROM) {
             // Remove from memory and do nothing else
             rosterItems.remove(item.getJid().toBareJID());
+            updateVersion(item.getJid().toBareJID());
             // Cache information about shared contacts with subscription status FROM
             implicitFrom.put(item.getJid().toBareJID(), item.getInvisibleSharedGroupsNames());
         } else {
@@ -958,6 +1095,7 @@ public class Roster implements Cacheable, Externalizable {
             implicitFrom.remove(item.getJid().toBareJID());
             // Ensure that the item is an explicit roster item
             rosterItems.put(item.getJid().toBareJID(), item);
+            updateVersion(item.getJid().toBareJID());
             // Brodcast to all the user resources of the updated roster item
             broadcast(item, true);
             // Probe the presence of the new group user
@@ -22,6 +22,7 @@ import org.jivesoftware.openfire.group.GroupManager;
 import org.jivesoftware.openfire.group.GroupNotFoundException;
 import org.jivesoftware.openfire.user.UserNameManager;
 import org.jivesoftware.openfire.user.UserNotFoundException;
+import org.jivesoftware.util.InternedJID;
 import org.jivesoftware.util.cache.CacheSizes;
 import org.jivesoftware.util.cache.Cacheable;
 import org.jivesoftware.util.cache.CannotCalculateSizeException;
@@ -256,7 +257,7 @@ public class RosterItem implements Cacheable, Externalizable {
                            RecvType recvStatus,
                            String nickname,
                            List<String> groups) {
-        this.jid = jid;
+        this.jid = jid == null ? null : InternedJID.of(jid);
         this.subStatus = subStatus;
         this.askStatus = askStatus;
         this.recvStatus = recvStatus;
@@ -636,7 +637,7 @@ public class RosterItem implements Cacheable, Externalizable {
 
     @Override
     public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
-        jid = (JID) ExternalizableUtil.getInstance().readSerializable(in);
+        jid = InternedJID.of((JID) ExternalizableUtil.getInstance().readSerializable(in));
         if (ExternalizableUtil.getInstance().readBoolean(in)) {
             nickname = ExternalizableUtil.getInstance().readSafeUTF(in);
         }
@@ -17,11 +17,13 @@
 package org.jivesoftware.openfire.roster;
 
 import org.jivesoftware.openfire.RoutingTable;
+import com.google.common.collect.Collections2;
 import org.jivesoftware.openfire.SharedGroupException;
 import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.openfire.container.BasicModule;
 import org.jivesoftware.openfire.event.GroupEventDispatcher;
 import org.jivesoftware.openfire.event.GroupEventListener;
+import org.jivesoftware.openfire.event.SessionEventDispatcher;
 import org.jivesoftware.openfire.event.UserEventDispatcher;
 import org.jivesoftware.openfire.event.UserEventListener;
 import org.jivesoftware.openfire.group.Group;
@@ -61,9 +63,15 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
     private static final String MUTEX_SUFFIX = " ro";
     
     private Cache<String, Roster> rosterCache = null;
+    /**
+     * The version of the roster of a user, kept separately from (and longer than) the roster
+     * itself, so that a client that has the latest version can be answered without loading it.
+     */
+    private Cache<String, String> rosterVersionCache = null;
     private XMPPServer server;
     private RoutingTable routingTable;
     private RosterItemProvider provider;
+    private final OnlineUserIndex onlineUserIndex = new OnlineUserIndex();
 
     /**
      * Returns true if the roster service is enabled. When disabled it is not possible to
@@ -87,6 +95,7 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
     public RosterManager() {
         super("Roster Manager");
         rosterCache = CacheFactory.createCache("Roster");
+        rosterVersionCache = CacheFactory.createCache("Roster Versions");
 
         initProvider();
 
@@ -132,6 +141,30 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
         return roster;
     }
 
+    /**
+     * Returns the version of the roster of the given user, as used by roster versioning. The
+     * roster is only loaded if its version is not known.
+     *
+     * @param username the username to search for.
+     * @return the version of the roster.
+     * @throws UserNotFoundException if the ID does not correspond to a known entity on the server.
+     * @see Roster#getVersion()
+     */
+    public String getRosterVersion(String username) throws UserNotFoundException {
+        String version = rosterVersionCache.get(username);
+        if (version == null) {
+            final Roster roster = getRoster(username);
+            version = roster.getVersion();
+            rosterVersionCache.put(username, version);
+            // The roster may have been modified after its version was computed, in which case the
+            // cached version may have been removed before it was added. Only keep a current version.
+            if (!version.equals(roster.getVersion())) {
+                rosterVersionCache.remove(username);
+            }
+        }
+        return version;
+    }
+
     /**
      * Removes the entire roster of a given user. This is necessary when a user
      * account is being deleted from the server.
@@ -159,6 +192,7 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
             }
             // Remove the cached roster from memory
             rosterCache.remove(username);
+            rosterVersionCache.remove(username);
 
             // Get the rosters that have a reference to the deleted user
             Iterator<String> usernames = provider.getUsernames(user.toBareJID());
@@ -288,6 +322,7 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
         for (JID deletedUser : users) {
             groupUserDeleted(group, affectedUsers, deletedUser);
         }
+        clearRosterVersions(group);
     }
 
     @Override
@@ -322,6 +357,8 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
             for (JID user : users) {
                 groupUserAdded(group, user);
             }
+            clearRosterVersions(group, originalValue, group.getProperties().get("sharedRoster.groupList"));
+            clearRosterVersions(group);
         }
         else if ("sharedRoster.groupList".equals(keyChanged)) {
             String currentValue = group.getProperties().get("sharedRoster.groupList");
@@ -345,6 +382,8 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
             for (JID user : users) {
                 groupUserAdded(group, user);
             }
+            clearRosterVersions(group, group.getProperties().get("sharedRoster.showInRoster"), originalValue);
+            clearRosterVersions(group);
         }
         else if ("sharedRoster.displayName".equals(keyChanged)) {
             String currentValue = group.getProperties().get("sharedRoster.displayName");
@@ -373,6 +412,7 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
                     }
                 }
             }
+            clearRosterVersions(group);
         }
     }
 
@@ -399,6 +439,7 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
                 // Set object again in cache. This is done so that other cluster nodes
                 // get refreshed with latest version of the object
                 rosterCache.put(roster.getUsername(), roster);
+                rosterVersionCache.remove(roster.getUsername());
             }
 
             @Override
@@ -406,6 +447,7 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
                 // Set object again in cache. This is done so that other cluster nodes
                 // get refreshed with latest version of the object
                 rosterCache.put(roster.getUsername(), roster);
+                rosterVersionCache.remove(roster.getUsername());
             }
 
             @Override
@@ -413,6 +455,7 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
                 // Set object again in cache. This is done so that other cluster nodes
                 // get refreshed with latest version of the object
                 rosterCache.put(roster.getUsername(), roster);
+                rosterVersionCache.remove(roster.getUsername());
             }
         });
     }
@@ -465,6 +508,37 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
         else {
             groupUserAdded(group, addedUser);
         }
+        clearRosterVersions(group);
+    }
+
+    @Override
+    public void membersAdded(Group group, Map<String, Object> params) {
+        final List<JID> addedUsers = new ArrayList<>();
+        for (Object member : (Collection<?>) params.get("members")) {
+            addedUsers.add(new JID(member.toString()));
+        }
+        if (!isSharedGroup(group)) {
+            for (Group visibleGroup : getVisibleGroups(group)) {
+                // Get the list of affected users
+                Collection<JID> users = new HashSet<>(visibleGroup.getMembers());
+                users.addAll(visibleGroup.getAdmins());
+                for (JID addedUser : addedUsers) {
+                    groupUserAdded(visibleGroup, users, addedUser);
+                }
+            }
+        }
+        else {
+            // Get the list of affected users once, rather than once per added member. Added
+            // members are included as they are processed, so that each pair of added members
+            // is updated once, as it would be when the members were added one by one.
+            final Set<JID> pending = new HashSet<>(addedUsers);
+            final Collection<JID> users = Collections2.filter(getAffectedUsers(group), user -> !pending.contains(user));
+            for (JID addedUser : addedUsers) {
+                pending.remove(addedUser);
+                groupUserAdded(group, users, addedUser);
+            }
+        }
+        clearRosterVersions(group);
     }
 
     @Override
@@ -489,6 +563,7 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
         else {
             groupUserDeleted(group, deletedUser);
         }
+        clearRosterVersions(group);
     }
 
     @Override
@@ -509,6 +584,7 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
         else {
             groupUserAdded(group, addedUser);
         }
+        clearRosterVersions(group);
     }
 
     @Override
@@ -530,6 +606,7 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
         else {
             groupUserDeleted(group, deletedUser);
         }
+        clearRosterVersions(group);
     }
 
     /**
@@ -617,7 +694,6 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
     @Override
     public void userModified(User user, Map<String,Object> params) {
         if ("nameModified".equals(params.get("type"))) {
-
             for (Group group : getSharedGroups(user.getUsername())) {
                 ArrayList<JID> groupUsers = new ArrayList<>();
                 groupUsers.addAll(group.getAdmins());
@@ -626,6 +702,39 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
                 for (JID groupUser : groupUsers) {
                     rosterCache.remove(groupUser.getNode());
                 }
+                clearRosterVersions(group);
+            }
+        }
+    }
+
+    /**
+     * Forgets the roster versions of the users whose rosters are affected by a change of a group:
+     * the users related to the group when it is a shared group, or otherwise the users related to
+     * the shared groups that show it. Shared groups define items of rosters that may not be loaded,
+     * so these versions cannot be updated when a shared group changes. This must be called after
+     * the rosters have been updated, as a version that is computed during the update could
+     * otherwise remain cached.
+     */
+    private void clearRosterVersions(Group group) {
+        final Collection<Group> groups = isSharedGroup(group) ? Collections.singleton(group) : getVisibleGroups(group);
+        for (Group sharedGroup : groups) {
+            clearRosterVersions(sharedGroup, sharedGroup.getProperties().get("sharedRoster.showInRoster"),
+                    sharedGroup.getProperties().get("sharedRoster.groupList"));
+        }
+    }
+
+    /**
+     * Forgets the roster versions of the users that are related to a shared group, based on the
+     * given group properties (see {@link #getAffectedUsers(Group, String, String)}).
+     */
+    private void clearRosterVersions(Group group, String showInRoster, String groupNames) {
+        if ("everybody".equals(showInRoster)) {
+            rosterVersionCache.clear();
+            return;
+        }
+        for (JID user : getAffectedUsers(group, showInRoster, groupNames)) {
+            if (server.isLocal(user)) {
+                rosterVersionCache.remove(user.getNode());
             }
         }
     }
@@ -847,17 +956,15 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
             return new ArrayList<>();
         }
         // Add the users of the group
-        Collection<JID> users = new HashSet<>(group.getMembers());
+        Set<JID> users = new HashSet<>(group.getMembers());
         users.addAll(group.getAdmins());
         // Check if anyone can see this shared group
         if ("everybody".equals(showInRoster)) {
-            // Add all users in the system
-            for (String username : UserManager.getInstance().getUsernames()) {
-                users.add(server.createJID(username, null, true));
-            }
             // Add all logged users. We don't need to add all users in the system since only the
             // logged ones will be affected.
             //users.addAll(SessionManager.getInstance().getSessionUsers());
+            // Add all users in the system, without holding them in memory
+            return new AllUsersCollection(users);
         }
         else {
             // Add the users that may see the group
@@ -880,7 +987,7 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
         }
 
         // Add the users of the group
-        Collection<JID> users = new HashSet<>(group.getMembers());
+        Set<JID> users = new HashSet<>(group.getMembers());
         users.addAll(group.getAdmins());
 
         // If the user of the roster belongs to the shared group then we should return
@@ -888,10 +995,8 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
         if (group.isUser(roster.getUsername())) {
             // Check if anyone can see this shared group
             if ("everybody".equals(showInRoster)) {
-                // Add all users in the system
-                for (String username : UserManager.getInstance().getUsernames()) {
-                    users.add(server.createJID(username, null, true));
-                }
+                // Add all users in the system, without holding them in memory
+                return new AllUsersCollection(users);
             }
             else {
                 // Add the users that may see the group
@@ -993,6 +1098,8 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
         UserEventDispatcher.addListener(this);
         // Add the new instance as a listener of group events
         GroupEventDispatcher.addListener(this);
+        // Keep track of local users that are online, to optimize presence broadcasts
+        SessionEventDispatcher.addListener(onlineUserIndex);
     }
 
     @Override
@@ -1002,6 +1109,16 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
         UserEventDispatcher.removeListener(this);
         // Remove this module as a listener of group events
         GroupEventDispatcher.removeListener(this);
+        SessionEventDispatcher.removeListener(onlineUserIndex);
+    }
+
+    /**
+     * Returns the index of users that have sessions on this cluster node.
+     *
+     * @return the index of online users (never null).
+     */
+    OnlineUserIndex getOnlineUserIndex() {
+        return onlineUserIndex;
     }
 
     public static RosterItemProvider getRosterItemProvider() {
@@ -1026,4 +1143,80 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
 
     }
 
+    /**
+     * The users of a group, followed by all other users in the system. The usernames of the other
+     * users are read in batches (see {@link UserManager#iterateUsernames()}) each time that this
+     * collection is iterated over, instead of being held in memory.
+     */
+    private class AllUsersCollection extends AbstractCollection<JID> {
+
+        private final Set<JID> groupUsers;
+
+        AllUsersCollection(Set<JID> groupUsers) {
+            this.groupUsers = groupUsers;
+        }
+
+        @Override
+        public Iterator<JID> iterator() {
+            final Iterator<JID> members = groupUsers.iterator();
+            final Iterator<String> usernames = UserManager.getInstance().iterateUsernames().iterator();
+            return new Iterator<JID>() {
+                private JID next = advance();
+
+                private JID advance() {
+                    if (members.hasNext()) {
+                        return members.next();
+                    }
+                    while (usernames.hasNext()) {
+                        final JID user = server.createJID(usernames.next(), null, true);
+                        // Users of the group have been returned already.
+                        if (!groupUsers.contains(user)) {
+                            return user;
+                        }
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public JID next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    final JID result = next;
+                    next = advance();
+                    return result;
+                }
+            };
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (groupUsers.contains(o)) {
+                return true;
+            }
+            if (!(o instanceof JID)) {
+                return false;
+            }
+            final JID user = (JID) o;
+            return user.getResource() == null && server.isLocal(user)
+                    && UserManager.getInstance().isRegisteredUser(user.getNode());
+        }
+
+        /**
+         * Counts the users, which reads the usernames of all users.
+         */
+        @Override
+        public int size() {
+            int size = 0;
+            for (Iterator<JID> iterator = iterator(); iterator.hasNext(); iterator.next()) {
+                size++;
+            }
+            return size;
+        }
+    }
 }
@@ -16,6 +16,8 @@
 
 package org.jivesoftware.openfire.sasl;
 
+import org.jivesoftware.openfire.auth.ScramHash;
+import org.jivesoftware.openfire.net.SASLAuthentication;
 import org.jivesoftware.openfire.session.LocalClientSession;
 import org.jivesoftware.openfire.session.LocalIncomingServerSession;
 import org.jivesoftware.openfire.session.LocalSession;
@@ -54,6 +56,9 @@ public class SaslServerFactoryImpl implements SaslServerFactory
         allMechanisms.add( new Mechanism( "ANONYMOUS", true, true ) );
         allMechanisms.add( new Mechanism( "PLAIN", false, true ) );
         allMechanisms.add( new Mechanism( "SCRAM-SHA-1", false, false ) );
+        allMechanisms.add( new Mechanism( "SCRAM-SHA-1-PLUS", false, false ) );
+        allMechanisms.add( new Mechanism( "SCRAM-SHA-256", false, false ) );
+        allMechanisms.add( new Mechanism( "SCRAM-SHA-256-PLUS", false, false ) );
         allMechanisms.add( new Mechanism( "JIVE-SHAREDSECRET", true, false ) );
         allMechanisms.add( new Mechanism( "EXTERNAL", false, false ) );
     }
@@ -78,7 +83,16 @@ public class SaslServerFactoryImpl implements SaslServerFactory
                 return new SaslServerPlainImpl( protocol, serverName, props, cbh );
 
             case "SCRAM-SHA-1":
-                return new ScramSha1SaslServer();
+                return createScramSaslServer( ScramHash.SHA_1, false, props );
+
+            case "SCRAM-SHA-1-PLUS":
+                return createScramSaslServer( ScramHash.SHA_1, true, props );
+
+            case "SCRAM-SHA-256":
+                return createScramSaslServer( ScramHash.SHA_256, false, props );
+
+            case "SCRAM-SHA-256-PLUS":
+                return createScramSaslServer( ScramHash.SHA_256, true, props );
 
             case "ANONYMOUS":
                 if ( !props.containsKey( LocalSession.class.getCanonicalName() ) )
@@ -122,6 +136,25 @@ public class SaslServerFactoryImpl implements SaslServerFactory
         }
     }
 
+    private static SaslServer createScramSaslServer( ScramHash hash, boolean plus, Map<String, ?> props )
+    {
+        final Object session = props.get( LocalSession.class.getCanonicalName() );
+        final byte[] channelBindingData = session instanceof LocalSession ? ScramSaslServer.getChannelBindingData( (LocalSession) session ) : null;
+        if ( plus )
+        {
+            if ( channelBindingData == null )
+            {
+                Log.debug( "Unable to instantiate {}-PLUS SaslServer: No channel binding data is available for the session.", hash.getMechanismName() );
+                return null;
+            }
+            return new ScramSaslServer( hash, true, channelBindingData );
+        }
+
+        // Only tell the mechanism about channel binding when the -PLUS variant was offered to the client.
+        final boolean plusOffered = channelBindingData != null && SASLAuthentication.getSupportedMechanisms().contains( hash.getMechanismName() + "-PLUS" );
+        return new ScramSaslServer( hash, false, plusOffered ? channelBindingData : null );
+    }
+
     @Override
     public String[] getMechanismNames( Map<String, ?> props )
     {
@@ -0,0 +1,458 @@
+/*
+ * Copyright 2015 Surevine Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.openfire.sasl;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.security.sasl.Sasl;
+import javax.security.sasl.SaslException;
+import javax.security.sasl.SaslServer;
+import javax.xml.bind.DatatypeConverter;
+
+import org.jivesoftware.openfire.auth.AuthFactory;
+import org.jivesoftware.openfire.Connection;
+import org.jivesoftware.openfire.auth.ScramCredentialDeriver;
+import org.jivesoftware.openfire.auth.ScramCredentials;
+import org.jivesoftware.openfire.auth.ScramHash;
+import org.jivesoftware.openfire.auth.ScramUtils;
+import org.jivesoftware.openfire.session.LocalClientSession;
+import org.jivesoftware.openfire.session.LocalSession;
+import org.jivesoftware.openfire.user.UserNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implements the server-side of the SCRAM mechanisms (RFC 5802 and RFC 7677), for a particular hash function,
+ * optionally with channel binding (the -PLUS variants of the mechanisms).
+ *
+ * The only supported channel binding type is 'tls-server-end-point' (RFC 5929), which binds the authentication to
+ * the certificate that this server presented when TLS was established.
+ *
+ * @author Richard Midwinter
+ */
+public class ScramSaslServer implements SaslServer {
+
+    /**
+     * The only supported channel binding type.
+     */
+    public static final String CHANNEL_BINDING_TYPE = "tls-server-end-point";
+
+    private static final Logger Log = LoggerFactory.getLogger(ScramSaslServer.class);
+    private static final Pattern
+            CLIENT_FIRST_MESSAGE = Pattern.compile("^(([pny])=?([^,]*),([^,]*),)(m?=?[^,]*,?n=([^,]*),r=([^,]*),?.*)$"),
+            CLIENT_FINAL_MESSAGE = Pattern.compile("(c=([^,]*),r=([^,]*)),p=(.*)$");
+
+    private String username;
+    private State state = State.INITIAL;
+    private String nonce;
+    private String serverFirstMessage;
+    private String clientFirstMessageBare;
+    private String gs2Header;
+    private ScramCredentials credentials;
+    private SecureRandom random = new SecureRandom();
+
+    private final ScramHash hash;
+    private final boolean plus;
+    private final byte[] channelBindingData;
+
+    private enum State {
+        INITIAL,
+        IN_PROGRESS,
+        COMPLETE;
+    }
+    
+    /**
+     * Creates a SASL server for a SCRAM mechanism.
+     *
+     * For mechanisms with channel binding, the channel binding data of the connection must be provided. For
+     * mechanisms without channel binding, the channel binding data must be provided only when the corresponding
+     * mechanism with channel binding is offered to the client, so that clients that support channel binding but
+     * think that the server doesn't can be detected (which indicates that the list of mechanisms was tampered with).
+     *
+     * @param hash the hash function of the mechanism.
+     * @param plus true for the mechanism with channel binding.
+     * @param channelBindingData the 'tls-server-end-point' channel binding data of the connection (can be null if plus is false).
+     */
+    public ScramSaslServer(final ScramHash hash, final boolean plus, final byte[] channelBindingData) {
+        if (plus && channelBindingData == null) {
+            throw new IllegalArgumentException("Channel binding data is required for " + hash.getMechanismName() + "-PLUS");
+        }
+        this.hash = hash;
+        this.plus = plus;
+        this.channelBindingData = channelBindingData;
+    }
+
+    /**
+     * Returns the IANA-registered mechanism name of this SASL server.
+     * (for example, "SCRAM-SHA-1" or "SCRAM-SHA-256-PLUS").
+     * @return A non-null string representing the IANA-registered mechanism name.
+     */
+    @Override
+    public String getMechanismName() {
+        return plus ? hash.getMechanismName() + "-PLUS" : hash.getMechanismName();
+    }
+
+    /**
+     * Evaluates the response data and generates a challenge.
+     *
+     * If a response is received from the client during the authentication
+     * process, this method is called to prepare an appropriate next
+     * challenge to submit to the client. The challenge is null if the
+     * authentication has succeeded and no more challenge data is to be sent
+     * to the client. It is non-null if the authentication must be continued
+     * by sending a challenge to the client, or if the authentication has
+     * succeeded but challenge data needs to be processed by the client.
+     * {@code isComplete()} should be called
+     * after each call to {@code evaluateResponse()},to determine if any further
+     * response is needed from the client.
+     *
+     * @param response The non-null (but possibly empty) response sent
+     * by the client.
+     *
+     * @return The possibly null challenge to send to the client.
+     * It is null if the authentication has succeeded and there is
+     * no more challenge data to be sent to the client.
+     * @exception SaslException If an error occurred while processing
+     * the response or generating a challenge.
+     */
+    @Override
+    public byte[] evaluateResponse(final byte[] response) throws SaslException {
+        try {
+            byte[] challenge;
+            switch (state)
+            {
+                case INITIAL:
+                    challenge = generateServerFirstMessage(response);
+                    state = State.IN_PROGRESS;
+                    break;
+                case IN_PROGRESS:
+                    challenge = generateServerFinalMessage(response);
+                    state = State.COMPLETE;
+                    break;
+                case COMPLETE:
+                    if (response == null || response.length == 0)
+                    {
+                        challenge = new byte[0];
+                        break;
+                    }
+                default:
+                    throw new SaslException("No response expected in state " + state);
+
+            }
+            return challenge;
+        } catch (RuntimeException ex) {
+           throw new SaslException("Unexpected exception while evaluating SASL response.", ex);
+        }
+    }
+
+    /**
+     * First response returns:
+     *   - the nonce (client nonce appended with our own random UUID)
+     *   - the salt
+     *   - the number of iterations
+     */
+    private byte[] generateServerFirstMessage(final byte[] response) throws SaslException {
+        String clientFirstMessage = new String(response, StandardCharsets.UTF_8);
+        Matcher m = CLIENT_FIRST_MESSAGE.matcher(clientFirstMessage);
+        if (!m.matches()) {
+            throw new SaslException("Invalid first client message");
+        }
+        gs2Header = m.group(1);
+        String gs2CbindFlag = m.group(2);
+        String gs2CbindName = m.group(3);
+//        String authzId = m.group(4);
+        if (plus) {
+            if (!"p".equals(gs2CbindFlag) || !CHANNEL_BINDING_TYPE.equals(gs2CbindName)) {
+                throw new SaslException("Client did not request the supported channel binding type: " + CHANNEL_BINDING_TYPE);
+            }
+        } else if ("p".equals(gs2CbindFlag)) {
+            throw new SaslException("Client requested channel binding for a mechanism that does not support it");
+        } else if ("y".equals(gs2CbindFlag) && channelBindingData != null) {
+            // The client supports channel binding, and thinks the server doesn't, while it does.
+            throw new SaslException("Client supports channel binding, but did not select a mechanism that uses it");
+        }
+        clientFirstMessageBare = m.group(5);
+        username = m.group(6);
+        String clientNonce = m.group(7);
+        nonce = clientNonce + UUID.randomUUID().toString();
+
+        credentials = getCredentials(username);
+        final byte[] salt;
+        final int iterations;
+        if (credentials != null) {
+            salt = DatatypeConverter.parseBase64Binary(credentials.getSalt());
+            iterations = credentials.getIterations();
+        } else {
+            // Mimic an invalid password for users that don't exist.
+            salt = new byte[24];
+            random.nextBytes(salt);
+            iterations = ScramSha1SaslServer.ITERATION_COUNT.getValue();
+        }
+        serverFirstMessage = String.format("r=%s,s=%s,i=%d", nonce, DatatypeConverter.printBase64Binary(salt), iterations);
+        return serverFirstMessage.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Final response returns the server signature.
+     */
+    private byte[] generateServerFinalMessage(final byte[] response) throws SaslException {
+        String clientFinalMessage = new String(response, StandardCharsets.UTF_8);
+        Matcher m = CLIENT_FINAL_MESSAGE.matcher(clientFinalMessage);
+        if (!m.matches()) {
+            throw new SaslException("Invalid client final message");
+        }
+
+        String clientFinalMessageWithoutProof = m.group(1);
+        String channelBinding = m.group(2);
+        String clientNonce = m.group(3);
+        String proof = m.group(4);
+        
+        if (!nonce.equals(clientNonce)) {
+            throw new SaslException("Client final message has incorrect nonce value");
+        }
+
+        // The channel binding attribute contains the GS2 header, followed by the channel binding data (if any).
+        final ByteArrayOutputStream expectedChannelBinding = new ByteArrayOutputStream();
+        final byte[] header = gs2Header.getBytes(StandardCharsets.UTF_8);
+        expectedChannelBinding.write(header, 0, header.length);
+        if (plus) {
+            expectedChannelBinding.write(channelBindingData, 0, channelBindingData.length);
+        }
+        if (!MessageDigest.isEqual(expectedChannelBinding.toByteArray(), DatatypeConverter.parseBase64Binary(channelBinding))) {
+            throw new SaslException("Client final message has incorrect channel binding value");
+        }
+
+        String authMessage = clientFirstMessageBare + "," + serverFirstMessage + "," + clientFinalMessageWithoutProof;
+        if (credentials == null) {
+            throw new SaslException("User '"+username+"' not found");
+        }
+        byte[] storedKey = decode(credentials.getStoredKey());
+        if (storedKey == null) {
+            throw new SaslException("No stored key for user '"+username+"'");
+        }
+        byte[] serverKey = decode(credentials.getServerKey());
+        if (serverKey == null) {
+            throw new SaslException("No server key for user '"+username+"'");
+        }
+
+        byte[] clientSignature = ScramUtils.computeHmac(storedKey, authMessage, hash);
+        byte[] serverSignature = ScramUtils.computeHmac(serverKey, authMessage, hash);
+        
+        byte[] clientKey = clientSignature.clone();
+        byte[] decodedProof = DatatypeConverter.parseBase64Binary(proof);
+        if (decodedProof.length != clientKey.length) {
+            throw new SaslException("Authentication failed");
+        }
+        for (int i = 0; i < clientKey.length; i++) {
+            clientKey[i] ^= decodedProof[i];
+        }
+
+        if (!Arrays.equals(storedKey, ScramUtils.computeHash(clientKey, hash))) {
+            throw new SaslException("Authentication failed");
+        }
+        return ("v=" + DatatypeConverter.printBase64Binary(serverSignature))
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+   /**
+      * Determines whether the authentication exchange has completed.
+      * This method is typically called after each invocation of
+      * {@code evaluateResponse()} to determine whether the
+      * authentication has completed successfully or should be continued.
+      * @return true if the authentication exchange has completed; false otherwise.
+      */
+    @Override
+    public boolean isComplete() {
+        return state == State.COMPLETE;
+    }
+
+    /**
+     * Reports the authorization ID in effect for the client of this
+     * session.
+     * This method can only be called if isComplete() returns true.
+     * @return The authorization ID of the client.
+     * @exception IllegalStateException if this authentication session has not completed
+     */
+    @Override
+    public String getAuthorizationID() {
+        if (isComplete()) {
+            return username;
+        } else {
+            throw new IllegalStateException(getMechanismName() + " authentication not completed");
+        }
+    }
+
+    /**
+     * Unwraps a byte array received from the client. SCRAM supports no security layer.
+     * 
+     * @throws SaslException if attempted to use this method.
+     */
+    @Override
+    public byte[] unwrap(byte[] incoming, int offset, int len)
+        throws SaslException {
+        if (isComplete()) {
+            throw new IllegalStateException(getMechanismName() + " does not support integrity or privacy");
+        } else {
+            throw new IllegalStateException(getMechanismName() + " authentication not completed");
+        }
+    }
+
+    /**
+     * Wraps a byte array to be sent to the client. SCRAM supports no security layer.
+     *
+     * @throws SaslException if attempted to use this method.
+     */
+    @Override
+    public byte[] wrap(byte[] outgoing, int offset, int len)
+        throws SaslException {
+        if (isComplete()) {
+            throw new IllegalStateException(getMechanismName() + " does not support integrity or privacy");
+        } else {
+            throw new IllegalStateException(getMechanismName() + " authentication not completed");
+        }
+    }
+
+    /**
+     * Retrieves the negotiated property.
+     * This method can be called only after the authentication exchange has
+     * completed (i.e., when {@code isComplete()} returns true); otherwise, an
+     * {@code IllegalStateException} is thrown.
+     *
+     * @param propName the property
+     * @return The value of the negotiated property. If null, the property was
+     * not negotiated or is not applicable to this mechanism.
+     * @exception IllegalStateException if this authentication exchange has not completed
+     */
+    @Override
+    public Object getNegotiatedProperty(String propName) {
+        if (isComplete()) {
+            if (propName.equals(Sasl.QOP)) {
+                return "auth";
+            } else {
+                return null;
+            }
+        } else {
+            throw new IllegalStateException(getMechanismName() + " authentication not completed");
+        }
+    }
+
+     /**
+      * Disposes of any system resources or security-sensitive information
+      * the SaslServer might be using. Invoking this method invalidates
+      * the SaslServer instance. This method is idempotent.
+      * @throws SaslException If a problem was encountered while disposing
+      * the resources.
+      */
+    @Override
+    public void dispose() throws SaslException {
+        username = null;
+        credentials = null;
+        state = State.INITIAL;
+    }
+    
+    /**
+     * Retrieve the SCRAM credentials of a user, which are looked up once per authentication.
+     *
+     * When the credentials are incomplete (for example, because the password of the user was set before the hash
+     * function was supported), they are derived from the password of the user. When too many other logins are doing
+     * the same, that is done in the background instead: the authentication then fails with a temporary-auth-failure,
+     * after which the client can retry.
+     *
+     * Returns null if the user doesn't exist, or the credentials can't be obtained.
+     */
+    private ScramCredentials getCredentials(final String username) throws SaslException {
+        try {
+            ScramCredentials result = AuthFactory.getScramCredentials(username, hash);
+            if (!result.isComplete()) {
+                Log.debug("Incomplete SCRAM credentials found, so resetting password.");
+                final String password = AuthFactory.getPassword(username);
+                if (password == null) {
+                    Log.warn("Unable to derive SCRAM credentials of user '{}', as no password is available.", username);
+                    return null;
+                }
+                if (ScramCredentialDeriver.deriveNow(username, password)) {
+                    result = AuthFactory.getScramCredentials(username, hash);
+                } else if (ScramCredentialDeriver.getPending(username) == null) {
+                    ScramCredentialDeriver.derive(username, password);
+                }
+                if (!result.isComplete()) {
+                    throw new SaslFailureException("SCRAM credentials are being derived", Failure.TEMPORARY_AUTH_FAILURE);
+                }
+            }
+            return result;
+        } catch (UserNotFoundException | UnsupportedOperationException e) {
+            Log.warn("Exception in SCRAM.getCredentials():", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the 'tls-server-end-point' channel binding data (RFC 5929) of the connection of a client session: the
+     * hash of the certificate that this server presented when TLS was established.
+     *
+     * @param session the session of the client.
+     * @return the channel binding data, or null if the connection is not encrypted or the data can't be determined.
+     */
+    public static byte[] getChannelBindingData(final LocalSession session) {
+        if (!(session instanceof LocalClientSession) || !session.isSecure()) {
+            return null;
+        }
+        final Connection connection = session.getConnection();
+        final Certificate[] certificates = connection == null ? null : connection.getLocalCertificates();
+        if (certificates == null || certificates.length == 0 || !(certificates[0] instanceof X509Certificate)) {
+            return null;
+        }
+        final X509Certificate certificate = (X509Certificate) certificates[0];
+
+        // Use the hash function of the signature algorithm of the certificate, but SHA-256 instead of MD5 or SHA-1.
+        final String signatureAlgorithm = certificate.getSigAlgName().toUpperCase(Locale.ROOT);
+        final String digestAlgorithm;
+        if (signatureAlgorithm.startsWith("SHA384")) {
+            digestAlgorithm = "SHA-384";
+        } else if (signatureAlgorithm.startsWith("SHA512")) {
+            digestAlgorithm = "SHA-512";
+        } else {
+            digestAlgorithm = "SHA-256";
+        }
+        try {
+            return MessageDigest.getInstance(digestAlgorithm).digest(certificate.getEncoded());
+        } catch (NoSuchAlgorithmException | CertificateEncodingException e) {
+            Log.debug("Unable to determine the channel binding data of session {}", session, e);
+            return null;
+        }
+    }
+
+    private static byte[] decode(final String value) {
+        if (value == null) {
+            return null;
+        } else {
+            return DatatypeConverter.parseBase64Binary( value );
+        }
+    }
+}
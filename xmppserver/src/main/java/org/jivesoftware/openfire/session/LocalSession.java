@@ -35,6 +35,7 @@ import org.jivesoftware.openfire.interceptor.PacketRejectedException;
 import org.jivesoftware.openfire.net.SocketConnection;
 import org.jivesoftware.openfire.net.TLSStreamHandler;
 import org.jivesoftware.openfire.streammanagement.StreamManager;
+import org.jivesoftware.util.InternedJID;
 import org.jivesoftware.util.LocaleUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -189,7 +190,7 @@ public abstract class LocalSession implements Session {
      * @param address the new address of this session.
      */
     public void setAddress(JID address){
-        this.address = address;
+        this.address = address == null ? null : InternedJID.of(address);
     }
 
     /**
@@ -17,11 +17,13 @@
 package org.jivesoftware.openfire.spi;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.jivesoftware.openfire.RoutableChannelHandler;
 import org.jivesoftware.openfire.SessionManager;
@@ -46,6 +48,15 @@ class LocalRoutingTable {
 
     Map<DomainPair, RoutableChannelHandler> routes = new ConcurrentHashMap<>();
 
+    /**
+     * The routes to the client sessions (that have a resource) that are connected to this JVM,
+     * indexed by bare JID. The arrays are never modified; a change is applied by replacing the
+     * array of a user.
+     */
+    private final ConcurrentMap<String, UserRoute[]> userRoutes = new ConcurrentHashMap<>();
+
+    private static final UserRoute[] NO_USER_ROUTES = new UserRoute[0];
+
     /**
      * Adds a route of a local {@link RoutableChannelHandler}
      *
@@ -115,6 +126,83 @@ class LocalRoutingTable {
         return sessions;
     }
 
+    /**
+     * Adds or updates the route of a local client session in the index of routes per user. Routes
+     * to addresses without a resource are not indexed.
+     *
+     * @param address the full JID of the session.
+     * @param session the session hosted by this node.
+     * @param available true if the session is available.
+     */
+    void addUserRoute(JID address, LocalClientSession session, boolean available) {
+        if (address.getResource() == null) {
+            return;
+        }
+        final UserRoute route = new UserRoute(address, session, available);
+        userRoutes.compute(address.toBareJID(), (bareJID, current) -> {
+            if (current == null) {
+                return new UserRoute[] { route };
+            }
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].getAddress().equals(address)) {
+                    final UserRoute[] updated = current.clone();
+                    updated[i] = route;
+                    return updated;
+                }
+            }
+            final UserRoute[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = route;
+            return updated;
+        });
+    }
+
+    /**
+     * Removes the route of a local client session from the index of routes per user.
+     *
+     * @param address the full JID of the session.
+     */
+    void removeUserRoute(JID address) {
+        if (address.getResource() == null) {
+            return;
+        }
+        userRoutes.computeIfPresent(address.toBareJID(), (bareJID, current) -> {
+            final List<UserRoute> remaining = new ArrayList<>(current.length);
+            for (UserRoute route : current) {
+                if (!route.getAddress().equals(address)) {
+                    remaining.add(route);
+                }
+            }
+            return remaining.isEmpty() ? null : remaining.toArray(NO_USER_ROUTES);
+        });
+    }
+
+    /**
+     * Returns the routes to the local client sessions of a user. The returned array must not be
+     * modified.
+     *
+     * @param bareJID the bare JID of the user.
+     * @return the routes to the sessions of the user that are hosted by this node (possibly empty, never null).
+     */
+    UserRoute[] getUserRoutes(String bareJID) {
+        final UserRoute[] result = userRoutes.get(bareJID);
+        return result == null ? NO_USER_ROUTES : result;
+    }
+
+    /**
+     * Returns the route to a local client session.
+     *
+     * @param address the full JID of the session.
+     * @return the route to the session, or null when the session is not hosted by this node.
+     */
+    UserRoute getUserRoute(JID address) {
+        for (UserRoute route : getUserRoutes(address.toBareJID())) {
+            if (route.getAddress().equals(address)) {
+                return route;
+            }
+        }
+        return null;
+    }
+
     /**
      * Removes a route of a local {@link RoutableChannelHandler}
      *
@@ -192,4 +280,31 @@ class LocalRoutingTable {
             }
         }
     }
+
+    /**
+     * An immutable route to a client session that is hosted by this node.
+     */
+    static final class UserRoute {
+        private final JID address;
+        private final LocalClientSession session;
+        private final boolean available;
+
+        UserRoute(JID address, LocalClientSession session, boolean available) {
+            this.address = address;
+            this.session = session;
+            this.available = available;
+        }
+
+        JID getAddress() {
+            return address;
+        }
+
+        LocalClientSession getSession() {
+            return session;
+        }
+
+        boolean isAvailable() {
+            return available;
+        }
+    }
 }
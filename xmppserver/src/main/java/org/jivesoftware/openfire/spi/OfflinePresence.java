@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.spi;
+
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentHelper;
+import org.jivesoftware.util.cache.CacheSizes;
+import org.jivesoftware.util.cache.Cacheable;
+import org.jivesoftware.util.cache.ExternalizableUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.Presence;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * The last unavailable presence of a user, as stored in the database. The XML of the presence is
+ * parsed once, when an instance is created, so that the presence can be sent to many probers without
+ * parsing it again for every probe.
+ *
+ * An instance without XML represents a user for which no unavailable presence is stored. Instances
+ * are immutable: {@link #getPresence()} returns a copy of the parsed presence.
+ */
+public class OfflinePresence implements Cacheable, Externalizable {
+
+    private static final Logger Log = LoggerFactory.getLogger(OfflinePresence.class);
+
+    private String xml;
+    private transient Presence presence;
+
+    /**
+     * Constructor added for Externalizable. Do not use this constructor.
+     */
+    public OfflinePresence() {
+    }
+
+    /**
+     * Creates the offline presence of a user.
+     *
+     * @param xml the XML of the last unavailable presence of the user, or null if no presence is stored.
+     */
+    public OfflinePresence(String xml) {
+        this.xml = xml;
+        this.presence = parse(xml);
+    }
+
+    private static Presence parse(String xml) {
+        if (xml == null) {
+            return null;
+        }
+        try {
+            return new Presence(DocumentHelper.parseText(xml).getRootElement());
+        }
+        catch (DocumentException e) {
+            Log.error("Unable to parse stored offline presence: {}", xml, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the XML of the last unavailable presence.
+     *
+     * @return the XML, or null if no presence is stored.
+     */
+    public String getXML() {
+        return xml;
+    }
+
+    /**
+     * Returns a copy of the last unavailable presence, that the caller is free to modify.
+     *
+     * @return the presence, or null if no (valid) presence is stored.
+     */
+    public Presence getPresence() {
+        return presence == null ? null : presence.createCopy();
+    }
+
+    /**
+     * Returns the status text of the last unavailable presence.
+     *
+     * @return the status, or null if no presence is stored or the presence has no status.
+     */
+    public String getStatus() {
+        return presence == null ? null : presence.getElement().elementTextTrim("status");
+    }
+
+    @Override
+    public int getCachedSize() {
+        // The parsed element takes at least as much memory as its XML representation.
+        int size = 0;
+        size += CacheSizes.sizeOfObject();              // overhead of object
+        size += CacheSizes.sizeOfString(xml) * 2;       // XML and parsed element
+        return size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final OfflinePresence that = (OfflinePresence) o;
+        return xml == null ? that.xml == null : xml.equals(that.xml);
+    }
+
+    @Override
+    public int hashCode() {
+        return xml == null ? 0 : xml.hashCode();
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        ExternalizableUtil.getInstance().writeBoolean(out, xml != null);
+        if (xml != null) {
+            ExternalizableUtil.getInstance().writeSafeUTF(out, xml);
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        if (ExternalizableUtil.getInstance().readBoolean(in)) {
+            xml = ExternalizableUtil.getInstance().readSafeUTF(in);
+        }
+        presence = parse(xml);
+    }
+}
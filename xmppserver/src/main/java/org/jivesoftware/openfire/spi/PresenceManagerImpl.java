@@ -24,9 +24,6 @@ import java.sql.Types;
 import java.util.*;
 import java.util.concurrent.locks.Lock;
 
-import org.dom4j.Document;
-import org.dom4j.DocumentException;
-import org.dom4j.DocumentHelper;
 import org.jivesoftware.database.DbConnectionManager;
 import org.jivesoftware.openfire.*;
 import org.jivesoftware.openfire.auth.UnauthorizedException;
@@ -65,14 +62,25 @@ public class PresenceManagerImpl extends BasicModule implements PresenceManager,
 
     private static final String LOAD_OFFLINE_PRESENCE =
             "SELECT offlinePresence, offlineDate FROM ofPresence WHERE username=?";
+    private static final String LOAD_OFFLINE_PRESENCES =
+            "SELECT username, offlinePresence, offlineDate FROM ofPresence WHERE username IN ";
     private static final String INSERT_OFFLINE_PRESENCE =
             "INSERT INTO ofPresence(username, offlinePresence, offlineDate) VALUES(?,?,?)";
     private static final String DELETE_OFFLINE_PRESENCE =
             "DELETE FROM ofPresence WHERE username=?";
 
-    private static final String NULL_STRING = "NULL";
     private static final long NULL_LONG = -1L;
 
+    /**
+     * The maximum number of users for which offline presence data is loaded in one query.
+     */
+    private static final int OFFLINE_PRESENCE_BATCH_SIZE = 100;
+
+    /**
+     * Cached value for users for which no offline presence is stored.
+     */
+    private static final OfflinePresence NO_OFFLINE_PRESENCE = new OfflinePresence(null);
+
     private RoutingTable routingTable;
     private SessionManager sessionManager;
     private UserManager userManager;
@@ -84,7 +92,7 @@ public class PresenceManagerImpl extends BasicModule implements PresenceManager,
     private InternalComponentManager componentManager;
 
     private Cache<String, Long> lastActivityCache;
-    private Cache<String, String> offlinePresenceCache;
+    private Cache<String, OfflinePresence> offlinePresenceCache;
 
     public PresenceManagerImpl() {
         super("Presence manager");
@@ -136,29 +144,8 @@ public class PresenceManagerImpl extends BasicModule implements PresenceManager,
 
     @Override
     public String getLastPresenceStatus(User user) {
-        String username = user.getUsername();
-        String presenceStatus = null;
-        String presenceXML = offlinePresenceCache.get(username);
-        if (presenceXML == null) {
-            loadOfflinePresence(username);
-        }
-        presenceXML = offlinePresenceCache.get(username);
-        if (presenceXML != null) {
-            // If the cached answer is no data, return null.
-            if (presenceXML.equals(NULL_STRING)) {
-                return null;
-            }
-            // Otherwise, parse out the status from the XML.
-            try {
-                // Parse the element
-                Document element = DocumentHelper.parseText(presenceXML);
-                presenceStatus = element.getRootElement().elementTextTrim("status");
-            }
-            catch (DocumentException e) {
-                Log.error(LocaleUtils.getLocalizedString("admin.error"), e);
-            }
-        }
-        return presenceStatus;
+        OfflinePresence offlinePresence = getOfflinePresence(user.getUsername());
+        return offlinePresence == null ? null : offlinePresence.getStatus();
     }
 
     @Override
@@ -256,13 +243,8 @@ public class PresenceManagerImpl extends BasicModule implements PresenceManager,
             // Keep track of the time when the user went offline
             java.util.Date offlinePresenceDate = new java.util.Date();
 
-            boolean addedToCache;
-            if (offlinePresence == null) {
-                addedToCache = !NULL_STRING.equals(offlinePresenceCache.put(username, NULL_STRING));
-            }
-            else {
-                addedToCache = !offlinePresence.equals(offlinePresenceCache.put(username, offlinePresence));
-            }
+            OfflinePresence cached = offlinePresence == null ? NO_OFFLINE_PRESENCE : new OfflinePresence(offlinePresence);
+            boolean addedToCache = !cached.equals(offlinePresenceCache.put(username, cached));
             if (!addedToCache) {
                 return;
             }
@@ -347,15 +329,7 @@ public class PresenceManagerImpl extends BasicModule implements PresenceManager,
         try {
             if (server.isLocal(probee)) {
                 // Local probers should receive presences of probee in all connected resources
-                Collection<JID> proberFullJIDs = new ArrayList<>();
-                if (prober.getResource() == null && server.isLocal(prober)) {
-                    for (ClientSession session : sessionManager.getSessions(prober.getNode())) {
-                        proberFullJIDs.add(session.getAddress());
-                    }
-                }
-                else {
-                    proberFullJIDs.add(prober);
-                }
+                Collection<JID> proberFullJIDs = getProberFullJIDs(prober);
                 // If the probee is a local user then don't send a probe to the contact's server.
                 // But instead just send the contact's presence to the prober
                 Collection<ClientSession> sessions = sessionManager.getSessions(probee.getNode());
@@ -363,99 +337,167 @@ public class PresenceManagerImpl extends BasicModule implements PresenceManager,
                     // If the probee is not online then try to retrieve his last unavailable
                     // presence which may contain particular information and send it to the
                     // prober
-                    String presenceXML = offlinePresenceCache.get(probee.getNode());
-                    if (presenceXML == null) {
-                        loadOfflinePresence(probee.getNode());
-                    }
-                    presenceXML = offlinePresenceCache.get(probee.getNode());
-                    if (presenceXML != null && !NULL_STRING.equals(presenceXML)) {
-                        try {
-                            // Parse the element
-                            Document element = DocumentHelper.parseText(presenceXML);
-                            // Create the presence from the parsed element
-                            Presence presencePacket = new Presence(element.getRootElement());
-                            presencePacket.setFrom(probee.toBareJID());
-                            // Check if default privacy list of the probee blocks the
-                            // outgoing presence
-                            PrivacyList list = PrivacyListManager.getInstance()
-                                    .getDefaultPrivacyList(probee.getNode());
-                            // Send presence to all prober's resources
-                            for (JID receipient : proberFullJIDs) {
-                                presencePacket.setTo(receipient);
-                                if (list == null || !list.shouldBlockPacket(presencePacket)) {
-                                    // Send the presence to the prober
-                                    deliverer.deliver(presencePacket);
-                                }
-                            }
-                        }
-                        catch (Exception e) {
-                            Log.error(LocaleUtils.getLocalizedString("admin.error"), e);
-                        }
-                    }
+                    deliverOfflinePresence(probee, getOfflinePresence(probee.getNode()), proberFullJIDs);
                 }
                 else {
-                    // The contact is online so send to the prober all the resources where the
-                    // probee is connected
-                    for (ClientSession session : sessions) {
-                        // Create presence to send from probee to prober
-                        Presence presencePacket = session.getPresence().createCopy();
-                        presencePacket.setFrom(session.getAddress());
-                        // Check if a privacy list of the probee blocks the outgoing presence
-                        PrivacyList list = session.getActiveList();
-                        list = list == null ? session.getDefaultList() : list;
-                        // Send presence to all prober's resources
-                        for (JID receipient : proberFullJIDs) {
-                            presencePacket.setTo(receipient);
-                            if (list != null) {
-                                if (list.shouldBlockPacket(presencePacket)) {
-                                    // Default list blocked outgoing presence so skip this session
-                                    continue;
-                                }
-                            }
-                            try {
-                                deliverer.deliver(presencePacket);
-                            }
-                            catch (Exception e) {
-                                Log.error(LocaleUtils.getLocalizedString("admin.error"), e);
-                            }
-                        }
-                    }
+                    deliverSessionPresences(sessions, proberFullJIDs);
                 }
             }
             else {
-                if (routingTable.hasComponentRoute(probee)) {
-                    // If the probee belongs to a component then ask the component to process the
-                    // probe presence
-                    Presence presence = new Presence();
-                    presence.setType(Presence.Type.probe);
-                    presence.setFrom(prober);
-                    presence.setTo(probee);
-                    routingTable.routePacket(probee, presence, true);
+                probeNonLocalPresence(prober, probee);
+            }
+        }
+        catch (Exception e) {
+            Log.error(LocaleUtils.getLocalizedString("admin.error"), e);
+        }
+    }
+
+    @Override
+    public void probePresence(JID prober, Collection<JID> probees) {
+        // Local probers should receive presences of probees in all connected resources
+        final Collection<JID> proberFullJIDs = getProberFullJIDs(prober);
+
+        // Find the sessions of all local probees first, so that the last unavailable presences
+        // of the probees that are not online can be loaded at once.
+        final Map<JID, Collection<ClientSession>> localProbees = new LinkedHashMap<>();
+        final Set<String> offlineUsernames = new HashSet<>();
+        for (JID probee : probees) {
+            try {
+                if (server.isLocal(probee)) {
+                    Collection<ClientSession> sessions = sessionManager.getSessions(probee.getNode());
+                    localProbees.put(probee, sessions);
+                    if (sessions.isEmpty() && probee.getNode() != null) {
+                        offlineUsernames.add(probee.getNode());
+                    }
                 }
                 else {
-                    // Check if the probee may be hosted by this server
-                    /*String serverDomain = server.getServerInfo().getName();
-                    if (!probee.getDomain().contains(serverDomain)) {*/
-                    if (server.isRemote(probee)) {
-                        // Send the probe presence to the remote server
-                        Presence probePresence = new Presence();
-                        probePresence.setType(Presence.Type.probe);
-                        probePresence.setFrom(prober);
-                        probePresence.setTo(probee.toBareJID());
-                        // Send the probe presence
-                        deliverer.deliver(probePresence);
-                    }
-                    else {
-                        // The probee may be related to a component that has not yet been connected so
-                        // we will keep a registry of this presence probe. The component will answer
-                        // this presence probe when he becomes online
-                        componentManager.addPresenceRequest(prober, probee);
+                    probeNonLocalPresence(prober, probee);
+                }
+            }
+            catch (Exception e) {
+                Log.error(LocaleUtils.getLocalizedString("admin.error"), e);
+            }
+        }
+
+        final Map<String, OfflinePresence> offlinePresences = getOfflinePresences(offlineUsernames);
+        for (Map.Entry<JID, Collection<ClientSession>> entry : localProbees.entrySet()) {
+            final JID probee = entry.getKey();
+            try {
+                if (entry.getValue().isEmpty()) {
+                    deliverOfflinePresence(probee, offlinePresences.get(probee.getNode()), proberFullJIDs);
+                }
+                else {
+                    deliverSessionPresences(entry.getValue(), proberFullJIDs);
+                }
+            }
+            catch (Exception e) {
+                Log.error(LocaleUtils.getLocalizedString("admin.error"), e);
+            }
+        }
+    }
+
+    /**
+     * Returns the addresses to which the presence of a probee is to be sent: all connected resources
+     * of a local prober that probes using its bare JID, or the prober itself.
+     */
+    private Collection<JID> getProberFullJIDs(JID prober) {
+        Collection<JID> proberFullJIDs = new ArrayList<>();
+        if (prober.getResource() == null && server.isLocal(prober)) {
+            for (ClientSession session : sessionManager.getSessions(prober.getNode())) {
+                proberFullJIDs.add(session.getAddress());
+            }
+        }
+        else {
+            proberFullJIDs.add(prober);
+        }
+        return proberFullJIDs;
+    }
+
+    /**
+     * Sends the last unavailable presence of a local probee that is not online to the prober.
+     */
+    private void deliverOfflinePresence(JID probee, OfflinePresence offlinePresence, Collection<JID> proberFullJIDs) throws UnauthorizedException {
+        Presence presencePacket = offlinePresence == null ? null : offlinePresence.getPresence();
+        if (presencePacket == null) {
+            return;
+        }
+        presencePacket.setFrom(probee.toBareJID());
+        // Check if default privacy list of the probee blocks the
+        // outgoing presence
+        PrivacyList list = PrivacyListManager.getInstance()
+                .getDefaultPrivacyList(probee.getNode());
+        // Send presence to all prober's resources
+        for (JID receipient : proberFullJIDs) {
+            presencePacket.setTo(receipient);
+            if (list == null || !list.shouldBlockPacket(presencePacket)) {
+                // Send the presence to the prober
+                deliverer.deliver(presencePacket);
+            }
+        }
+    }
+
+    /**
+     * Sends the presences of all resources where a local probee is connected to the prober.
+     */
+    private void deliverSessionPresences(Collection<ClientSession> sessions, Collection<JID> proberFullJIDs) {
+        for (ClientSession session : sessions) {
+            // Create presence to send from probee to prober
+            Presence presencePacket = session.getPresence().createCopy();
+            presencePacket.setFrom(session.getAddress());
+            // Check if a privacy list of the probee blocks the outgoing presence
+            PrivacyList list = session.getActiveList();
+            list = list == null ? session.getDefaultList() : list;
+            // Send presence to all prober's resources
+            for (JID receipient : proberFullJIDs) {
+                presencePacket.setTo(receipient);
+                if (list != null) {
+                    if (list.shouldBlockPacket(presencePacket)) {
+                        // Default list blocked outgoing presence so skip this session
+                        continue;
                     }
                 }
+                try {
+                    deliverer.deliver(presencePacket);
+                }
+                catch (Exception e) {
+                    Log.error(LocaleUtils.getLocalizedString("admin.error"), e);
+                }
             }
         }
-        catch (Exception e) {
-            Log.error(LocaleUtils.getLocalizedString("admin.error"), e);
+    }
+
+    /**
+     * Probes the presence of a probee that is not a local user.
+     */
+    private void probeNonLocalPresence(JID prober, JID probee) throws UnauthorizedException {
+        if (routingTable.hasComponentRoute(probee)) {
+            // If the probee belongs to a component then ask the component to process the
+            // probe presence
+            Presence presence = new Presence();
+            presence.setType(Presence.Type.probe);
+            presence.setFrom(prober);
+            presence.setTo(probee);
+            routingTable.routePacket(probee, presence, true);
+        }
+        else {
+            // Check if the probee may be hosted by this server
+            /*String serverDomain = server.getServerInfo().getName();
+            if (!probee.getDomain().contains(serverDomain)) {*/
+            if (server.isRemote(probee)) {
+                // Send the probe presence to the remote server
+                Presence probePresence = new Presence();
+                probePresence.setType(Presence.Type.probe);
+                probePresence.setFrom(prober);
+                probePresence.setTo(probee.toBareJID());
+                // Send the probe presence
+                deliverer.deliver(probePresence);
+            }
+            else {
+                // The probee may be related to a component that has not yet been connected so
+                // we will keep a registry of this presence probe. The component will answer
+                // this presence probe when he becomes online
+                componentManager.addPresenceRequest(prober, probee);
+            }
         }
     }
 
@@ -551,6 +593,46 @@ public class PresenceManagerImpl extends BasicModule implements PresenceManager,
         UserEventDispatcher.removeListener(this);
     }
 
+    /**
+     * Returns the last unavailable presence of a user, loading it into cache if needed.
+     *
+     * @param username the username.
+     * @return the offline presence, or null if it could not be loaded.
+     */
+    private OfflinePresence getOfflinePresence(String username) {
+        OfflinePresence offlinePresence = offlinePresenceCache.get(username);
+        if (offlinePresence == null) {
+            loadOfflinePresence(username);
+            offlinePresence = offlinePresenceCache.get(username);
+        }
+        return offlinePresence;
+    }
+
+    /**
+     * Returns the last unavailable presences of users. Presences that are not cached are loaded
+     * into cache using as few queries as possible.
+     *
+     * @param usernames the usernames.
+     * @return the offline presences, by username (users for which no data could be loaded are absent).
+     */
+    private Map<String, OfflinePresence> getOfflinePresences(Collection<String> usernames) {
+        final Map<String, OfflinePresence> result = new HashMap<>();
+        final List<String> missing = new ArrayList<>();
+        for (String username : usernames) {
+            OfflinePresence offlinePresence = offlinePresenceCache.get(username);
+            if (offlinePresence == null) {
+                missing.add(username);
+            }
+            else {
+                result.put(username, offlinePresence);
+            }
+        }
+        if (!missing.isEmpty()) {
+            result.putAll(loadOfflinePresences(missing));
+        }
+        return result;
+    }
+
     /**
      * Loads offline presence data for the user into cache.
      *
@@ -570,15 +652,12 @@ public class PresenceManagerImpl extends BasicModule implements PresenceManager,
                 rs = pstmt.executeQuery();
                 if (rs.next()) {
                     String offlinePresence = DbConnectionManager.getLargeTextField(rs, 1);
-                    if (rs.wasNull()) {
-                        offlinePresence = NULL_STRING;
-                    }
                     long offlineDate = Long.parseLong(rs.getString(2).trim());
-                    offlinePresenceCache.put(username, offlinePresence);
+                    offlinePresenceCache.put(username, offlinePresence == null ? NO_OFFLINE_PRESENCE : new OfflinePresence(offlinePresence));
                     lastActivityCache.put(username, offlineDate);
                 }
                 else {
-                    offlinePresenceCache.put(username, NULL_STRING);
+                    offlinePresenceCache.put(username, NO_OFFLINE_PRESENCE);
                     lastActivityCache.put(username, NULL_LONG);
                 }
             }
@@ -592,6 +671,83 @@ public class PresenceManagerImpl extends BasicModule implements PresenceManager,
         }
     }
 
+    /**
+     * Loads offline presence data for users into cache, querying the data of up to
+     * {@link #OFFLINE_PRESENCE_BATCH_SIZE} users at once. The database is queried without holding
+     * any lock. The loaded data of a user is then cached while holding the lock of the cache entry
+     * of that user, unless the data of the user was cached in the meantime.
+     *
+     * @param usernames the usernames.
+     * @return the loaded offline presences, by username.
+     */
+    private Map<String, OfflinePresence> loadOfflinePresences(List<String> usernames) {
+        final Map<String, OfflinePresence> result = new HashMap<>();
+        final Map<String, Long> offlineDates = new HashMap<>();
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            con = DbConnectionManager.getConnection();
+            for (int i = 0; i < usernames.size(); i += OFFLINE_PRESENCE_BATCH_SIZE) {
+                final List<String> batch = usernames.subList(i, Math.min(i + OFFLINE_PRESENCE_BATCH_SIZE, usernames.size()));
+                final StringBuilder sql = new StringBuilder(LOAD_OFFLINE_PRESENCES).append('(');
+                for (int j = 0; j < batch.size(); j++) {
+                    sql.append(j == 0 ? "?" : ",?");
+                }
+                sql.append(')');
+                pstmt = con.prepareStatement(sql.toString());
+                for (int j = 0; j < batch.size(); j++) {
+                    pstmt.setString(j + 1, batch.get(j));
+                }
+                rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    String username = rs.getString(1);
+                    String offlinePresence = DbConnectionManager.getLargeTextField(rs, 2);
+                    long offlineDate = Long.parseLong(rs.getString(3).trim());
+                    result.put(username, offlinePresence == null ? NO_OFFLINE_PRESENCE : new OfflinePresence(offlinePresence));
+                    offlineDates.put(username, offlineDate);
+                }
+                DbConnectionManager.fastcloseStmt(rs, pstmt);
+                rs = null;
+                pstmt = null;
+
+                for (String username : batch) {
+                    if (!result.containsKey(username)) {
+                        result.put(username, NO_OFFLINE_PRESENCE);
+                        offlineDates.put(username, NULL_LONG);
+                    }
+                }
+            }
+        }
+        catch (SQLException sqle) {
+            Log.error(sqle.getMessage(), sqle);
+        }
+        finally {
+            DbConnectionManager.closeConnection(rs, pstmt, con);
+        }
+
+        // Do not overwrite data that was cached while the database was being queried, as that
+        // data may be more recent
+        for (Map.Entry<String, OfflinePresence> entry : result.entrySet()) {
+            final String username = entry.getKey();
+            Lock lock = CacheFactory.getLock(username, offlinePresenceCache);
+            try {
+                lock.lock();
+                if (!offlinePresenceCache.containsKey(username) || !lastActivityCache.containsKey(username)) {
+                    offlinePresenceCache.put(username, entry.getValue());
+                    lastActivityCache.put(username, offlineDates.get(username));
+                }
+                else {
+                    entry.setValue(offlinePresenceCache.get(username));
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+        return result;
+    }
+
     @Override
     public void serverStarted() {
     }
@@ -31,6 +31,7 @@ import org.jivesoftware.openfire.handler.PresenceUpdateHandler;
 import org.jivesoftware.openfire.server.OutgoingSessionPromise;
 import org.jivesoftware.openfire.server.RemoteServerManager;
 import org.jivesoftware.openfire.session.*;
+import org.jivesoftware.util.InternedJID;
 import org.jivesoftware.util.JiveGlobals;
 import org.jivesoftware.util.cache.Cache;
 import org.jivesoftware.util.cache.CacheFactory;
@@ -155,6 +156,7 @@ public class RoutingTableImpl extends BasicModule implements RoutingTable, Clust
         boolean available = destination.getPresence().isAvailable();
         Log.debug("Adding client route {}", route);
         localRoutingTable.addRoute(new DomainPair("", route.toString()), destination);
+        localRoutingTable.addUserRoute(route, destination, available);
         if (destination.getAuthToken().isAnonymous()) {
             Lock lockAn = CacheFactory.getLock(route.toString(), anonymousUsersCache);
             try {
@@ -548,10 +550,19 @@ public class RoutingTableImpl extends BasicModule implements RoutingTable, Clust
     private boolean routeToBareJID(JID recipientJID, Message packet, boolean isPrivate) {
         List<ClientSession> sessions = new ArrayList<>();
         // Get existing AVAILABLE sessions of this user or AVAILABLE to the sender of the packet
-        for (JID address : getRoutes(recipientJID, packet.getFrom())) {
-            ClientSession session = getClientRoute(address);
-            if (session != null && session.isInitialized()) {
-                sessions.add(session);
+        if (!ClusterManager.isClusteringStarted()) {
+            for (LocalRoutingTable.UserRoute route : getLocalUserRoutes(recipientJID.toBareJID(), packet.getFrom())) {
+                if (route.getSession().isInitialized()) {
+                    sessions.add(route.getSession());
+                }
+            }
+        }
+        else {
+            for (JID address : getRoutes(recipientJID, packet.getFrom())) {
+                ClientSession session = getClientRoute(address);
+                if (session != null && session.isInitialized()) {
+                    sessions.add(session);
+                }
             }
         }
 
@@ -761,14 +772,14 @@ public class RoutingTableImpl extends BasicModule implements RoutingTable, Clust
                 for (Map.Entry<String, ClientRoute> entry : usersCache.entrySet()) {
                     ClientRoute route = entry.getValue();
                     if (!server.getNodeID().equals(route.getNodeID())) {
-                        sessions.add(locator.getClientSession(route.getNodeID().toByteArray(), new JID(entry.getKey())));
+                        sessions.add(locator.getClientSession(route.getNodeID().toByteArray(), InternedJID.of(entry.getKey())));
                     }
                 }
                 // Add sessions of anonymous users hosted by other cluster nodes
                 for (Map.Entry<String, ClientRoute> entry : anonymousUsersCache.entrySet()) {
                     ClientRoute route = entry.getValue();
                     if (!server.getNodeID().equals(route.getNodeID())) {
-                        sessions.add(locator.getClientSession(route.getNodeID().toByteArray(), new JID(entry.getKey())));
+                        sessions.add(locator.getClientSession(route.getNodeID().toByteArray(), InternedJID.of(entry.getKey())));
                     }
                 }
             }
@@ -848,7 +859,22 @@ public class RoutingTableImpl extends BasicModule implements RoutingTable, Clust
         List<JID> jids = new ArrayList<>();
         if (serverName.equals(route.getDomain())) {
             // Address belongs to local user
-            if (route.getResource() != null) {
+            if (!ClusterManager.isClusteringStarted()) {
+                // All sessions are hosted by this JVM, so the local index is complete.
+                if (route.getResource() != null) {
+                    LocalRoutingTable.UserRoute userRoute = localRoutingTable.getUserRoute(route);
+                    if (userRoute != null &&
+                            (userRoute.isAvailable() || presenceUpdateHandler.hasDirectPresence(route, requester))) {
+                        jids.add(route);
+                    }
+                }
+                else {
+                    for (LocalRoutingTable.UserRoute userRoute : getLocalUserRoutes(route.toBareJID(), requester)) {
+                        jids.add(userRoute.getAddress());
+                    }
+                }
+            }
+            else if (route.getResource() != null) {
                 // Address is a full JID of a user
                 ClientRoute clientRoute = usersCache.get(route.toString());
                 if (clientRoute == null) {
@@ -873,8 +899,8 @@ public class RoutingTableImpl extends BasicModule implements RoutingTable, Clust
                                 clientRoute = anonymousUsersCache.get(jid);
                             }
                             if (clientRoute != null && (clientRoute.isAvailable() ||
-                                    presenceUpdateHandler.hasDirectPresence(new JID(jid), requester))) {
-                                jids.add(new JID(jid));
+                                    presenceUpdateHandler.hasDirectPresence(InternedJID.of(jid), requester))) {
+                                jids.add(InternedJID.of(jid));
                             }
                         }
                     }
@@ -887,7 +913,7 @@ public class RoutingTableImpl extends BasicModule implements RoutingTable, Clust
         else if (route.getDomain().contains(serverName)) {
             // Packet sent to component hosted in this server
             if (componentsCache.containsKey(route.getDomain())) {
-                jids.add(new JID(route.getDomain()));
+                jids.add(InternedJID.of(route.getDomain()));
             }
         }
         else {
@@ -947,9 +973,29 @@ public class RoutingTableImpl extends BasicModule implements RoutingTable, Clust
         }
         Log.debug("Removing client route {}", route);
         localRoutingTable.removeRoute(new DomainPair("", route.toString()));
+        localRoutingTable.removeUserRoute(route);
         return clientRoute != null;
     }
 
+    /**
+     * Returns the routes to the sessions of a user that are hosted by this JVM, and that are
+     * available or to which the requester has sent directed presence.
+     *
+     * @param bareJID the bare JID of the user.
+     * @param requester the address of the entity on whose behalf routes are requested (can be null).
+     * @return the routes (possibly empty, never null).
+     */
+    private List<LocalRoutingTable.UserRoute> getLocalUserRoutes(String bareJID, JID requester) {
+        final LocalRoutingTable.UserRoute[] routes = localRoutingTable.getUserRoutes(bareJID);
+        final List<LocalRoutingTable.UserRoute> result = new ArrayList<>(routes.length);
+        for (LocalRoutingTable.UserRoute route : routes) {
+            if (route.isAvailable() || presenceUpdateHandler.hasDirectPresence(route.getAddress(), requester)) {
+                result.add(route);
+            }
+        }
+        return result;
+    }
+
     @Override
     public boolean removeServerRoute(DomainPair route) {
         boolean removed;
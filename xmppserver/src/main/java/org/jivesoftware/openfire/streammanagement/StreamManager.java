@@ -6,6 +6,8 @@ import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
 import org.dom4j.QName;
 import org.dom4j.dom.DOMElement;
@@ -20,6 +22,7 @@ import org.jivesoftware.openfire.session.LocalSession;
 import org.jivesoftware.openfire.session.Session;
 import org.jivesoftware.util.JiveGlobals;
 import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.SystemProperty;
 import org.jivesoftware.util.XMPPDateTimeFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,17 +38,78 @@ public class StreamManager {
 
     private final Logger Log;
     private boolean resume = false;
+
+    /**
+     * The maximum number of bytes of unacknowledged stanzas that are kept for a session. When more
+     * data goes unacknowledged, stream management is disabled for the session.
+     */
+    public static final SystemProperty<Integer> MAX_UNACKED_BYTES = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("stream.management.max-unacked-bytes")
+        .setDefaultValue(1024 * 1024)
+        .setMinValue(1)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The total number of bytes of unacknowledged stanzas that are kept for all sessions.
+     */
+    private static final AtomicLong totalUnacknowledgedBytes = new AtomicLong( 0 );
+
+    /**
+     * A stanza that is sent to the client, but that has not been acknowledged yet. The stanza is
+     * stored as its UTF-8 encoded XML representation, which takes a fraction of the memory of the
+     * (copied) element tree of the stanza. It is parsed again only when it needs to be redelivered.
+     */
     public static class UnackedPacket {
         public final long x;
-        public final Date timestamp = new Date();
-        public final Packet packet;
-        
+        public final long timestamp = System.currentTimeMillis();
+        private final byte[] data;
+
         public UnackedPacket(long x, Packet p) {
             this.x = x;
-            packet = p;
+            data = p.toXML().getBytes( StandardCharsets.UTF_8 );
+        }
+
+        /**
+         * Returns the size of the stored stanza.
+         *
+         * @return the number of bytes of the UTF-8 encoded XML representation of the stanza.
+         */
+        public int getSize() {
+            return data.length;
+        }
+
+        /**
+         * Parses the stored stanza. Every invocation returns a new instance.
+         *
+         * @return the stanza.
+         * @throws DocumentException if the stored stanza could not be parsed.
+         */
+        public Packet getPacket() throws DocumentException {
+            final Element element = DocumentHelper.parseText( new String( data, StandardCharsets.UTF_8 ) ).getRootElement();
+            switch ( element.getName() ) {
+                case "message":
+                    return new Message( element, true );
+                case "presence":
+                    return new Presence( element, true );
+                case "iq":
+                    return new IQ( element, true );
+                default:
+                    throw new DocumentException( "Unexpected stanza: " + element.getName() );
+            }
         }
     }
-    
+
+    /**
+     * Returns the number of bytes of unacknowledged stanzas that are kept for all sessions of this
+     * cluster node, to be able to redeliver them.
+     *
+     * @return the size of all resend buffers, in bytes.
+     */
+    public static long getTotalUnacknowledgedBytes() {
+        return totalUnacknowledgedBytes.get();
+    }
+
     public static boolean isStreamManagementActive() {
         return JiveGlobals.getBooleanProperty("stream.management.active", true);
     }
@@ -86,7 +150,12 @@ public class StreamManager {
     /**
      * Collection of stanzas/packets sent to client that haven't been acknowledged.
      */
-    private Deque<UnackedPacket> unacknowledgedServerStanzas = new LinkedList<>();
+    private final Deque<UnackedPacket> unacknowledgedServerStanzas = new ArrayDeque<>();
+
+    /**
+     * The number of bytes of the stanzas in {@link #unacknowledgedServerStanzas}.
+     */
+    private long unacknowledgedBytes = 0;
 
     public StreamManager(LocalSession session) {
         String address;
@@ -393,7 +462,7 @@ public class StreamManager {
             // Pop all acknowledged stanzas.
             while( !unacknowledgedServerStanzas.isEmpty() && unacknowledgedServerStanzas.getFirst().x <= h )
             {
-                unacknowledgedServerStanzas.removeFirst();
+                removeUnacknowledged( unacknowledgedServerStanzas.removeFirst() );
             }
 
             // Ensure that unacknowledged stanzas are purged after the client rolled over 'h' which occurs at h= (2^32)-1
@@ -404,7 +473,7 @@ public class StreamManager {
                 Log.info( "Client rolled over 'h'. Purging high-numbered unacknowledged stanzas." );
                 while ( !unacknowledgedServerStanzas.isEmpty() && unacknowledgedServerStanzas.getLast().x > MASK - maxUnacked)
                 {
-                    unacknowledgedServerStanzas.removeLast();
+                    removeUnacknowledged( unacknowledgedServerStanzas.removeLast() );
                 }
             }
 
@@ -450,18 +519,21 @@ public class StreamManager {
             {
                 // The next ID is one higher than the last stanza that was sent (which might be unacknowledged!)
                 final long x = 1 + ( unacknowledgedServerStanzas.isEmpty() ? clientProcessedStanzas.get() : unacknowledgedServerStanzas.getLast().x );
-                unacknowledgedServerStanzas.addLast( new StreamManager.UnackedPacket( x, packet.createCopy() ) );
+                final UnackedPacket unacked = new StreamManager.UnackedPacket( x, packet );
+                unacknowledgedServerStanzas.addLast( unacked );
+                unacknowledgedBytes += unacked.getSize();
+                totalUnacknowledgedBytes.addAndGet( unacked.getSize() );
 
                 size = unacknowledgedServerStanzas.size();
 
-                Log.trace( "Added stanza of type '{}' to collection of unacknowledged stanzas (x={}). Collection size is now {}.", packet.getElement().getName(), x, size );
+                Log.trace( "Added stanza of type '{}' to collection of unacknowledged stanzas (x={}). Collection size is now {} ({} bytes).", packet.getElement().getName(), x, size, unacknowledgedBytes );
 
                 // Prevent keeping to many stanzas in memory.
-                if ( size > getMaximumUnacknowledgedStanzas() )
+                if ( unacknowledgedBytes > MAX_UNACKED_BYTES.getValue() || size > getMaximumUnacknowledgedStanzas() )
                 {
-                    Log.warn( "To many stanzas go unacknowledged for this connection. Clearing queue and disabling functionality." );
+                    Log.warn( "To many stanzas ({} stanzas, {} bytes) go unacknowledged for this connection. Clearing queue and disabling functionality.", size, unacknowledgedBytes );
                     namespace = null;
-                    unacknowledgedServerStanzas.clear();
+                    clearUnacknowledged();
                     return;
                 }
             }
@@ -481,17 +553,26 @@ public class StreamManager {
             if(isEnabled()) {
                 namespace = null; // disable stream management.
                 for (StreamManager.UnackedPacket unacked : unacknowledgedServerStanzas) {
-                    if (unacked.packet instanceof Message) {
-                        Message m = (Message) unacked.packet;
+                    final Packet packet;
+                    try {
+                        packet = unacked.getPacket();
+                    } catch (DocumentException e) {
+                        Log.warn("Unable to parse unacknowledged stanza; not redelivering it.", e);
+                        continue;
+                    }
+                    if (packet instanceof Message) {
+                        Message m = (Message) packet;
                         if (m.getExtension("delay", "urn:xmpp:delay") == null) {
                             Element delayInformation = m.addChildElement("delay", "urn:xmpp:delay");
-                            delayInformation.addAttribute("stamp", XMPPDateTimeFormat.format(unacked.timestamp));
+                            delayInformation.addAttribute("stamp", XMPPDateTimeFormat.format(new Date(unacked.timestamp)));
                             delayInformation.addAttribute("from", serverAddress.toBareJID());
                         }
-                        router.route(unacked.packet);
+                        router.route(m);
                     }
                 }
             }
+            // The session is gone, so there's no more need to keep its stanzas.
+            clearUnacknowledged();
         }
 
     }
@@ -510,27 +591,30 @@ public class StreamManager {
             if(isEnabled()) {
                 for (StreamManager.UnackedPacket unacked : unacknowledgedServerStanzas) {
                     try {
-                        if (unacked.packet instanceof Message) {
-                            Message m = (Message) unacked.packet;
+                        final Packet packet = unacked.getPacket();
+                        if (packet instanceof Message) {
+                            Message m = (Message) packet;
                             if (m.getExtension("delay", "urn:xmpp:delay") == null) {
                                 Element delayInformation = m.addChildElement("delay", "urn:xmpp:delay");
-                                delayInformation.addAttribute("stamp", XMPPDateTimeFormat.format(unacked.timestamp));
+                                delayInformation.addAttribute("stamp", XMPPDateTimeFormat.format(new Date(unacked.timestamp)));
                                 delayInformation.addAttribute("from", serverAddress.toBareJID());
                             }
                             session.getConnection().deliver(m);
-                        } else if (unacked.packet instanceof Presence) {
-                            Presence p = (Presence) unacked.packet;
+                        } else if (packet instanceof Presence) {
+                            Presence p = (Presence) packet;
                             if (p.getExtension("delay", "urn:xmpp:delay") == null) {
                                 Element delayInformation = p.addChildElement("delay", "urn:xmpp:delay");
-                                delayInformation.addAttribute("stamp", XMPPDateTimeFormat.format(unacked.timestamp));
+                                delayInformation.addAttribute("stamp", XMPPDateTimeFormat.format(new Date(unacked.timestamp)));
                                 delayInformation.addAttribute("from", serverAddress.toBareJID());
                             }
                             session.getConnection().deliver(p);
                         } else {
-                            session.getConnection().deliver(unacked.packet);
+                            session.getConnection().deliver(packet);
                         }
                     } catch (UnauthorizedException e) {
                         Log.warn("Caught unauthorized exception, which seems worrying: ", e);
+                    } catch (DocumentException e) {
+                        Log.warn("Unable to parse unacknowledged stanza; not redelivering it.", e);
                     }
                 }
 
@@ -558,6 +642,25 @@ public class StreamManager {
         }
     }
 
+    /**
+     * Updates the byte counts after a stanza was removed from {@link #unacknowledgedServerStanzas}.
+     *
+     * @param unacked The stanza that was removed.
+     */
+    private synchronized void removeUnacknowledged(UnackedPacket unacked) {
+        unacknowledgedBytes -= unacked.getSize();
+        totalUnacknowledgedBytes.addAndGet( -unacked.getSize() );
+    }
+
+    /**
+     * Removes all stanzas from {@link #unacknowledgedServerStanzas}.
+     */
+    private synchronized void clearUnacknowledged() {
+        unacknowledgedServerStanzas.clear();
+        totalUnacknowledgedBytes.addAndGet( -unacknowledgedBytes );
+        unacknowledgedBytes = 0;
+    }
+
     /**
      * The maximum amount of stanzas we keep, waiting for ack.
      * @return The maximum number of stanzas.
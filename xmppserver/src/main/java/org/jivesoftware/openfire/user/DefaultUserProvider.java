@@ -21,14 +21,18 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.function.Function;
 
 import org.jivesoftware.database.DbConnectionManager;
 import org.jivesoftware.openfire.XMPPServer;
@@ -61,6 +65,16 @@ public class DefaultUserProvider implements UserProvider {
             "SELECT count(*) FROM ofUser";
     private static final String ALL_USERS =
             "SELECT username FROM ofUser ORDER BY username";
+    private static final String ALL_USER_RECORDS =
+            "SELECT username, salt, serverKey, storedKey, iterations, name, email, creationDate, modificationDate " +
+            "FROM ofUser ORDER BY username";
+    private static final String USER_RECORDS_AFTER =
+            "SELECT username, salt, serverKey, storedKey, iterations, name, email, creationDate, modificationDate " +
+            "FROM ofUser WHERE username>? ORDER BY username";
+    private static final String USERNAMES_AFTER =
+            "SELECT username FROM ofUser WHERE username>? ORDER BY username";
+    private static final String ALL_SEARCH_FIELDS =
+            "SELECT username, name, email FROM ofUser";
     private static final String INSERT_USER =
             "INSERT INTO ofUser (username,name,email,creationDate,modificationDate) " +
             "VALUES (?,?,?,?,?)";
@@ -99,21 +113,7 @@ public class DefaultUserProvider implements UserProvider {
             if (!rs.next()) {
                 throw new UserNotFoundException();
             }
-            String salt = rs.getString(1);
-            String serverKey = rs.getString(2);
-            String storedKey = rs.getString(3);
-            int iterations = rs.getInt(4);
-            String name = rs.getString(5);
-            String email = rs.getString(6);
-            Date creationDate = new Date(Long.parseLong(rs.getString(7).trim()));
-            Date modificationDate = new Date(Long.parseLong(rs.getString(8).trim()));
-
-            User user = new User(username, name, email, creationDate, modificationDate);
-            user.setSalt(salt);
-            user.setServerKey(serverKey);
-            user.setStoredKey(storedKey);
-            user.setIterations(iterations);
-            return user;
+            return readUser(username, rs, 1);
         }
         catch (Exception e) {
             throw new UserNotFoundException(e);
@@ -229,10 +229,122 @@ public class DefaultUserProvider implements UserProvider {
         return count;
     }
 
+    /**
+     * Creates a user from the columns of a result set row, as selected by {@link #LOAD_USER}.
+     *
+     * @param username the username of the user.
+     * @param rs a result set, positioned at the row of the user.
+     * @param firstColumn the index of the column that holds the salt.
+     * @return the user.
+     * @throws SQLException if the result set could not be read.
+     */
+    private static User readUser(String username, ResultSet rs, int firstColumn) throws SQLException {
+        String salt = rs.getString(firstColumn);
+        String serverKey = rs.getString(firstColumn + 1);
+        String storedKey = rs.getString(firstColumn + 2);
+        int iterations = rs.getInt(firstColumn + 3);
+        String name = rs.getString(firstColumn + 4);
+        String email = rs.getString(firstColumn + 5);
+        Date creationDate = new Date(Long.parseLong(rs.getString(firstColumn + 6).trim()));
+        Date modificationDate = new Date(Long.parseLong(rs.getString(firstColumn + 7).trim()));
+
+        User user = new User(username, name, email, creationDate, modificationDate);
+        user.setSalt(salt);
+        user.setServerKey(serverKey);
+        user.setStoredKey(storedKey);
+        user.setIterations(iterations);
+        return user;
+    }
+
+    /**
+     * Returns all users, without loading them all in memory. Users are loaded when the collection is
+     * iterated over, in batches of {@link UserManager#ITERATION_BATCH_SIZE}.
+     */
     @Override
     public Collection<User> getUsers() {
-        Collection<String> usernames = getUsernames(0, Integer.MAX_VALUE);
-        return new UserCollection(usernames.toArray(new String[usernames.size()]));
+        return new AbstractCollection<User>() {
+            @Override
+            public Iterator<User> iterator() {
+                return iterateUsers(UserManager.ITERATION_BATCH_SIZE.getValue());
+            }
+
+            @Override
+            public int size() {
+                return getUserCount();
+            }
+        };
+    }
+
+    @Override
+    public Iterator<User> iterateUsers(int batchSize) {
+        return new BatchIterator<>(after -> loadUsersAfter(after, batchSize), User::getUsername);
+    }
+
+    @Override
+    public Iterator<String> iterateUsernames(int batchSize) {
+        return new BatchIterator<>(after -> loadUsernamesAfter(after, batchSize), Function.identity());
+    }
+
+    /**
+     * Loads the users that have a username that sorts after the provided username, in a single query.
+     * When the provided username is null, the first users are loaded.
+     */
+    private List<User> loadUsersAfter(String after, int batchSize) {
+        List<User> users = new ArrayList<>(batchSize);
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            con = DbConnectionManager.getConnection();
+            pstmt = con.prepareStatement(after == null ? ALL_USER_RECORDS : USER_RECORDS_AFTER);
+            DbConnectionManager.limitRowsAndFetchSize(pstmt, 0, batchSize);
+            if (after != null) {
+                pstmt.setString(1, after);
+            }
+            rs = pstmt.executeQuery();
+            while (rs.next() && users.size() < batchSize) {
+                users.add(readUser(rs.getString(1), rs, 2));
+            }
+        }
+        catch (SQLException e) {
+            // Don't return an empty batch, as that would be mistaken for the end of the users.
+            throw new RuntimeException("Unable to load users after '" + after + "'.", e);
+        }
+        finally {
+            DbConnectionManager.closeConnection(rs, pstmt, con);
+        }
+        return users;
+    }
+
+    /**
+     * Loads the usernames that sort after the provided username, in a single query. When the
+     * provided username is null, the first usernames are loaded.
+     */
+    private List<String> loadUsernamesAfter(String after, int batchSize) {
+        List<String> usernames = new ArrayList<>(batchSize);
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            con = DbConnectionManager.getConnection();
+            pstmt = con.prepareStatement(after == null ? ALL_USERS : USERNAMES_AFTER);
+            DbConnectionManager.limitRowsAndFetchSize(pstmt, 0, batchSize);
+            if (after != null) {
+                pstmt.setString(1, after);
+            }
+            rs = pstmt.executeQuery();
+            while (rs.next() && usernames.size() < batchSize) {
+                usernames.add(rs.getString(1));
+            }
+        }
+        catch (SQLException e) {
+            // Don't return an empty batch, as that would be mistaken for the end of the usernames.
+            throw new RuntimeException("Unable to load usernames after '" + after + "'.", e);
+        }
+        finally {
+            DbConnectionManager.closeConnection(rs, pstmt, con);
+        }
+        return usernames;
     }
 
     @Override
@@ -285,8 +397,27 @@ public class DefaultUserProvider implements UserProvider {
 
     @Override
     public Collection<User> getUsers(int startIndex, int numResults) {
-        Collection<String> usernames = getUsernames(startIndex, numResults);
-        return new UserCollection(usernames.toArray(new String[usernames.size()]));
+        List<User> users = new ArrayList<>(Math.min(numResults, 500));
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            con = DbConnectionManager.getConnection();
+            pstmt = DbConnectionManager.createScrollablePreparedStatement(con, ALL_USER_RECORDS);
+            DbConnectionManager.limitRowsAndFetchSize(pstmt, startIndex, numResults);
+            rs = pstmt.executeQuery();
+            DbConnectionManager.scrollResultSet(rs, startIndex);
+            while (rs.next() && users.size() < numResults) {
+                users.add(readUser(rs.getString(1), rs, 2));
+            }
+        }
+        catch (SQLException e) {
+            Log.error(e.getMessage(), e);
+        }
+        finally {
+            DbConnectionManager.closeConnection(rs, pstmt, con);
+        }
+        return Collections.unmodifiableList(users);
     }
 
     @Override
@@ -479,6 +610,35 @@ public class DefaultUserProvider implements UserProvider {
         return new UserCollection(usernames.toArray(new String[usernames.size()]));
     }
 
+    /**
+     * Adds all users to a search index, reading them from the database in a single query.
+     *
+     * @param index the index to populate.
+     */
+    void loadSearchIndex(UserSearchIndex index) {
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            con = DbConnectionManager.getConnection();
+            pstmt = con.prepareStatement(ALL_SEARCH_FIELDS);
+            // Set the fetch size. This will prevent some JDBC drivers from trying
+            // to load the entire result set into memory.
+            DbConnectionManager.setFetchSize(pstmt, 500);
+            rs = pstmt.executeQuery();
+            while (rs.next()) {
+                index.load(rs.getString(1), rs.getString(2), rs.getString(3));
+            }
+            index.setLoaded();
+        }
+        catch (SQLException e) {
+            Log.error("Unable to load the user search index.", e);
+        }
+        finally {
+            DbConnectionManager.closeConnection(rs, pstmt, con);
+        }
+    }
+
     @Override
     public boolean isReadOnly() {
         return IS_READ_ONLY;
@@ -493,6 +653,54 @@ public class DefaultUserProvider implements UserProvider {
     public boolean isEmailRequired() {
         return false;
     }
+
+    /**
+     * Iterates over items that are loaded in batches, ordered by a key. Each batch holds the items
+     * that have a key that sorts after the key of the last item of the previous batch. No database
+     * connection is held between batches, so the iterator can be abandoned at any time. The first
+     * batch is loaded with a null key (an empty string can't be used, as some databases treat it
+     * as null). When a batch can't be loaded, an unchecked exception is thrown.
+     *
+     * @param <T> the type of the items.
+     */
+    /* Exposed for test use only */
+    static class BatchIterator<T> implements Iterator<T> {
+
+        private final Function<String, List<T>> batchLoader;
+        private final Function<T, String> keyExtractor;
+        private Iterator<T> batch = Collections.emptyIterator();
+        private String lastKey = null;
+        private boolean exhausted = false;
+
+        BatchIterator(Function<String, List<T>> batchLoader, Function<T, String> keyExtractor) {
+            this.batchLoader = batchLoader;
+            this.keyExtractor = keyExtractor;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!batch.hasNext() && !exhausted) {
+                final List<T> items = batchLoader.apply(lastKey);
+                if (items.isEmpty()) {
+                    exhausted = true;
+                }
+                else {
+                    lastKey = keyExtractor.apply(items.get(items.size() - 1));
+                }
+                batch = items.iterator();
+            }
+            return batch.hasNext();
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return batch.next();
+        }
+    }
+
     /**
      * Make sure that Log.isDebugEnabled()==true before calling this method.
      * Twenty elements will be logged in every log line, so for 81-100 elements
@@ -21,6 +21,7 @@ import java.time.temporal.ChronoUnit;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Semaphore;
@@ -35,6 +36,7 @@ import org.jivesoftware.openfire.user.property.DefaultUserPropertyProvider;
 import org.jivesoftware.openfire.user.property.UserPropertyProvider;
 import org.jivesoftware.util.StringUtils;
 import org.jivesoftware.util.SystemProperty;
+import org.jivesoftware.util.TaskEngine;
 import org.jivesoftware.util.cache.Cache;
 import org.jivesoftware.util.cache.CacheFactory;
 import org.slf4j.Logger;
@@ -75,6 +77,18 @@ public final class UserManager {
         .addListener(UserManager::initPropertyProvider)
         .setDynamic(true)
         .build();
+    public static final SystemProperty<Integer> ITERATION_BATCH_SIZE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("usermanager.iterationBatchSize")
+        .setDefaultValue(500)
+        .setMinValue(1)
+        .setDynamic(true)
+        .build();
+    public static final SystemProperty<Boolean> SEARCH_INDEX_ENABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("usermanager.searchIndex.enabled")
+        .setDefaultValue(false)
+        .addListener(enabled -> initSearchIndex())
+        .setDynamic(true)
+        .build();
 
     private static final Logger Log = LoggerFactory.getLogger(UserManager.class);
 
@@ -130,6 +144,7 @@ public final class UserManager {
     private final Cache<String, Boolean> remoteUsersCache;
     private static UserProvider provider;
     private static UserPropertyProvider propertyProvider;
+    private static volatile UserSearchIndex searchIndex;
 
     private UserManager() {
         this(XMPPServer.getInstance());
@@ -319,6 +334,27 @@ public final class UserManager {
         return provider.getUsers(startIndex, numResults);
     }
 
+    /**
+     * Returns all users in the system. Unlike {@link #getUsers()}, users are loaded while they are
+     * being iterated over, in batches (when supported by the user provider). This is the preferred way
+     * to process all users of a large user store.
+     *
+     * @return all users, loaded while being iterated over.
+     */
+    public Iterable<User> iterateUsers() {
+        return () -> provider.iterateUsers(ITERATION_BATCH_SIZE.getValue());
+    }
+
+    /**
+     * Returns the usernames of all users in the system. Unlike {@link #getUsernames()}, usernames are
+     * loaded while they are being iterated over, in batches (when supported by the user provider).
+     *
+     * @return all usernames, loaded while being iterated over.
+     */
+    public Iterable<String> iterateUsernames() {
+        return () -> provider.iterateUsernames(ITERATION_BATCH_SIZE.getValue());
+    }
+
     /**
      * Returns the set of fields that can be used for searching for users. Each field
      * returned must support wild-card and keyword searching. For example, an
@@ -355,6 +391,10 @@ public final class UserManager {
     public Collection<User> findUsers(final Set<String> fields, final String query)
             throws UnsupportedOperationException
     {
+        final UserSearchIndex index = searchIndex;
+        if (index != null && index.isLoaded()) {
+            return findUsers(index, fields, query, 0, Integer.MAX_VALUE);
+        }
         return provider.findUsers(fields, query);
     }
 
@@ -370,6 +410,9 @@ public final class UserManager {
      * number of results to return and that the actual number of results returned
      * may be fewer.<p>
      *
+     * When {@link #SEARCH_INDEX_ENABLED the search index} is enabled, searches are answered from
+     * memory, and results are ordered by username.<p>
+     *
      * This method should throw an UnsupportedOperationException if this
      * operation is not supported by the backend user store.
      *
@@ -385,9 +428,20 @@ public final class UserManager {
                                       final int numResults)
             throws UnsupportedOperationException
     {
+        final UserSearchIndex index = searchIndex;
+        if (index != null && index.isLoaded()) {
+            return findUsers(index, fields, query, startIndex, numResults);
+        }
         return provider.findUsers(fields, query, startIndex, numResults);
     }
 
+    private static Collection<User> findUsers(final UserSearchIndex index, final Set<String> fields, final String query,
+                                              final int startIndex, final int numResults)
+    {
+        final List<String> usernames = index.findUsernames(fields, query, startIndex, numResults);
+        return new UserCollection(usernames.toArray(new String[0]));
+    }
+
     /**
      * Returns true if the specified local username belongs to a registered local user.
      *
@@ -503,6 +557,53 @@ public final class UserManager {
                 Log.error("Error loading user provider: " + clazz.getName(), e);
                 provider = new DefaultUserProvider();
             }
+            initSearchIndex();
+        }
+    }
+
+    /**
+     * Replaces the search index (if any) with a new one, that is populated in the background. An index is
+     * used only when it is enabled, and when users are provided by {@link DefaultUserProvider}. Note that
+     * the index is updated by local user events only: changes made on other cluster nodes are not reflected.
+     * When the index cannot be loaded, it is discarded and users are searched in the database. Loading is
+     * attempted again when the index is enabled again, or when the user provider changes.
+     */
+    private static synchronized void initSearchIndex() {
+        if (searchIndex != null) {
+            UserEventDispatcher.removeListener(searchIndex);
+            searchIndex = null;
+        }
+        if (SEARCH_INDEX_ENABLED.getValue() && provider instanceof DefaultUserProvider) {
+            final DefaultUserProvider defaultProvider = (DefaultUserProvider) provider;
+            final UserSearchIndex index = new UserSearchIndex();
+            UserEventDispatcher.addListener(index);
+            searchIndex = index;
+            TaskEngine.getInstance().submit(() -> {
+                try {
+                    defaultProvider.loadSearchIndex(index);
+                }
+                finally {
+                    if (index.isLoaded()) {
+                        Log.info("Loaded {} users in the user search index.", index.size());
+                    }
+                    else {
+                        discardSearchIndex(index);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Stops updating a search index that could not be loaded, and stops using it for searches.
+     *
+     * @param index the index to discard.
+     */
+    private static synchronized void discardSearchIndex(final UserSearchIndex index) {
+        UserEventDispatcher.removeListener(index);
+        if (searchIndex == index) {
+            searchIndex = null;
+            Log.warn("The user search index could not be loaded. Users are searched in the database instead.");
         }
     }
 
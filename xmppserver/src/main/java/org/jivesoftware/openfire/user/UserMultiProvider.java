@@ -22,6 +22,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.function.Function;
 
 /**
  * A {@link UserProvider} that delegates to one or more 'backing' UserProvider.
@@ -127,6 +128,50 @@ public abstract class UserMultiProvider implements UserProvider
         return result;
     }
 
+    @Override
+    public Iterator<User> iterateUsers( int batchSize )
+    {
+        return concat( getUserProviders().iterator(), provider -> provider.iterateUsers( batchSize ) );
+    }
+
+    @Override
+    public Iterator<String> iterateUsernames( int batchSize )
+    {
+        return concat( getUserProviders().iterator(), provider -> provider.iterateUsernames( batchSize ) );
+    }
+
+    /**
+     * Iterates over the items of each provider in turn. The iterator of a provider is not obtained until
+     * the items of the previous provider have been iterated over.
+     */
+    private static <T> Iterator<T> concat( final Iterator<UserProvider> providers, final Function<UserProvider, Iterator<T>> function )
+    {
+        return new Iterator<T>()
+        {
+            private Iterator<T> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext()
+            {
+                while ( !current.hasNext() && providers.hasNext() )
+                {
+                    current = function.apply( providers.next() );
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public T next()
+            {
+                if ( !hasNext() )
+                {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
     @Override
     public Collection<User> getUsers( int startIndex, int numResults )
     {
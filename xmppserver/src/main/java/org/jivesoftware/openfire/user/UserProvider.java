@@ -18,6 +18,7 @@ package org.jivesoftware.openfire.user;
 
 import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.Set;
 
 /**
@@ -102,6 +103,36 @@ public interface UserProvider {
      */
     Collection<User> getUsers( int startIndex, int numResults );
 
+    /**
+     * Returns an iterator over all users in the system. Implementations that are backed by a large user
+     * store should load users in batches of (about) the requested size, instead of loading all users (or
+     * all usernames) up front.
+     *
+     * The default implementation iterates over {@link #getUsers()}.
+     *
+     * @param batchSize the number of users to load at once.
+     * @return an iterator over all users.
+     */
+    default Iterator<User> iterateUsers( int batchSize )
+    {
+        return getUsers().iterator();
+    }
+
+    /**
+     * Returns an iterator over the usernames of all users in the system. Implementations that are backed
+     * by a large user store should load usernames in batches of (about) the requested size, instead of
+     * loading all usernames up front.
+     *
+     * The default implementation iterates over {@link #getUsernames()}.
+     *
+     * @param batchSize the number of usernames to load at once.
+     * @return an iterator over all usernames.
+     */
+    default Iterator<String> iterateUsernames( int batchSize )
+    {
+        return getUsernames().iterator();
+    }
+
     /**
      * Sets the user's name. This method should throw an UnsupportedOperationException
      * if this operation is not supported by the backend user store.
@@ -0,0 +1,555 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.user;
+
+import org.jivesoftware.openfire.event.UserEventListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory index of the username, name and email address of users, that is used to search
+ * for users without querying the database.
+ *
+ * Every user in the index is assigned a numeric identifier. The index maps every trigram
+ * (sequence of three characters) of the indexed values to a sorted array of the identifiers of
+ * the users that have a value containing that trigram. A query is answered by intersecting the
+ * arrays of all trigrams in the query, after which the remaining candidates are matched against
+ * the query. Queries that do not contain any trigram, or of which every trigram is common, are
+ * matched against the users in order of their username, stopping as soon as the requested page
+ * of results is complete.
+ *
+ * Queries have the same semantics as those of {@link DefaultUserProvider#findUsers(Set, String)}:
+ * the asterisk is a wildcard, the query can match any part of a value, and a user must match on
+ * all of the requested fields. Unlike that implementation, matching is always case-insensitive,
+ * and results are ordered by username, which makes paging through results consistent.
+ *
+ * The index is populated by {@link #load(String, String, String)} and kept up to date by user
+ * events. It is not used for searches until {@link #setLoaded()} has been invoked.
+ */
+public class UserSearchIndex implements UserEventListener
+{
+    private static final int GRAM_LENGTH = 3;
+
+    /**
+     * When the smallest array of identifiers of a query holds more than this fraction of all users,
+     * scanning the users in order is cheaper than intersecting the arrays and sorting the result.
+     */
+    private static final int SCAN_FRACTION = 8;
+
+    private static final Set<String> SEARCH_FIELDS = Collections.unmodifiableSet( new LinkedHashSet<>( Arrays.asList( "Username", "Name", "Email" ) ) );
+
+    /**
+     * Guards all state of the index.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * The indexed values, by username (in username order).
+     */
+    private final NavigableMap<String, Entry> entries = new TreeMap<>();
+
+    /**
+     * The indexed values, by identifier. Unused identifiers map to null.
+     */
+    private Entry[] entriesById = new Entry[ 1024 ];
+
+    /**
+     * The lowest identifier that has never been assigned.
+     */
+    private int nextId = 0;
+
+    /**
+     * Identifiers of removed users, that are available for reuse.
+     */
+    private int[] freeIds = new int[ 16 ];
+    private int freeIdCount = 0;
+
+    /**
+     * The identifiers of the users that have one or more values containing a trigram, by trigram.
+     */
+    private final Map<String, Posting> postings = new HashMap<>();
+
+    /**
+     * Users that were deleted while the index was being loaded, which must not be added by the load.
+     */
+    private final Set<String> deletedWhileLoading = new HashSet<>();
+
+    private volatile boolean loaded = false;
+
+    /**
+     * Returns the fields that can be searched using this index.
+     *
+     * @return the search fields (never null).
+     */
+    public Set<String> getSearchFields()
+    {
+        return SEARCH_FIELDS;
+    }
+
+    /**
+     * Returns true when the index contains all users, and can be used for searching.
+     *
+     * @return true if the index is ready to be used.
+     */
+    public boolean isLoaded()
+    {
+        return loaded;
+    }
+
+    /**
+     * Marks the index as containing all users.
+     */
+    public void setLoaded()
+    {
+        lock.writeLock().lock();
+        try
+        {
+            deletedWhileLoading.clear();
+            loaded = true;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of users in this index.
+     *
+     * @return a user count.
+     */
+    public int size()
+    {
+        lock.readLock().lock();
+        try
+        {
+            return entries.size();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a user while the index is being loaded. Users that are already in the index (because they
+     * were created or modified after loading started) or that were deleted after loading started, are
+     * ignored.
+     *
+     * @param username the username of the user (cannot be null).
+     * @param name the name of the user (can be null).
+     * @param email the email address of the user (can be null).
+     */
+    public void load( final String username, final String name, final String email )
+    {
+        lock.writeLock().lock();
+        try
+        {
+            if ( !entries.containsKey( username ) && !deletedWhileLoading.contains( username ) )
+            {
+                add( username, name, email );
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a user to the index, or updates the indexed values of a user that is already in the index.
+     *
+     * @param username the username of the user (cannot be null).
+     * @param name the name of the user (can be null).
+     * @param email the email address of the user (can be null).
+     */
+    public void update( final String username, final String name, final String email )
+    {
+        lock.writeLock().lock();
+        try
+        {
+            remove( username );
+            add( username, name, email );
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a user from the index.
+     *
+     * @param username the username of the user (cannot be null).
+     */
+    public void delete( final String username )
+    {
+        lock.writeLock().lock();
+        try
+        {
+            remove( username );
+            if ( !loaded )
+            {
+                deletedWhileLoading.add( username );
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Searches for users. The fields must be taken from the values returned by {@link #getSearchFields()}.
+     *
+     * @param fields the fields to search on.
+     * @param query the query string, in which an asterisk is a wildcard.
+     * @param startIndex the index of the first result to return.
+     * @param numResults the maximum number of results to return.
+     * @return the usernames of matching users, ordered by username (never null).
+     */
+    public List<String> findUsernames( final Set<String> fields, final String query, final int startIndex, final int numResults )
+    {
+        if ( !SEARCH_FIELDS.containsAll( fields ) )
+        {
+            throw new IllegalArgumentException( "Search fields " + fields + " are not valid." );
+        }
+        if ( fields.isEmpty() || query == null || query.isEmpty() || numResults <= 0 )
+        {
+            return Collections.emptyList();
+        }
+
+        final List<String> segments = new ArrayList<>();
+        for ( final String segment : query.toLowerCase( Locale.ROOT ).split( "\\*" ) )
+        {
+            if ( !segment.isEmpty() )
+            {
+                segments.add( segment );
+            }
+        }
+
+        final Set<String> grams = new HashSet<>();
+        for ( final String segment : segments )
+        {
+            grams.addAll( getGrams( segment ) );
+        }
+
+        lock.readLock().lock();
+        try
+        {
+            final List<Posting> queryPostings = new ArrayList<>( grams.size() );
+            for ( final String gram : grams )
+            {
+                final Posting posting = postings.get( gram );
+                if ( posting == null )
+                {
+                    return Collections.emptyList();
+                }
+                queryPostings.add( posting );
+            }
+            queryPostings.sort( ( a, b ) -> Integer.compare( a.size, b.size ) );
+
+            if ( queryPostings.isEmpty() || queryPostings.get( 0 ).size > entries.size() / SCAN_FRACTION )
+            {
+                return scan( fields, segments, Math.max( 0, startIndex ), numResults );
+            }
+
+            final List<String> result = new ArrayList<>();
+            final Posting smallest = queryPostings.get( 0 );
+            for ( int i = 0; i < smallest.size; i++ )
+            {
+                final int id = smallest.ids[ i ];
+                if ( containsAll( queryPostings, id ) )
+                {
+                    final Entry entry = entriesById[ id ];
+                    if ( entry.matches( fields, segments ) )
+                    {
+                        result.add( entry.username );
+                    }
+                }
+            }
+            Collections.sort( result );
+
+            if ( startIndex >= result.size() )
+            {
+                return Collections.emptyList();
+            }
+            final int endIndex = (int) Math.min( result.size(), (long) startIndex + numResults );
+            return new ArrayList<>( result.subList( Math.max( 0, startIndex ), endIndex ) );
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Matches the users against the query in username order, until the requested page of results
+     * is complete. Must be called while holding the read lock.
+     */
+    private List<String> scan( final Set<String> fields, final List<String> segments, final int startIndex, final int numResults )
+    {
+        final List<String> result = new ArrayList<>();
+        int skipped = 0;
+        for ( final Entry entry : entries.values() )
+        {
+            if ( entry.matches( fields, segments ) )
+            {
+                if ( skipped < startIndex )
+                {
+                    skipped++;
+                }
+                else
+                {
+                    result.add( entry.username );
+                    if ( result.size() >= numResults )
+                    {
+                        break;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks if an identifier is in all of the postings, except for the first one (from which it was taken).
+     */
+    private static boolean containsAll( final List<Posting> postings, final int id )
+    {
+        for ( int i = 1; i < postings.size(); i++ )
+        {
+            if ( !postings.get( i ).contains( id ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a user to the index. Must be called while holding the write lock.
+     */
+    private void add( final String username, final String name, final String email )
+    {
+        final int id;
+        if ( freeIdCount > 0 )
+        {
+            id = freeIds[ --freeIdCount ];
+        }
+        else
+        {
+            id = nextId++;
+            if ( id == entriesById.length )
+            {
+                entriesById = Arrays.copyOf( entriesById, entriesById.length * 2 );
+            }
+        }
+
+        final Entry entry = new Entry( id, username, name, email );
+        entries.put( username, entry );
+        entriesById[ id ] = entry;
+        for ( final String gram : entry.getGrams() )
+        {
+            postings.computeIfAbsent( gram, k -> new Posting() ).add( id );
+        }
+    }
+
+    /**
+     * Removes a user from the index. Must be called while holding the write lock.
+     */
+    private void remove( final String username )
+    {
+        final Entry entry = entries.remove( username );
+        if ( entry == null )
+        {
+            return;
+        }
+        for ( final String gram : entry.getGrams() )
+        {
+            final Posting posting = postings.get( gram );
+            if ( posting != null && posting.remove( entry.id ) && posting.size == 0 )
+            {
+                postings.remove( gram );
+            }
+        }
+        entriesById[ entry.id ] = null;
+        if ( freeIdCount == freeIds.length )
+        {
+            freeIds = Arrays.copyOf( freeIds, freeIds.length * 2 );
+        }
+        freeIds[ freeIdCount++ ] = entry.id;
+    }
+
+    static Set<String> getGrams( final String value )
+    {
+        if ( value == null || value.length() < GRAM_LENGTH )
+        {
+            return Collections.emptySet();
+        }
+        final Set<String> result = new HashSet<>();
+        for ( int i = 0; i <= value.length() - GRAM_LENGTH; i++ )
+        {
+            result.add( value.substring( i, i + GRAM_LENGTH ) );
+        }
+        return result;
+    }
+
+    @Override
+    public void userCreated( final User user, final Map<String, Object> params )
+    {
+        update( user.getUsername(), user.getName(), user.getEmail() );
+    }
+
+    @Override
+    public void userDeleting( final User user, final Map<String, Object> params )
+    {
+        delete( user.getUsername() );
+    }
+
+    @Override
+    public void userModified( final User user, final Map<String, Object> params )
+    {
+        final Object type = params.get( "type" );
+        if ( "nameModified".equals( type ) || "emailModified".equals( type ) )
+        {
+            update( user.getUsername(), user.getName(), user.getEmail() );
+        }
+    }
+
+    /**
+     * The lower-cased, indexed values of a user.
+     */
+    private static class Entry
+    {
+        private final int id;
+        private final String username;
+        private final String lowerUsername;
+        private final String name;
+        private final String email;
+
+        Entry( final int id, final String username, final String name, final String email )
+        {
+            this.id = id;
+            this.username = username;
+            this.lowerUsername = username.toLowerCase( Locale.ROOT );
+            this.name = name == null ? null : name.toLowerCase( Locale.ROOT );
+            this.email = email == null ? null : email.toLowerCase( Locale.ROOT );
+        }
+
+        Set<String> getGrams()
+        {
+            final Set<String> result = new HashSet<>( UserSearchIndex.getGrams( lowerUsername ) );
+            result.addAll( UserSearchIndex.getGrams( name ) );
+            result.addAll( UserSearchIndex.getGrams( email ) );
+            return result;
+        }
+
+        boolean matches( final Set<String> fields, final List<String> segments )
+        {
+            return ( !fields.contains( "Username" ) || matches( lowerUsername, segments ) )
+                && ( !fields.contains( "Name" ) || matches( name, segments ) )
+                && ( !fields.contains( "Email" ) || matches( email, segments ) );
+        }
+
+        /**
+         * Checks if a value contains all segments, in order (the equivalent of a LIKE '%a%b%' query).
+         */
+        private static boolean matches( final String value, final List<String> segments )
+        {
+            if ( value == null )
+            {
+                return false;
+            }
+            int index = 0;
+            for ( final String segment : segments )
+            {
+                index = value.indexOf( segment, index );
+                if ( index < 0 )
+                {
+                    return false;
+                }
+                index += segment.length();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The identifiers of the users that have a value containing a particular trigram, in ascending order.
+     */
+    private static class Posting
+    {
+        private int[] ids = new int[ 4 ];
+        private int size = 0;
+
+        boolean contains( final int id )
+        {
+            return Arrays.binarySearch( ids, 0, size, id ) >= 0;
+        }
+
+        void add( final int id )
+        {
+            // Identifiers are mostly assigned in ascending order, which makes appending the common case.
+            int index = size;
+            if ( size > 0 && ids[ size - 1 ] >= id )
+            {
+                index = Arrays.binarySearch( ids, 0, size, id );
+                if ( index >= 0 )
+                {
+                    return;
+                }
+                index = -index - 1;
+            }
+            if ( size == ids.length )
+            {
+                ids = Arrays.copyOf( ids, ids.length * 2 );
+            }
+            System.arraycopy( ids, index, ids, index + 1, size - index );
+            ids[ index ] = id;
+            size++;
+        }
+
+        boolean remove( final int id )
+        {
+            final int index = Arrays.binarySearch( ids, 0, size, id );
+            if ( index < 0 )
+            {
+                return false;
+            }
+            System.arraycopy( ids, index + 1, ids, index, size - index - 1 );
+            size--;
+            if ( ids.length > 4 && size < ids.length / 4 )
+            {
+                ids = Arrays.copyOf( ids, ids.length / 2 );
+            }
+            return true;
+        }
+    }
+}
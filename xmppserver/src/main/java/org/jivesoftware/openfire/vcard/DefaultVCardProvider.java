@@ -104,7 +104,7 @@ public class DefaultVCardProvider implements VCardProvider {
 
             if ( JiveGlobals.getBooleanProperty( PhotoResizer.PROPERTY_RESIZE_ON_LOAD, PhotoResizer.PROPERTY_RESIZE_ON_LOAD_DEFAULT ) )
             {
-                PhotoResizer.resizeAvatar( vCardElement );
+                PhotoResizer.resizeAvatarOnLoad( username, vCardElement );
             }
 
             return vCardElement;
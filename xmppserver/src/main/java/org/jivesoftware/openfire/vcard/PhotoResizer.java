@@ -3,11 +3,18 @@ package org.jivesoftware.openfire.vcard;
 import org.dom4j.Element;
 import org.jivesoftware.util.Base64;
 import org.jivesoftware.util.JiveGlobals;
+import org.jivesoftware.util.NamedThreadFactory;
+import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.SystemProperty;
+import org.jivesoftware.util.cache.Cache;
+import org.jivesoftware.util.cache.CacheFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
 import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
 import javax.imageio.stream.MemoryCacheImageOutputStream;
 import java.awt.*;
@@ -17,6 +24,12 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Image resizing utility methods.
@@ -38,59 +51,301 @@ public class PhotoResizer
     public static final String PROPERTY_TARGETDIMENSION = "avatar.resize.targetdimension";
     public static final int PROPERTY_TARGETDIMENSION_DEFAULT = 96;
 
-    public static void resizeAvatar( final Element vCardElement )
+    public static final SystemProperty<Integer> MAX_CONCURRENT = SystemProperty.Builder.ofType( Integer.class )
+        .setKey( "avatar.resize.max-concurrent" )
+        .setDefaultValue( 2 )
+        .setMinValue( 1 )
+        .setDynamic( false )
+        .build();
+
+    public static final SystemProperty<Integer> MAX_BYTES = SystemProperty.Builder.ofType( Integer.class )
+        .setKey( "avatar.resize.max-bytes" )
+        .setDefaultValue( 1024 * 1024 )
+        .setMinValue( 1 )
+        .setDynamic( true )
+        .build();
+
+    public static final SystemProperty<Integer> MAX_PIXELS = SystemProperty.Builder.ofType( Integer.class )
+        .setKey( "avatar.resize.max-pixels" )
+        .setDefaultValue( 4096 * 4096 )
+        .setMinValue( 1 )
+        .setDynamic( true )
+        .build();
+
+    /**
+     * The maximum number of avatars that can be waiting to be resized in the background.
+     */
+    private static final int MAX_QUEUED = 1000;
+
+    /**
+     * Marks, in the cache of resized avatars, an avatar that is not to be replaced.
+     */
+    private static final byte[] NOT_RESIZED = new byte[ 0 ];
+
+    /**
+     * Resized avatars (or {@link #NOT_RESIZED}), by a hash of the original avatar, its type and the target dimension.
+     */
+    private static Cache<String, byte[]> resizedCache;
+
+    /**
+     * The cache keys of avatars that are being resized in the background.
+     */
+    private static final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    private static ThreadPoolExecutor executor;
+
+    /**
+     * Replaces the avatar in a vCard that is being loaded by a resized variant, if such a variant
+     * was computed before. When no variant was computed yet, the vCard is not modified. Instead, a
+     * variant is computed in the background, after which the cached vCard of the user is discarded,
+     * so that the next load of the vCard obtains the variant.
+     *
+     * This avoids decoding and encoding images on the thread that loads the vCard. Variants are cached
+     * by a hash of the original avatar, so an avatar is resized only once.
+     *
+     * @param username the user that owns the vCard.
+     * @param vCardElement the vCard (can be null).
+     */
+    public static void resizeAvatarOnLoad( final String username, final Element vCardElement )
     {
-        if ( vCardElement == null )
+        final Element binval = getBinval( vCardElement );
+        if ( binval == null )
         {
             return;
         }
 
-        // XPath didn't work?
-        if ( vCardElement.element( "PHOTO" ) == null )
+        final String encoded = binval.getTextTrim();
+        if ( isOversized( encoded ) )
         {
             return;
         }
 
-        if ( vCardElement.element( "PHOTO" ).element( "BINVAL" ) == null || vCardElement.element( "PHOTO" ).element( "TYPE" ) == null )
+        final String type = vCardElement.element( "PHOTO" ).element( "TYPE" ).getTextTrim();
+        final int targetDimension = JiveGlobals.getIntProperty( PROPERTY_TARGETDIMENSION, PROPERTY_TARGETDIMENSION_DEFAULT );
+        final String key = StringUtils.hash( encoded, "SHA-1" ) + '/' + type + '/' + targetDimension;
+        final byte[] resized = getResizedCache().get( key );
+        if ( resized != null )
         {
+            if ( resized.length > 0 )
+            {
+                Log.debug( "Replacing original avatar in vcard of {} with a resized variant.", username );
+                binval.setText( Base64.encodeBytes( resized ) );
+            }
             return;
         }
 
-        final Element element = vCardElement.element( "PHOTO" ).element( "BINVAL" );
-        if ( element.getTextTrim() == null || element.getTextTrim().isEmpty() )
+        if ( !pending.add( key ) )
         {
             return;
         }
+        try
+        {
+            getExecutor().execute( () -> {
+                try
+                {
+                    final byte[] result = resize( encoded, type, targetDimension );
+                    getResizedCache().put( key, result == null ? NOT_RESIZED : result );
+                    if ( result != null && VCardManager.getInstance() != null )
+                    {
+                        VCardManager.getInstance().invalidate( username );
+                    }
+                }
+                finally
+                {
+                    pending.remove( key );
+                }
+            } );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            Log.debug( "Not resizing avatar of {}, as too many avatars are waiting to be resized.", username );
+            pending.remove( key );
+        }
+    }
+
+    /**
+     * Returns a copy of a vCard in which the avatar is replaced by a resized variant, if such a variant
+     * was computed before. Unlike {@link #resizeAvatarOnLoad(String, Element)}, this never computes a variant.
+     *
+     * @param vCardElement the vCard (can be null).
+     * @return a copy of the vCard with the resized avatar, or null if no resized variant is available.
+     */
+    public static Element withResizedAvatar( final Element vCardElement )
+    {
+        final Element binval = getBinval( vCardElement );
+        if ( binval == null )
+        {
+            return null;
+        }
 
-        // Get a writer (check if we can generate a new image for the type of the original).
         final String type = vCardElement.element( "PHOTO" ).element( "TYPE" ).getTextTrim();
-        final Iterator it = ImageIO.getImageWritersByMIMEType( type );
-        if ( !it.hasNext() )
+        final int targetDimension = JiveGlobals.getIntProperty( PROPERTY_TARGETDIMENSION, PROPERTY_TARGETDIMENSION_DEFAULT );
+        final byte[] resized = getResizedCache().get( StringUtils.hash( binval.getTextTrim(), "SHA-1" ) + '/' + type + '/' + targetDimension );
+        if ( resized == null || resized.length == 0 )
+        {
+            return null;
+        }
+        final Element result = vCardElement.createCopy();
+        getBinval( result ).setText( Base64.encodeBytes( resized ) );
+        return result;
+    }
+
+    public static void resizeAvatar( final Element vCardElement )
+    {
+        final Element element = getBinval( vCardElement );
+        if ( element == null )
         {
-            Log.debug( "Cannot resize avatar. No writers available for MIME type {}.", type );
             return;
         }
-        final ImageWriter iw = (ImageWriter) it.next();
 
-        // Extract the original avatar from the VCard.
-        final byte[] original = Base64.decode( element.getTextTrim() );
+        final String encoded = element.getTextTrim();
+        if ( isOversized( encoded ) )
+        {
+            return;
+        }
 
         // Crop and shrink, if needed.
+        final String type = vCardElement.element( "PHOTO" ).element( "TYPE" ).getTextTrim();
         final int targetDimension = JiveGlobals.getIntProperty( PROPERTY_TARGETDIMENSION, PROPERTY_TARGETDIMENSION_DEFAULT );
-        final byte[] resized = cropAndShrink( original, targetDimension, iw );
+        final byte[] resized = resize( encoded, type, targetDimension );
 
         // If a resized image was created, replace to original avatar in the VCard.
         if ( resized != null )
         {
             Log.debug( "Replacing original avatar in vcard with a resized variant." );
-            vCardElement.element( "PHOTO" ).element( "BINVAL" ).setText( Base64.encodeBytes( resized ) );
+            element.setText( Base64.encodeBytes( resized ) );
+        }
+    }
+
+    /**
+     * Returns the element that holds the Base64-encoded avatar of a vCard, if the vCard has an avatar with a type.
+     */
+    private static Element getBinval( final Element vCardElement )
+    {
+        if ( vCardElement == null )
+        {
+            return null;
+        }
+
+        // XPath didn't work?
+        final Element photo = vCardElement.element( "PHOTO" );
+        if ( photo == null || photo.element( "BINVAL" ) == null || photo.element( "TYPE" ) == null )
+        {
+            return null;
+        }
+
+        final Element element = photo.element( "BINVAL" );
+        if ( element.getTextTrim() == null || element.getTextTrim().isEmpty() )
+        {
+            return null;
+        }
+        return element;
+    }
+
+    /**
+     * Checks if a Base64-encoded avatar exceeds the maximum size of avatars that are resized, without decoding it.
+     */
+    private static boolean isOversized( final String encoded )
+    {
+        final long estimatedBytes = encoded.length() / 4L * 3L;
+        if ( estimatedBytes > MAX_BYTES.getValue() )
+        {
+            Log.debug( "Not resizing avatar of approximately {} bytes, as it exceeds the maximum of {} bytes.", estimatedBytes, MAX_BYTES.getValue() );
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns a resized variant of a Base64-encoded avatar, or null if the avatar need not or cannot be resized.
+     */
+    private static byte[] resize( final String encoded, final String type, final int targetDimension )
+    {
+        // Get a writer (check if we can generate a new image for the type of the original).
+        final Iterator it = ImageIO.getImageWritersByMIMEType( type );
+        if ( !it.hasNext() )
+        {
+            Log.debug( "Cannot resize avatar. No writers available for MIME type {}.", type );
+            return null;
+        }
+        final ImageWriter iw = (ImageWriter) it.next();
+
+        // Extract the original avatar from the VCard.
+        final byte[] original = Base64.decode( encoded );
+        return cropAndShrink( original, targetDimension, iw );
+    }
+
+    /**
+     * Checks the dimensions of an image, as defined in its header, against the maximum number of pixels of
+     * avatars that are resized. This prevents decoding images that would use an excessive amount of memory.
+     *
+     * @param bytes the encoded image.
+     * @return true if the image can be decoded, false if it is too large or its dimensions cannot be determined.
+     */
+    static boolean hasAcceptableDimensions( final byte[] bytes )
+    {
+        try ( final ImageInputStream stream = ImageIO.createImageInputStream( new ByteArrayInputStream( bytes ) ) )
+        {
+            final Iterator<ImageReader> readers = ImageIO.getImageReaders( stream );
+            if ( !readers.hasNext() )
+            {
+                Log.debug( "Cannot resize avatar. No readers available for the image." );
+                return false;
+            }
+            final ImageReader reader = readers.next();
+            try
+            {
+                reader.setInput( stream, true, true );
+                final long pixels = (long) reader.getWidth( 0 ) * reader.getHeight( 0 );
+                if ( pixels > MAX_PIXELS.getValue() )
+                {
+                    Log.debug( "Not resizing avatar of {} pixels, as it exceeds the maximum of {} pixels.", pixels, MAX_PIXELS.getValue() );
+                    return false;
+                }
+                return true;
+            }
+            finally
+            {
+                reader.dispose();
+            }
+        }
+        catch ( IOException | RuntimeException ex )
+        {
+            Log.debug( "Cannot resize avatar. Unable to read the dimensions of the image.", ex );
+            return false;
         }
     }
 
+    private static synchronized Cache<String, byte[]> getResizedCache()
+    {
+        if ( resizedCache == null )
+        {
+            resizedCache = CacheFactory.createCache( "Resized Avatars" );
+        }
+        return resizedCache;
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor()
+    {
+        if ( executor == null )
+        {
+            final int threads = MAX_CONCURRENT.getValue();
+            executor = new ThreadPoolExecutor( threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>( MAX_QUEUED ),
+                new NamedThreadFactory( "avatar-resizer-", null, true, Thread.MIN_PRIORITY ) );
+            executor.allowCoreThreadTimeOut( true );
+        }
+        return executor;
+    }
+
     public static byte[] cropAndShrink( final byte[] bytes, final int targetDimension, final ImageWriter iw )
     {
         Log.debug( "Original image size: {} bytes.", bytes.length );
 
+        if ( bytes.length > MAX_BYTES.getValue() || !hasAcceptableDimensions( bytes ) )
+        {
+            return null;
+        }
+
         BufferedImage avatar;
         try ( final ByteArrayInputStream stream = new ByteArrayInputStream( bytes ) )
         {
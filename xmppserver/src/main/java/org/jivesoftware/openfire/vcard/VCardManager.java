@@ -30,6 +30,7 @@ import org.jivesoftware.openfire.event.UserEventAdapter;
 import org.jivesoftware.openfire.event.UserEventDispatcher;
 import org.jivesoftware.openfire.user.User;
 import org.jivesoftware.util.AlreadyExistsException;
+import org.jivesoftware.util.JiveGlobals;
 import org.jivesoftware.util.NotFoundException;
 import org.jivesoftware.util.PropertyEventDispatcher;
 import org.jivesoftware.util.PropertyEventListener;
@@ -247,6 +248,15 @@ public class VCardManager extends BasicModule implements ServerFeaturesProvider
             vCardElement = provider.loadVCard(username);
             if (vCardElement != null) {
                 vcardCache.put(username, (DefaultElement) vCardElement);
+                // When the avatar was resized in the background while the vCard was being loaded, the
+                // resizer invalidated the cache before the original vCard was added to it.
+                if (JiveGlobals.getBooleanProperty(PhotoResizer.PROPERTY_RESIZE_ON_LOAD, PhotoResizer.PROPERTY_RESIZE_ON_LOAD_DEFAULT)) {
+                    final Element resized = PhotoResizer.withResizedAvatar(vCardElement);
+                    if (resized != null) {
+                        vcardCache.put(username, (DefaultElement) resized);
+                        vCardElement = resized;
+                    }
+                }
             }
         }
         return vCardElement;
@@ -285,6 +295,15 @@ public class VCardManager extends BasicModule implements ServerFeaturesProvider
         UserEventDispatcher.removeListener(eventHandler);
     }
 
+    /**
+     * Removes the vCard of a user from the cache, so that it is loaded from the provider when it is next used.
+     *
+     * @param username Username (not full JID) whose vCard to remove from the cache.
+     */
+    void invalidate(String username) {
+        vcardCache.remove(username);
+    }
+
     /**
      * Resets the manager state. The cache where loaded vCards are stored will be flushed.
      */
@@ -16,7 +16,10 @@
 package org.jivesoftware.openfire.websocket;
 
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
 
+import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
 import org.eclipse.jetty.websocket.common.extensions.compress.PerMessageDeflateExtension;
 import org.eclipse.jetty.websocket.servlet.ServletUpgradeRequest;
 import org.eclipse.jetty.websocket.servlet.ServletUpgradeResponse;
@@ -38,12 +41,29 @@ import org.slf4j.LoggerFactory;
  * BOSH (http-bind) web context. Each WebSocket request received at the "/ws/" URI will be
  * forwarded to this plugin/servlet, which will in turn create a new {@link XmppWebSocket}
  * for each new connection. 
+ *
+ * When compression is enabled, the permessage-deflate extension (RFC 7692) is offered. Context
+ * takeover can be disabled for the unencrypted and the encrypted listener individually. Without
+ * context takeover, the compression state is reset after every message, which reduces the
+ * compression ratio, but frees the peers from retaining a compression window per connection.
  */
 public class OpenfireWebSocketServlet extends WebSocketServlet {
 
     private static final long serialVersionUID = 7281841492829464605L;
     private static final Logger Log = LoggerFactory.getLogger(OpenfireWebSocketServlet.class);
 
+    /**
+     * Name of the property that controls whether permessage-deflate context takeover is allowed
+     * for connections that are established on the unencrypted (plain) HTTP binding listener.
+     */
+    public static final String CONTEXT_TAKEOVER_PLAIN = "httpbind.websocket.deflate.context-takeover.plain";
+
+    /**
+     * Name of the property that controls whether permessage-deflate context takeover is allowed
+     * for connections that are established on the encrypted (secure) HTTP binding listener.
+     */
+    public static final String CONTEXT_TAKEOVER_SECURE = "httpbind.websocket.deflate.context-takeover.secure";
+
     @Override
     public void destroy()
     {
@@ -81,6 +101,7 @@ public class OpenfireWebSocketServlet extends WebSocketServlet {
                         if ("xmpp".equals(subprotocol))
                         {
                             resp.setAcceptedSubProtocol(subprotocol);
+                            configureExtensions(req, resp);
                             return new XmppWebSocket();
                         }
                     }
@@ -92,4 +113,27 @@ public class OpenfireWebSocketServlet extends WebSocketServlet {
             }
         });
     }
+
+    /*
+     * Adds the 'no context takeover' parameters to permessage-deflate offers, if context takeover
+     * is disabled for the listener on which the request was received.
+     */
+    private static void configureExtensions(ServletUpgradeRequest req, ServletUpgradeResponse resp)
+    {
+        final boolean contextTakeover = JiveGlobals.getBooleanProperty(req.isSecure() ? CONTEXT_TAKEOVER_SECURE : CONTEXT_TAKEOVER_PLAIN, true);
+        if (contextTakeover || !XmppWebSocket.isCompressionEnabled()) {
+            return;
+        }
+
+        final List<ExtensionConfig> extensions = new ArrayList<>();
+        for (ExtensionConfig offered : req.getExtensions()) {
+            final ExtensionConfig config = new ExtensionConfig(offered);
+            if ("permessage-deflate".equals(config.getName())) {
+                config.setParameter("server_no_context_takeover");
+                config.setParameter("client_no_context_takeover");
+            }
+            extensions.add(config);
+        }
+        resp.setExtensions(extensions);
+    }
 }
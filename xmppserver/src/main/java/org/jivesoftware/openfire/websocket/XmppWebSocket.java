@@ -18,19 +18,25 @@ package org.jivesoftware.openfire.websocket;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.Locale;
+import java.util.Queue;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.dom4j.Document;
 import org.dom4j.Element;
 import org.dom4j.QName;
 import org.dom4j.io.XMPPPacketReader;
+import org.eclipse.jetty.websocket.api.BatchMode;
 import org.eclipse.jetty.websocket.api.RemoteEndpoint;
 import org.eclipse.jetty.websocket.api.Session;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketClose;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketConnect;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketError;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
+import org.eclipse.jetty.websocket.api.WriteCallback;
 import org.eclipse.jetty.websocket.api.annotations.WebSocket;
 import org.jivesoftware.openfire.Connection;
 import org.jivesoftware.openfire.SessionManager;
@@ -59,6 +65,13 @@ import javax.xml.XMLConstants;
  * framing and authentication requirements. Packets received from the remote peer are forwarded as
  * needed via a {@link SessionPacketRouter}, and packets destined for the remote peer are forwarded
  * via the corresponding {@link RemoteEndpoint}.
+ *
+ * By default, the socket operates in streaming mode (see {@link #STREAMING_ENABLED}). In this mode,
+ * inbound frames are parsed by a parser that is dedicated to the connection, rather than by one
+ * that is borrowed from a shared pool. Outbound stanzas are queued and written using callbacks
+ * instead of futures. While a write to the peer is in progress, newly queued stanzas accumulate,
+ * and are subsequently written as a batch that is flushed to the network at once. Note that every
+ * stanza is still sent in a WebSocket message of its own, as required by RFC 7395.
  */
 
 @WebSocket
@@ -68,6 +81,17 @@ public class XmppWebSocket {
     private static final String STREAM_FOOTER = "close";
     private static final String FRAMING_NAMESPACE = "urn:ietf:params:xml:ns:xmpp-framing";
 
+    /**
+     * Name of the property that controls whether new connections operate in streaming mode.
+     */
+    public static final String STREAMING_ENABLED = "xmpp.websocket.streaming.enabled";
+
+    /**
+     * Name of the property that defines the maximum number of stanzas that, in streaming mode,
+     * are written to the peer in one batch.
+     */
+    public static final String OUTBOUND_BATCH_MAX = "xmpp.websocket.outbound.batch.max";
+
     private static Logger Log = LoggerFactory.getLogger( XmppWebSocket.class );
     private static GenericObjectPool<XMPPPacketReader> readerPool;
 
@@ -79,8 +103,16 @@ public class XmppWebSocket {
     private Status saslStatus;
     private TimerTask pingTask;
 
+    private final boolean streaming;
+    private XMPPPacketReader reader;
+    private final Queue<String> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean writing = new AtomicBoolean(false);
+    private final AtomicBoolean closing = new AtomicBoolean(false);
+    private volatile boolean closeQueued = false;
+
     public XmppWebSocket() {
-        if (readerPool == null) {
+        streaming = JiveGlobals.getBooleanProperty(STREAMING_ENABLED, true);
+        if (!streaming && readerPool == null) {
             initializePool();
         }
     }
@@ -105,6 +137,11 @@ public class XmppWebSocket {
     @OnWebSocketMessage
     public void onTextMethod(String stanza)
     {
+        if (streaming) {
+            onTextStreaming(stanza);
+            return;
+        }
+
         XMPPPacketReader reader = null;
         try {
             reader = readerPool.borrowObject();
@@ -124,6 +161,30 @@ public class XmppWebSocket {
         }
     }
 
+    /*
+     * Jetty delivers the messages of one connection sequentially, which allows the connection to
+     * reuse its parser for every frame.
+     */
+    private void onTextStreaming(String stanza)
+    {
+        try {
+            if (reader == null) {
+                reader = new XMPPPPacketReaderFactory().create();
+            }
+            Document doc = reader.read(new StringReader(stanza));
+
+            if (xmppSession == null) {
+                initiateSession(doc.getRootElement());
+            } else {
+                processStanza(doc.getRootElement());
+            }
+        } catch (Exception ex) {
+            Log.error("Failed to process XMPP stanza", ex);
+            // start afresh for the next frame
+            reader = null;
+        }
+    }
+
     @OnWebSocketError
     public void onError(Throwable error)
     {
@@ -182,20 +243,116 @@ public class XmppWebSocket {
      */
     void deliver(String packet)
     {
-        if (isWebSocketOpen())
+        if (isWebSocketOpen() && !closing.get())
         {
-            try {
+            send(packet);
+        } else {
+            Log.warn("Failed to deliver packet; socket is closed:\n" + packet);
+        }
+    }
+
+    private void send(String packet)
+    {
+        try {
+            if (xmppSession != null) {
                 xmppSession.incrementServerPacketCount();
+            }
+            if (streaming) {
+                outbound.add(packet);
+                writeOutbound();
+            } else {
                 wsSession.getRemote().sendStringByFuture(packet);
+            }
+        } catch (Exception e) {
+            Log.error("Packet delivery failed; session: " + wsSession, e);
+            Log.warn("Failed to deliver packet:\n" + packet );
+        }
+    }
+
+
+    /*
+     * Writes the queued stanzas, unless a write is already in progress. In that case, the stanzas
+     * are written when the write in progress completes. All but the last stanza of a batch are
+     * written in batch mode, causing Jetty to aggregate the frames; the last one triggers the flush.
+     * Once the closing frame of the stream has been queued, the socket is closed after everything
+     * that was queued before it has been written.
+     */
+    private void writeOutbound()
+    {
+        while (!outbound.isEmpty() && writing.compareAndSet(false, true)) {
+            final Session session = wsSession;
+            if (session == null || !session.isOpen()) {
+                outbound.clear();
+                writing.set(false);
+                return;
+            }
+
+            final int max = Math.max(1, JiveGlobals.getIntProperty(OUTBOUND_BATCH_MAX, 64));
+            final String[] batch = new String[Math.min(max, outbound.size())];
+            int size = 0;
+            String packet;
+            while (size < batch.length && (packet = outbound.poll()) != null) {
+                batch[size++] = packet;
+            }
+            if (size == 0) {
+                writing.set(false);
+                continue;
+            }
+
+            final RemoteEndpoint remote = session.getRemote();
+            final BatchCallback callback = new BatchCallback(size);
+            try {
+                for (int i = 0; i < size; i++) {
+                    remote.setBatchMode(i < size - 1 ? BatchMode.ON : BatchMode.OFF);
+                    remote.sendString(batch[i], callback);
+                }
             } catch (Exception e) {
-                Log.error("Packet delivery failed; session: " + wsSession, e);
-                Log.warn("Failed to deliver packet:\n" + packet );
+                Log.error("Packet delivery failed; session: " + session, e);
+                outbound.clear();
+                writing.set(false);
+                return;
             }
-        } else {
-            Log.warn("Failed to deliver packet; socket is closed:\n" + packet);
+        }
+        if (closeQueued && outbound.isEmpty() && writing.compareAndSet(false, true)) {
+            // the stream has been closed and drained; the write lock is never released again
+            closeWebSocket();
         }
     }
 
+    /**
+     * Releases the outbound queue for the next batch once all writes of a batch have completed.
+     */
+    private final class BatchCallback implements WriteCallback
+    {
+        private final AtomicInteger remaining;
+        private final AtomicBoolean failed = new AtomicBoolean(false);
+
+        BatchCallback(int size) {
+            this.remaining = new AtomicInteger(size);
+        }
+
+        @Override
+        public void writeFailed(Throwable x) {
+            if (failed.compareAndSet(false, true)) {
+                Log.warn("Failed to write to websocket, closing it; session: {}", wsSession, x);
+                outbound.clear();
+                closeWebSocket();
+            }
+            completed();
+        }
+
+        @Override
+        public void writeSuccess() {
+            completed();
+        }
+
+        private void completed() {
+            if (remaining.decrementAndGet() == 0) {
+                writing.set(false);
+                writeOutbound();
+            }
+        }
+    }
 
     static boolean isCompressionEnabled() {
         return JiveGlobals.getProperty(
@@ -346,20 +503,33 @@ public class XmppWebSocket {
         deliver(sb.toString());
     }
 
+    /*
+     * In streaming mode, the stream error and closing frame are queued behind the stanzas that are
+     * still to be written, and the socket is closed by the writer once the queue has drained.
+     */
     private void closeStream(StreamError streamError)
     {
-        if (isWebSocketOpen()) {
+        if (isWebSocketOpen() && closing.compareAndSet(false, true)) {
 
             if (streamError != null) {
-                deliver(streamError.toXML());
+                send(streamError.toXML());
             }
 
             StringBuilder sb = new StringBuilder(250);
             sb.append("<close ");
             sb.append("xmlns='").append(FRAMING_NAMESPACE).append("'");
             sb.append("/>");
-            deliver(sb.toString());
-            closeWebSocket();
+            if (streaming) {
+                if (xmppSession != null) {
+                    xmppSession.incrementServerPacketCount();
+                }
+                outbound.add(sb.toString());
+                closeQueued = true;
+                writeOutbound();
+            } else {
+                send(sb.toString());
+                closeWebSocket();
+            }
         }
     }
 
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.util;
+
+import com.google.common.cache.CacheBuilder;
+import org.xmpp.packet.JID;
+
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A canonical, pre-validated {@link JID}. Instances are obtained through the {@code of} methods, which return the same
+ * instance for as long as any part of the server holds a reference to it. The string representations, the hash code
+ * and the bare JID view are computed once, so that the routing code can use an InternedJID as a map key or look up
+ * its bare JID as often as it needs to without creating new objects.
+ *
+ * An InternedJID is equal to, and has the same hash code as, a plain JID with the same node, domain and resource, so
+ * both can be used interchangeably.
+ */
+public final class InternedJID extends JID {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Canonical instances, keyed both by the string that they were requested with and by their canonical string
+     * representation. Values are weakly referenced, so that instances that are no longer used can be garbage collected.
+     */
+    private static final ConcurrentMap<String, InternedJID> INTERNED = CacheBuilder.newBuilder()
+        .weakValues()
+        .concurrencyLevel(16)
+        .<String, InternedJID>build()
+        .asMap();
+
+    private final String fullJID;
+    private final String bareJID;
+    private final int hash;
+    private transient volatile InternedJID bare;
+
+    private InternedJID(final JID jid) {
+        super(jid.getNode(), jid.getDomain(), jid.getResource(), true);
+        this.fullJID = jid.toString();
+        this.bareJID = jid.toBareJID();
+        this.hash = fullJID.hashCode();
+    }
+
+    /**
+     * Returns the canonical instance for the provided JID. When the string was requested before, this does not
+     * parse or validate the string again.
+     *
+     * @param jid the string representation of a JID (cannot be null).
+     * @return the canonical instance (never null).
+     * @throws IllegalArgumentException if the string is not a valid JID.
+     */
+    public static InternedJID of(final String jid) {
+        final InternedJID interned = INTERNED.get(jid);
+        if (interned != null) {
+            return interned;
+        }
+        return intern(jid, new JID(jid));
+    }
+
+    /**
+     * Returns the canonical instance for the JID with the provided parts. When a JID with the same parts was requested
+     * before, this does not validate the parts again.
+     *
+     * @param node the node of the JID (can be null).
+     * @param domain the domain of the JID (cannot be null).
+     * @param resource the resource of the JID (can be null).
+     * @return the canonical instance (never null).
+     * @throws IllegalArgumentException if the parts do not make up a valid JID.
+     */
+    public static InternedJID of(final String node, final String domain, final String resource) {
+        final StringBuilder key = new StringBuilder(domain.length() + 32);
+        if (node != null) {
+            key.append(node).append('@');
+        }
+        key.append(domain);
+        if (resource != null) {
+            key.append('/').append(resource);
+        }
+        final String jid = key.toString();
+        final InternedJID interned = INTERNED.get(jid);
+        if (interned != null) {
+            return interned;
+        }
+        return intern(jid, new JID(node, domain, resource));
+    }
+
+    /**
+     * Returns the canonical instance for the provided JID. This returns the argument itself if it already is an
+     * interned instance.
+     *
+     * @param jid the JID (cannot be null).
+     * @return the canonical instance (never null).
+     */
+    public static InternedJID of(final JID jid) {
+        if (jid instanceof InternedJID) {
+            return (InternedJID) jid;
+        }
+        final String key = jid.toString();
+        final InternedJID interned = INTERNED.get(key);
+        if (interned != null) {
+            return interned;
+        }
+        return intern(key, jid);
+    }
+
+    private static InternedJID intern(final String key, final JID jid) {
+        final InternedJID created = new InternedJID(jid);
+        InternedJID canonical = INTERNED.putIfAbsent(created.fullJID, created);
+        if (canonical == null) {
+            canonical = created;
+        }
+        if (!key.equals(canonical.fullJID)) {
+            INTERNED.putIfAbsent(key, canonical);
+        }
+        return canonical;
+    }
+
+    /**
+     * Returns the canonical instance of the bare JID of this address. The instance is looked up only once.
+     *
+     * @return the bare JID (never null). This is the instance itself when this JID has no resource.
+     */
+    @Override
+    public InternedJID asBareJID() {
+        if (getResource() == null) {
+            return this;
+        }
+        InternedJID result = bare;
+        if (result == null) {
+            result = of(bareJID);
+            bare = result;
+        }
+        return result;
+    }
+
+    @Override
+    public String toBareJID() {
+        return bareJID;
+    }
+
+    @Override
+    public String toString() {
+        return fullJID;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(final Object object) {
+        if (this == object) {
+            return true;
+        }
+        if (object instanceof InternedJID) {
+            return fullJID.equals(((InternedJID) object).fullJID);
+        }
+        return super.equals(object);
+    }
+
+    /**
+     * Replaces a deserialized instance with the canonical instance.
+     *
+     * @return the canonical instance.
+     */
+    private Object readResolve() {
+        final InternedJID canonical = INTERNED.putIfAbsent(fullJID, this);
+        return canonical != null ? canonical : this;
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.util.cache;
+
+import org.dom4j.Attribute;
+import org.dom4j.DocumentFactory;
+import org.dom4j.Element;
+import org.dom4j.Namespace;
+import org.dom4j.QName;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary representation of XML elements, used to transfer stanzas between cluster nodes.
+ *
+ * Compared to Java serialization of a dom4j object graph, this format does not include class
+ * descriptors or object references. Element names, attribute names, namespaces and attribute
+ * values are written once per element tree, and referred to by index afterwards. A dictionary
+ * of strings that are common in XMPP stanzas is shared by the writer and reader, so that those
+ * are never written at all. Lengths and indices are written as variable-length integers.
+ *
+ * The encoded form consists of a format version byte, followed by the root element. An element
+ * consists of its name, namespace prefix and namespace URI (all strings), its namespace
+ * declarations, its attributes and its child nodes. Each string is written as a reference to an
+ * earlier occurrence (a positive index) or as a literal (a zero, followed by the UTF-8 length and
+ * bytes). Text content is always written as a literal.
+ *
+ * Note that the format is not intended for persistent storage: all cluster nodes are expected to
+ * run the same version of this codec.
+ */
+public final class BinaryXmlCodec
+{
+    /**
+     * Version of the encoding. Incremented when the format or the shared dictionary changes.
+     */
+    static final int VERSION = 1;
+
+    private static final int NODE_END = 0;
+    private static final int NODE_ELEMENT = 1;
+    private static final int NODE_TEXT = 2;
+    private static final int NODE_CDATA = 3;
+    private static final int NODE_COMMENT = 4;
+
+    /**
+     * Strings that frequently occur in XMPP stanzas. Changes to this list must be accompanied by a
+     * change of {@link #VERSION}.
+     */
+    private static final String[] DICTIONARY = {
+        "", "jabber:client", "jabber:server", "message", "presence", "iq", "from", "to", "id", "type",
+        "xml:lang", "lang", "xml", "http://www.w3.org/XML/1998/namespace", "body", "subject", "thread",
+        "show", "status", "priority", "error", "code", "text", "chat", "groupchat", "normal", "headline",
+        "unavailable", "subscribe", "subscribed", "unsubscribe", "unsubscribed", "probe", "get", "set",
+        "result", "away", "xa", "dnd", "x", "item", "items", "affiliation", "role", "jid", "nick", "reason",
+        "actor", "none", "owner", "admin", "member", "outcast", "moderator", "participant", "visitor",
+        "http://jabber.org/protocol/muc", "http://jabber.org/protocol/muc#user",
+        "http://jabber.org/protocol/muc#admin", "http://jabber.org/protocol/muc#owner", "c", "hash",
+        "node", "ver", "ext", "sha-1", "http://jabber.org/protocol/caps", "delay", "stamp", "urn:xmpp:delay",
+        "jabber:x:delay", "event", "http://jabber.org/protocol/pubsub", "http://jabber.org/protocol/pubsub#event",
+        "retract", "publish", "stanza-id", "origin-id", "by", "urn:xmpp:sid:0", "query", "vCard", "vcard-temp",
+        "vcard-temp:x:update", "photo", "urn:ietf:params:xml:ns:xmpp-stanzas", "cancel", "modify", "auth",
+        "wait", "continue", "html", "http://jabber.org/protocol/xhtml-im", "http://www.w3.org/1999/xhtml",
+        "active", "composing", "paused", "inactive", "gone", "http://jabber.org/protocol/chatstates",
+        "request", "received", "urn:xmpp:receipts", "markable", "urn:xmpp:chat-markers:0", "store",
+        "no-store", "no-copy", "urn:xmpp:hints", "forwarded", "urn:xmpp:forward:0", "private",
+        "urn:xmpp:carbons:2", "sent", "replace", "urn:xmpp:message-correct:0"
+    };
+
+    private static final Map<String, Integer> DICTIONARY_INDEX = new HashMap<>();
+
+    static
+    {
+        for ( int i = 0; i < DICTIONARY.length; i++ )
+        {
+            DICTIONARY_INDEX.put( DICTIONARY[ i ], i + 1 );
+        }
+    }
+
+    private BinaryXmlCodec()
+    {
+    }
+
+    /**
+     * Writes an element (including all of its descendants) to the output.
+     *
+     * @param out the output to write to.
+     * @param element the element to write (cannot be null).
+     * @throws IOException if an error occurs.
+     */
+    public static void writeElement( final DataOutput out, final Element element ) throws IOException
+    {
+        out.writeByte( VERSION );
+        new Writer( out ).writeElement( element );
+    }
+
+    /**
+     * Reads an element (including all of its descendants) from the input.
+     *
+     * @param in the input to read from.
+     * @return The element that was read (never null).
+     * @throws IOException if an error occurs, or if the input was not written by a compatible codec.
+     */
+    public static Element readElement( final DataInput in ) throws IOException
+    {
+        final int version = in.readUnsignedByte();
+        if ( version != VERSION )
+        {
+            throw new StreamCorruptedException( "Unsupported binary XML version: " + version );
+        }
+        return new Reader( in ).readElement();
+    }
+
+    static void writeVarInt( final DataOutput out, int value ) throws IOException
+    {
+        while ( ( value & ~0x7F ) != 0 )
+        {
+            out.writeByte( ( value & 0x7F ) | 0x80 );
+            value >>>= 7;
+        }
+        out.writeByte( value );
+    }
+
+    static int readVarInt( final DataInput in ) throws IOException
+    {
+        int value = 0;
+        for ( int shift = 0; shift < 32; shift += 7 )
+        {
+            final int b = in.readUnsignedByte();
+            value |= ( b & 0x7F ) << shift;
+            if ( ( b & 0x80 ) == 0 )
+            {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException( "Malformed variable-length integer." );
+    }
+
+    /**
+     * Writes one element tree, keeping track of the strings that have been written.
+     */
+    private static class Writer
+    {
+        private final DataOutput out;
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        Writer( final DataOutput out )
+        {
+            this.out = out;
+        }
+
+        void writeElement( final Element element ) throws IOException
+        {
+            writeString( element.getName() );
+            writeString( element.getNamespacePrefix() );
+            writeString( element.getNamespaceURI() );
+
+            final List<Namespace> namespaces = element.declaredNamespaces();
+            writeVarInt( out, namespaces.size() );
+            for ( final Namespace namespace : namespaces )
+            {
+                writeString( namespace.getPrefix() );
+                writeString( namespace.getURI() );
+            }
+
+            writeVarInt( out, element.attributeCount() );
+            for ( int i = 0; i < element.attributeCount(); i++ )
+            {
+                final Attribute attribute = element.attribute( i );
+                writeString( attribute.getName() );
+                writeString( attribute.getNamespacePrefix() );
+                writeString( attribute.getNamespaceURI() );
+                writeString( attribute.getValue() );
+            }
+
+            for ( int i = 0; i < element.nodeCount(); i++ )
+            {
+                final org.dom4j.Node node = element.node( i );
+                switch ( node.getNodeType() )
+                {
+                    case org.dom4j.Node.ELEMENT_NODE:
+                        out.writeByte( NODE_ELEMENT );
+                        writeElement( (Element) node );
+                        break;
+                    case org.dom4j.Node.CDATA_SECTION_NODE:
+                        out.writeByte( NODE_CDATA );
+                        writeLiteral( node.getText() );
+                        break;
+                    case org.dom4j.Node.COMMENT_NODE:
+                        out.writeByte( NODE_COMMENT );
+                        writeLiteral( node.getText() );
+                        break;
+                    case org.dom4j.Node.NAMESPACE_NODE:
+                        // Namespace declarations are written with the element.
+                        break;
+                    default:
+                        // Text, entities and such are all represented by their textual value.
+                        final String text = node.getText();
+                        if ( text != null )
+                        {
+                            out.writeByte( NODE_TEXT );
+                            writeLiteral( text );
+                        }
+                        break;
+                }
+            }
+            out.writeByte( NODE_END );
+        }
+
+        private void writeString( final String value ) throws IOException
+        {
+            final String string = value == null ? "" : value;
+            final Integer dictionaryIndex = DICTIONARY_INDEX.get( string );
+            if ( dictionaryIndex != null )
+            {
+                writeVarInt( out, dictionaryIndex );
+                return;
+            }
+
+            final Integer index = strings.get( string );
+            if ( index != null )
+            {
+                writeVarInt( out, DICTIONARY.length + index );
+                return;
+            }
+
+            strings.put( string, strings.size() + 1 );
+            out.writeByte( 0 );
+            writeLiteral( string );
+        }
+
+        private void writeLiteral( final String value ) throws IOException
+        {
+            final byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+            writeVarInt( out, bytes.length );
+            out.write( bytes );
+        }
+    }
+
+    /**
+     * Reads one element tree, keeping track of the strings that have been read.
+     */
+    private static class Reader
+    {
+        private final DataInput in;
+        private final List<String> strings = new ArrayList<>();
+        private final DocumentFactory factory = DocumentFactory.getInstance();
+
+        Reader( final DataInput in )
+        {
+            this.in = in;
+        }
+
+        Element readElement() throws IOException
+        {
+            final String name = readString();
+            final String prefix = readString();
+            final String uri = readString();
+            final Element element = factory.createElement( factory.createQName( name, Namespace.get( prefix, uri ) ) );
+
+            final int namespaceCount = readVarInt( in );
+            for ( int i = 0; i < namespaceCount; i++ )
+            {
+                element.add( Namespace.get( readString(), readString() ) );
+            }
+
+            final int attributeCount = readVarInt( in );
+            for ( int i = 0; i < attributeCount; i++ )
+            {
+                final String attributeName = readString();
+                final String attributePrefix = readString();
+                final String attributeURI = readString();
+                final String value = readString();
+                final QName qName = factory.createQName( attributeName, Namespace.get( attributePrefix, attributeURI ) );
+                element.addAttribute( qName, value );
+            }
+
+            int nodeType;
+            while ( ( nodeType = in.readUnsignedByte() ) != NODE_END )
+            {
+                switch ( nodeType )
+                {
+                    case NODE_ELEMENT:
+                        element.add( readElement() );
+                        break;
+                    case NODE_TEXT:
+                        element.addText( readLiteral() );
+                        break;
+                    case NODE_CDATA:
+                        element.addCDATA( readLiteral() );
+                        break;
+                    case NODE_COMMENT:
+                        element.addComment( readLiteral() );
+                        break;
+                    default:
+                        throw new StreamCorruptedException( "Unknown node type: " + nodeType );
+                }
+            }
+            return element;
+        }
+
+        private String readString() throws IOException
+        {
+            final int index = readVarInt( in );
+            if ( index == 0 )
+            {
+                final String value = readLiteral();
+                strings.add( value );
+                return value;
+            }
+            if ( index <= DICTIONARY.length )
+            {
+                return DICTIONARY[ index - 1 ];
+            }
+            final int position = index - DICTIONARY.length - 1;
+            if ( position >= strings.size() )
+            {
+                throw new StreamCorruptedException( "Reference to unknown string: " + index );
+            }
+            return strings.get( position );
+        }
+
+        private String readLiteral() throws IOException
+        {
+            final int length = readVarInt( in );
+            if ( length < 0 )
+            {
+                throw new StreamCorruptedException( "Invalid string length: " + length );
+            }
+            final byte[] bytes = new byte[ length ];
+            in.readFully( bytes );
+            return new String( bytes, StandardCharsets.UTF_8 );
+        }
+    }
+}
@@ -110,9 +110,12 @@ public class CacheFactory {
         cacheNames.put("Remote Users Existence", "remoteUsersCache");
         cacheNames.put("Roster", "username2roster");
         cacheNames.put("RosterItems", "username2rosterItems");
+        cacheNames.put("Roster Versions", "username2rosterVersion");
         cacheNames.put("User", "userCache");
         cacheNames.put("Locked Out Accounts", "lockOutCache");
+        cacheNames.put("SCRAM Credentials", "scramCredentials");
         cacheNames.put("VCard", "vcardCache");
+        cacheNames.put("Resized Avatars", "resizedAvatars");
         cacheNames.put("File Transfer Cache", "fileTransfer");
         cacheNames.put("File Transfer", "transferProxy");
         cacheNames.put("POP3 Authentication", "pop3");
@@ -154,12 +157,16 @@ public class CacheFactory {
         cacheProps.put("cache.group.maxLifetime", JiveConstants.MINUTE * 15);
         cacheProps.put("cache.lockOutCache.size", 1024 * 1024l);
         cacheProps.put("cache.lockOutCache.maxLifetime", JiveConstants.MINUTE * 15);
+        cacheProps.put("cache.scramCredentials.size", 1024 * 1024l);
+        cacheProps.put("cache.scramCredentials.maxLifetime", JiveConstants.MINUTE * 5);
         cacheProps.put("cache.groupMeta.size", 512 * 1024l);
         cacheProps.put("cache.groupMeta.maxLifetime", JiveConstants.MINUTE * 15);
         cacheProps.put("cache.username2roster.size", 1024 * 1024l);
         cacheProps.put("cache.username2roster.maxLifetime", JiveConstants.MINUTE * 30);
         cacheProps.put("cache.username2rosterItems.size", 1024 * 1024l);
         cacheProps.put("cache.username2rosterItems.maxLifetime", JiveConstants.MINUTE * 10);
+        cacheProps.put("cache.username2rosterVersion.size", 256 * 1024l);
+        cacheProps.put("cache.username2rosterVersion.maxLifetime", JiveConstants.HOUR * 6);
         cacheProps.put("cache.javascript.size", 128 * 1024l);
         cacheProps.put("cache.javascript.maxLifetime", 3600 * 24 * 10l);
         cacheProps.put("cache.ldap.size", 512 * 1024l);
@@ -172,6 +179,7 @@ public class CacheFactory {
         cacheProps.put("cache.remoteUsersCache.size", 512 * 1024l);
         cacheProps.put("cache.remoteUsersCache.maxLifetime", JiveConstants.MINUTE * 30);
         cacheProps.put("cache.vcardCache.size", 512 * 1024l);
+        cacheProps.put("cache.resizedAvatars.size", 1024 * 1024l);
         cacheProps.put("cache.faviconHits.size", 128 * 1024l);
         cacheProps.put("cache.faviconMisses.size", 128 * 1024l);
         cacheProps.put("cache.routeServer.size", -1l);
@@ -16,6 +16,12 @@
 
 package org.jivesoftware.util.cache;
 
+import org.dom4j.Element;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
 import java.io.*;
 import java.util.Collection;
 import java.util.List;
@@ -372,4 +378,60 @@ public class ExternalizableUtil {
     public int readStrings(DataInput in, Collection<String> collection) throws IOException {
         return strategy.readStrings(in, collection);
     }
+
+    /**
+     * Writes an XML element using a compact binary encoding, rather than Java serialization of
+     * the dom4j object graph. This method does not depend on the strategy that is in use.
+     *
+     * @param out the output stream.
+     * @param element the element to write (cannot be null).
+     * @throws IOException if an error occurs.
+     * @see BinaryXmlCodec
+     */
+    public void writeElement(DataOutput out, Element element) throws IOException {
+        BinaryXmlCodec.writeElement(out, element);
+    }
+
+    /**
+     * Reads an XML element that was written by {@link #writeElement(DataOutput, Element)}.
+     *
+     * @param in the input stream.
+     * @return the element that was read (never null).
+     * @throws IOException if an error occurs.
+     */
+    public Element readElement(DataInput in) throws IOException {
+        return BinaryXmlCodec.readElement(in);
+    }
+
+    /**
+     * Writes a stanza using the compact binary encoding of {@link #writeElement(DataOutput, Element)}.
+     *
+     * @param out the output stream.
+     * @param packet the stanza to write (cannot be null).
+     * @throws IOException if an error occurs.
+     */
+    public void writePacket(DataOutput out, Packet packet) throws IOException {
+        writeElement(out, packet.getElement());
+    }
+
+    /**
+     * Reads a stanza that was written by {@link #writePacket(DataOutput, Packet)}.
+     *
+     * @param in the input stream.
+     * @return the Message, Presence or IQ that was read (never null).
+     * @throws IOException if an error occurs, or if the element that was read is not a stanza.
+     */
+    public Packet readPacket(DataInput in) throws IOException {
+        final Element element = readElement(in);
+        switch (element.getName()) {
+            case "message":
+                return new Message(element, true);
+            case "presence":
+                return new Presence(element, true);
+            case "iq":
+                return new IQ(element, true);
+            default:
+                throw new StreamCorruptedException("Element is not a stanza: " + element.getName());
+        }
+    }
 }
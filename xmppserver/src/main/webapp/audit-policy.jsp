@@ -405,6 +405,14 @@
                      <%= auditManager.getAuditor().getQueuedPacketsNumber() %>
                 </td>
             </tr>
+            <tr valign="top">
+                <td width="1%" nowrap class="c1">
+                    <fmt:message key="audit.policy.dropped_packets" />
+                </td>
+                <td width="99%">
+                     <%= auditManager.getAuditor().getDroppedPacketsNumber() %>
+                </td>
+            </tr>
         </table>
     </div>
     <input type="submit" name="update" value="<fmt:message key="global.save_settings" />">
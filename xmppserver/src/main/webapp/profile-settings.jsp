@@ -1,6 +1,7 @@
 <%@ page contentType="text/html; charset=UTF-8" %>
 <%@ page import="org.jivesoftware.util.JiveGlobals" %>
 <%@ page import="org.jivesoftware.openfire.ldap.LdapManager" %>
+<%@ page import="org.jivesoftware.openfire.ldap.LdapConnectionPool" %>
 <%@ page import="org.jivesoftware.openfire.auth.AuthFactory" %>
 <%@ page import="org.jivesoftware.openfire.ldap.LdapAuthProvider" %>
 <%--
@@ -132,6 +133,53 @@
                         </tbody>
                         </table>
                     </td>
+                </tr>
+                <tr>
+                    <td width="1%" nowrap>
+                        &nbsp;
+                    </td>
+                    <td width="99%">
+                        <table class="jive-table" cellpadding="0" cellspacing="0" border="0" width="98%" align="right">
+                        <thead>
+                            <tr>
+                                <th colspan="6"><fmt:message key="profile-settings.ldap_pool_info" /></th>
+                            </tr>
+                        </thead>
+                        <tbody>
+                        <% if (!LdapManager.getInstance().isConnectionPoolEnabled()) { %>
+                            <tr>
+                                <td colspan="6"><fmt:message key="profile-settings.ldap_pool_disabled" /></td>
+                            </tr>
+                        <% } else { %>
+                            <tr>
+                                <td><b><fmt:message key="profile-settings.ldap_pool_name" /></b></td>
+                                <td><b><fmt:message key="profile-settings.ldap_pool_active" /></b></td>
+                                <td><b><fmt:message key="profile-settings.ldap_pool_idle" /></b></td>
+                                <td><b><fmt:message key="profile-settings.ldap_pool_created" /></b></td>
+                                <td><b><fmt:message key="profile-settings.ldap_pool_reused" /></b></td>
+                                <td><b><fmt:message key="profile-settings.ldap_pool_discarded" /></b></td>
+                            </tr>
+                            <%
+                                LdapConnectionPool[] pools = { LdapManager.getInstance().getSearchConnectionPool(), LdapManager.getInstance().getBindConnectionPool() };
+                                String[] poolNames = { "profile-settings.ldap_pool_search", "profile-settings.ldap_pool_bind" };
+                                for (int i = 0; i < pools.length; i++) {
+                                    pageContext.setAttribute("pool", pools[i]);
+                                    pageContext.setAttribute("poolName", poolNames[i]);
+                            %>
+                            <tr>
+                                <td><fmt:message key="${poolName}" /></td>
+                                <td><c:out value="${pool.activeCount}"/></td>
+                                <td><c:out value="${pool.idleCount}"/></td>
+                                <td><c:out value="${pool.createdCount}"/></td>
+                                <td><c:out value="${pool.reusedCount}"/></td>
+                                <td><c:out value="${pool.discardedCount}"/></td>
+                            </tr>
+                            <% } %>
+                        <% } %>
+                        </tbody>
+                        </table>
+                    </td>
+                </tr>
                     <tr>
                         <td colspan="2" align="center">
                             <input type="submit" name="ldapedit" value="<fmt:message key="server.properties.edit" />">
@@ -7,8 +7,8 @@
                  org.jivesoftware.util.ListPager,
                  org.jivesoftware.util.ParamUtils,
                  org.xmpp.packet.JID,
+                 java.util.ArrayList,
                  java.util.Collections,
-                 java.util.Comparator,
                  java.util.List,
                  java.util.function.Predicate"
     errorPage="error.jsp"
@@ -57,38 +57,56 @@
         pubSubServiceInfo = null;
     }
 
-    List<Node> nodes;
-    if ( pubSubServiceInfo != null )
+    // Page through node identifiers, so that only the nodes that are displayed need to be loaded.
+    final PubSubServiceInfo serviceInfo = pubSubServiceInfo;
+    final List<String> nodeIDs;
+    if ( serviceInfo != null )
     {
-        nodes = pubSubServiceInfo.getLeafNodes();
-        nodes.sort(Comparator.comparing(node -> node.getNodeID().toLowerCase()));
+        nodeIDs = serviceInfo.getLeafNodeIDs();
     }
     else
     {
-        nodes = Collections.emptyList();
+        nodeIDs = Collections.emptyList();
     }
 
     // By default, display all nodes
-    Predicate<Node> filter = node -> true;
+    Predicate<String> filter = nodeID -> true;
     final String searchNodeId = ParamUtils.getStringParameter(request, "searchNodeId", "");
     if(!searchNodeId.trim().isEmpty()) {
         final String searchCriteria = searchNodeId.trim().toLowerCase();
-        filter = filter.and(node -> node.getNodeID().toLowerCase().contains(searchCriteria));
+        filter = filter.and(nodeID -> nodeID.toLowerCase().contains(searchCriteria));
     }
     final String searchNodeName = ParamUtils.getStringParameter(request, "searchNodeName", "");
     if(!searchNodeName.trim().isEmpty()) {
         final String searchCriteria = searchNodeName.trim().toLowerCase();
-        filter = filter.and(node -> node.getName().toLowerCase().contains(searchCriteria));
+        filter = filter.and(nodeID -> {
+            final Node node = serviceInfo.getNode(nodeID);
+            return node != null && node.getName().toLowerCase().contains(searchCriteria);
+        });
     }
     final String searchNodeDescription = ParamUtils.getStringParameter(request, "searchNodeDescription", "");
     if(!searchNodeDescription.trim().isEmpty()) {
         final String searchCriteria = searchNodeDescription.trim().toLowerCase();
-        filter = filter.and(node -> node.getDescription().toLowerCase().contains(searchCriteria));
+        filter = filter.and(nodeID -> {
+            final Node node = serviceInfo.getNode(nodeID);
+            return node != null && node.getDescription().toLowerCase().contains(searchCriteria);
+        });
     }
 
-    final ListPager<Node> listPager = new ListPager<>(request, response, nodes, filter, "searchNodeId", "searchNodeName", "searchNodeDescription", "username");
+    final ListPager<String> listPager = new ListPager<>(request, response, nodeIDs, filter, "searchNodeId", "searchNodeName", "searchNodeDescription", "username");
     pageContext.setAttribute("listPager", listPager);
 
+    final List<Node> nodes = new ArrayList<>();
+    for ( final String nodeID : listPager.getItemsOnCurrentPage() )
+    {
+        final Node node = serviceInfo.getNode( nodeID );
+        if ( node != null )
+        {
+            nodes.add( node );
+        }
+    }
+    pageContext.setAttribute("nodes", nodes);
+
     pageContext.setAttribute("owner", owner );
     pageContext.setAttribute("PEPMode", PEPMode);
     pageContext.setAttribute("searchNodeId", searchNodeId);
@@ -213,7 +231,7 @@
 </c:if>
 
 <%--@elvariable id="node" type="org.jivesoftware.openfire.pubsub.Node"--%>
-<c:forEach var="node" items="${listPager.itemsOnCurrentPage}" varStatus="loop">
+<c:forEach var="node" items="${nodes}" varStatus="loop">
 
     <tr class="${ (loop.index%2)==0 ? 'jive-even' : 'jive-odd'}">
         <td width="1%">
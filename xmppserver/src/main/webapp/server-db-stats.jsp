@@ -174,6 +174,73 @@
 </div>
 
 
+<%  pageContext.setAttribute("topQueries", ProfiledConnection.getTopQueries(20));
+    pageContext.setAttribute("connectionWait", ProfiledConnection.getConnectionWait()); %>
+
+    <b><fmt:message key="server.db_stats.connection_wait" /></b>
+
+    <ul>
+
+    <table bgcolor="#aaaaaa" cellpadding="0" cellspacing="0" border="0" width="600">
+    <tr><td>
+    <table bgcolor="#aaaaaa" cellpadding="3" cellspacing="1" border="0" width="100%">
+    <tr bgcolor="#ffffff">
+        <td><fmt:message key="server.db_stats.operations" /></td>
+        <td><fmt:formatNumber value="${connectionWait.count}"/></td>
+    </tr>
+    <tr bgcolor="#ffffff">
+        <td><fmt:message key="server.db_stats.median_time" /></td>
+        <td><fmt:formatNumber value="${connectionWait.medianTime}" pattern="#,##0.00"/></td>
+    </tr>
+    <tr bgcolor="#ffffff">
+        <td><fmt:message key="server.db_stats.p99_time" /></td>
+        <td><fmt:formatNumber value="${connectionWait.percentile99Time}" pattern="#,##0.00"/></td>
+    </tr>
+    <tr bgcolor="#ffffff">
+        <td><fmt:message key="server.db_stats.max_time" /></td>
+        <td><fmt:formatNumber value="${connectionWait.maxTime}" pattern="#,##0.00"/></td>
+    </tr>
+    </table>
+    </td></tr>
+    </table>
+
+    </ul>
+
+    <b><fmt:message key="server.db_stats.top_stats" /></b>
+
+    <ul>
+
+    <table bgcolor="#aaaaaa" cellpadding="0" cellspacing="0" border="0" width="600">
+    <tr><td>
+    <table width="100%" cellpadding="3" cellspacing="1" border="0" bgcolor="#aaaaaa">
+    <tr>
+        <td bgcolor="#ffffff" align="left"><b><fmt:message key="server.db_stats.query" /></b></td>
+        <td nowrap bgcolor="#ffffff"><b><fmt:message key="server.db_stats.count" /></b></td>
+        <td nowrap bgcolor="#ffffff"><b><fmt:message key="server.db_stats.time" /></b></td>
+        <td nowrap bgcolor="#ffffff"><b><fmt:message key="server.db_stats.median" /></b></td>
+        <td nowrap bgcolor="#ffffff"><b><fmt:message key="server.db_stats.p99" /></b></td>
+        <td nowrap bgcolor="#ffffff"><b><fmt:message key="server.db_stats.max" /></b></td>
+    </tr>
+    <c:forEach items="${topQueries}" var="entry" varStatus="status">
+    <c:set var="rowColor" value="${status.index % 2 == 0 ? '#efefef' : '#ffffff'}"/>
+    <tr>
+        <td bgcolor="${rowColor}"><c:out value="${entry.sql}"/></td>
+        <td bgcolor="${rowColor}"><fmt:formatNumber value="${entry.count}"/></td>
+        <td bgcolor="${rowColor}"><fmt:formatNumber value="${entry.totalTime}"/></td>
+        <td bgcolor="${rowColor}"><fmt:formatNumber value="${entry.medianTime}" pattern="#,##0.00"/></td>
+        <td bgcolor="${rowColor}"><fmt:formatNumber value="${entry.percentile99Time}" pattern="#,##0.00"/></td>
+        <td bgcolor="${rowColor}"><fmt:formatNumber value="${entry.maxTime}" pattern="#,##0.00"/></td>
+    </tr>
+    </c:forEach>
+    <c:if test="${empty topQueries}">
+    <tr><td bgcolor="#ffffff" colspan="6"><fmt:message key="server.db_stats.no_queries" /></td></tr>
+    </c:if>
+    </table>
+    </td></tr>
+    </table>
+
+    </ul>
+
     <b><fmt:message key="server.db_stats.select_stats" /></b>
 
     <ul>
@@ -236,6 +236,14 @@
             <%= maxConnections %>
         </td>
     </tr>
+    <tr>
+        <td class="c1">
+            <fmt:message key="server.db.statement_cache_size" />
+        </td>
+        <td class="c2">
+            <%= defaultConnectionProvider.getStatementCacheSize() %>
+        </td>
+    </tr>
     <tr>
         <td class="c1">
             <fmt:message key="server.db.house_keeping_sql" />
@@ -0,0 +1,78 @@
+<%@ page contentType="text/html; charset=UTF-8" %>
+<%--
+  -
+  - Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+  -
+  - Licensed under the Apache License, Version 2.0 (the "License");
+  - you may not use this file except in compliance with the License.
+  - You may obtain a copy of the License at
+  -
+  -     http://www.apache.org/licenses/LICENSE-2.0
+  -
+  - Unless required by applicable law or agreed to in writing, software
+  - distributed under the License is distributed on an "AS IS" BASIS,
+  - WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  - See the License for the specific language governing permissions and
+  - limitations under the License.
+--%>
+
+<%@ page import="java.util.Collections"
+         errorPage="error.jsp"
+%>
+<%@ page import="org.jivesoftware.openfire.XMPPServer" %>
+<%@ page import="org.jivesoftware.openfire.container.StartupTimeline" %>
+
+<%@ taglib uri="http://java.sun.com/jsp/jstl/core" prefix="c" %>
+<%@ taglib uri="http://java.sun.com/jsp/jstl/fmt" prefix="fmt" %>
+
+<jsp:useBean id="webManager" class="org.jivesoftware.util.WebManager" />
+<% webManager.init(request, response, session, application, out ); %>
+
+<%
+    final StartupTimeline timeline = XMPPServer.getInstance().getStartupTimeline();
+    pageContext.setAttribute( "entries", timeline == null ? Collections.emptyList() : timeline.getEntries() );
+%>
+
+<html>
+<head>
+    <title><fmt:message key="server.startup.title"/></title>
+    <meta name="pageID" content="server-startup"/>
+</head>
+<body>
+
+<p>
+<fmt:message key="server.startup.info" />
+</p>
+
+<div class="jive-table">
+<table cellpadding="0" cellspacing="0" border="0" width="100%">
+<thead>
+    <tr>
+        <th nowrap><fmt:message key="server.startup.module" /></th>
+        <th nowrap><fmt:message key="server.startup.initialization" /></th>
+        <th nowrap><fmt:message key="server.startup.start_offset" /></th>
+        <th nowrap><fmt:message key="server.startup.start" /></th>
+        <th nowrap><fmt:message key="server.startup.thread" /></th>
+    </tr>
+</thead>
+<tbody>
+    <c:if test="${empty entries}">
+        <tr>
+            <td colspan="5" align="center"><fmt:message key="server.startup.no_modules" /></td>
+        </tr>
+    </c:if>
+    <c:forEach items="${entries}" var="entry" varStatus="status">
+        <tr class="${status.index % 2 == 0 ? 'jive-even' : 'jive-odd'}">
+            <td><c:out value="${entry.moduleName}"/></td>
+            <td><c:if test="${entry.initializationMillis ge 0}"><c:out value="${entry.initializationMillis}"/> ms</c:if></td>
+            <td><c:if test="${entry.startOffsetMillis ge 0}">+<c:out value="${entry.startOffsetMillis}"/> ms</c:if></td>
+            <td><c:if test="${entry.startMillis ge 0}"><c:out value="${entry.startMillis}"/> ms</c:if></td>
+            <td><c:out value="${entry.startThread}"/></td>
+        </tr>
+    </c:forEach>
+</tbody>
+</table>
+</div>
+
+</body>
+</html>
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.database;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests that verify the functionality of {@link DbConnectionManager}.
+ */
+public class DbConnectionManagerTest
+{
+    /**
+     * Verifies that the statement is executed once for every row, with the parameters of that row, and is closed afterwards.
+     */
+    @Test
+    public void testExecuteBatch() throws Exception
+    {
+        // Setup fixture.
+        final PreparedStatement pstmt = mock( PreparedStatement.class );
+        final Connection con = mock( Connection.class );
+        when( con.prepareStatement( anyString() ) ).thenReturn( pstmt );
+
+        // Execute system under test.
+        DbConnectionManager.executeBatch( con, "DELETE FROM ofTest WHERE id=?", Arrays.asList( 1L, 2L, 3L ),
+            ( statement, id ) -> statement.setLong( 1, id ) );
+
+        // Verify result.
+        verify( con, times( 1 ) ).prepareStatement( "DELETE FROM ofTest WHERE id=?" );
+        verify( pstmt ).setLong( 1, 1L );
+        verify( pstmt ).setLong( 1, 2L );
+        verify( pstmt ).setLong( 1, 3L );
+        if ( DbConnectionManager.isBatchUpdatesSupported() )
+        {
+            verify( pstmt, times( 3 ) ).addBatch();
+            verify( pstmt, times( 1 ) ).executeBatch();
+        }
+        else
+        {
+            verify( pstmt, times( 3 ) ).executeUpdate();
+        }
+        verify( pstmt ).close();
+    }
+
+    /**
+     * Verifies that no statement is prepared when there are no rows.
+     */
+    @Test
+    public void testExecuteBatchWithoutRows() throws Exception
+    {
+        // Setup fixture.
+        final Connection con = mock( Connection.class );
+
+        // Execute system under test.
+        DbConnectionManager.executeBatch( con, "DELETE FROM ofTest WHERE id=?", Collections.<Long>emptyList(),
+            ( statement, id ) -> statement.setLong( 1, id ) );
+
+        // Verify result.
+        verifyZeroInteractions( con );
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.database;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the functionality of {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest
+{
+    /**
+     * Verifies that every value falls in a bucket of which the upper bound is at least that value, and at most 25% more.
+     */
+    @Test
+    public void testBucketBounds() throws Exception
+    {
+        for ( long micros = 0; micros < 100000; micros++ )
+        {
+            final long upperBound = LatencyHistogram.getUpperBound( LatencyHistogram.getBucket( micros ) );
+            assertTrue( "Value " + micros + " exceeds upper bound " + upperBound, micros <= upperBound );
+            assertTrue( "Upper bound " + upperBound + " too far from value " + micros, upperBound <= Math.max( 3, micros * 1.25 ) );
+        }
+    }
+
+    /**
+     * Verifies the count, total, maximum and percentiles of recorded durations.
+     */
+    @Test
+    public void testPercentiles() throws Exception
+    {
+        // Setup fixture.
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        // Execute system under test.
+        for ( int i = 1; i <= 100; i++ )
+        {
+            histogram.record( i * 1000000L ); // 1 to 100 milliseconds.
+        }
+
+        // Verify result.
+        assertEquals( 100, histogram.getCount() );
+        assertEquals( 5050000, histogram.getTotal() );
+        assertEquals( 100000, histogram.getMax() );
+        assertEquals( 50000, histogram.getPercentile( 50 ), 50000 * 0.25 );
+        assertEquals( 99000, histogram.getPercentile( 99 ), 99000 * 0.25 );
+        assertTrue( histogram.getPercentile( 99 ) <= histogram.getMax() );
+    }
+
+    /**
+     * Verifies that an empty histogram reports zero.
+     */
+    @Test
+    public void testEmpty() throws Exception
+    {
+        assertEquals( 0, new LatencyHistogram().getPercentile( 99 ) );
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.database;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the functionality of {@link ProfiledConnection}.
+ */
+public class ProfiledConnectionTest
+{
+    /**
+     * Verifies that statements that only differ in their literal values are normalised to the same sql string.
+     */
+    @Test
+    public void testRemoveQueryValues() throws Exception
+    {
+        // Setup fixture.
+        final String first = "SELECT name FROM ofUser WHERE username='alice' AND creationDate=12 ORDER BY name";
+        final String second = "SELECT name FROM ofUser WHERE username='bob' AND creationDate=-3456 ORDER BY name";
+
+        // Execute system under test.
+        final String firstResult = ProfiledConnection.removeQueryValues( first );
+        final String secondResult = ProfiledConnection.removeQueryValues( second );
+
+        // Verify result.
+        assertEquals( "SELECT name FROM ofUser WHERE username=? AND creationDate=? ORDER BY name", firstResult );
+        assertEquals( firstResult, secondResult );
+    }
+
+    /**
+     * Verifies that a statement without values is left as it is.
+     */
+    @Test
+    public void testRemoveQueryValuesWithoutValues() throws Exception
+    {
+        // Setup fixture.
+        final String sql = "SELECT username FROM ofUser";
+
+        // Execute system under test.
+        final String result = ProfiledConnection.removeQueryValues( sql );
+
+        // Verify result.
+        assertEquals( sql, result );
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.database;
+
+import org.apache.commons.dbcp2.DelegatingStatement;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the functionality of {@link ResettingPoolingConnection}, using an in-memory database.
+ */
+public class ResettingPoolingConnectionTest
+{
+    private static final String SQL = "SELECT id FROM ofTest ORDER BY id";
+
+    private ResettingPoolingConnection con;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        final Connection physical = DriverManager.getConnection( "jdbc:hsqldb:mem:pooling", "SA", "" );
+        try ( final Statement stmt = physical.createStatement() )
+        {
+            stmt.execute( "CREATE TABLE ofTest (id INTEGER)" );
+            stmt.execute( "INSERT INTO ofTest VALUES (1), (2), (3)" );
+        }
+        DbConnectionManager.setMetaData( physical );
+        con = ResettingPoolingConnection.create( physical, 10 );
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        try ( final Statement stmt = con.createStatement() )
+        {
+            stmt.execute( "DROP TABLE ofTest" );
+        }
+        con.close();
+    }
+
+    /**
+     * Verifies that a pooled statement that was used to load a page of results returns all rows when it is reused.
+     */
+    @Test
+    public void testLimitIsResetOnReuse() throws Exception
+    {
+        // Setup fixture.
+        final PreparedStatement paged = con.prepareStatement( SQL );
+        final int defaultFetchSize = paged.getFetchSize();
+        DbConnectionManager.limitRowsAndFetchSize( paged, 0, 1 );
+        assertEquals( 1, count( paged ) );
+        final Statement physical = ( (DelegatingStatement) paged ).getInnermostDelegate();
+        paged.close();
+
+        // Execute system under test.
+        final PreparedStatement reused = con.prepareStatement( SQL );
+
+        // Verify result.
+        assertSame( physical, ( (DelegatingStatement) reused ).getInnermostDelegate() );
+        assertEquals( 0, reused.getMaxRows() );
+        assertEquals( defaultFetchSize, reused.getFetchSize() );
+        assertEquals( 3, count( reused ) );
+        reused.close();
+    }
+
+    private static int count( final PreparedStatement pstmt ) throws Exception
+    {
+        int result = 0;
+        try ( final ResultSet rs = pstmt.executeQuery() )
+        {
+            while ( rs.next() )
+            {
+                result++;
+            }
+        }
+        return result;
+    }
+}
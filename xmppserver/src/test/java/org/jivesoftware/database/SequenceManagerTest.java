@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.database;
+
+import org.jivesoftware.Fixtures;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the functionality of {@link SequenceManager}.
+ */
+public class SequenceManagerTest
+{
+    @BeforeClass
+    public static void setUpClass() throws Exception
+    {
+        Fixtures.reconfigureOpenfireHome();
+    }
+
+    /**
+     * Verifies that ID's that are requested concurrently are unique, while blocks are replaced and prefetched in the
+     * background.
+     */
+    @Test
+    public void testConcurrentIDsAreUnique() throws Exception
+    {
+        // Setup fixture.
+        final int threads = 8;
+        final int idsPerThread = 5000;
+        final SequenceManager manager = new DatabaseStub( -4601, 3 );
+        final Set<Long> ids = ConcurrentHashMap.newKeySet();
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final ExecutorService executor = Executors.newFixedThreadPool( threads );
+
+        try
+        {
+            // Execute system under test.
+            final List<Future<Integer>> duplicates = new ArrayList<>();
+            for ( int i = 0; i < threads; i++ )
+            {
+                duplicates.add( executor.submit( () -> {
+                    start.await();
+                    int result = 0;
+                    for ( int j = 0; j < idsPerThread; j++ )
+                    {
+                        if ( !ids.add( manager.nextUniqueID() ) )
+                        {
+                            result++;
+                        }
+                    }
+                    return result;
+                } ) );
+            }
+            start.countDown();
+
+            // Verify result.
+            for ( final Future<Integer> future : duplicates )
+            {
+                assertEquals( 0, (int) future.get( 1, TimeUnit.MINUTES ) );
+            }
+            assertEquals( threads * idsPerThread, ids.size() );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A sequence manager that obtains its blocks from a simulated ofID row instead of the database. Like the database
+     * row, it is updated only when it still holds the value that was read, and obtaining a block takes a while.
+     */
+    private static class DatabaseStub extends SequenceManager
+    {
+        private final AtomicLong row = new AtomicLong( 1 );
+
+        DatabaseStub( final int seqType, final int size )
+        {
+            super( seqType, size );
+        }
+
+        @Override
+        Block getNextBlock( final int size, final int count )
+        {
+            while ( true )
+            {
+                final long currentID = row.get();
+                try
+                {
+                    Thread.sleep( 1 );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+                if ( row.compareAndSet( currentID, currentID + size ) )
+                {
+                    return new Block( currentID, currentID + size );
+                }
+            }
+        }
+    }
+}
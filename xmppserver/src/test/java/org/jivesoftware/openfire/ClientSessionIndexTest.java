@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire;
+
+import org.jivesoftware.openfire.session.ClientSession;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests that verify the functionality of {@link ClientSessionIndex}.
+ */
+public class ClientSessionIndexTest
+{
+    private ClientSessionIndex index;
+    private ClientSession john;
+    private ClientSession jane;
+    private ClientSession anonymous;
+
+    private static ClientSession session( final String address, final String streamID, final long creationDate, final boolean anonymous )
+    {
+        final StreamID id = mock( StreamID.class );
+        when( id.getID() ).thenReturn( streamID );
+        final ClientSession session = mock( ClientSession.class );
+        when( session.getAddress() ).thenReturn( new JID( address ) );
+        when( session.getStreamID() ).thenReturn( id );
+        when( session.getCreationDate() ).thenReturn( new Date( creationDate ) );
+        when( session.isAnonymousUser() ).thenReturn( anonymous );
+        return session;
+    }
+
+    private static SessionResultFilter filter( final int sortField, final int sortOrder, final int startIndex, final int numResults )
+    {
+        final SessionResultFilter filter = new SessionResultFilter();
+        filter.setSortField( sortField );
+        filter.setSortOrder( sortOrder );
+        filter.setStartIndex( startIndex );
+        filter.setNumResults( numResults );
+        return filter;
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        index = new ClientSessionIndex();
+        john = session( "john@example.org/a", "1", 3000, false );
+        jane = session( "jane@example.org/a", "2", 1000, false );
+        anonymous = session( "xyz123@example.org/a", "3", 2000, true );
+        index.sessionCreated( john );
+        index.sessionCreated( jane );
+        index.anonymousSessionCreated( anonymous );
+    }
+
+    /**
+     * Verifies that sessions are sorted by username, with anonymous sessions first.
+     */
+    @Test
+    public void testSortByUser() throws Exception
+    {
+        // Execute system under test.
+        final List<ClientSession> ascending = index.getSessions( filter( SessionResultFilter.SORT_USER, SessionResultFilter.ASCENDING, 0, SessionResultFilter.NO_RESULT_LIMIT ) );
+        final List<ClientSession> descending = index.getSessions( filter( SessionResultFilter.SORT_USER, SessionResultFilter.DESCENDING, 0, SessionResultFilter.NO_RESULT_LIMIT ) );
+
+        // Verify result.
+        assertEquals( Arrays.asList( anonymous, jane, john ), ascending );
+        assertEquals( Arrays.asList( john, jane, anonymous ), descending );
+    }
+
+    /**
+     * Verifies that a page of sessions sorted by creation date can be obtained.
+     */
+    @Test
+    public void testPageByCreationDate() throws Exception
+    {
+        // Execute system under test.
+        final List<ClientSession> result = index.getSessions( filter( SessionResultFilter.SORT_CREATION_DATE, SessionResultFilter.ASCENDING, 1, 1 ) );
+
+        // Verify result.
+        assertEquals( Collections.singletonList( anonymous ), result );
+    }
+
+    /**
+     * Verifies that sessions with the same address are both indexed, and are removed independently.
+     */
+    @Test
+    public void testSameAddress() throws Exception
+    {
+        // Setup fixture.
+        final ClientSession replacement = session( "john@example.org/a", "4", 4000, false );
+        index.sessionCreated( replacement );
+
+        // Execute system under test.
+        final int before = index.size();
+        index.sessionDestroyed( john );
+
+        // Verify result.
+        assertEquals( 4, before );
+        assertEquals( Arrays.asList( anonymous, jane, replacement ), index.getSessions( filter( SessionResultFilter.SORT_USER, SessionResultFilter.ASCENDING, 0, SessionResultFilter.NO_RESULT_LIMIT ) ) );
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.audit.spi;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+import org.jivesoftware.Fixtures;
+import org.jivesoftware.openfire.audit.AuditManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Presence;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests that verify the functionality of {@link AuditorImpl}.
+ */
+public class AuditorImplTest
+{
+    private File logDir;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception
+    {
+        Fixtures.reconfigureOpenfireHome();
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Fixtures.clearExistingProperties();
+        logDir = Files.createTempDirectory( "audit" ).toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        final File[] files = logDir.listFiles();
+        if ( files != null )
+        {
+            for ( final File file : files )
+            {
+                file.delete();
+            }
+        }
+        logDir.delete();
+    }
+
+    /**
+     * Verifies that audited packets are written to a well-formed audit file when the auditor is stopped.
+     */
+    @Test
+    public void testPacketsAreWritten() throws Exception
+    {
+        // Setup fixture.
+        final AuditManager manager = mock( AuditManager.class );
+        when( manager.isEnabled() ).thenReturn( true );
+        when( manager.isAuditMessage() ).thenReturn( true );
+        when( manager.isAuditPresence() ).thenReturn( true );
+
+        final AuditorImpl auditor = new AuditorImpl( manager );
+        auditor.setMaxValues( 100, 10, -1 );
+        auditor.setLogDir( logDir.getAbsolutePath() );
+        auditor.setLogTimeout( 60000 );
+
+        final Message message = new Message();
+        message.setTo( new JID( "john@example.org/desktop" ) );
+        message.setBody( "Hëllo <wörld> & friends" );
+
+        // Execute system under test.
+        auditor.audit( message, null );
+        auditor.audit( new Presence(), null );
+        auditor.stop();
+
+        // Verify result.
+        final File[] files = logDir.listFiles();
+        assertNotNull( files );
+        assertEquals( 1, files.length );
+        assertTrue( files[0].getName().matches( "jive\\.audit-\\d{8}-000\\.log" ) );
+
+        final Document document = new SAXReader().read( files[0] );
+        final List<Element> packets = document.getRootElement().elements( "packet" );
+        assertEquals( 2, packets.size() );
+        assertEquals( "unknown", packets.get( 0 ).attributeValue( "status" ) );
+        assertEquals( "Hëllo <wörld> & friends", packets.get( 0 ).element( "message" ).elementText( "body" ) );
+        assertNotNull( packets.get( 1 ).element( "presence" ) );
+        assertEquals( 0, auditor.getQueuedPacketsNumber() );
+        assertEquals( 0, auditor.getDroppedPacketsNumber() );
+    }
+
+    /**
+     * Verifies that packets are not queued when auditing is disabled.
+     */
+    @Test
+    public void testDisabled() throws Exception
+    {
+        // Setup fixture.
+        final AuditManager manager = mock( AuditManager.class );
+        when( manager.isEnabled() ).thenReturn( false );
+        final AuditorImpl auditor = new AuditorImpl( manager );
+
+        // Execute system under test.
+        auditor.audit( new Message(), null );
+
+        // Verify result.
+        assertEquals( 0, auditor.getQueuedPacketsNumber() );
+        auditor.stop();
+    }
+
+    /**
+     * Verifies that the packet that does not fit in a full queue is dropped when the overflow policy is DROP_NEWEST.
+     */
+    @Test
+    public void testDropNewest() throws Exception
+    {
+        // Setup fixture.
+        AuditorImpl.QUEUE_CAPACITY.setValue( 2 );
+        AuditorImpl.OVERFLOW_POLICY.setValue( AuditorImpl.OverflowPolicy.DROP_NEWEST );
+
+        // Execute system under test.
+        final AuditorImpl auditor = auditMessages( "1", "2", "3" );
+
+        // Verify result.
+        assertEquals( 1, auditor.getDroppedPacketsNumber() );
+        assertEquals( Arrays.asList( "1", "2" ), readBodies() );
+    }
+
+    /**
+     * Verifies that the oldest queued packet is dropped to make room for a new packet when the overflow policy is
+     * DROP_OLDEST.
+     */
+    @Test
+    public void testDropOldest() throws Exception
+    {
+        // Setup fixture.
+        AuditorImpl.QUEUE_CAPACITY.setValue( 2 );
+        AuditorImpl.OVERFLOW_POLICY.setValue( AuditorImpl.OverflowPolicy.DROP_OLDEST );
+
+        // Execute system under test.
+        final AuditorImpl auditor = auditMessages( "1", "2", "3" );
+
+        // Verify result.
+        assertEquals( 1, auditor.getDroppedPacketsNumber() );
+        assertEquals( Arrays.asList( "2", "3" ), readBodies() );
+    }
+
+    /**
+     * Audits messages with the provided bodies before the writer thread is started, then starts and stops the
+     * auditor, so that all packets that were queued are written.
+     */
+    private AuditorImpl auditMessages( final String... bodies ) throws Exception
+    {
+        final AuditManager manager = mock( AuditManager.class );
+        when( manager.isEnabled() ).thenReturn( true );
+        when( manager.isAuditMessage() ).thenReturn( true );
+
+        final AuditorImpl auditor = new AuditorImpl( manager );
+        auditor.setMaxValues( 100, 10, -1 );
+        auditor.setLogDir( logDir.getAbsolutePath() );
+        for ( final String body : bodies )
+        {
+            final Message message = new Message();
+            message.setBody( body );
+            auditor.audit( message, null );
+        }
+        auditor.setLogTimeout( 60000 );
+        auditor.stop();
+        return auditor;
+    }
+
+    private List<String> readBodies() throws Exception
+    {
+        final File[] files = logDir.listFiles();
+        assertNotNull( files );
+        assertEquals( 1, files.length );
+        final List<String> result = new ArrayList<>();
+        for ( final Element packet : new SAXReader().read( files[0] ).getRootElement().elements( "packet" ) )
+        {
+            result.add( packet.element( "message" ).elementText( "body" ) );
+        }
+        return result;
+    }
+}
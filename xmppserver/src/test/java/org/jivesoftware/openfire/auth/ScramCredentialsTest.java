@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.auth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the functionality of {@link ScramCredentials}.
+ */
+public class ScramCredentialsTest
+{
+    /**
+     * Verifies that the default implementation of {@link AuthProvider#getScramCredentials(String)} combines the
+     * values of the individual getters.
+     */
+    @Test
+    public void testDefaultProviderImplementation() throws Exception
+    {
+        // Setup fixture.
+        final AuthProvider provider = new StubAuthProvider();
+
+        // Execute system under test.
+        final ScramCredentials result = provider.getScramCredentials( "john" );
+
+        // Verify result.
+        assertEquals( "salt-john", result.getSalt() );
+        assertEquals( 4096, result.getIterations() );
+        assertEquals( "stored-john", result.getStoredKey() );
+        assertEquals( "server-john", result.getServerKey() );
+        assertTrue( result.isComplete() );
+    }
+
+    /**
+     * Verifies that credentials that lack any of the values are not considered complete.
+     */
+    @Test
+    public void testIncomplete() throws Exception
+    {
+        assertFalse( new ScramCredentials( null, 4096, "stored", "server" ).isComplete() );
+        assertFalse( new ScramCredentials( "salt", 0, "stored", "server" ).isComplete() );
+        assertFalse( new ScramCredentials( "salt", 4096, null, "server" ).isComplete() );
+        assertFalse( new ScramCredentials( "salt", 4096, "stored", null ).isComplete() );
+    }
+
+    private static class StubAuthProvider implements AuthProvider
+    {
+        @Override
+        public void authenticate( final String username, final String password )
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getPassword( final String username )
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setPassword( final String username, final String password )
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean supportsPasswordRetrieval()
+        {
+            return false;
+        }
+
+        @Override
+        public boolean isScramSupported()
+        {
+            return true;
+        }
+
+        @Override
+        public String getSalt( final String username )
+        {
+            return "salt-" + username;
+        }
+
+        @Override
+        public int getIterations( final String username )
+        {
+            return 4096;
+        }
+
+        @Override
+        public String getServerKey( final String username )
+        {
+            return "server-" + username;
+        }
+
+        @Override
+        public String getStoredKey( final String username )
+        {
+            return "stored-" + username;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.auth;
+
+import org.junit.Test;
+
+import javax.xml.bind.DatatypeConverter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the functionality of {@link ScramUtils}, using the example exchanges of the SCRAM
+ * specifications.
+ */
+public class ScramUtilsTest
+{
+    /**
+     * Verifies the client proof and server signature of the SCRAM-SHA-1 example of RFC 5802, section 5.
+     */
+    @Test
+    public void testSha1Example() throws Exception
+    {
+        assertExample( ScramHash.SHA_1,
+            "QSXCR+Q6sek8bf92",
+            "n=user,r=fyko+d2lbbFgONRv9qkxdawL",
+            "r=fyko+d2lbbFgONRv9qkxdawL3rfcNHYJY1ZVvWVs7j,s=QSXCR+Q6sek8bf92,i=4096",
+            "c=biws,r=fyko+d2lbbFgONRv9qkxdawL3rfcNHYJY1ZVvWVs7j",
+            "v0X8v3Bz2T0CJGbJQyF0X+HI4Ts=",
+            "rmF9pqV8S7suAoZWja4dJRkFsKQ=" );
+    }
+
+    /**
+     * Verifies the client proof and server signature of the SCRAM-SHA-256 example of RFC 7677, section 3.
+     */
+    @Test
+    public void testSha256Example() throws Exception
+    {
+        assertExample( ScramHash.SHA_256,
+            "W22ZaJ0SNY7soEsUEjb6gQ==",
+            "n=user,r=rOprNGfwEbeRWgbNEkqO",
+            "r=rOprNGfwEbeRWgbNEkqO%hvYDpWUa2RaTCAfuxFIlj)hNlF$k0,s=W22ZaJ0SNY7soEsUEjb6gQ==,i=4096",
+            "c=biws,r=rOprNGfwEbeRWgbNEkqO%hvYDpWUa2RaTCAfuxFIlj)hNlF$k0",
+            "dHzbZapWIk4jUhN+Ute9ytag9zjfMHgsqmmiz7AndVQ=",
+            "6rriTRBi23WpRR/wtup+mMhUZUn/dB5nLTJRsjl95G4=" );
+    }
+
+    private static void assertExample( final ScramHash hash, final String salt, final String clientFirstMessageBare,
+                                       final String serverFirstMessage, final String clientFinalMessageWithoutProof,
+                                       final String expectedProof, final String expectedServerSignature ) throws Exception
+    {
+        // Setup fixture.
+        final String authMessage = clientFirstMessageBare + "," + serverFirstMessage + "," + clientFinalMessageWithoutProof;
+
+        // Execute system under test.
+        final byte[] saltedPassword = ScramUtils.createSaltedPassword( DatatypeConverter.parseBase64Binary( salt ), "pencil", 4096, hash );
+        final byte[] clientKey = ScramUtils.computeHmac( saltedPassword, "Client Key", hash );
+        final byte[] storedKey = ScramUtils.computeHash( clientKey, hash );
+        final byte[] serverKey = ScramUtils.computeHmac( saltedPassword, "Server Key", hash );
+        final byte[] proof = ScramUtils.computeHmac( storedKey, authMessage, hash );
+        for ( int i = 0; i < proof.length; i++ )
+        {
+            proof[ i ] ^= clientKey[ i ];
+        }
+        final byte[] serverSignature = ScramUtils.computeHmac( serverKey, authMessage, hash );
+
+        // Verify result.
+        assertEquals( expectedProof, DatatypeConverter.printBase64Binary( proof ) );
+        assertEquals( expectedServerSignature, DatatypeConverter.printBase64Binary( serverSignature ) );
+    }
+}
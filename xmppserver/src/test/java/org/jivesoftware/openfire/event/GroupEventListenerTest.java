@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.event;
+
+import org.jivesoftware.openfire.group.Group;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests that verify the default implementations of {@link GroupEventListener}.
+ */
+public class GroupEventListenerTest
+{
+    /**
+     * Verifies that, by default, an event for several added members is processed as one event per added member.
+     */
+    @Test
+    public void testMembersAddedDefaultsToMemberAdded() throws Exception
+    {
+        // Setup fixture.
+        final List<String> notified = new ArrayList<>();
+        final GroupEventListener listener = new GroupEventAdapter() {
+            @Override
+            public void memberAdded( final Group group, final Map params )
+            {
+                notified.add( (String) params.get( "member" ) );
+            }
+        };
+        final Map<String, Object> params = new HashMap<>();
+        params.put( "members", Arrays.asList( "john@example.org", "jane@example.org" ) );
+
+        // Execute system under test.
+        listener.membersAdded( null, params );
+
+        // Verify result.
+        assertEquals( Arrays.asList( "john@example.org", "jane@example.org" ), notified );
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.group;
+
+import org.jivesoftware.Fixtures;
+import org.jivesoftware.database.DbConnectionManager;
+import org.jivesoftware.openfire.XMPPServer;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.Arrays;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests that verify the functionality of {@link DefaultGroupProvider}.
+ */
+public class DefaultGroupProviderTest
+{
+    @BeforeClass
+    public static void setUpClass() throws Exception
+    {
+        Fixtures.reconfigureOpenfireHome();
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        XMPPServer.setInstance( Fixtures.mockXMPPServer() );
+    }
+
+    /**
+     * Verifies that several members are inserted with a single prepared statement, as one batch, storing the
+     * username of local users and the full JID of remote users.
+     */
+    @Test
+    public void testInsertMembers() throws Exception
+    {
+        // Setup fixture.
+        final PreparedStatement pstmt = mock( PreparedStatement.class );
+        final Connection con = mock( Connection.class );
+        when( con.prepareStatement( anyString() ) ).thenReturn( pstmt );
+        final DefaultGroupProvider provider = new DefaultGroupProvider();
+
+        // Execute system under test.
+        provider.insertMembers( con, "test-group", Arrays.asList(
+            new JID( "john@" + Fixtures.XMPP_DOMAIN ), new JID( "jane@example.org" ) ), false );
+
+        // Verify result.
+        verify( con, times( 1 ) ).prepareStatement( anyString() );
+        verify( pstmt, times( 2 ) ).setString( 1, "test-group" );
+        verify( pstmt ).setString( 2, "john" );
+        verify( pstmt ).setString( 2, "jane@example.org" );
+        verify( pstmt, times( 2 ) ).setInt( 3, 0 );
+        if ( DbConnectionManager.isBatchUpdatesSupported() )
+        {
+            verify( pstmt, times( 2 ) ).addBatch();
+            verify( pstmt, times( 1 ) ).executeBatch();
+        }
+        else
+        {
+            verify( pstmt, times( 2 ) ).executeUpdate();
+        }
+        verify( pstmt ).close();
+    }
+}
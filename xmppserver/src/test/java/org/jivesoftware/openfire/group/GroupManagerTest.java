@@ -140,7 +140,7 @@ public class GroupManagerTest {
      */
     public static class TestGroupProvider implements GroupProvider {
 
-        private static GroupProvider mockGroupProvider;
+        static GroupProvider mockGroupProvider;
 
         @Override
         public Group createGroup(final String name) throws GroupAlreadyExistsException {
@@ -217,6 +217,11 @@ public class GroupManagerTest {
             mockGroupProvider.addMember(groupName, user, administrator);
         }
 
+        @Override
+        public void addMembers(final String groupName, final Collection<JID> users, final boolean administrator) {
+            mockGroupProvider.addMembers(groupName, users, administrator);
+        }
+
         @Override
         public void updateMember(final String groupName, final JID user, final boolean administrator) {
             mockGroupProvider.updateMember(groupName, user, administrator);
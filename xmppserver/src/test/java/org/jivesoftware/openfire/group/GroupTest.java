@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.group;
+
+import org.jivesoftware.Fixtures;
+import org.jivesoftware.openfire.event.GroupEventAdapter;
+import org.jivesoftware.openfire.event.GroupEventDispatcher;
+import org.jivesoftware.openfire.event.GroupEventListener;
+import org.jivesoftware.util.JiveGlobals;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.xmpp.packet.JID;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests that verify the functionality of {@link Group}.
+ */
+@RunWith( MockitoJUnitRunner.class )
+public class GroupTest
+{
+    private static final JID MEMBER = new JID( "member@" + Fixtures.XMPP_DOMAIN );
+    private static final JID ADMIN = new JID( "admin@" + Fixtures.XMPP_DOMAIN );
+    private static final JID JOHN = new JID( "john@" + Fixtures.XMPP_DOMAIN );
+    private static final JID JANE = new JID( "jane@" + Fixtures.XMPP_DOMAIN );
+
+    @Mock
+    private GroupProvider groupProvider;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception
+    {
+        Fixtures.reconfigureOpenfireHome();
+        JiveGlobals.setProperty( "provider.group.className", GroupManagerTest.TestGroupProvider.class.getName() );
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        GroupManagerTest.TestGroupProvider.mockGroupProvider = groupProvider;
+        GroupManager.getInstance();
+    }
+
+    /**
+     * Verifies that users that are not yet part of the group are stored by the provider in one operation, and are
+     * announced to listeners by a single event.
+     */
+    @Test
+    public void testAddMembers() throws Exception
+    {
+        // Setup fixture.
+        final Group group = new Group( "test-group", "", Collections.singletonList( MEMBER ), Collections.singletonList( ADMIN ) );
+        final List<Collection<?>> events = new ArrayList<>();
+        final GroupEventListener listener = new GroupEventAdapter() {
+            @Override
+            public void membersAdded( final Group group, final Map<String, Object> params )
+            {
+                events.add( (Collection<?>) params.get( "members" ) );
+            }
+        };
+        GroupEventDispatcher.addListener( listener );
+
+        try
+        {
+            // Execute system under test.
+            final Collection<JID> result = group.addMembers( Arrays.asList( JOHN, MEMBER, ADMIN, JANE ) );
+
+            // Verify result.
+            assertEquals( Arrays.asList( JOHN, JANE ), new ArrayList<>( result ) );
+            assertTrue( group.isUser( JOHN ) );
+            assertTrue( group.isUser( JANE ) );
+            verify( groupProvider, times( 1 ) ).addMembers( "test-group", Arrays.asList( JOHN, JANE ), false );
+            verify( groupProvider, never() ).addMember( anyString(), any( JID.class ), anyBoolean() );
+            assertEquals( 1, events.size() );
+            assertEquals( Arrays.asList( JOHN.toString(), JANE.toString() ), new ArrayList<>( events.get( 0 ) ) );
+        }
+        finally
+        {
+            GroupEventDispatcher.removeListener( listener );
+        }
+    }
+
+    /**
+     * Verifies that nothing is stored, nor announced, when all users already are part of the group.
+     */
+    @Test
+    public void testAddMembersThatAlreadyArePartOfTheGroup() throws Exception
+    {
+        // Setup fixture.
+        final Group group = new Group( "test-group", "", Collections.singletonList( MEMBER ), Collections.singletonList( ADMIN ) );
+        final List<Collection<?>> events = new ArrayList<>();
+        final GroupEventListener listener = new GroupEventAdapter() {
+            @Override
+            public void membersAdded( final Group group, final Map<String, Object> params )
+            {
+                events.add( (Collection<?>) params.get( "members" ) );
+            }
+        };
+        GroupEventDispatcher.addListener( listener );
+
+        try
+        {
+            // Execute system under test.
+            final Collection<JID> result = group.addMembers( Arrays.asList( MEMBER, ADMIN ) );
+
+            // Verify result.
+            assertTrue( result.isEmpty() );
+            verify( groupProvider, never() ).addMembers( anyString(), anyCollection(), anyBoolean() );
+            assertTrue( events.isEmpty() );
+        }
+        finally
+        {
+            GroupEventDispatcher.removeListener( listener );
+        }
+    }
+
+    /**
+     * Verifies that no users are added to a group of a read-only provider.
+     */
+    @Test
+    public void testAddMembersWithReadOnlyProvider() throws Exception
+    {
+        // Setup fixture.
+        final Group group = new Group( "test-group", "", Collections.singletonList( MEMBER ), Collections.singletonList( ADMIN ) );
+        doReturn( true ).when( groupProvider ).isReadOnly();
+
+        // Execute system under test.
+        final Collection<JID> result = group.addMembers( Arrays.asList( JOHN, JANE ) );
+
+        // Verify result.
+        assertTrue( result.isEmpty() );
+        assertFalse( group.isUser( JOHN ) );
+        verify( groupProvider, never() ).addMembers( anyString(), anyCollection(), anyBoolean() );
+    }
+}
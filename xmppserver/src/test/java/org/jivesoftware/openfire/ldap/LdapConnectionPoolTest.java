@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.ldap;
+
+import org.jivesoftware.Fixtures;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.naming.Context;
+import javax.naming.spi.InitialContextFactory;
+import javax.naming.ldap.LdapContext;
+import java.util.Hashtable;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests that verify the functionality of {@link LdapConnectionPool}.
+ */
+public class LdapConnectionPoolTest
+{
+    /**
+     * Provides contexts that do not connect to an LDAP server.
+     */
+    public static class MockContextFactory implements InitialContextFactory
+    {
+        @Override
+        public Context getInitialContext( final Hashtable<?, ?> environment )
+        {
+            return mock( LdapContext.class );
+        }
+    }
+
+    private LdapConnectionPool pool;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception
+    {
+        Fixtures.reconfigureOpenfireHome();
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        final Hashtable<String, Object> environment = new Hashtable<>();
+        environment.put( Context.INITIAL_CONTEXT_FACTORY, MockContextFactory.class.getName() );
+        pool = new LdapConnectionPool( "test", ( baseDN, owner ) -> new PooledLdapContext( environment, owner, baseDN ), true );
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        pool.shutdown();
+    }
+
+    /**
+     * Verifies that a connection that is closed is reused for the same base DN.
+     */
+    @Test
+    public void testReuseForSameBaseDN() throws Exception
+    {
+        // Setup fixture.
+        final PooledLdapContext first = pool.borrow( "dc=example,dc=org" );
+        first.close();
+
+        // Execute system under test.
+        final PooledLdapContext second = pool.borrow( "dc=example,dc=org" );
+        final PooledLdapContext other = pool.borrow( "dc=example,dc=com" );
+
+        // Verify result.
+        assertSame( first, second );
+        assertNotSame( first, other );
+        assertEquals( 2, pool.getCreatedCount() );
+        assertEquals( 1, pool.getReusedCount() );
+        assertEquals( 2, pool.getActiveCount() );
+    }
+
+    /**
+     * Verifies that closing a connection more than once returns it to the pool only once.
+     */
+    @Test
+    public void testCloseTwice() throws Exception
+    {
+        // Setup fixture.
+        final PooledLdapContext context = pool.borrow( "dc=example,dc=org" );
+
+        // Execute system under test.
+        context.close();
+        context.close();
+
+        // Verify result.
+        assertEquals( 1, pool.getIdleCount() );
+        assertEquals( 0, pool.getActiveCount() );
+    }
+
+    /**
+     * Verifies that clearing the pool closes idle connections, and connections that are returned afterwards.
+     */
+    @Test
+    public void testClear() throws Exception
+    {
+        // Setup fixture.
+        final PooledLdapContext idle = pool.borrow( "dc=example,dc=org" );
+        final PooledLdapContext active = pool.borrow( "dc=example,dc=org" );
+        idle.close();
+
+        // Execute system under test.
+        pool.clear();
+        active.close();
+
+        // Verify result.
+        assertEquals( 0, pool.getIdleCount() );
+        assertEquals( 2, pool.getDiscardedCount() );
+        assertNotSame( active, pool.borrow( "dc=example,dc=org" ) );
+    }
+}
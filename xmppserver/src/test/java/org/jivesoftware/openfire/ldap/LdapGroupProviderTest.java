@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.ldap;
+
+import org.jivesoftware.Fixtures;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests that verify the lookup of group members by {@link LdapGroupProvider}.
+ */
+public class LdapGroupProviderTest
+{
+    @BeforeClass
+    public static void setUpClass() throws Exception
+    {
+        Fixtures.reconfigureOpenfireHome();
+    }
+
+    private static Rdn rdn( final String dn ) throws Exception
+    {
+        final LdapName name = new LdapName( dn );
+        return name.getRdn( name.size() - 1 );
+    }
+
+    /**
+     * Verifies that one filter is created that matches any of the members.
+     */
+    @Test
+    public void testMemberSearchFilter() throws Exception
+    {
+        // Setup fixture.
+        final String searchFilter = "(sAMAccountName={0})";
+
+        // Execute system under test.
+        final String result = LdapGroupProvider.getMemberSearchFilter( searchFilter, Arrays.asList(
+            rdn( "CN=John Doe,OU=Users,DC=example,DC=org" ),
+            rdn( "CN=Jane Doe,OU=Users,DC=example,DC=org" ),
+            rdn( "CN=John Doe,OU=Admins,DC=example,DC=org" ) ) );
+
+        // Verify result.
+        assertEquals( "(&(sAMAccountName=*)(|(CN=John Doe)(CN=Jane Doe)))", result );
+    }
+
+    /**
+     * Verifies that values in the filter are escaped.
+     */
+    @Test
+    public void testMemberSearchFilterEscapesValues() throws Exception
+    {
+        // Setup fixture.
+        final String searchFilter = "(uid={0})";
+
+        // Execute system under test.
+        final String result = LdapGroupProvider.getMemberSearchFilter( searchFilter, Collections.singletonList(
+            rdn( "CN=Doe\\, John (*),OU=Users,DC=example,DC=org" ) ) );
+
+        // Verify result.
+        assertEquals( "(&(uid=*)(CN=Doe, John \\28\\2a\\29))", result );
+    }
+
+    /**
+     * Verifies that DNs that differ only in formatting share the same cache entry.
+     */
+    @Test
+    public void testUsernameCacheKeyIgnoresFormatting() throws Exception
+    {
+        // Execute system under test.
+        final String first = LdapManager.getUsernameCacheKey( "CN=John Doe,OU=Users,DC=example,DC=org" );
+        final String second = LdapManager.getUsernameCacheKey( "cn=John Doe, ou=users, dc=Example, dc=org" );
+
+        // Verify result.
+        assertEquals( first, second );
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.pubsub;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that verify the implementation of {@link NodeResidencyManager}
+ */
+public class NodeResidencyManagerTest
+{
+    /**
+     * Verifies that nothing is evicted as long as the number of resident nodes does not exceed the maximum.
+     */
+    @Test
+    public void testNoEvictionWithinBudget() throws Exception
+    {
+        // Setup fixture.
+        final NodeResidencyManager manager = new NodeResidencyManager( 2 );
+
+        // Execute system under test.
+        final List<String> first = manager.touch( "a" );
+        final List<String> second = manager.touch( "b" );
+
+        // Verify result.
+        assertTrue( first.isEmpty() );
+        assertTrue( second.isEmpty() );
+        assertEquals( 2, manager.size() );
+    }
+
+    /**
+     * Verifies that the least recently used node is evicted when the maximum is exceeded.
+     */
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception
+    {
+        // Setup fixture.
+        final NodeResidencyManager manager = new NodeResidencyManager( 2 );
+        manager.touch( "a" );
+        manager.touch( "b" );
+        manager.touch( "a" ); // 'b' is now the least recently used node.
+
+        // Execute system under test.
+        final List<String> result = manager.touch( "c" );
+
+        // Verify result.
+        assertEquals( Collections.singletonList( "b" ), result );
+        assertEquals( 2, manager.size() );
+    }
+
+    /**
+     * Verifies that an access that is recorded without blocking is taken into account when nodes are evicted.
+     */
+    @Test
+    public void testRecordedAccessAffectsEviction() throws Exception
+    {
+        // Setup fixture.
+        final NodeResidencyManager manager = new NodeResidencyManager( 2 );
+        manager.touch( "a" );
+        manager.touch( "b" );
+        manager.recordAccess( "a" ); // 'b' is now the least recently used node.
+
+        // Execute system under test.
+        final List<String> result = manager.touch( "c" );
+
+        // Verify result.
+        assertEquals( Collections.singletonList( "b" ), result );
+        assertEquals( 2, manager.size() );
+    }
+
+    /**
+     * Verifies that recording an access of a node that is not resident does not make it resident.
+     */
+    @Test
+    public void testRecordedAccessDoesNotAdmit() throws Exception
+    {
+        // Setup fixture.
+        final NodeResidencyManager manager = new NodeResidencyManager( 2 );
+        manager.touch( "a" );
+
+        // Execute system under test.
+        manager.recordAccess( "b" );
+
+        // Verify result.
+        assertEquals( 1, manager.size() );
+    }
+
+    /**
+     * Verifies that a removed node no longer counts towards the maximum.
+     */
+    @Test
+    public void testRemove() throws Exception
+    {
+        // Setup fixture.
+        final NodeResidencyManager manager = new NodeResidencyManager( 2 );
+        manager.touch( "a" );
+        manager.touch( "b" );
+
+        // Execute system under test.
+        manager.remove( "a" );
+        final List<String> result = manager.touch( "c" );
+
+        // Verify result.
+        assertTrue( result.isEmpty() );
+        assertEquals( 2, manager.size() );
+    }
+
+    /**
+     * Verifies that a non-positive maximum is rejected.
+     */
+    @Test( expected = IllegalArgumentException.class )
+    public void testInvalidMaximum() throws Exception
+    {
+        new NodeResidencyManager( 0 );
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.roster;
+
+import org.jivesoftware.openfire.session.Session;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests that verify the functionality of {@link OnlineUserIndex}.
+ */
+public class OnlineUserIndexTest
+{
+    private static Session session( final String address )
+    {
+        final Session session = mock( Session.class );
+        when( session.getAddress() ).thenReturn( new JID( address ) );
+        return session;
+    }
+
+    /**
+     * Verifies that a user remains online until the last of its sessions is destroyed.
+     */
+    @Test
+    public void testOnlineUntilLastSessionDestroyed() throws Exception
+    {
+        // Setup fixture.
+        final OnlineUserIndex index = new OnlineUserIndex();
+        final Session first = session( "john@example.org/a" );
+        final Session second = session( "john@example.org/b" );
+        index.sessionCreated( first );
+        index.sessionCreated( second );
+
+        // Execute system under test.
+        index.sessionDestroyed( first );
+        final boolean afterFirst = index.isOnline( "john@example.org" );
+        index.sessionDestroyed( second );
+
+        // Verify result.
+        assertTrue( afterFirst );
+        assertFalse( index.isOnline( "john@example.org" ) );
+        assertTrue( index.getOnlineUsers().isEmpty() );
+    }
+
+    /**
+     * Verifies that destroying a session of a user that is not online has no effect.
+     */
+    @Test
+    public void testDestroyUnknownSession() throws Exception
+    {
+        // Setup fixture.
+        final OnlineUserIndex index = new OnlineUserIndex();
+        index.sessionCreated( session( "jane@example.org/a" ) );
+
+        // Execute system under test.
+        index.sessionDestroyed( session( "john@example.org/a" ) );
+
+        // Verify result.
+        assertTrue( index.isOnline( "jane@example.org" ) );
+        assertEquals( 1, index.getOnlineUsers().size() );
+    }
+}
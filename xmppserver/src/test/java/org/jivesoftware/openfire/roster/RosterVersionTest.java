@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.roster;
+
+import org.junit.Test;
+import org.xmpp.packet.JID;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the functionality of {@link Roster#getVersion()}.
+ */
+public class RosterVersionTest
+{
+    private static RosterItem item( final long id, final String jid, final RosterItem.SubType sub, final String... groups )
+    {
+        return new RosterItem( id, new JID( jid ), sub, RosterItem.ASK_NONE, RosterItem.RECV_NONE, "nick", Arrays.asList( groups ) );
+    }
+
+    private static Roster roster( final RosterItem... items )
+    {
+        final Roster roster = new Roster();
+        for ( final RosterItem item : items )
+        {
+            roster.rosterItems.put( item.getJid().toBareJID(), item );
+        }
+        return roster;
+    }
+
+    /**
+     * Verifies that a roster that is loaded again, in a different order, has the same version.
+     */
+    @Test
+    public void testSameContentSameVersion() throws Exception
+    {
+        // Setup fixture.
+        final Roster first = roster( item( 1, "john@example.org", RosterItem.SUB_BOTH, "Friends" ), item( 2, "jane@example.org", RosterItem.SUB_TO ) );
+        final Roster second = roster( item( 2, "jane@example.org", RosterItem.SUB_TO ), item( 1, "john@example.org", RosterItem.SUB_BOTH, "Friends" ) );
+
+        // Execute system under test & Verify result.
+        assertEquals( first.getVersion(), second.getVersion() );
+    }
+
+    /**
+     * Verifies that changing the subscription or the groups of an item changes the version.
+     */
+    @Test
+    public void testModifiedContentNewVersion() throws Exception
+    {
+        // Setup fixture.
+        final Roster original = roster( item( 1, "john@example.org", RosterItem.SUB_BOTH, "Friends" ) );
+
+        // Execute system under test & Verify result.
+        assertNotEquals( original.getVersion(), roster( item( 1, "john@example.org", RosterItem.SUB_TO, "Friends" ) ).getVersion() );
+        assertNotEquals( original.getVersion(), roster( item( 1, "john@example.org", RosterItem.SUB_BOTH, "Family" ) ).getVersion() );
+    }
+
+    /**
+     * Verifies that items that are not sent to the user, such as rejected subscription requests, do not change the version.
+     */
+    @Test
+    public void testItemsNotSentDoNotChangeVersion() throws Exception
+    {
+        // Setup fixture.
+        final RosterItem john = item( 1, "john@example.org", RosterItem.SUB_BOTH );
+        final RosterItem rejected = item( 2, "jane@example.org", RosterItem.SUB_NONE );
+
+        // Execute system under test & Verify result.
+        assertEquals( roster( john ).getVersion(), roster( john, rejected ).getVersion() );
+    }
+
+    /**
+     * Verifies that a version that is updated when items are added, modified and removed equals the version of a
+     * roster with the resulting items.
+     */
+    @Test
+    public void testUpdatedVersionEqualsComputedVersion() throws Exception
+    {
+        // Setup fixture.
+        final RosterItem john = item( 1, "john@example.org", RosterItem.SUB_BOTH, "Friends" );
+        final RosterItem jane = item( 2, "jane@example.org", RosterItem.SUB_TO );
+        final Roster roster = roster( john, jane );
+        final String original = roster.getVersion();
+
+        // Execute system under test.
+        final RosterItem jack = item( 3, "jack@example.org", RosterItem.SUB_FROM, "Work" );
+        roster.rosterItems.put( jack.getJid().toBareJID(), jack );
+        roster.updateVersion( jack.getJid().toBareJID() );
+        john.setSubStatus( RosterItem.SUB_TO );
+        roster.updateVersion( john.getJid().toBareJID() );
+        roster.rosterItems.remove( jane.getJid().toBareJID() );
+        roster.updateVersion( jane.getJid().toBareJID() );
+
+        // Verify result.
+        assertNotEquals( original, roster.getVersion() );
+        assertEquals( roster( item( 1, "john@example.org", RosterItem.SUB_TO, "Friends" ), item( 3, "jack@example.org", RosterItem.SUB_FROM, "Work" ) ).getVersion(), roster.getVersion() );
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.spi;
+
+import org.jivesoftware.openfire.session.LocalClientSession;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.xmpp.packet.JID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the functionality of the index of user routes in {@link LocalRoutingTable}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class LocalRoutingTableTest
+{
+    @Mock
+    private LocalClientSession sessionA;
+
+    @Mock
+    private LocalClientSession sessionB;
+
+    /**
+     * Verifies that routes to all resources of a user are returned.
+     */
+    @Test
+    public void testAddUserRoutes() throws Exception
+    {
+        // Setup fixture.
+        final LocalRoutingTable table = new LocalRoutingTable();
+
+        // Execute system under test.
+        table.addUserRoute( new JID( "john@example.org/a" ), sessionA, true );
+        table.addUserRoute( new JID( "john@example.org/b" ), sessionB, false );
+
+        // Verify result.
+        final LocalRoutingTable.UserRoute[] result = table.getUserRoutes( "john@example.org" );
+        assertEquals( 2, result.length );
+        assertSame( sessionA, table.getUserRoute( new JID( "john@example.org/a" ) ).getSession() );
+        assertTrue( table.getUserRoute( new JID( "john@example.org/a" ) ).isAvailable() );
+        assertFalse( table.getUserRoute( new JID( "john@example.org/b" ) ).isAvailable() );
+    }
+
+    /**
+     * Verifies that adding a route for a resource that already has a route replaces that route.
+     */
+    @Test
+    public void testUpdateUserRoute() throws Exception
+    {
+        // Setup fixture.
+        final LocalRoutingTable table = new LocalRoutingTable();
+        final JID address = new JID( "john@example.org/a" );
+        table.addUserRoute( address, sessionA, false );
+        final LocalRoutingTable.UserRoute[] before = table.getUserRoutes( "john@example.org" );
+
+        // Execute system under test.
+        table.addUserRoute( address, sessionA, true );
+
+        // Verify result.
+        assertEquals( 1, table.getUserRoutes( "john@example.org" ).length );
+        assertTrue( table.getUserRoute( address ).isAvailable() );
+        assertFalse( "Previously obtained arrays must not be modified.", before[0].isAvailable() );
+    }
+
+    /**
+     * Verifies that removing the last route of a user leaves no routes for that user.
+     */
+    @Test
+    public void testRemoveUserRoute() throws Exception
+    {
+        // Setup fixture.
+        final LocalRoutingTable table = new LocalRoutingTable();
+        table.addUserRoute( new JID( "john@example.org/a" ), sessionA, true );
+        table.addUserRoute( new JID( "john@example.org/b" ), sessionB, true );
+
+        // Execute system under test.
+        table.removeUserRoute( new JID( "john@example.org/a" ) );
+        final int afterFirst = table.getUserRoutes( "john@example.org" ).length;
+        table.removeUserRoute( new JID( "john@example.org/b" ) );
+
+        // Verify result.
+        assertEquals( 1, afterFirst );
+        assertEquals( 0, table.getUserRoutes( "john@example.org" ).length );
+        assertNull( table.getUserRoute( new JID( "john@example.org/a" ) ) );
+    }
+
+    /**
+     * Verifies that routes to addresses without a resource are not indexed.
+     */
+    @Test
+    public void testBareAddressNotIndexed() throws Exception
+    {
+        // Setup fixture.
+        final LocalRoutingTable table = new LocalRoutingTable();
+
+        // Execute system under test.
+        table.addUserRoute( new JID( "john@example.org" ), sessionA, true );
+
+        // Verify result.
+        assertEquals( 0, table.getUserRoutes( "john@example.org" ).length );
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.spi;
+
+import org.junit.Test;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Presence;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the functionality of {@link OfflinePresence}.
+ */
+public class OfflinePresenceTest
+{
+    private static final String XML = "<presence type=\"unavailable\"><status>Gone fishing</status></presence>";
+
+    /**
+     * Verifies that the status of the stored presence is available.
+     */
+    @Test
+    public void testStatus() throws Exception
+    {
+        // Setup fixture.
+        final OfflinePresence offlinePresence = new OfflinePresence( XML );
+
+        // Execute system under test.
+        final String result = offlinePresence.getStatus();
+
+        // Verify result.
+        assertEquals( "Gone fishing", result );
+    }
+
+    /**
+     * Verifies that modifying a returned presence does not modify the presence that is returned next.
+     */
+    @Test
+    public void testPresenceIsCopied() throws Exception
+    {
+        // Setup fixture.
+        final OfflinePresence offlinePresence = new OfflinePresence( XML );
+        final Presence first = offlinePresence.getPresence();
+        first.setTo( new JID( "john@example.org" ) );
+
+        // Execute system under test.
+        final Presence result = offlinePresence.getPresence();
+
+        // Verify result.
+        assertNull( result.getTo() );
+        assertEquals( Presence.Type.unavailable, result.getType() );
+    }
+
+    /**
+     * Verifies that an instance without XML has neither a presence nor a status, and equals other such instances.
+     */
+    @Test
+    public void testNoPresence() throws Exception
+    {
+        // Setup fixture.
+        final OfflinePresence offlinePresence = new OfflinePresence( null );
+
+        // Verify result.
+        assertNull( offlinePresence.getPresence() );
+        assertNull( offlinePresence.getStatus() );
+        assertEquals( new OfflinePresence( null ), offlinePresence );
+        assertNotEquals( new OfflinePresence( XML ), offlinePresence );
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.streammanagement;
+
+import org.junit.Test;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the functionality of {@link StreamManager.UnackedPacket}.
+ */
+public class UnackedPacketTest
+{
+    /**
+     * Verifies that a stored message is restored as an equivalent message, and that its size is that of its UTF-8 encoding.
+     */
+    @Test
+    public void testMessage() throws Exception
+    {
+        // Setup fixture.
+        final Message message = new Message();
+        message.setTo( new JID( "john@example.org/desktop" ) );
+        message.setFrom( new JID( "jane@example.org/mobile" ) );
+        message.setBody( "Hëllo wörld" );
+
+        // Execute system under test.
+        final StreamManager.UnackedPacket unacked = new StreamManager.UnackedPacket( 1, message );
+        final Packet result = unacked.getPacket();
+
+        // Verify result.
+        assertTrue( result instanceof Message );
+        assertEquals( message.toXML(), result.toXML() );
+        assertEquals( message.toXML().getBytes( StandardCharsets.UTF_8 ).length, unacked.getSize() );
+    }
+
+    /**
+     * Verifies that presence and IQ stanzas are restored with their original type.
+     */
+    @Test
+    public void testPacketTypes() throws Exception
+    {
+        assertTrue( new StreamManager.UnackedPacket( 1, new Presence() ).getPacket() instanceof Presence );
+        assertTrue( new StreamManager.UnackedPacket( 2, new IQ() ).getPacket() instanceof IQ );
+    }
+
+    /**
+     * Verifies that modifying a restored stanza does not modify the stanza that is restored next.
+     */
+    @Test
+    public void testRestoredPacketIsNew() throws Exception
+    {
+        // Setup fixture.
+        final StreamManager.UnackedPacket unacked = new StreamManager.UnackedPacket( 1, new Message() );
+        ( (Message) unacked.getPacket() ).setBody( "changed" );
+
+        // Execute system under test.
+        final Message result = (Message) unacked.getPacket();
+
+        // Verify result.
+        assertNull( result.getBody() );
+    }
+}
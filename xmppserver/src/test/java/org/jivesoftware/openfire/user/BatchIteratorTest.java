@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.user;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the functionality of {@link DefaultUserProvider.BatchIterator}.
+ */
+public class BatchIteratorTest
+{
+    /**
+     * Verifies that all items are returned in order, when the last batch is smaller than the batch size.
+     */
+    @Test
+    public void testPartialLastBatch() throws Exception
+    {
+        // Setup fixture.
+        final Source source = new Source( 3, "a", "b", "c", "d", "e", "f", "g" );
+
+        // Execute system under test.
+        final List<String> result = drain( source.iterator() );
+
+        // Verify result.
+        assertEquals( Arrays.asList( "a", "b", "c", "d", "e", "f", "g" ), result );
+        assertEquals( Arrays.asList( null, "c", "f", "g" ), source.keys );
+    }
+
+    /**
+     * Verifies that all items are returned in order, when the number of items is a multiple of the batch size.
+     */
+    @Test
+    public void testFullLastBatch() throws Exception
+    {
+        // Setup fixture.
+        final Source source = new Source( 3, "a", "b", "c", "d", "e", "f" );
+
+        // Execute system under test.
+        final List<String> result = drain( source.iterator() );
+
+        // Verify result.
+        assertEquals( Arrays.asList( "a", "b", "c", "d", "e", "f" ), result );
+        assertEquals( Arrays.asList( null, "c", "f" ), source.keys );
+    }
+
+    /**
+     * Verifies that iterating over an empty table returns nothing, after loading a single batch.
+     */
+    @Test
+    public void testEmpty() throws Exception
+    {
+        // Setup fixture.
+        final Source source = new Source( 3 );
+        final Iterator<String> iterator = source.iterator();
+
+        // Execute system under test.
+        final boolean hasNext = iterator.hasNext();
+
+        // Verify result.
+        assertFalse( hasNext );
+        assertEquals( Collections.singletonList( null ), source.keys );
+        try
+        {
+            iterator.next();
+            fail( "Expected a NoSuchElementException." );
+        }
+        catch ( NoSuchElementException e )
+        {
+            // Expected.
+        }
+    }
+
+    /**
+     * Verifies that an iterator that is abandoned early does not load batches beyond the items that were used.
+     */
+    @Test
+    public void testAbandonEarly() throws Exception
+    {
+        // Setup fixture.
+        final Source source = new Source( 3, "a", "b", "c", "d", "e", "f", "g" );
+        final Iterator<String> iterator = source.iterator();
+
+        // Execute system under test.
+        final String first = iterator.next();
+        final String second = iterator.next();
+
+        // Verify result.
+        assertEquals( "a", first );
+        assertEquals( "b", second );
+        assertEquals( Collections.singletonList( null ), source.keys );
+    }
+
+    private static List<String> drain( final Iterator<String> iterator )
+    {
+        final List<String> result = new ArrayList<>();
+        while ( iterator.hasNext() )
+        {
+            result.add( iterator.next() );
+        }
+        return result;
+    }
+
+    /**
+     * A sorted table of items, that is read in batches like the user table, and that records the keys after
+     * which each batch was requested.
+     */
+    private static class Source
+    {
+        private final int batchSize;
+        private final List<String> items;
+        private final List<String> keys = new ArrayList<>();
+
+        Source( final int batchSize, final String... items )
+        {
+            this.batchSize = batchSize;
+            this.items = Arrays.asList( items );
+        }
+
+        Iterator<String> iterator()
+        {
+            return new DefaultUserProvider.BatchIterator<>( this::loadAfter, Function.identity() );
+        }
+
+        private List<String> loadAfter( final String after )
+        {
+            keys.add( after );
+            final List<String> result = new ArrayList<>();
+            for ( final String item : items )
+            {
+                if ( ( after == null || item.compareTo( after ) > 0 ) && result.size() < batchSize )
+                {
+                    result.add( item );
+                }
+            }
+            return result;
+        }
+    }
+}
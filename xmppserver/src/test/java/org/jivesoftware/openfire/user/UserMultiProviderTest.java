@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.user;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests that verify the functionality of {@link UserMultiProvider}.
+ */
+public class UserMultiProviderTest
+{
+    /**
+     * Verifies that the usernames of all backing providers are returned, one provider after another, including when a
+     * provider has no users.
+     */
+    @Test
+    public void testIterateUsernamesConcatenatesProviders() throws Exception
+    {
+        // Setup fixture.
+        final UserProvider first = provider( "a", "b" );
+        final UserProvider empty = provider();
+        final UserProvider last = provider( "c" );
+        final UserMultiProvider multiProvider = multiProvider( first, empty, last );
+
+        // Execute system under test.
+        final List<String> result = new ArrayList<>();
+        multiProvider.iterateUsernames( 10 ).forEachRemaining( result::add );
+
+        // Verify result.
+        assertEquals( Arrays.asList( "a", "b", "c" ), result );
+    }
+
+    /**
+     * Verifies that the users of a provider are not requested until the users of the previous providers have been
+     * iterated over, so that an iteration that is abandoned early does not query all providers.
+     */
+    @Test
+    public void testIterateUsernamesIsLazy() throws Exception
+    {
+        // Setup fixture.
+        final UserProvider first = provider( "a", "b" );
+        final UserProvider last = provider( "c" );
+        final UserMultiProvider multiProvider = multiProvider( first, last );
+
+        // Execute system under test.
+        final Iterator<String> iterator = multiProvider.iterateUsernames( 10 );
+        final String result = iterator.next();
+
+        // Verify result.
+        assertEquals( "a", result );
+        verify( last, never() ).iterateUsernames( anyInt() );
+    }
+
+    private static UserProvider provider( final String... usernames )
+    {
+        final UserProvider provider = mock( UserProvider.class );
+        when( provider.iterateUsernames( anyInt() ) ).thenReturn( Arrays.asList( usernames ).iterator() );
+        return provider;
+    }
+
+    /**
+     * Creates a multi provider that is backed by a fixed list of providers.
+     */
+    private static UserMultiProvider multiProvider( final UserProvider... providers )
+    {
+        final UserMultiProvider result = mock( UserMultiProvider.class, CALLS_REAL_METHODS );
+        doReturn( Arrays.asList( providers ) ).when( result ).getUserProviders();
+        return result;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.user;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the functionality of {@link UserSearchIndex}.
+ */
+public class UserSearchIndexTest
+{
+    private static final Set<String> USERNAME = Collections.singleton( "Username" );
+    private static final Set<String> NAME = Collections.singleton( "Name" );
+
+    private UserSearchIndex index;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        index = new UserSearchIndex();
+        index.load( "john", "John Doe", "john@example.org" );
+        index.load( "jane", "Jane Doe", "jane@example.com" );
+        index.load( "matt", "Matt Smith", null );
+        index.setLoaded();
+    }
+
+    /**
+     * Verifies that a query matches any part of a value, case-insensitively.
+     */
+    @Test
+    public void testSubstringMatch() throws Exception
+    {
+        // Execute system under test.
+        final List<String> result = index.findUsernames( NAME, "DOE", 0, Integer.MAX_VALUE );
+
+        // Verify result.
+        assertEquals( Arrays.asList( "jane", "john" ), result );
+    }
+
+    /**
+     * Verifies that the asterisk is treated as a wildcard, also for parts that are shorter than a trigram.
+     */
+    @Test
+    public void testWildcards() throws Exception
+    {
+        // Execute system under test.
+        final List<String> trigrams = index.findUsernames( NAME, "jo*doe", 0, Integer.MAX_VALUE );
+        final List<String> shortSegments = index.findUsernames( USERNAME, "j*n", 0, Integer.MAX_VALUE );
+        final List<String> reversed = index.findUsernames( NAME, "doe*john", 0, Integer.MAX_VALUE );
+
+        // Verify result.
+        assertEquals( Collections.singletonList( "john" ), trigrams );
+        assertEquals( Arrays.asList( "jane", "john" ), shortSegments );
+        assertTrue( reversed.isEmpty() );
+    }
+
+    /**
+     * Verifies that a user must match on all requested fields.
+     */
+    @Test
+    public void testAllFieldsMustMatch() throws Exception
+    {
+        // Execute system under test.
+        final List<String> result = index.findUsernames( new HashSet<>( Arrays.asList( "Name", "Email" ) ), "*", 0, Integer.MAX_VALUE );
+
+        // Verify result.
+        assertEquals( Arrays.asList( "jane", "john" ), result );
+    }
+
+    /**
+     * Verifies that results can be paged through.
+     */
+    @Test
+    public void testPaging() throws Exception
+    {
+        // Execute system under test.
+        final List<String> first = index.findUsernames( USERNAME, "*", 0, 2 );
+        final List<String> second = index.findUsernames( USERNAME, "*", 2, 2 );
+
+        // Verify result.
+        assertEquals( Arrays.asList( "jane", "john" ), first );
+        assertEquals( Collections.singletonList( "matt" ), second );
+    }
+
+    /**
+     * Verifies that modified values are re-indexed, and that deleted users are no longer found.
+     */
+    @Test
+    public void testUpdateAndDelete() throws Exception
+    {
+        // Execute system under test.
+        index.update( "john", "Johnny Walker", "john@example.org" );
+        index.delete( "jane" );
+
+        // Verify result.
+        assertTrue( index.findUsernames( NAME, "doe", 0, Integer.MAX_VALUE ).isEmpty() );
+        assertEquals( Collections.singletonList( "john" ), index.findUsernames( NAME, "walk", 0, Integer.MAX_VALUE ) );
+    }
+
+    /**
+     * Verifies that a query that is selective among many users is answered by intersecting the
+     * indexed users, also after identifiers of deleted users have been reused.
+     */
+    @Test
+    public void testSelectiveQueryAmongManyUsers() throws Exception
+    {
+        // Setup fixture.
+        for ( int i = 0; i < 100; i++ )
+        {
+            index.update( String.format( "user%03d", i ), "User " + i, null );
+        }
+        index.delete( "user042" );
+        index.update( "zoe", "Zoe Doe", null ); // Reuses the identifier of the deleted user.
+
+        // Execute system under test.
+        final List<String> result = index.findUsernames( NAME, "doe", 0, Integer.MAX_VALUE );
+        final List<String> page = index.findUsernames( NAME, "doe", 1, 1 );
+
+        // Verify result.
+        assertEquals( Arrays.asList( "jane", "john", "zoe" ), result );
+        assertEquals( Collections.singletonList( "john" ), page );
+    }
+
+    /**
+     * Verifies that a query without trigrams returns a page of results in username order.
+     */
+    @Test
+    public void testQueryWithoutTrigramsAmongManyUsers() throws Exception
+    {
+        // Setup fixture.
+        for ( int i = 99; i >= 0; i-- )
+        {
+            index.update( String.format( "user%03d", i ), "User " + i, null );
+        }
+
+        // Execute system under test.
+        final List<String> result = index.findUsernames( USERNAME, "u*9", 9, 3 );
+
+        // Verify result.
+        assertEquals( Arrays.asList( "user090", "user091", "user092" ), result );
+    }
+
+    /**
+     * Verifies that loading does not overwrite users that were modified or deleted while the index was loading.
+     */
+    @Test
+    public void testChangesWhileLoading() throws Exception
+    {
+        // Setup fixture.
+        final UserSearchIndex loading = new UserSearchIndex();
+        loading.update( "john", "Johnny Walker", null );
+        loading.delete( "jane" );
+
+        // Execute system under test.
+        loading.load( "john", "John Doe", null );
+        loading.load( "jane", "Jane Doe", null );
+        loading.setLoaded();
+
+        // Verify result.
+        assertTrue( loading.findUsernames( NAME, "doe", 0, Integer.MAX_VALUE ).isEmpty() );
+        assertEquals( 1, loading.size() );
+    }
+}
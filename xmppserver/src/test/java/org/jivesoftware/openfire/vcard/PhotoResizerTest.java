@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.vcard;
+
+import org.jivesoftware.Fixtures;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the functionality of {@link PhotoResizer}.
+ */
+public class PhotoResizerTest
+{
+    @BeforeClass
+    public static void setUpClass() throws Exception
+    {
+        Fixtures.reconfigureOpenfireHome();
+    }
+
+    private static byte[] png( final int width, final int height ) throws Exception
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write( new BufferedImage( width, height, BufferedImage.TYPE_INT_RGB ), "png", out );
+        return out.toByteArray();
+    }
+
+    /**
+     * Verifies that an image that is larger than the target dimension is cropped and shrunk.
+     */
+    @Test
+    public void testCropAndShrink() throws Exception
+    {
+        // Setup fixture.
+        final byte[] original = png( 200, 100 );
+
+        // Execute system under test.
+        final byte[] result = PhotoResizer.cropAndShrink( original, 50, ImageIO.getImageWritersByMIMEType( "image/png" ).next() );
+
+        // Verify result.
+        final BufferedImage image = ImageIO.read( new ByteArrayInputStream( result ) );
+        assertEquals( 50, image.getWidth() );
+        assertEquals( 50, image.getHeight() );
+    }
+
+    /**
+     * Verifies that the dimensions of an image are read, and that data that is not an image is rejected.
+     */
+    @Test
+    public void testAcceptableDimensions() throws Exception
+    {
+        // Execute system under test.
+        final boolean image = PhotoResizer.hasAcceptableDimensions( png( 200, 100 ) );
+        final boolean oversized = PhotoResizer.hasAcceptableDimensions( png( 4097, 4096 ) );
+        final boolean garbage = PhotoResizer.hasAcceptableDimensions( new byte[] { 1, 2, 3 } );
+
+        // Verify result.
+        assertTrue( image );
+        assertFalse( oversized );
+        assertFalse( garbage );
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.websocket;
+
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests that verify the functionality of {@link XmppWebSocket} in streaming mode.
+ */
+public class XmppWebSocketTest
+{
+    private Session session;
+    private RemoteEndpoint remote;
+    private XmppWebSocket socket;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        remote = mock( RemoteEndpoint.class );
+        session = mock( Session.class );
+        when( session.isOpen() ).thenReturn( true );
+        when( session.getRemote() ).thenReturn( remote );
+        when( session.getRemoteAddress() ).thenReturn( new InetSocketAddress( "127.0.0.1", 5222 ) );
+
+        socket = new XmppWebSocket();
+        socket.onConnect( session );
+    }
+
+    /**
+     * Verifies that stanzas that are queued while a write is in progress are written, followed by the closing frame,
+     * before the socket is closed.
+     */
+    @Test
+    public void testQueuedStanzasAreWrittenBeforeClose() throws Exception
+    {
+        // Setup fixture.
+        final ArgumentCaptor<WriteCallback> callbacks = ArgumentCaptor.forClass( WriteCallback.class );
+        socket.deliver( "<message id='1'/>" );
+        socket.deliver( "<message id='2'/>" );
+
+        // Execute system under test.
+        socket.closeSession();
+
+        // Verify result.
+        verify( session, never() ).close();
+        verify( remote, times( 1 ) ).sendString( anyString(), callbacks.capture() );
+        callbacks.getValue().writeSuccess();
+
+        verify( remote, times( 3 ) ).sendString( anyString(), callbacks.capture() );
+        verify( session, never() ).close();
+        final List<WriteCallback> pending = callbacks.getAllValues();
+        pending.get( pending.size() - 1 ).writeSuccess();
+        pending.get( pending.size() - 2 ).writeSuccess();
+
+        final InOrder inOrder = inOrder( remote, session );
+        inOrder.verify( remote ).sendString( eq( "<message id='1'/>" ), any( WriteCallback.class ) );
+        inOrder.verify( remote ).sendString( eq( "<message id='2'/>" ), any( WriteCallback.class ) );
+        inOrder.verify( remote ).sendString( eq( "<close xmlns='urn:ietf:params:xml:ns:xmpp-framing'/>" ), any( WriteCallback.class ) );
+        inOrder.verify( session ).close();
+        assertFalse( socket.isWebSocketOpen() );
+    }
+
+    /**
+     * Verifies that a failed write closes the socket.
+     */
+    @Test
+    public void testFailedWriteClosesSocket() throws Exception
+    {
+        // Setup fixture.
+        final ArgumentCaptor<WriteCallback> callbacks = ArgumentCaptor.forClass( WriteCallback.class );
+        socket.deliver( "<message id='1'/>" );
+        socket.deliver( "<message id='2'/>" );
+        verify( remote ).sendString( anyString(), callbacks.capture() );
+
+        // Execute system under test.
+        callbacks.getValue().writeFailed( new java.io.IOException( "broken pipe" ) );
+
+        // Verify result.
+        verify( session ).close();
+        verify( remote, times( 1 ) ).sendString( anyString(), any( WriteCallback.class ) );
+        assertFalse( socket.isWebSocketOpen() );
+    }
+}
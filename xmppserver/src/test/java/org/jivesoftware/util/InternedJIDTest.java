@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.util;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the functionality of {@link InternedJID}.
+ */
+public class InternedJIDTest
+{
+    /**
+     * Verifies that an interned JID can be used in place of a plain JID with the same value, and vice versa.
+     */
+    @Test
+    public void testEqualToPlainJID() throws Exception
+    {
+        // Setup fixture.
+        final JID plain = new JID( "john@example.org/desktop" );
+
+        // Execute system under test.
+        final InternedJID interned = InternedJID.of( "john@example.org/desktop" );
+
+        // Verify result.
+        assertEquals( plain, interned );
+        assertEquals( interned, plain );
+        assertEquals( plain.hashCode(), interned.hashCode() );
+        assertEquals( plain.toString(), interned.toString() );
+        assertEquals( plain.toBareJID(), interned.toBareJID() );
+
+        final Map<JID, String> map = new HashMap<>();
+        map.put( plain, "value" );
+        assertEquals( "value", map.get( interned ) );
+    }
+
+    /**
+     * Verifies that the same instance is returned for equal JIDs, regardless of how they were requested.
+     */
+    @Test
+    public void testCanonicalInstance() throws Exception
+    {
+        // Execute system under test.
+        final InternedJID fromString = InternedJID.of( "jane@example.org/mobile" );
+        final InternedJID fromParts = InternedJID.of( "jane", "example.org", "mobile" );
+        final InternedJID fromJID = InternedJID.of( new JID( "jane@example.org/mobile" ) );
+        final InternedJID unprepped = InternedJID.of( "Jane@Example.org/mobile" );
+
+        // Verify result.
+        assertSame( fromString, fromParts );
+        assertSame( fromString, fromJID );
+        assertSame( fromString, unprepped );
+        assertSame( fromString, InternedJID.of( fromString ) );
+    }
+
+    /**
+     * Verifies that the bare JID view is interned too, and that a bare JID is its own bare view.
+     */
+    @Test
+    public void testBareJID() throws Exception
+    {
+        // Setup fixture.
+        final InternedJID full = InternedJID.of( "jack@example.org/desktop" );
+
+        // Execute system under test.
+        final InternedJID bare = full.asBareJID();
+
+        // Verify result.
+        assertEquals( new JID( "jack@example.org" ), bare );
+        assertNull( bare.getResource() );
+        assertSame( bare, full.asBareJID() );
+        assertSame( bare, bare.asBareJID() );
+        assertSame( bare, InternedJID.of( "jack@example.org" ) );
+        assertSame( full.toBareJID(), full.toBareJID() );
+    }
+
+    /**
+     * Verifies that invalid JIDs are rejected.
+     */
+    @Test( expected = IllegalArgumentException.class )
+    public void testInvalid() throws Exception
+    {
+        InternedJID.of( "john doe@example.org" );
+    }
+
+    /**
+     * Compares the memory that is allocated when the routing code looks up the bare and full JID of an address that is
+     * parsed from its string representation, which happens for every session of a user for every routed stanza.
+     */
+    @Test
+    public void testAllocation() throws Exception
+    {
+        // Setup fixture.
+        Assume.assumeTrue( ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean );
+        final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue( bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled() );
+        final String address = "john@example.org/desktop";
+        final int iterations = 100000;
+        int sink = 0;
+        for ( int i = 0; i < iterations; i++ ) // warm-up
+        {
+            sink += new JID( address ).toBareJID().length() + InternedJID.of( address ).toBareJID().length();
+        }
+
+        // Execute system under test.
+        final long threadId = Thread.currentThread().getId();
+        final long start = bean.getThreadAllocatedBytes( threadId );
+        for ( int i = 0; i < iterations; i++ )
+        {
+            final JID jid = new JID( address );
+            sink += jid.toBareJID().hashCode() + jid.toString().hashCode();
+        }
+        final long plain = bean.getThreadAllocatedBytes( threadId ) - start;
+
+        final long middle = bean.getThreadAllocatedBytes( threadId );
+        for ( int i = 0; i < iterations; i++ )
+        {
+            final JID jid = InternedJID.of( address );
+            sink += jid.toBareJID().hashCode() + jid.toString().hashCode();
+        }
+        final long interned = bean.getThreadAllocatedBytes( threadId ) - middle;
+
+        // Verify result.
+        assertTrue( sink != 0 );
+        assertTrue( "Interned JIDs allocated " + interned + " bytes, plain JIDs allocated " + plain + " bytes.", interned * 10 < plain );
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2019 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.util.cache;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.junit.Test;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that verify the implementation of {@link BinaryXmlCodec}, and compare it with Java serialization of
+ * dom4j elements (which is what cluster tasks used before).
+ */
+public class BinaryXmlCodecTest
+{
+    private static final String MESSAGE = "<message xmlns=\"jabber:client\" from=\"room@conference.example.org/nick\" " +
+        "to=\"user@example.org/resource\" type=\"groupchat\" id=\"a1b2c3\" xml:lang=\"en\">" +
+        "<body>Hello &amp; welcome, éè 😀</body>" +
+        "<x xmlns=\"jabber:x:event\"><composing/></x>" +
+        "<stanza-id xmlns=\"urn:xmpp:sid:0\" id=\"5f0c1d\" by=\"room@conference.example.org\"/>" +
+        "<custom xmlns=\"urn:example:custom\" xmlns:ex=\"urn:example:extra\" ex:flag=\"true\"><![CDATA[<raw>]]></custom>" +
+        "</message>";
+
+    private static final String PRESENCE = "<presence xmlns=\"jabber:client\" from=\"room@conference.example.org/nick\" " +
+        "to=\"user@example.org/resource\"><show>away</show><status>Out to lunch</status><priority>5</priority>" +
+        "<c xmlns=\"http://jabber.org/protocol/caps\" hash=\"sha-1\" node=\"https://example.org\" ver=\"QgayPKawpkPSDYmwT/WM94uAlu0=\"/>" +
+        "<x xmlns=\"http://jabber.org/protocol/muc#user\"><item affiliation=\"member\" role=\"participant\" jid=\"user@example.org/resource\"/>" +
+        "<status code=\"110\"/></x></presence>";
+
+    /**
+     * Verifies that a message survives a round trip through the codec unchanged.
+     */
+    @Test
+    public void testRoundTripMessage() throws Exception
+    {
+        // Setup fixture.
+        final Element input = DocumentHelper.parseText( MESSAGE ).getRootElement();
+
+        // Execute system under test.
+        final Element result = BinaryXmlCodec.readElement( new DataInputStream( new ByteArrayInputStream( encode( input ) ) ) );
+
+        // Verify result.
+        assertEquals( input.asXML(), result.asXML() );
+    }
+
+    /**
+     * Verifies that a presence survives a round trip through the codec unchanged.
+     */
+    @Test
+    public void testRoundTripPresence() throws Exception
+    {
+        // Setup fixture.
+        final Element input = DocumentHelper.parseText( PRESENCE ).getRootElement();
+
+        // Execute system under test.
+        final Element result = BinaryXmlCodec.readElement( new DataInputStream( new ByteArrayInputStream( encode( input ) ) ) );
+
+        // Verify result.
+        assertEquals( input.asXML(), result.asXML() );
+    }
+
+    /**
+     * Verifies that stanzas read through {@link ExternalizableUtil#readPacket(java.io.DataInput)} are of the original type.
+     */
+    @Test
+    public void testReadPacket() throws Exception
+    {
+        // Setup fixture.
+        final Presence input = new Presence( DocumentHelper.parseText( PRESENCE ).getRootElement() );
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ExternalizableUtil.getInstance().writePacket( new DataOutputStream( bytes ), input );
+
+        // Execute system under test.
+        final Packet result = ExternalizableUtil.getInstance().readPacket( new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) );
+
+        // Verify result.
+        assertTrue( result instanceof Presence );
+        assertEquals( input.toXML(), result.toXML() );
+    }
+
+    /**
+     * Verifies that data of an unknown format version is rejected.
+     */
+    @Test( expected = StreamCorruptedException.class )
+    public void testRejectsUnknownVersion() throws Exception
+    {
+        BinaryXmlCodec.readElement( new DataInputStream( new ByteArrayInputStream( new byte[] { (byte) ( BinaryXmlCodec.VERSION + 1 ), 0 } ) ) );
+    }
+
+    /**
+     * Verifies that the variable-length integer encoding covers the full range of non-negative integers.
+     */
+    @Test
+    public void testVarInt() throws Exception
+    {
+        for ( final int value : new int[] { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE } )
+        {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            BinaryXmlCodec.writeVarInt( new DataOutputStream( bytes ), value );
+            assertEquals( value, BinaryXmlCodec.readVarInt( new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) ) );
+        }
+    }
+
+    /**
+     * Verifies that the codec produces a payload that is less than half the size of the Java serialization of the
+     * same element.
+     */
+    @Test
+    public void testCompareWithJavaSerialization() throws Exception
+    {
+        // Setup fixture.
+        final Element input = new Message( DocumentHelper.parseText( MESSAGE ).getRootElement() ).getElement();
+
+        // Execute system under test.
+        final byte[] binary = encode( input );
+        final byte[] serialized = serialize( input );
+
+        // Verify result.
+        assertTrue( "Binary XML codec: " + binary.length + " bytes, Java serialization: " + serialized.length + " bytes.", binary.length * 2 < serialized.length );
+        assertEquals( input.asXML(), BinaryXmlCodec.readElement( new DataInputStream( new ByteArrayInputStream( binary ) ) ).asXML() );
+    }
+
+    /**
+     * Verifies that encoding and decoding an element with the codec takes less time than doing so with Java
+     * serialization. The comparison is relative, and uses the fastest of several rounds of each, so that it does not
+     * depend on the speed of the environment that runs the test.
+     */
+    @Test
+    public void testFasterThanJavaSerialization() throws Exception
+    {
+        // Setup fixture.
+        final Element input = new Message( DocumentHelper.parseText( MESSAGE ).getRootElement() ).getElement();
+        final int rounds = 5;
+        final int iterations = 500;
+
+        // Execute system under test.
+        long binaryNanos = Long.MAX_VALUE;
+        long serializedNanos = Long.MAX_VALUE;
+        for ( int round = 0; round < rounds; round++ )
+        {
+            long start = System.nanoTime();
+            for ( int i = 0; i < iterations; i++ )
+            {
+                BinaryXmlCodec.readElement( new DataInputStream( new ByteArrayInputStream( encode( input ) ) ) );
+            }
+            binaryNanos = Math.min( binaryNanos, System.nanoTime() - start );
+
+            start = System.nanoTime();
+            for ( int i = 0; i < iterations; i++ )
+            {
+                new ObjectInputStream( new ByteArrayInputStream( serialize( input ) ) ).readObject();
+            }
+            serializedNanos = Math.min( serializedNanos, System.nanoTime() - start );
+        }
+
+        // Verify result.
+        assertTrue( "Binary XML codec: " + ( binaryNanos / iterations ) + " ns, Java serialization: " + ( serializedNanos / iterations ) + " ns per encode/decode.", binaryNanos < serializedNanos );
+    }
+
+    private static byte[] encode( final Element element ) throws Exception
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryXmlCodec.writeElement( new DataOutputStream( bytes ), element );
+        return bytes.toByteArray();
+    }
+
+    private static byte[] serialize( final Element element ) throws Exception
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try ( final ObjectOutputStream out = new ObjectOutputStream( bytes ) )
+        {
+            out.writeObject( element );
+        }
+        return bytes.toByteArray();
+    }
+}